@@ -63,13 +63,13 @@ import org.eclipse.tcf.services.IExpressions.Value;
 import org.eclipse.tcf.services.ILineNumbers;
 import org.eclipse.tcf.services.ILineNumbers.CodeArea;
 import org.eclipse.tcf.services.ILineNumbers.DoneMapToSource;
-import org.eclipse.tcf.services.IMemory.MemoryError;
 import org.eclipse.tcf.services.IMemory;
 import org.eclipse.tcf.services.IRunControl;
 import org.eclipse.tcf.services.IRunControl.RunControlContext;
 import org.eclipse.tcf.services.IRunControl.RunControlListener;
 import org.eclipse.tcf.services.ISymbols;
 import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFMemoryCache;
 import org.eclipse.tcf.util.TCFTask;
 import org.eclipse.ui.PlatformUI;
 
@@ -633,15 +633,12 @@ public class TCFDisassemblyBackend extends AbstractDisassemblyBackend {
                     done_code = true;
                 }
                 if (!done_code) {
-                    code = new byte[range.end.subtract(range.start).intValue()];
-                    mem.get(range.start, 1, code, 0, code.length, 0, new IMemory.DoneMemory() {
-                        @Override
-                        public void doneMemory(IToken token, MemoryError error) {
-                            done_code = true;
-                            run();
-                        }
-                    });
-                    return;
+                    TCFMemoryCache mem_cache = fMemoryContext.getMemoryCache();
+                    int size = range.end.subtract(range.start).intValue();
+                    if (!mem_cache.validate(range.start, size, this)) return;
+                    code = new byte[size];
+                    mem_cache.read(range.start, code, 0, size, null);
+                    done_code = true;
                 }
                 fCallback.asyncExec(new Runnable() {
                     public void run() {
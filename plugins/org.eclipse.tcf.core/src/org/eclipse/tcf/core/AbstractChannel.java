@@ -11,11 +11,19 @@
 package org.eclipse.tcf.core;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.eclipse.tcf.internal.core.ServiceManager;
 import org.eclipse.tcf.internal.core.Token;
@@ -53,6 +61,19 @@ public abstract class AbstractChannel implements IChannel {
         public void onChannelClosed(Throwable error);
     }
 
+    /**
+     * Trace listener that receives message data as ByteBuffer, without copying it into a byte array.
+     * The buffer content must not be modified.
+     */
+    public interface BufferTraceListener extends TraceListener {
+
+        public void onMessageReceived(char type, String token,
+                String service, String name, ByteBuffer data);
+
+        public void onMessageSent(char type, String token,
+                String service, String name, ByteBuffer data);
+    }
+
     public interface Proxy {
 
         public void onCommand(IToken token, String service, String name, byte[] data);
@@ -62,15 +83,121 @@ public abstract class AbstractChannel implements IChannel {
         public void onChannelClosed(Throwable error);
     }
 
+    /**
+     * Channel proxy that receives message data as ByteBuffer, without copying it into a byte array.
+     * The buffer can be forwarded to another channel as is.
+     */
+    public interface BufferProxy extends Proxy {
+
+        public void onCommand(IToken token, String service, String name, ByteBuffer data);
+
+        public void onEvent(String service, String name, ByteBuffer data);
+    }
+
+    /**
+     * Command listener that receives results as ByteBuffer, without copying it into a byte array.
+     * The buffer of a large result is a view of the channel input buffer, which is shared with other messages.
+     * Clients can keep a reference to the buffer, but must not modify its content.
+     */
+    public interface BufferCommandListener extends IChannel.ICommandListener {
+
+        void progress(IToken token, ByteBuffer data);
+
+        void result(IToken token, ByteBuffer data);
+    }
+
+    /**
+     * WindowedCommandListener is a marker interface for listeners of commands that are
+     * subject to the channel command window. Such commands are held by the channel
+     * while the window is full, see setCommandWindow().
+     * Other commands are always sent immediately and are not counted in the window,
+     * so commands that can wait on the remote peer indefinitely, e.g. Streams.read,
+     * must not use this interface.
+     */
+    public interface WindowedCommandListener extends IChannel.ICommandListener {
+    }
+
+    /**
+     * DecodingCommandListener is a command listener that decodes command result data
+     * on the channel receiver thread, so the dispatch thread only gets decoded objects.
+     * If the channel does not decode the data, e.g. because decoding is disabled,
+     * BufferCommandListener.result() is called as usual.
+     */
+    public interface DecodingCommandListener extends BufferCommandListener {
+
+        /**
+         * Decode command result data.
+         * Called by the channel receiver thread, the method must be thread safe.
+         * @param token - command handle.
+         * @param data - command result data.
+         * @return decoded result.
+         * @throws Exception
+         */
+        Object[] decodeResult(IToken token, ByteBuffer data) throws Exception;
+
+        /**
+         * Called by dispatch thread when the result data is decoded.
+         * @param token - command handle.
+         * @param args - decoded result, null if decoding failed.
+         * @param error - decoding error or null.
+         */
+        void result(IToken token, Object[] args, Exception error);
+    }
+
+    /**
+     * EventDecoder decodes event data of a service on the channel receiver thread,
+     * see setEventDecoder(). Implementation must be thread safe.
+     */
+    public interface EventDecoder {
+
+        /**
+         * Decode event data.
+         * @param name - event name.
+         * @param data - event data.
+         * @return decoded event arguments, or null if the event should be delivered as raw data.
+         * @throws Exception
+         */
+        Object[] decode(String name, ByteBuffer data) throws Exception;
+    }
+
+    /**
+     * DecodedEventListener receives events that were decoded by the service EventDecoder.
+     * Events that have no decoded arguments are delivered by IEventListener.event() as usual.
+     */
+    public interface DecodedEventListener extends IChannel.IEventListener {
+
+        /**
+         * Called by dispatch thread when an event is received.
+         * @param name - event name.
+         * @param args - event arguments, as returned by EventDecoder.
+         * The arguments are shared by all listeners of the event, and must not be modified.
+         */
+        void event(String name, Object[] args);
+    }
+
     private static class Message {
+        private static final AtomicIntegerFieldUpdater<Message> status_updater =
+            AtomicIntegerFieldUpdater.newUpdater(Message.class, "status");
+
         final char type;
         Token token;
         String service;
         String name;
-        byte[] data;
+        ByteBuffer data;
+        byte[] data_bytes;
+
+        /* Data decoded by receiver thread, see decode() */
+        boolean decoded;
+        Object[] args;
+        Exception args_error;
+
+        /* Transmission status: 0 - queued, 1 - sent, 2 - canceled */
+        volatile int status;
 
-        boolean is_sent;
-        boolean is_canceled;
+        /* Command window state: true if the command is counted as in flight,
+         * time is set by transmitter when the command is sent */
+        boolean inflight;
+        volatile long time;
 
         Collection<TraceListener> trace;
 
@@ -78,6 +205,30 @@ public abstract class AbstractChannel implements IChannel {
             this.type = type;
         }
 
+        /* Called by transmitter, returns false if the message is canceled */
+        boolean setSent() {
+            return status_updater.compareAndSet(this, 0, 1);
+        }
+
+        /* Called by dispatch thread, returns false if the message is already sent */
+        boolean setCanceled() {
+            return status_updater.compareAndSet(this, 0, 2);
+        }
+
+        byte[] getData() {
+            if (data_bytes == null && data != null) {
+                if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0 &&
+                        data.remaining() == data.array().length) {
+                    data_bytes = data.array();
+                }
+                else {
+                    data_bytes = new byte[data.remaining()];
+                    data.duplicate().get(data_bytes);
+                }
+            }
+            return data_bytes;
+        }
+
         @Override
         public String toString() {
             try {
@@ -96,6 +247,7 @@ public abstract class AbstractChannel implements IChannel {
                     bf.append(' ');
                     bf.append(name);
                 }
+                byte[] data = getData();
                 if (data != null) {
                     int i = 0;
                     while (i < data.length) {
@@ -121,13 +273,22 @@ public abstract class AbstractChannel implements IChannel {
     private final Map<Class<?>,IService> remote_service_by_class = new HashMap<Class<?>,IService>();
     private final Map<String,IService> local_service_by_name = new HashMap<String,IService>();
     private final Map<String,IService> remote_service_by_name = new HashMap<String,IService>();
-    private final LinkedList<Message> out_queue = new LinkedList<Message>();
+    private final Queue<Message> out_queue = new ConcurrentLinkedQueue<Message>();
+    private final AtomicReference<Message> out_congestion = new AtomicReference<Message>();
+    private final AtomicReference<Message> out_window = new AtomicReference<Message>();
+    private final Object out_eos_lock = new Object();
+    private volatile boolean out_eos;
+    private volatile boolean out_eos_sent;
+    private volatile boolean out_waiting;
     private final Collection<IChannelListener> channel_listeners = new ArrayList<IChannelListener>();
     private final Map<String,IChannel.IEventListener[]> event_listeners = new HashMap<String,IChannel.IEventListener[]>();
     private final Map<String,IChannel.ICommandServer> command_servers = new HashMap<String,IChannel.ICommandServer>();
-    private final Map<String,Message> out_tokens = new HashMap<String,Message>();
-    private final Thread inp_thread;
-    private final Thread out_thread;
+    private final Map<String,EventDecoder> event_decoders = new ConcurrentHashMap<String,EventDecoder>();
+    /* Concurrent, since receiver thread looks up commands to decode their results */
+    private final Map<String,Message> out_tokens = new ConcurrentHashMap<String,Message>();
+    private Thread inp_thread;
+    private Thread out_thread;
+    private boolean event_driven;
     private boolean notifying_channel_opened;
     private boolean registered_with_trasport;
     private int state = STATE_OPENING;
@@ -136,14 +297,92 @@ public abstract class AbstractChannel implements IChannel {
     private IPeer remote_peer;
     private Proxy proxy;
     private boolean zero_copy;
+    private boolean compression;
+    private boolean flow_control_enabled = Boolean.getBoolean("org.eclipse.tcf.core.flow_control");
+    private volatile boolean flow_control;
+    private boolean binary_encoding_enabled = Boolean.getBoolean("org.eclipse.tcf.core.binary_encoding");
+    private boolean binary_encoding;
+    private volatile boolean decode_enabled = Boolean.getBoolean("org.eclipse.tcf.core.receiver_decode");
+
+    /* Credit based flow control: message and byte counts are cumulative since the channel start.
+     * Transmitter counts sent messages, receiver counts messages handled by the dispatch thread
+     * and periodically reports the counts back in 'W' messages.
+     * Sender keeps (sent - acknowledged) below window size.
+     */
+    private static final int FLOW_CONTROL_WINDOW_MSGS = 256;
+    private static final int FLOW_CONTROL_WINDOW_BYTES = 0x100000;
+    private volatile long out_sent_msgs;
+    private volatile long out_sent_bytes;
+    private volatile long out_acked_msgs;
+    private volatile long out_acked_bytes;
+    private long inp_handled_msgs;
+    private long inp_handled_bytes;
+    private long inp_acked_msgs;
+    private long inp_acked_bytes;
 
     private static final int pending_command_limit = 32;
+
+    /* Command window: the number of windowed commands that are sent and are waiting for results.
+     * Only commands with WindowedCommandListener are counted, e.g. chunks of a bulk transfer
+     * that are requested all at once. Windowed commands above the window are held in cmd_pending
+     * until results of earlier windowed commands arrive.
+     * Unless the window is pinned, it is adjusted once per round trip to twice the bandwidth-delay
+     * product: command completion rate multiplied by minimal RTT. While the pipe is not full,
+     * RTT stays close to the minimum and the window grows, when commands start to queue up
+     * in the link or in the remote peer, RTT grows and the window stops growing or shrinks.
+     */
+    private static final int COMMAND_WINDOW_MIN = 64;
+    private static final int COMMAND_WINDOW_MAX = 4096;
+    private static final long RTT_MIN_PERIOD = 10000000000L;
+    private static final long RATE_MIN_PERIOD = 1000000L;
+    private final LinkedList<Message> cmd_pending = new LinkedList<Message>();
+    private int cmd_window_pinned = Integer.getInteger("org.eclipse.tcf.core.command_window", 0);
+    private int cmd_window = COMMAND_WINDOW_MIN;
+    private int cmd_inflight;
+    private long cmd_rtt;
+    private long cmd_rtt_min;
+    private long cmd_rtt_min_time;
+    private long cmd_rate_time;
+    private int cmd_rate_cnt;
+    private long cmd_rate_bytes;
+    private double cmd_rate;
+    private double cmd_throughput;
+
     private int local_congestion_level = -100;
     private int remote_congestion_level = -100;
     private long local_congestion_time;
     private int local_congestion_cnt;
     private Collection<TraceListener> trace_listeners;
 
+    private static final int INP_SLAB_SIZE = 0x10000;
+
+    /* Smallest message that is returned as a slice of the input slab, see readData() */
+    private static final int INP_SLAB_MIN_SLICE = INP_SLAB_SIZE / 8;
+
+    private final byte[] empty_byte_array = new byte[0];
+    private byte[] inp_buf = new byte[1024];
+    private byte[] inp_slab = new byte[INP_SLAB_SIZE];
+    private int inp_slab_pos;
+    private byte[] eos_err_report;
+
+    /**
+     * Pseudo-service name that a peer lists in Hello message to tell that
+     * it can receive compressed message data, see StreamChannel.
+     */
+    public static final String COMPRESSION = "Deflate";
+
+    /**
+     * Pseudo-service name that a peer lists in Hello message to tell that
+     * it supports credit based flow control, see setFlowControlEnabled().
+     */
+    public static final String FLOW_CONTROL = "FlowControl";
+
+    /**
+     * Pseudo-service name that a peer lists in Hello message to tell that
+     * it can read message data in binary encoding, see JSONWriter.toBinarySequence().
+     */
+    public static final String BINARY_ENCODING = "BinaryEncoding";
+
     public static final int
         EOS = -1, // End Of Stream
         EOM = -2; // End Of Message
@@ -156,245 +395,473 @@ public abstract class AbstractChannel implements IChannel {
         assert Protocol.isDispatchThread();
         this.remote_peer = remote_peer;
         this.local_peer = local_peer;
+    }
 
-        inp_thread = new Thread() {
-
-            final byte[] empty_byte_array = new byte[0];
-            byte[] buf = new byte[1024];
-            byte[] eos_err_report;
-
-            private void error() throws IOException {
-                throw new IOException("Protocol syntax error");
-            }
-
-            private byte[] readBytes(int end) throws IOException {
-                int len = 0;
-                for (;;) {
-                    int n = read();
-                    if (n <= 0) {
-                        if (n == end) break;
-                        if (n == EOM) throw new IOException("Unexpected end of message");
-                        if (n < 0) throw new IOException("Communication channel is closed by remote peer");
-                    }
-                    if (len >= buf.length) {
-                        byte[] tmp = new byte[buf.length * 2];
-                        System.arraycopy(buf, 0, tmp, 0, len);
-                        buf = tmp;
-                    }
-                    buf[len++] = (byte)n;
+    protected void start() {
+        assert Protocol.isDispatchThread();
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                try {
+                    if (proxy != null) return;
+                    if (state == STATE_CLOSED) return;
+                    ServiceManager.onChannelCreated(AbstractChannel.this, local_service_by_name);
+                    makeServiceByClassMap(local_service_by_name, local_service_by_class);
+                    Object[] args = new Object[]{ getHelloServices(local_service_by_name.keySet()) };
+                    sendEvent(Protocol.getLocator(), "Hello", JSON.toJSONSequence(args));
                 }
-                if (len == 0) return empty_byte_array;
-                byte[] res = new byte[len];
-                System.arraycopy(buf, 0, res, 0, len);
-                return res;
-            }
-
-            private String readString() throws IOException {
-                int len = 0;
-                for (;;) {
-                    int n = read();
-                    if (n <= 0) {
-                        if (n == 0) break;
-                        if (n == EOM) throw new IOException("Unexpected end of message");
-                        if (n < 0) throw new IOException("Communication channel is closed by remote peer");
-                    }
-                    if (len >= buf.length) {
-                        byte[] tmp = new byte[buf.length * 2];
-                        System.arraycopy(buf, 0, tmp, 0, len);
-                        buf = tmp;
-                    }
-                    buf[len++] = (byte)n;
+                catch (IOException x) {
+                    terminate(x);
                 }
-                return new String(buf, 0, len, "UTF8");
             }
-
+        });
+        if (isEventDriven()) {
+            event_driven = true;
+            return;
+        }
+        inp_thread = new Thread() {
             @Override
             public void run() {
                 try {
-                    while (true) {
-                        int n = read();
-                        if (n == EOM) continue;
-                        if (n == EOS) {
-                            try {
-                                eos_err_report = readBytes(EOM);
-                                if (eos_err_report.length == 0 || eos_err_report.length == 1 && eos_err_report[0] == 0) eos_err_report = null;
-                            }
-                            catch (Exception x) {
-                            }
-                            break;
-                        }
-                        final Message msg = new Message((char)n);
-                        if (read() != 0) error();
-                        switch (msg.type) {
-                        case 'C':
-                            msg.token = new Token(readBytes(0));
-                            msg.service = readString();
-                            msg.name = readString();
-                            msg.data = readBytes(EOM);
-                            break;
-                        case 'P':
-                        case 'R':
-                        case 'N':
-                            msg.token = new Token(readBytes(0));
-                            msg.data = readBytes(EOM);
-                            break;
-                        case 'E':
-                            msg.service = readString();
-                            msg.name = readString();
-                            msg.data = readBytes(EOM);
-                            break;
-                        case 'F':
-                            msg.data = readBytes(EOM);
-                            break;
-                        default:
-                            error();
-                        }
-                        Protocol.invokeLater(new Runnable() {
-                            public void run() {
-                                handleInput(msg);
-                            }
-                        });
+                    while (receive()) {
                         int delay = local_congestion_level;
-                        if (delay > 0) sleep(delay);
+                        if (delay > 0 && !flow_control) sleep(delay);
                     }
-                    Protocol.invokeLater(new Runnable() {
-                        public void run() {
-                            if (out_tokens.isEmpty() && eos_err_report == null && state != STATE_OPENING) {
-                                close();
-                            }
-                            else {
-                                IOException x = new IOException("Communication channel is closed by remote peer");
-                                if (eos_err_report != null) {
-                                    try {
-                                        Object[] args = JSON.parseSequence(eos_err_report);
-                                        if (args.length > 0 && args[0] != null) {
-                                            x.initCause(new Exception(Command.toErrorString(args[0])));
-                                        }
-                                    }
-                                    catch (IOException e) {
-                                    }
-                                }
-                                terminate(x);
-                            }
-                        }
-                    });
                 }
                 catch (final Throwable x) {
-                    try {
-                        Protocol.invokeLater(new Runnable() {
-                            public void run() {
-                                terminate(x);
-                            }
-                        });
-                    }
-                    catch (IllegalStateException y) {
-                        // TCF event dispatcher has shut down
-                    }
+                    postTerminate(x);
                 }
             }
         };
-
         out_thread = new Thread() {
-
             @Override
             public void run() {
                 try {
                     while (true) {
-                        Message msg = null;
-                        boolean last = false;
-                        synchronized (out_queue) {
-                            while (out_queue.size() == 0) out_queue.wait();
-                            msg = out_queue.removeFirst();
-                            if (msg == null) break;
-                            last = out_queue.isEmpty();
-                            if (msg.is_canceled) {
-                                if (last) flush();
-                                continue;
-                            }
-                            msg.is_sent = true;
-                        }
-                        if (msg.trace != null) {
-                            final Message m = msg;
-                            Protocol.invokeLater(new Runnable() {
-                                public void run() {
-                                    for (TraceListener l : m.trace) {
-                                        try {
-                                            l.onMessageSent(m.type, m.token == null ? null : m.token.getID(),
-                                                    m.service, m.name, m.data);
-                                        }
-                                        catch (Throwable x) {
-                                            Protocol.log("Exception in channel listener", x);
-                                        }
-                                    }
-                                }
-                            });
-                        }
-                        write(msg.type);
-                        write(0);
-                        if (msg.token != null) {
-                            write(msg.token.getBytes());
-                            write(0);
-                        }
-                        if (msg.service != null) {
-                            write(msg.service.getBytes("UTF8"));
-                            write(0);
-                        }
-                        if (msg.name != null) {
-                            write(msg.name.getBytes("UTF8"));
-                            write(0);
-                        }
-                        if (msg.data != null) {
-                            write(msg.data);
+                        Message msg = pollOutQueue();
+                        if (msg == null) {
+                            if (out_eos) break;
+                            // The queue is drained: transmit everything that was
+                            // written into the stream buffer with a single flush.
+                            flush();
+                            out_waiting = true;
+                            if (!isOutQueueReady()) LockSupport.park(this);
+                            out_waiting = false;
+                            continue;
                         }
-                        write(EOM);
-                        int delay = 0;
+                        writeMessage(msg);
                         int level = remote_congestion_level;
-                        if (level > 0) delay = level * 10;
-                        if (last || delay > 0) flush();
-                        if (delay > 0) sleep(delay);
-                        else yield();
+                        if (level > 0 && !flow_control) {
+                            flush();
+                            sleep(level * 10);
+                        }
                     }
                     write(EOS);
                     write(EOM);
                     flush();
                 }
                 catch (final Throwable x) {
-                    try {
-                        Protocol.invokeLater(new Runnable() {
-                            public void run() {
-                                terminate(x);
-                            }
-                        });
-                    }
-                    catch (IllegalStateException y) {
-                        // TCF event dispatcher has shut down
-                    }
+                    postTerminate(x);
                 }
             }
         };
         inp_thread.setName("TCF Channel Receiver");
         out_thread.setName("TCF Channel Transmitter");
+        inp_thread.start();
+        out_thread.start();
     }
 
-    protected void start() {
-        assert Protocol.isDispatchThread();
+    /**
+     * Check if the channel I/O is driven by an external dispatcher, for example, NIO selector,
+     * instead of dedicated receiver and transmitter threads.
+     * An event driven channel must call receive() when a complete message is available for reading,
+     * and transmit() when onOutputQueued() is called and the channel output can accept more data.
+     * The method is called once, when the channel is started.
+     * @return true if the channel does not need receiver and transmitter threads.
+     */
+    protected boolean isEventDriven() {
+        return false;
+    }
+
+    /**
+     * Notify event driven channel that outbound messages are waiting in the queue.
+     * The method can be called from any thread, the implementation is expected to
+     * schedule a call of transmit() and return without blocking.
+     */
+    protected void onOutputQueued() {
+    }
+
+    /**
+     * Check if output buffer of event driven channel is full.
+     * transmit() stops taking messages from the queue when the method returns true,
+     * the messages stay queued, and can be canceled, until next call of transmit().
+     * The method is called by transmit(), from the channel I/O dispatcher thread.
+     * @return true if the channel output cannot accept more messages now.
+     */
+    protected boolean isOutputFull() {
+        return false;
+    }
+
+    private void postTerminate(final Throwable x) {
+        try {
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    terminate(x);
+                }
+            });
+        }
+        catch (IllegalStateException y) {
+            // TCF event dispatcher has shut down
+        }
+    }
+
+    private void error() throws IOException {
+        throw new IOException("Protocol syntax error");
+    }
+
+    private byte[] readBytes(int end) throws IOException {
+        int len = 0;
+        for (;;) {
+            if (len >= inp_buf.length) {
+                byte[] tmp = new byte[inp_buf.length * 2];
+                System.arraycopy(inp_buf, 0, tmp, 0, len);
+                inp_buf = tmp;
+            }
+            int m = read(inp_buf, len, inp_buf.length - len, end);
+            if (m > 0) {
+                len += m;
+                continue;
+            }
+            int n = read();
+            if (n <= 0) {
+                if (n == end) break;
+                if (n == EOM) throw new IOException("Unexpected end of message");
+                if (n < 0) throw new IOException("Communication channel is closed by remote peer");
+            }
+            if (len >= inp_buf.length) {
+                byte[] tmp = new byte[inp_buf.length * 2];
+                System.arraycopy(inp_buf, 0, tmp, 0, len);
+                inp_buf = tmp;
+            }
+            inp_buf[len++] = (byte)n;
+        }
+        if (len == 0) return empty_byte_array;
+        byte[] res = new byte[len];
+        System.arraycopy(inp_buf, 0, res, 0, len);
+        return res;
+    }
+
+    /**
+     * Read message data up to end of message marker.
+     * The data is read into a shared slab buffer. Large messages are returned as a slice of the slab,
+     * so the data is copied only once, from the stream buffer into the slab.
+     * When the slab is full, a new one is allocated, and the old one is reclaimed by GC
+     * after all its slices are released by clients.
+     * Small messages are copied into a right-sized array: clients can keep message buffers,
+     * e.g. in caches, and a slice of a small message would keep the whole slab in memory.
+     * The slab space of a small message is reused for next message.
+     */
+    private ByteBuffer readData() throws IOException {
+        byte[] slab = inp_slab;
+        int pos = inp_slab_pos;
+        int len = 0;
+        for (;;) {
+            if (pos + len >= slab.length) {
+                byte[] tmp = new byte[Math.max(INP_SLAB_SIZE, len * 2)];
+                System.arraycopy(slab, pos, tmp, 0, len);
+                slab = inp_slab = tmp;
+                pos = 0;
+            }
+            int m = read(slab, pos + len, slab.length - pos - len, EOM);
+            if (m > 0) {
+                len += m;
+                continue;
+            }
+            int n = read();
+            if (n < 0) {
+                if (n == EOM) break;
+                throw new IOException("Communication channel is closed by remote peer");
+            }
+            slab[pos + len++] = (byte)n;
+        }
+        if (len == 0) return ByteBuffer.wrap(empty_byte_array);
+        if (len < INP_SLAB_MIN_SLICE) {
+            byte[] res = new byte[len];
+            System.arraycopy(slab, pos, res, 0, len);
+            return ByteBuffer.wrap(res);
+        }
+        inp_slab_pos = pos + len;
+        return ByteBuffer.wrap(slab, pos, len).slice();
+    }
+
+    private String readString() throws IOException {
+        int len = 0;
+        for (;;) {
+            if (len >= inp_buf.length) {
+                byte[] tmp = new byte[inp_buf.length * 2];
+                System.arraycopy(inp_buf, 0, tmp, 0, len);
+                inp_buf = tmp;
+            }
+            int m = read(inp_buf, len, inp_buf.length - len, 0);
+            if (m > 0) {
+                len += m;
+                continue;
+            }
+            int n = read();
+            if (n <= 0) {
+                if (n == 0) break;
+                if (n == EOM) throw new IOException("Unexpected end of message");
+                if (n < 0) throw new IOException("Communication channel is closed by remote peer");
+            }
+            if (len >= inp_buf.length) {
+                byte[] tmp = new byte[inp_buf.length * 2];
+                System.arraycopy(inp_buf, 0, tmp, 0, len);
+                inp_buf = tmp;
+            }
+            inp_buf[len++] = (byte)n;
+        }
+        return new String(inp_buf, 0, len, "UTF8");
+    }
+
+    /**
+     * Read one message from the channel input stream and post it to the dispatch thread.
+     * The method is called by the channel receiver thread, or, for event driven channels,
+     * by the channel I/O dispatcher when a complete message is available.
+     * @return false if end of stream is reached, true otherwise.
+     * @throws IOException
+     */
+    protected final boolean receive() throws IOException {
+        int n = read();
+        if (n == EOM) return true;
+        if (n == EOS) {
+            try {
+                eos_err_report = readBytes(EOM);
+                if (eos_err_report.length == 0 || eos_err_report.length == 1 && eos_err_report[0] == 0) eos_err_report = null;
+            }
+            catch (Exception x) {
+            }
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    if (out_tokens.isEmpty() && eos_err_report == null && state != STATE_OPENING) {
+                        close();
+                    }
+                    else {
+                        IOException x = new IOException("Communication channel is closed by remote peer");
+                        if (eos_err_report != null) {
+                            try {
+                                Object[] args = JSON.parseSequence(eos_err_report);
+                                if (args.length > 0 && args[0] != null) {
+                                    x.initCause(new Exception(Command.toErrorString(args[0])));
+                                }
+                            }
+                            catch (IOException e) {
+                            }
+                        }
+                        terminate(x);
+                    }
+                }
+            });
+            return false;
+        }
+        final Message msg = new Message((char)n);
+        if (read() != 0) error();
+        switch (msg.type) {
+        case 'C':
+            msg.token = new Token(readBytes(0));
+            msg.service = readString();
+            msg.name = readString();
+            msg.data = readData();
+            break;
+        case 'P':
+        case 'R':
+        case 'N':
+            msg.token = new Token(readBytes(0));
+            msg.data = readData();
+            break;
+        case 'E':
+            msg.service = readString();
+            msg.name = readString();
+            msg.data = readData();
+            break;
+        case 'F':
+        case 'W':
+            msg.data = readData();
+            break;
+        default:
+            error();
+        }
+        if (decode_enabled) decode(msg);
         Protocol.invokeLater(new Runnable() {
             public void run() {
-                try {
-                    if (proxy != null) return;
-                    if (state == STATE_CLOSED) return;
-                    ServiceManager.onChannelCreated(AbstractChannel.this, local_service_by_name);
-                    makeServiceByClassMap(local_service_by_name, local_service_by_class);
-                    Object[] args = new Object[]{ local_service_by_name.keySet() };
-                    sendEvent(Protocol.getLocator(), "Hello", JSON.toJSONSequence(args));
+                handleInput(msg);
+            }
+        });
+        return true;
+    }
+
+    /*
+     * Decode message data on the receiver thread, if the command listener or
+     * the service event decoder supports it. Otherwise the data is left for dispatch thread.
+     */
+    private void decode(Message msg) {
+        try {
+            switch (msg.type) {
+            case 'R':
+                Message cmd = out_tokens.get(msg.token.getID());
+                if (cmd == null) return;
+                IChannel.ICommandListener l = cmd.token.getListener();
+                if (!(l instanceof DecodingCommandListener)) return;
+                msg.args = ((DecodingCommandListener)l).decodeResult(cmd.token, msg.data.duplicate());
+                break;
+            case 'E':
+                if (proxy != null) return;
+                EventDecoder d = event_decoders.get(msg.service);
+                if (d == null) return;
+                msg.args = d.decode(msg.name, msg.data.duplicate());
+                if (msg.args == null) return;
+                break;
+            default:
+                return;
+            }
+        }
+        catch (Throwable x) {
+            /* Event listeners report decoding errors themselves, when they get raw data */
+            if (msg.type == 'E') return;
+            msg.args = null;
+            msg.args_error = x instanceof Exception ? (Exception)x : new Exception(x);
+        }
+        msg.decoded = true;
+    }
+
+    /**
+     * Write queued messages into the channel output stream and flush the stream.
+     * Messages are written until the queue is empty or isOutputFull() returns true.
+     * The method is called by event driven channels from their I/O dispatcher thread.
+     * @return false if end of stream marker was written, true otherwise.
+     * @throws IOException
+     */
+    protected final boolean transmit() throws IOException {
+        assert event_driven;
+        while (!isOutputFull()) {
+            Message msg = pollOutQueue();
+            if (msg == null) break;
+            writeMessage(msg);
+        }
+        if (out_eos) {
+            try {
+                write(EOS);
+                write(EOM);
+                flush();
+            }
+            finally {
+                // If the peer has closed the connection, the marker cannot be sent: don't keep close() waiting
+                synchronized (out_eos_lock) {
+                    out_eos_sent = true;
+                    out_eos_lock.notifyAll();
                 }
-                catch (IOException x) {
-                    terminate(x);
+            }
+            return false;
+        }
+        flush();
+        return true;
+    }
+
+    /*
+     * Get next message to transmit.
+     * Congestion level and flow control messages, if any, jump ahead of all queued messages.
+     * Canceled messages are skipped.
+     * Returns null if the queue is empty, flow control window is full or end of stream is requested.
+     */
+    private Message pollOutQueue() {
+        for (;;) {
+            if (out_eos) return null;
+            Message msg = out_window.getAndSet(null);
+            if (msg == null) msg = out_congestion.getAndSet(null);
+            if (msg == null) {
+                if (!hasOutCredit()) return null;
+                msg = out_queue.poll();
+            }
+            if (msg == null) return null;
+            if (msg.setSent()) return msg;
+        }
+    }
+
+    private boolean hasOutCredit() {
+        if (!flow_control) return true;
+        return out_sent_msgs - out_acked_msgs < FLOW_CONTROL_WINDOW_MSGS &&
+                out_sent_bytes - out_acked_bytes < FLOW_CONTROL_WINDOW_BYTES;
+    }
+
+    /*
+     * Check if the transmitter has anything to do.
+     */
+    private boolean isOutQueueReady() {
+        if (out_eos || out_window.get() != null || out_congestion.get() != null) return true;
+        return !out_queue.isEmpty() && hasOutCredit();
+    }
+
+    private void wakeTransmitter() {
+        if (event_driven) {
+            onOutputQueued();
+        }
+        else if (out_waiting) {
+            LockSupport.unpark(out_thread);
+        }
+    }
+
+    private void writeMessage(Message msg) throws IOException {
+        if (msg.type == 'C') msg.time = System.nanoTime();
+        if (msg.type != 'F' && msg.type != 'W') {
+            // Only the transmitter thread updates the counts
+            out_sent_bytes += msg.data == null ? 0 : msg.data.remaining();
+            out_sent_msgs++;
+        }
+        if (msg.trace != null) {
+            final Message m = msg;
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    for (TraceListener l : m.trace) {
+                        try {
+                            String id = m.token == null ? null : m.token.getID();
+                            if (l instanceof BufferTraceListener) {
+                                ((BufferTraceListener)l).onMessageSent(m.type, id, m.service, m.name,
+                                        m.data == null ? null : m.data.duplicate());
+                            }
+                            else {
+                                l.onMessageSent(m.type, id, m.service, m.name, m.getData());
+                            }
+                        }
+                        catch (Throwable x) {
+                            Protocol.log("Exception in channel listener", x);
+                        }
+                    }
                 }
+            });
+        }
+        write(msg.type);
+        write(0);
+        if (msg.token != null) {
+            write(msg.token.getBytes());
+            write(0);
+        }
+        if (msg.service != null) {
+            write(msg.service.getBytes("UTF8"));
+            write(0);
+        }
+        if (msg.name != null) {
+            write(msg.name.getBytes("UTF8"));
+            write(0);
+        }
+        if (msg.data != null) {
+            ByteBuffer data = msg.data;
+            int offs = data.hasArray() ? data.arrayOffset() + data.position() : 0;
+            if (offs > 0 || data.hasArray() && data.remaining() != data.array().length) {
+                write(data.array(), offs, data.remaining());
             }
-        });
-        inp_thread.start();
-        out_thread.start();
+            else {
+                write(msg.getData());
+            }
+        }
+        write(EOM);
     }
 
     /**
@@ -567,6 +1034,29 @@ public abstract class AbstractChannel implements IChannel {
         }
     }
 
+    /**
+     * Set a decoder for events of a service.
+     * The decoder is called by the channel receiver thread, and decoded events are delivered to
+     * DecodedEventListener listeners, so decoding of the data is not done on the dispatch thread.
+     * @param service - a remote service.
+     * @param decoder - the decoder, or null to remove the decoder.
+     */
+    public void setEventDecoder(IService service, EventDecoder decoder) {
+        assert Protocol.isDispatchThread();
+        if (decoder == null) event_decoders.remove(service.getName());
+        else event_decoders.put(service.getName(), decoder);
+    }
+
+    /**
+     * Enable or disable decoding of command results and events on the channel receiver thread,
+     * see DecodingCommandListener and setEventDecoder().
+     * Default is set by system property "org.eclipse.tcf.core.receiver_decode", disabled if not set.
+     * @param enabled - true to decode message data on the receiver thread.
+     */
+    public void setReceiverDecodeEnabled(boolean enabled) {
+        decode_enabled = enabled;
+    }
+
     public void addCommandServer(IService service, IChannel.ICommandServer listener) {
         assert Protocol.isDispatchThread();
         if (command_servers.put(service.getName(), listener) != null) {
@@ -607,12 +1097,23 @@ public abstract class AbstractChannel implements IChannel {
     }
 
     private void sendEndOfStream(long timeout) throws Exception {
-        synchronized (out_queue) {
-            out_queue.clear();
-            out_queue.add(null);
-            out_queue.notifyAll();
+        out_eos = true;
+        out_queue.clear();
+        if (out_thread != null) {
+            LockSupport.unpark(out_thread);
+            out_thread.join(timeout);
+        }
+        else if (event_driven) {
+            onOutputQueued();
+            long time = System.currentTimeMillis() + timeout;
+            synchronized (out_eos_lock) {
+                while (!out_eos_sent) {
+                    long delay = time - System.currentTimeMillis();
+                    if (delay <= 0) break;
+                    out_eos_lock.wait(delay);
+                }
+            }
         }
-        out_thread.join(timeout);
     }
 
     private void close(final Throwable error) {
@@ -671,6 +1172,8 @@ public abstract class AbstractChannel implements IChannel {
                     }
                     out_tokens.clear();
                 }
+                cmd_pending.clear();
+                cmd_inflight = 0;
                 if (channel_listeners.size() > 0) {
                     for (IChannelListener l : channel_listeners.toArray(
                             new IChannelListener[channel_listeners.size()])) {
@@ -702,7 +1205,16 @@ public abstract class AbstractChannel implements IChannel {
     public int getCongestion() {
         assert Protocol.isDispatchThread();
         int level = out_tokens.size() * 100 / pending_command_limit - 100;
-        if (remote_congestion_level > level) level = remote_congestion_level;
+        if (flow_control) {
+            // Window usage: -100 if the window is empty, 100 if it is full
+            long msgs = (out_sent_msgs - out_acked_msgs) * 200 / FLOW_CONTROL_WINDOW_MSGS - 100;
+            long bytes = (out_sent_bytes - out_acked_bytes) * 200 / FLOW_CONTROL_WINDOW_BYTES - 100;
+            if (msgs > level) level = (int)msgs;
+            if (bytes > level) level = (int)bytes;
+        }
+        else if (remote_congestion_level > level) {
+            level = remote_congestion_level;
+        }
         if (level > 100) level = 100;
         return level;
     }
@@ -765,20 +1277,32 @@ public abstract class AbstractChannel implements IChannel {
 
     public void setProxy(Proxy proxy, Collection<String> services) throws IOException {
         this.proxy = proxy;
-        sendEvent(Protocol.getLocator(), "Hello", JSON.toJSONSequence(new Object[]{ services }));
+        sendEvent(Protocol.getLocator(), "Hello", JSON.toJSONSequence(new Object[]{ getHelloServices(services) }));
         local_service_by_class.clear();
         local_service_by_name.clear();
     }
 
     private void addToOutQueue(Message msg) {
         msg.trace = trace_listeners;
-        synchronized (out_queue) {
-            out_queue.add(msg);
-            out_queue.notifyAll();
-        }
+        out_queue.add(msg);
+        wakeTransmitter();
     }
 
     public IToken sendCommand(IService service, String name, byte[] args, ICommandListener listener) {
+        return sendCommand(service, name, args == null ? null : ByteBuffer.wrap(args), listener);
+    }
+
+    /**
+     * Send command message to remote peer for execution.
+     * The buffer is not copied, it must not be modified until the message is transmitted.
+     * @param service - a remote service that will be sent the command
+     * @param name - command name
+     * @param args - command arguments encoded into byte buffer
+     * @param listener - call back object, can implement BufferCommandListener
+     * to receive command results as ByteBuffer.
+     * @return pending command handle
+     */
+    public IToken sendCommand(IService service, String name, ByteBuffer args, ICommandListener listener) {
         assert Protocol.isDispatchThread();
         if (state == STATE_OPENING) throw new Error("Channel is waiting for Hello message");
         if (state == STATE_CLOSED) throw new Error("Channel is closed");
@@ -792,21 +1316,154 @@ public abstract class AbstractChannel implements IChannel {
                 assert msg.token == this;
                 assert Protocol.isDispatchThread();
                 if (state != STATE_OPEN) return false;
-                synchronized (out_queue) {
-                    if (msg.is_sent) return false;
-                    msg.is_canceled = true;
-                }
+                if (!msg.setCanceled()) return false;
                 out_tokens.remove(getID());
+                if (msg.inflight) {
+                    msg.inflight = false;
+                    cmd_inflight--;
+                    releaseCommands();
+                }
                 return true;
             }
         };
         msg.token = token;
         out_tokens.put(token.getID(), msg);
-        addToOutQueue(msg);
+        if (!(listener instanceof WindowedCommandListener)) {
+            addToOutQueue(msg);
+        }
+        else if (cmd_pending.isEmpty() && cmd_inflight < getCommandWindow()) {
+            msg.inflight = true;
+            cmd_inflight++;
+            addToOutQueue(msg);
+        }
+        else {
+            cmd_pending.add(msg);
+        }
         return token;
     }
 
+    /*
+     * Move held commands to the output queue while the command window has room.
+     * Canceled commands are dropped.
+     */
+    private void releaseCommands() {
+        int window = getCommandWindow();
+        while (cmd_inflight < window && !cmd_pending.isEmpty()) {
+            Message msg = cmd_pending.removeFirst();
+            if (msg.status != 0) continue;
+            msg.inflight = true;
+            cmd_inflight++;
+            addToOutQueue(msg);
+        }
+    }
+
+    /*
+     * Update RTT, throughput and command window estimates when a command is done.
+     */
+    private void onCommandDone(Message cmd, Message res) {
+        boolean inflight = cmd.inflight;
+        if (inflight) {
+            cmd.inflight = false;
+            cmd_inflight--;
+        }
+        long time = System.nanoTime();
+        long rtt = time - cmd.time;
+        if (cmd.time != 0 && rtt > 0) {
+            cmd_rtt = cmd_rtt == 0 ? rtt : cmd_rtt + (rtt - cmd_rtt) / 8;
+            if (cmd_rtt_min == 0 || rtt <= cmd_rtt_min || time - cmd_rtt_min_time > RTT_MIN_PERIOD) {
+                cmd_rtt_min = rtt;
+                cmd_rtt_min_time = time;
+            }
+        }
+        cmd_rate_cnt++;
+        if (cmd.data != null) cmd_rate_bytes += cmd.data.remaining();
+        if (res.data != null) cmd_rate_bytes += res.data.remaining();
+        if (cmd_rate_time == 0) {
+            cmd_rate_time = time;
+            cmd_rate_cnt = 0;
+            cmd_rate_bytes = 0;
+        }
+        else if (time - cmd_rate_time >= Math.max(cmd_rtt, RATE_MIN_PERIOD)) {
+            double period = (time - cmd_rate_time) / 1e9;
+            double rate = cmd_rate_cnt / period;
+            double throughput = cmd_rate_bytes / period;
+            cmd_rate = cmd_rate == 0 ? rate : cmd_rate + (rate - cmd_rate) / 4;
+            cmd_throughput = cmd_throughput == 0 ? throughput : cmd_throughput + (throughput - cmd_throughput) / 4;
+            cmd_rate_time = time;
+            cmd_rate_cnt = 0;
+            cmd_rate_bytes = 0;
+            double bdp = cmd_rate * cmd_rtt_min / 1e9;
+            int window = (int)Math.min(2 * bdp, cmd_window * 2);
+            if (window < COMMAND_WINDOW_MIN) window = COMMAND_WINDOW_MIN;
+            if (window > COMMAND_WINDOW_MAX) window = COMMAND_WINDOW_MAX;
+            cmd_window = window;
+        }
+        if (inflight) releaseCommands();
+    }
+
+    /**
+     * Pin the command window size.
+     * The window is the maximal number of windowed commands, see WindowedCommandListener,
+     * that are sent to the remote peer and are waiting for results. Windowed commands above
+     * the window are queued by the channel and are sent when results of earlier ones arrive.
+     * Other commands are not limited by the window.
+     * By default, the window adapts to measured round trip time and throughput of all commands,
+     * so clients that pipeline requests can also use getCommandWindow() as a hint.
+     * Can be called right after the channel is created, or at any later time.
+     * Default is set by system property "org.eclipse.tcf.core.command_window".
+     * @param size - window size, 0 means adaptive window.
+     */
+    public void setCommandWindow(int size) {
+        assert Protocol.isDispatchThread();
+        cmd_window_pinned = size;
+        releaseCommands();
+    }
+
+    /**
+     * @return current command window size.
+     */
+    public int getCommandWindow() {
+        if (cmd_window_pinned > 0) return cmd_window_pinned;
+        return cmd_window;
+    }
+
+    /**
+     * @return number of windowed commands that are sent and are waiting for results.
+     */
+    public int getCommandsInFlight() {
+        return cmd_inflight;
+    }
+
+    /**
+     * @return number of windowed commands that are held by the channel because the command window is full.
+     */
+    public int getCommandsPending() {
+        int n = 0;
+        for (Message msg : cmd_pending) {
+            if (msg.status == 0) n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return smoothed command round trip time in microseconds, 0 if not measured yet.
+     */
+    public long getRoundTripTime() {
+        return cmd_rtt / 1000;
+    }
+
+    /**
+     * @return command throughput, arguments and results, in bytes per second, 0 if not measured yet.
+     */
+    public long getThroughput() {
+        return (long)cmd_throughput;
+    }
+
     public void sendProgress(IToken token, byte[] results) {
+        sendProgress(token, results == null ? null : ByteBuffer.wrap(results));
+    }
+
+    public void sendProgress(IToken token, ByteBuffer results) {
         assert Protocol.isDispatchThread();
         if (state != STATE_OPEN) throw new Error("Channel is closed");
         Message msg = new Message('P');
@@ -816,6 +1473,16 @@ public abstract class AbstractChannel implements IChannel {
     }
 
     public void sendResult(IToken token, byte[] results) {
+        sendResult(token, results == null ? null : ByteBuffer.wrap(results));
+    }
+
+    /**
+     * Send result message to remote peer.
+     * The buffer is not copied, it must not be modified until the message is transmitted.
+     * @param token - command handle
+     * @param results - result message arguments encoded into byte buffer
+     */
+    public void sendResult(IToken token, ByteBuffer results) {
         assert Protocol.isDispatchThread();
         if (state != STATE_OPEN) throw new Error("Channel is closed");
         Message msg = new Message('R');
@@ -833,6 +1500,10 @@ public abstract class AbstractChannel implements IChannel {
     }
 
     public void sendEvent(IService service, String name, byte[] args) {
+        sendEvent(service, name, args == null ? null : ByteBuffer.wrap(args));
+    }
+
+    public void sendEvent(IService service, String name, ByteBuffer args) {
         assert Protocol.isDispatchThread();
         if (!(state == STATE_OPEN || state == STATE_OPENING && service instanceof ILocator)) {
             throw new Error("Channel is closed");
@@ -848,6 +1519,87 @@ public abstract class AbstractChannel implements IChannel {
         return zero_copy;
     }
 
+    /**
+     * Check if message compression is negotiated for this channel,
+     * that is, both peers listed COMPRESSION in their Hello messages.
+     * @return true if outgoing messages can be compressed.
+     */
+    public boolean isCompressionSupported() {
+        return compression;
+    }
+
+    /**
+     * Check if this end of the channel is able and willing to use message compression.
+     * Subclasses that implement compressed framing override this method.
+     * The value must not change after the channel is started.
+     * @return true if COMPRESSION should be advertised in Hello message.
+     */
+    protected boolean isCompressionEnabled() {
+        return false;
+    }
+
+    /**
+     * Enable or disable credit based flow control for this channel.
+     * When both peers support it, a transmitter keeps the number and the total size of messages
+     * that are sent but not yet handled by the remote peer below a fixed window size,
+     * and the window state is reported to channel listeners as congestion level.
+     * Congestion level messages and transmitter delays are not used in this mode.
+     * Must be called before the channel is started, i.e. right after it is created.
+     * Default is set by system property "org.eclipse.tcf.core.flow_control".
+     * @param enabled - true to advertise flow control support in Hello message.
+     */
+    public void setFlowControlEnabled(boolean enabled) {
+        flow_control_enabled = enabled;
+    }
+
+    /**
+     * Check if credit based flow control is negotiated for this channel.
+     * @return true if both peers listed FLOW_CONTROL in their Hello messages.
+     */
+    public boolean isFlowControlSupported() {
+        return flow_control;
+    }
+
+    /**
+     * Enable or disable binary encoding of message data for this channel.
+     * When both peers support it, command arguments are sent in binary encoding instead of JSON,
+     * see Command. Peers that do not support the encoding keep receiving JSON.
+     * Must be called before the channel is started, i.e. right after it is created.
+     * Binary encoding is disabled by default, it can be enabled by system property
+     * "org.eclipse.tcf.core.binary_encoding".
+     * @param enabled - true to advertise binary encoding support in Hello message.
+     */
+    public void setBinaryEncodingEnabled(boolean enabled) {
+        binary_encoding_enabled = enabled;
+    }
+
+    /**
+     * Check if binary encoding of message data is negotiated for this channel.
+     * @return true if both peers listed BINARY_ENCODING in their Hello messages.
+     */
+    public boolean isBinaryEncodingSupported() {
+        return binary_encoding;
+    }
+
+    private Collection<String> getHelloServices(Collection<String> services) {
+        List<String> l = null;
+        if (isCompressionEnabled() && !services.contains(COMPRESSION)) {
+            l = new ArrayList<String>(services);
+            l.add(COMPRESSION);
+        }
+        if (flow_control_enabled && !services.contains(FLOW_CONTROL)) {
+            if (l == null) l = new ArrayList<String>(services);
+            l.add(FLOW_CONTROL);
+        }
+        /* A proxy passes message data through as is, so the encoding is only
+         * advertised by a proxy if the other side of the proxy supports it */
+        if (binary_encoding_enabled && proxy == null && !services.contains(BINARY_ENCODING)) {
+            if (l == null) l = new ArrayList<String>(services);
+            l.add(BINARY_ENCODING);
+        }
+        return l != null ? l : services;
+    }
+
     @SuppressWarnings("unchecked")
     private void handleInput(Message msg) {
         assert Protocol.isDispatchThread();
@@ -855,9 +1607,14 @@ public abstract class AbstractChannel implements IChannel {
         if (trace_listeners != null) {
             for (TraceListener l : trace_listeners) {
                 try {
-                    l.onMessageReceived(msg.type,
-                            msg.token != null ? msg.token.getID() : null,
-                            msg.service, msg.name, msg.data);
+                    String id = msg.token != null ? msg.token.getID() : null;
+                    if (l instanceof BufferTraceListener) {
+                        ((BufferTraceListener)l).onMessageReceived(msg.type, id,
+                                msg.service, msg.name, msg.data == null ? null : msg.data.duplicate());
+                    }
+                    else {
+                        l.onMessageReceived(msg.type, id, msg.service, msg.name, msg.getData());
+                    }
                 }
                 catch (Throwable x) {
                     Protocol.log("Exception in trace listener", x);
@@ -865,6 +1622,11 @@ public abstract class AbstractChannel implements IChannel {
             }
         }
         try {
+            if (msg.type != 'F' && msg.type != 'W') {
+                inp_handled_bytes += msg.data == null ? 0 : msg.data.remaining();
+                inp_handled_msgs++;
+                sendWindow();
+            }
             Message cmd = null;
             Token token = null;
             switch (msg.type) {
@@ -875,6 +1637,7 @@ public abstract class AbstractChannel implements IChannel {
                 cmd = msg.type == 'P' ? out_tokens.get(token_id) : out_tokens.remove(token_id);
                 if (cmd == null) throw new Exception("Invalid token received: " + token_id);
                 token = cmd.token;
+                if (msg.type != 'P') onCommandDone(cmd, msg);
                 break;
             }
             switch (msg.type) {
@@ -884,14 +1647,17 @@ public abstract class AbstractChannel implements IChannel {
                 if (state == STATE_OPENING) {
                     throw new IOException("Received command " + msg.service + "." + msg.name + " before Hello message");
                 }
-                if (proxy != null) {
-                    proxy.onCommand(msg.token, msg.service, msg.name, msg.data);
+                if (proxy instanceof BufferProxy) {
+                    ((BufferProxy)proxy).onCommand(msg.token, msg.service, msg.name, msg.data);
+                }
+                else if (proxy != null) {
+                    proxy.onCommand(msg.token, msg.service, msg.name, msg.getData());
                 }
                 else {
                     token = msg.token;
                     IChannel.ICommandServer cmds = command_servers.get(msg.service);
                     if (cmds != null) {
-                        cmds.command(token, msg.name, msg.data);
+                        cmds.command(token, msg.name, msg.getData());
                     }
                     else {
                         rejectCommand(token);
@@ -899,11 +1665,24 @@ public abstract class AbstractChannel implements IChannel {
                 }
                 break;
             case 'P':
-                token.getListener().progress(token, msg.data);
+                if (token.getListener() instanceof BufferCommandListener) {
+                    ((BufferCommandListener)token.getListener()).progress(token, msg.data);
+                }
+                else {
+                    token.getListener().progress(token, msg.getData());
+                }
                 sendCongestionLevel();
                 break;
             case 'R':
-                token.getListener().result(token, msg.data);
+                if (msg.decoded && token.getListener() instanceof DecodingCommandListener) {
+                    ((DecodingCommandListener)token.getListener()).result(token, msg.args, msg.args_error);
+                }
+                else if (token.getListener() instanceof BufferCommandListener) {
+                    ((BufferCommandListener)token.getListener()).result(token, msg.data);
+                }
+                else {
+                    token.getListener().result(token, msg.getData());
+                }
                 sendCongestionLevel();
                 break;
             case 'N':
@@ -928,9 +1707,15 @@ public abstract class AbstractChannel implements IChannel {
                     ServiceManager.onChannelOpened(this, (Collection<String>)JSON.parseSequence(msg.data)[0], remote_service_by_name);
                     makeServiceByClassMap(remote_service_by_name, remote_service_by_class);
                     zero_copy = remote_service_by_name.containsKey("ZeroCopy");
+                    compression = isCompressionEnabled() && remote_service_by_name.containsKey(COMPRESSION);
+                    flow_control = flow_control_enabled && remote_service_by_name.containsKey(FLOW_CONTROL);
+                    binary_encoding = binary_encoding_enabled && remote_service_by_name.containsKey(BINARY_ENCODING);
+                }
+                if (proxy instanceof BufferProxy && state == STATE_OPEN) {
+                    ((BufferProxy)proxy).onEvent(msg.service, msg.name, msg.data);
                 }
-                if (proxy != null && state == STATE_OPEN) {
-                    proxy.onEvent(msg.service, msg.name, msg.data);
+                else if (proxy != null && state == STATE_OPEN) {
+                    proxy.onEvent(msg.service, msg.name, msg.getData());
                 }
                 else if (hello) {
                     assert state == STATE_OPENING;
@@ -961,25 +1746,30 @@ public abstract class AbstractChannel implements IChannel {
                     IChannel.IEventListener[] list = event_listeners.get(msg.service);
                     if (list != null) {
                         for (int i = 0; i < list.length; i++) {
-                            list[i].event(msg.name, msg.data);
+                            if (msg.decoded && list[i] instanceof DecodedEventListener) {
+                                ((DecodedEventListener)list[i]).event(msg.name, msg.args);
+                            }
+                            else {
+                                list[i].event(msg.name, msg.getData());
+                            }
                         }
                     }
                     sendCongestionLevel();
                 }
                 break;
             case 'F':
-                int len = msg.data.length;
-                if (len > 0 && msg.data[len - 1] == 0) len--;
-                remote_congestion_level = Integer.parseInt(new String(msg.data, 0, len, "ASCII"));
-                for (IChannelListener l : channel_listeners.toArray(
-                        new IChannelListener[channel_listeners.size()])) {
-                    try {
-                        l.congestionLevel(getCongestion());
-                    }
-                    catch (Throwable x) {
-                        Protocol.log("Exception in channel listener", x);
-                    }
-                }
+                byte[] data = msg.getData();
+                int len = data.length;
+                if (len > 0 && data[len - 1] == 0) len--;
+                remote_congestion_level = Integer.parseInt(new String(data, 0, len, "ASCII"));
+                notifyCongestionLevel();
+                break;
+            case 'W':
+                Object[] window = JSON.parseSequence(msg.data);
+                out_acked_bytes = ((Number)window[0]).longValue();
+                out_acked_msgs = ((Number)window[1]).longValue();
+                wakeTransmitter();
+                notifyCongestionLevel();
                 break;
             default:
                 assert false;
@@ -992,6 +1782,7 @@ public abstract class AbstractChannel implements IChannel {
     }
 
     private void sendCongestionLevel() throws IOException {
+        if (flow_control) return;
         if (++local_congestion_cnt < 8) return;
         local_congestion_cnt = 0;
         if (state != STATE_OPEN) return;
@@ -1003,19 +1794,45 @@ public abstract class AbstractChannel implements IChannel {
         int i = (level - local_congestion_level) / 8;
         if (i != 0) level = local_congestion_level + i;
         local_congestion_time = time;
-        synchronized (out_queue) {
-            Message msg = out_queue.isEmpty() ? null : out_queue.get(0);
-            if (msg == null || msg.type != 'F') {
-                msg = new Message('F');
-                out_queue.add(0, msg);
-                out_queue.notify();
+        // Congestion level message jumps ahead of queued messages.
+        // If previous one is not sent yet, it is replaced with the new one.
+        Message msg = new Message('F');
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(local_congestion_level);
+        buffer.append((char)0); // 0 terminate
+        msg.data_bytes = buffer.toString().getBytes("ASCII");
+        msg.data = ByteBuffer.wrap(msg.data_bytes);
+        msg.trace = trace_listeners;
+        local_congestion_level = level;
+        out_congestion.set(msg);
+        wakeTransmitter();
+    }
+
+    private void sendWindow() throws IOException {
+        if (!flow_control) return;
+        if (inp_handled_msgs - inp_acked_msgs < FLOW_CONTROL_WINDOW_MSGS / 4 &&
+                inp_handled_bytes - inp_acked_bytes < FLOW_CONTROL_WINDOW_BYTES / 4) return;
+        // Window update message jumps ahead of queued messages.
+        // The counts are cumulative, so if previous one is not sent yet, it is replaced with the new one.
+        Message msg = new Message('W');
+        msg.data_bytes = JSON.toJSONSequence(new Object[]{ inp_handled_bytes, inp_handled_msgs });
+        msg.data = ByteBuffer.wrap(msg.data_bytes);
+        msg.trace = trace_listeners;
+        inp_acked_bytes = inp_handled_bytes;
+        inp_acked_msgs = inp_handled_msgs;
+        out_window.set(msg);
+        wakeTransmitter();
+    }
+
+    private void notifyCongestionLevel() {
+        for (IChannelListener l : channel_listeners.toArray(
+                new IChannelListener[channel_listeners.size()])) {
+            try {
+                l.congestionLevel(getCongestion());
+            }
+            catch (Throwable x) {
+                Protocol.log("Exception in channel listener", x);
             }
-            StringBuilder buffer = new StringBuilder();
-            buffer.append(local_congestion_level);
-            buffer.append((char)0); // 0 terminate
-            msg.data = buffer.toString().getBytes("ASCII");
-            msg.trace = trace_listeners;
-            local_congestion_level = level;
         }
     }
 
@@ -1027,6 +1844,24 @@ public abstract class AbstractChannel implements IChannel {
      */
     protected abstract int read() throws IOException;
 
+    /**
+     * Read a run of data bytes from the channel input stream.
+     * The method copies bytes that are readily available in the stream buffer,
+     * and stops before any byte that needs special handling: end of message or end of stream marker,
+     * or zero byte if 'end' is 0. It never blocks.
+     * Implementation is optional, default implementation returns 0, which means
+     * the caller should read next byte using read().
+     * @param buf - destination buffer.
+     * @param offs - offset in the destination buffer.
+     * @param size - max number of bytes to read.
+     * @param end - 0 if reading should stop at zero byte, EOM otherwise.
+     * @return number of bytes copied into the buffer.
+     * @throws IOException
+     */
+    protected int read(byte[] buf, int offs, int size, int end) throws IOException {
+        return 0;
+    }
+
     /**
      * Write one byte into the channel output stream.
      * The method argument can be one of two special values:
@@ -1060,7 +1895,20 @@ public abstract class AbstractChannel implements IChannel {
      * @throws IOException
      */
     protected void write(byte[] buf) throws IOException {
-        assert Thread.currentThread() == out_thread;
-        for (int i = 0; i < buf.length; i++) write(buf[i] & 0xff);
+        write(buf, 0, buf.length);
+    }
+
+    /**
+     * Write a part of array of bytes into the channel output stream.
+     * The stream can put bytes into a buffer instead of transmitting it right away.
+     * Subclasses should override this method to transmit whole blocks of data at once.
+     * @param buf - the data.
+     * @param offs - offset of first byte to write.
+     * @param size - number of bytes to write.
+     * @throws IOException
+     */
+    protected void write(byte[] buf, int offs, int size) throws IOException {
+        assert out_thread == null || Thread.currentThread() == out_thread;
+        for (int i = 0; i < size; i++) write(buf[offs + i] & 0xff);
     }
 }
@@ -110,6 +110,51 @@ public final class Base64 {
         return buf;
     }
 
+    /**
+     * Decode Base64 string that is stored as ASCII bytes, e.g. in a message buffer.
+     * @param inp - input buffer.
+     * @param pos - position of the string in the buffer.
+     * @param len - length of the string.
+     * @return decoded bytes.
+     */
+    public static byte[] toByteArray(byte[] inp, int pos, int len) {
+        if (len % 4 != 0) {
+            throw new IllegalArgumentException(
+                    "BASE64 string length must be a multiple of four.");
+        }
+        int out_len = len / 4 * 3;
+        if (len > 0 && inp[pos + len - 1] == '=') {
+            out_len--;
+            if (inp[pos + len - 2] == '=') {
+                out_len--;
+            }
+        }
+        byte[] buf = new byte[out_len];
+        int out_pos = 0;
+        int end = pos + len;
+        while (pos < end) {
+            int n0 = toInt(inp[pos++]);
+            int n1 = toInt(inp[pos++]);
+            buf[out_pos++] = (byte)((n0 << 2) | (n1 >> 4));
+            if (inp[pos] == '=') break;
+            int n2 = toInt(inp[pos++]);
+            buf[out_pos++] = (byte)((n1 << 4) | (n2 >> 2));
+            if (inp[pos] == '=') break;
+            int n3 = toInt(inp[pos++]);
+            buf[out_pos++] = (byte)((n2 << 6) | n3);
+        }
+        assert out_pos == out_len;
+        return buf;
+    }
+
+    private static int toInt(byte ch) {
+        int n;
+        if (ch < 0 || ch >= char2int.length || (n = char2int[ch]) < 0) {
+            throw new IllegalArgumentException("Illegal character " + (char)(ch & 0xff));
+        }
+        return n;
+    }
+
     /*
      * See RFC 2045.
      */
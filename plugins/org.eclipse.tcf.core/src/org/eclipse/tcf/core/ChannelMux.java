@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * ChannelMux is a logical IChannel that is carried, together with other logical channels,
+ * over a single MuxConnection. Message framing is same as in StreamChannel.
+ *
+ * The channel is event driven: incoming messages are decoded and outgoing messages are
+ * encoded by the connection worker thread.
+ */
+public class ChannelMux extends StreamChannel {
+
+    private static final int OUT_BUF_LIMIT = 0x10000;
+    private static final int CLOSE_TIMEOUT = 2000;
+
+    final int id;
+    final AtomicBoolean posted = new AtomicBoolean();
+
+    private final MuxConnection connection;
+    private final AtomicBoolean write_requested = new AtomicBoolean();
+    private final AtomicInteger credit = new AtomicInteger(MuxConnection.STREAM_WINDOW);
+    private final AtomicInteger inp_handled = new AtomicInteger();
+    private final ConcurrentLinkedQueue<byte[]> inp_queue = new ConcurrentLinkedQueue<byte[]>();
+    private volatile boolean open_pending;
+    private volatile boolean started;
+    private volatile boolean closing;
+    private volatile boolean remote_closed;
+    private volatile boolean closed;
+    private volatile Throwable link_error;
+
+    /* Input buffer, accessed by the worker thread only:
+     * bytes [inp_pos, inp_len) are received, bytes [inp_pos, inp_end) belong to complete messages.
+     * Window credit is returned to the sender when decoded messages are handled by the dispatch thread,
+     * so the sender cannot flood the dispatch queue. The first inp_early bytes of the buffer belong to
+     * an incomplete message that was credited before it was handled: a message larger than half
+     * of the window would stall the stream otherwise.
+     */
+    private byte[] inp = new byte[0x4000];
+    private int inp_pos;
+    private int inp_end;
+    private int inp_len;
+    private int inp_credit;
+    private int inp_early;
+    private boolean inp_eos;
+    private boolean inp_done;
+    private final Scanner scanner = new Scanner();
+
+    private ByteBuffer out = ByteBuffer.allocate(0x4000);
+    private boolean out_done;
+    private boolean close_sent;
+
+    ChannelMux(IPeer local_peer, IPeer remote_peer, MuxConnection connection, int id, boolean open) {
+        super(local_peer, remote_peer);
+        this.connection = connection;
+        this.id = id;
+        open_pending = open;
+        connection.add(this);
+        if (open) connection.post(this);
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                if (closing || link_error != null) return;
+                start();
+            }
+        });
+    }
+
+    @Override
+    protected void start() {
+        super.start();
+        started = true;
+        connection.post(this);
+    }
+
+    @Override
+    protected boolean isEventDriven() {
+        return true;
+    }
+
+    @Override
+    protected void onOutputQueued() {
+        write_requested.set(true);
+        connection.post(this);
+    }
+
+    @Override
+    protected boolean isOutputFull() {
+        // Messages stay in the queue while the stream has no window credit
+        return out.position() >= OUT_BUF_LIMIT;
+    }
+
+    /* Called by the connection reader thread */
+    void onData(byte[] buf) {
+        inp_queue.add(buf);
+        connection.post(this);
+    }
+
+    /* Called by the connection reader thread */
+    void onWindow(int n) {
+        credit.addAndGet(n);
+        connection.post(this);
+    }
+
+    /* Called by the connection reader thread */
+    void onRemoteClose() {
+        remote_closed = true;
+        connection.post(this);
+    }
+
+    /* Called when the physical connection is broken, or the channel cannot be processed */
+    void onLinkError(final Throwable x) {
+        synchronized (this) {
+            if (link_error != null) return;
+            link_error = x;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    terminate(x);
+                }
+            });
+        }
+        catch (IllegalStateException y) {
+            // TCF event dispatcher has shut down
+        }
+    }
+
+    /* Called by the connection worker thread when the channel is posted */
+    void process() throws IOException {
+        if (closed) return;
+        if (open_pending) {
+            connection.writeFrame(MuxConnection.FRAME_OPEN, id);
+            open_pending = false;
+        }
+        if (!started) return;
+        processInput();
+        for (;;) {
+            sendData();
+            if (out_done || out.position() >= OUT_BUF_LIMIT) break;
+            if (!write_requested.compareAndSet(true, false)) break;
+            if (!transmit()) out_done = true;
+            // Rest of the queue is transmitted when the stream gets window credit, see onWindow()
+            else if (isOutputFull()) write_requested.set(true);
+        }
+        if (!close_sent && out.position() == 0 && (out_done || closing)) {
+            connection.writeFrame(MuxConnection.FRAME_CLOSE, id);
+            close_sent = true;
+        }
+        if (close_sent && closing) {
+            connection.remove(this);
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /* Called by the connection worker thread when process() failed, other channels are not affected */
+    void onProcessError(Throwable x) throws IOException {
+        inp_done = true;
+        out_done = true;
+        out.clear();
+        if (!close_sent) {
+            close_sent = true;
+            connection.writeFrame(MuxConnection.FRAME_CLOSE, id);
+        }
+        connection.remove(this);
+        onLinkError(x);
+    }
+
+    private void processInput() throws IOException {
+        if (inp_done) {
+            inp_queue.clear();
+            return;
+        }
+        for (;;) {
+            byte[] buf = inp_queue.poll();
+            if (buf == null) break;
+            if (inp_len + buf.length > inp.length) {
+                int n = inp_len - inp_pos;
+                byte[] tmp = inp;
+                if (n + buf.length > inp.length) tmp = new byte[Math.max(inp.length * 2, n + buf.length)];
+                System.arraycopy(inp, inp_pos, tmp, 0, n);
+                inp = tmp;
+                inp_end -= inp_pos;
+                inp_len -= inp_pos;
+                inp_pos = 0;
+            }
+            int n = scanner.scan(buf, 0, buf.length);
+            if (n >= 0) inp_end = inp_len + n;
+            System.arraycopy(buf, 0, inp, inp_len, buf.length);
+            inp_len += buf.length;
+        }
+        if (scanner.eos || remote_closed && inp_queue.isEmpty()) {
+            inp_eos = true;
+            inp_end = inp_len;
+        }
+        int decoded = 0;
+        while (scanner.msg_cnt > 0) {
+            scanner.msg_cnt--;
+            int pos = inp_pos;
+            if (!receive()) {
+                inp_done = true;
+                return;
+            }
+            int n = inp_pos - pos;
+            int m = Math.min(n, inp_early);
+            inp_early -= m;
+            decoded += n - m;
+        }
+        if (inp_eos) {
+            while (receive()) {}
+            inp_done = true;
+            return;
+        }
+        if (decoded > 0) onDecoded(decoded);
+        if (inp_pos == inp_len) inp_pos = inp_end = inp_len = 0;
+        int partial = inp_len - inp_pos - inp_early;
+        if (partial >= MuxConnection.STREAM_WINDOW / 2) {
+            inp_early += partial;
+            inp_credit += partial;
+        }
+        inp_credit += inp_handled.getAndSet(0);
+        if (inp_credit >= MuxConnection.STREAM_WINDOW / 4) {
+            connection.writeWindow(id, inp_credit);
+            inp_credit = 0;
+        }
+    }
+
+    /* The messages are posted to the dispatch thread by receive(), the credit is returned after them */
+    private void onDecoded(final int n) {
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                inp_handled.addAndGet(n);
+                connection.post(ChannelMux.this);
+            }
+        });
+    }
+
+    private void sendData() throws IOException {
+        int pos = 0;
+        int len = out.position();
+        while (pos < len) {
+            int n = Math.min(Math.min(len - pos, credit.get()), MuxConnection.MAX_FRAME_SIZE);
+            if (n <= 0) break;
+            credit.addAndGet(-n);
+            connection.writeData(id, out.array(), pos, n);
+            pos += n;
+        }
+        if (pos > 0) {
+            out.flip();
+            out.position(pos);
+            out.compact();
+        }
+    }
+
+    @Override
+    protected final int get() throws IOException {
+        if (inp_pos >= inp_end) {
+            if (closed || inp_eos) return -1;
+            throw new IOException("Incomplete message in multiplexed channel buffer");
+        }
+        return inp[inp_pos++] & 0xff;
+    }
+
+    @Override
+    protected final int get(byte[] buf) throws IOException {
+        int n = inp_end - inp_pos;
+        if (n <= 0) {
+            if (closed || inp_eos) return -1;
+            throw new IOException("Incomplete message in multiplexed channel buffer");
+        }
+        if (n > buf.length) n = buf.length;
+        System.arraycopy(inp, inp_pos, buf, 0, n);
+        inp_pos += n;
+        return n;
+    }
+
+    private void reserve(int n) {
+        if (out.remaining() >= n) return;
+        int size = out.capacity() * 2;
+        while (size - out.position() < n) size *= 2;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        out.flip();
+        buf.put(out);
+        out = buf;
+    }
+
+    @Override
+    protected final void put(int b) throws IOException {
+        assert b >= 0 && b <= 0xff;
+        if (closed) return;
+        reserve(1);
+        out.put((byte)b);
+    }
+
+    @Override
+    protected final void put(byte[] buf, int offs, int size) throws IOException {
+        if (closed) return;
+        reserve(size);
+        out.put(buf, offs, size);
+    }
+
+    @Override
+    protected final void flush() throws IOException {
+        // Data is sent by the connection worker thread after transmit() returns
+    }
+
+    @Override
+    protected void stop() throws IOException {
+        closing = true;
+        connection.post(this);
+        synchronized (this) {
+            long time = System.currentTimeMillis() + CLOSE_TIMEOUT;
+            while (!closed) {
+                long delay = time - System.currentTimeMillis();
+                if (delay <= 0) break;
+                try {
+                    wait(delay);
+                }
+                catch (InterruptedException x) {
+                    break;
+                }
+            }
+            closed = true;
+        }
+        connection.remove(this);
+    }
+}
@@ -0,0 +1,504 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * ChannelNIO is a IChannel implementation that works on top of TCP sockets as a transport.
+ *
+ * Unlike ChannelTCP, the channel does not use dedicated receiver and transmitter threads.
+ * All ChannelNIO instances are multiplexed over a small pool of NIO selector threads.
+ * Message framing is same as in StreamChannel, so ChannelNIO can talk to any TCP peer.
+ *
+ * The size of the selector thread pool can be set by "org.eclipse.tcf.core.nio_threads" system property.
+ */
+public class ChannelNIO extends StreamChannel {
+
+    private static final int OUT_BUF_LIMIT = 0x10000;
+    private static final int CLOSE_TIMEOUT = 2000;
+
+    private static Dispatcher[] dispatchers;
+    private static int dispatcher_cnt;
+
+    private final Dispatcher dispatcher;
+    private final AtomicBoolean write_requested = new AtomicBoolean();
+    private final String host;
+    private final int port;
+    private SocketChannel socket;
+    private SelectionKey key;
+    private int timeout;
+    private volatile boolean connected;
+    private volatile boolean started;
+    private volatile boolean closing;
+    private volatile boolean closed;
+    private volatile IToken connect_timer;
+
+    /* Input buffer: bytes [inp_pos, inp.position()) are received,
+     * bytes [inp_pos, inp_end) belong to complete messages,
+     * bytes [inp_scan, inp.position()) are not scanned yet.
+     */
+    private ByteBuffer inp = ByteBuffer.allocate(0x4000);
+    private int inp_pos;
+    private int inp_end;
+    private int inp_scan;
+    private boolean inp_eos;
+    private boolean inp_done;
+    private final Scanner scanner = new Scanner();
+
+    private ByteBuffer out = ByteBuffer.allocate(0x4000);
+    private long out_cnt;
+    private boolean out_done;
+
+    private static class Dispatcher extends Thread {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<ChannelNIO> pending = new ConcurrentLinkedQueue<ChannelNIO>();
+
+        Dispatcher(int id) throws IOException {
+            selector = Selector.open();
+            setName("TCF NIO Dispatcher " + id);
+            setDaemon(true);
+        }
+
+        void post(ChannelNIO channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                try {
+                    selector.select();
+                    for (;;) {
+                        ChannelNIO c = pending.poll();
+                        if (c == null) break;
+                        c.onPending();
+                    }
+                    Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+                    while (i.hasNext()) {
+                        SelectionKey k = i.next();
+                        i.remove();
+                        ((ChannelNIO)k.attachment()).onSelected(k);
+                    }
+                }
+                catch (Throwable x) {
+                    Protocol.log("Exception in TCF NIO dispatcher", x);
+                }
+            }
+        }
+    }
+
+    private static synchronized Dispatcher getDispatcher() throws IOException {
+        if (dispatchers == null) {
+            int n = Math.min(4, Runtime.getRuntime().availableProcessors());
+            String name = "org.eclipse.tcf.core.nio_threads";
+            try {
+                String s = System.getProperty(name);
+                if (s != null) n = Integer.parseInt(s);
+            }
+            catch (NumberFormatException x) {
+                Protocol.log("Invalid value of system property " + name, x);
+            }
+            if (n < 1) n = 1;
+            dispatchers = new Dispatcher[n];
+        }
+        int i = dispatcher_cnt++ % dispatchers.length;
+        if (dispatchers[i] == null) {
+            dispatchers[i] = new Dispatcher(i);
+            dispatchers[i].start();
+        }
+        return dispatchers[i];
+    }
+
+    public ChannelNIO(IPeer remote_peer, String host, int port) {
+        super(remote_peer);
+        this.host = host;
+        this.port = port;
+        Dispatcher d = null;
+        try {
+            d = getDispatcher();
+            socket = SocketChannel.open();
+            socket.configureBlocking(false);
+        }
+        catch (IOException x) {
+            onConnected(x);
+        }
+        dispatcher = d;
+        if (socket != null) {
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    if (timeout > 0) {
+                        connect_timer = Protocol.invokeLater(timeout, TimeUnit.MILLISECONDS, new Runnable() {
+                            public void run() {
+                                if (connected || closed) return;
+                                terminate(new SocketTimeoutException("Connect timed out: " + ChannelNIO.this.host + ":" + ChannelNIO.this.port));
+                            }
+                        });
+                    }
+                    dispatcher.post(ChannelNIO.this);
+                }
+            });
+        }
+    }
+
+    public ChannelNIO(IPeer local_peer, IPeer remote_peer, SocketChannel socket) throws IOException {
+        super(local_peer, remote_peer);
+        this.socket = socket;
+        host = null;
+        port = 0;
+        dispatcher = getDispatcher();
+        socket.configureBlocking(false);
+        socket.socket().setTcpNoDelay(true);
+        socket.socket().setKeepAlive(true);
+        connected = true;
+        onConnected(null);
+    }
+
+    public void setConnectTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    private void onConnected(final Throwable x) {
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                if (x != null) {
+                    terminate(x);
+                    closing = true;
+                }
+                if (closing || getState() == STATE_CLOSED) {
+                    closeSocket();
+                }
+                else {
+                    start();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void start() {
+        super.start();
+        started = true;
+        dispatcher.post(this);
+    }
+
+    @Override
+    protected boolean isEventDriven() {
+        return true;
+    }
+
+    @Override
+    protected void onOutputQueued() {
+        if (write_requested.compareAndSet(false, true)) dispatcher.post(this);
+    }
+
+    /* Called by dispatcher thread when the channel is posted */
+    private void onPending() {
+        try {
+            if (closed) return;
+            if (closing && (!started || out.position() == 0)) {
+                closeSocket();
+                return;
+            }
+            if (key == null) {
+                if (connected) {
+                    key = socket.register(dispatcher.selector, 0, this);
+                }
+                else {
+                    key = socket.register(dispatcher.selector, SelectionKey.OP_CONNECT, this);
+                    if (socket.connect(new InetSocketAddress(host, port))) finishConnect();
+                    return;
+                }
+            }
+            if (started && write_requested.compareAndSet(true, false)) fill();
+            updateInterest();
+        }
+        catch (Throwable x) {
+            onError(x);
+        }
+    }
+
+    /* Called by dispatcher thread when the channel socket is ready for I/O */
+    private void onSelected(SelectionKey k) {
+        try {
+            if (closed || !k.isValid()) return;
+            if (k.isConnectable()) {
+                finishConnect();
+                return;
+            }
+            if (k.isReadable()) onReadable();
+            if (k.isValid() && k.isWritable()) {
+                flush();
+                if (write_requested.compareAndSet(true, false)) fill();
+                if (closing && out.position() == 0) {
+                    closeSocket();
+                    return;
+                }
+            }
+            updateInterest();
+        }
+        catch (Throwable x) {
+            onError(x);
+        }
+    }
+
+    private void cancelConnectTimer() {
+        IToken t = connect_timer;
+        if (t == null) return;
+        connect_timer = null;
+        t.cancel();
+    }
+
+    private void finishConnect() throws IOException {
+        try {
+            if (!socket.finishConnect()) return;
+            connected = true;
+            cancelConnectTimer();
+            socket.socket().setTcpNoDelay(true);
+            socket.socket().setKeepAlive(true);
+            key.interestOps(0);
+            onConnected(null);
+        }
+        catch (IOException x) {
+            onConnected(x);
+        }
+    }
+
+    private void onError(Throwable x) {
+        if (!started) {
+            onConnected(x);
+            return;
+        }
+        inp_done = true;
+        out_done = true;
+        if (key != null && key.isValid()) key.interestOps(0);
+        if (closing) {
+            closeSocket();
+            return;
+        }
+        final Throwable error = x;
+        try {
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    terminate(error);
+                }
+            });
+        }
+        catch (IllegalStateException y) {
+            // TCF event dispatcher has shut down
+            closeSocket();
+        }
+    }
+
+    private void updateInterest() {
+        if (key == null || !key.isValid()) return;
+        int ops = 0;
+        if (started && !inp_done) ops |= SelectionKey.OP_READ;
+        if (out.position() > 0) ops |= SelectionKey.OP_WRITE;
+        if (key.interestOps() != ops) key.interestOps(ops);
+    }
+
+    /* Move queued messages into output buffer, until the buffer is full */
+    private void fill() throws IOException {
+        for (;;) {
+            if (out_done) return;
+            long cnt = out_cnt;
+            if (!transmit()) {
+                out_done = true;
+                return;
+            }
+            if (out.position() > 0) {
+                // Rest of the queue is transmitted when the socket accepts more data, see onSelected()
+                write_requested.set(true);
+                return;
+            }
+            // The socket took all data, transmit() might have stopped at the buffer limit
+            if (out_cnt == cnt) return;
+        }
+    }
+
+    @Override
+    protected boolean isOutputFull() {
+        return out.position() >= OUT_BUF_LIMIT;
+    }
+
+    private void onReadable() throws IOException {
+        if (inp_done) return;
+        if (!inp.hasRemaining()) {
+            if (inp_pos > 0) {
+                compact();
+            }
+            else {
+                ByteBuffer buf = ByteBuffer.allocate(inp.capacity() * 2);
+                inp.flip();
+                buf.put(inp);
+                inp = buf;
+            }
+        }
+        int rd = socket.read(inp);
+        if (rd < 0) inp_eos = true;
+        scan();
+        while (scanner.msg_cnt > 0) {
+            scanner.msg_cnt--;
+            if (!receive()) {
+                inp_done = true;
+                return;
+            }
+        }
+        if (inp_eos) {
+            while (receive()) {}
+            inp_done = true;
+            return;
+        }
+        if (inp_pos == inp.position()) {
+            inp_pos = inp_end = inp_scan = 0;
+            inp.clear();
+        }
+        else if (inp_pos > inp.capacity() / 2) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        int n = inp.position() - inp_pos;
+        byte[] arr = inp.array();
+        System.arraycopy(arr, inp_pos, arr, 0, n);
+        inp_end -= inp_pos;
+        inp_scan -= inp_pos;
+        inp_pos = 0;
+        inp.position(n);
+    }
+
+    /* Find end of complete messages in the input buffer */
+    private void scan() {
+        int end = inp.position();
+        int n = scanner.scan(inp.array(), inp_scan, end);
+        if (n >= 0) inp_end = n;
+        inp_scan = end;
+        if (scanner.eos) inp_eos = true;
+        if (inp_eos) inp_end = end;
+    }
+
+    private synchronized void closeSocket() {
+        if (closed) return;
+        closed = true;
+        cancelConnectTimer();
+        try {
+            if (key != null) key.cancel();
+            if (socket != null) socket.close();
+        }
+        catch (IOException x) {
+            Protocol.log("Cannot close socket", x);
+        }
+        notifyAll();
+    }
+
+    @Override
+    protected final int get() throws IOException {
+        if (inp_pos >= inp_end) {
+            if (closed || inp_eos) return -1;
+            throw new IOException("Incomplete message in NIO channel buffer");
+        }
+        return inp.array()[inp_pos++] & 0xff;
+    }
+
+    @Override
+    protected final int get(byte[] buf) throws IOException {
+        int n = inp_end - inp_pos;
+        if (n <= 0) {
+            if (closed || inp_eos) return -1;
+            throw new IOException("Incomplete message in NIO channel buffer");
+        }
+        if (n > buf.length) n = buf.length;
+        System.arraycopy(inp.array(), inp_pos, buf, 0, n);
+        inp_pos += n;
+        return n;
+    }
+
+    private void reserve(int n) {
+        if (out.remaining() >= n) return;
+        int size = out.capacity() * 2;
+        while (size - out.position() < n) size *= 2;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        out.flip();
+        buf.put(out);
+        out = buf;
+    }
+
+    @Override
+    protected final void put(int b) throws IOException {
+        assert b >= 0 && b <= 0xff;
+        if (closed) return;
+        reserve(1);
+        out.put((byte)b);
+        out_cnt++;
+    }
+
+    @Override
+    protected final void put(byte[] buf, int offs, int size) throws IOException {
+        if (closed) return;
+        reserve(size);
+        out.put(buf, offs, size);
+        out_cnt += size;
+    }
+
+    @Override
+    protected final void flush() throws IOException {
+        if (closed || out.position() == 0) return;
+        out.flip();
+        try {
+            socket.write(out);
+        }
+        finally {
+            out.compact();
+        }
+    }
+
+    @Override
+    protected void stop() throws IOException {
+        closing = true;
+        if (dispatcher == null) {
+            closeSocket();
+            return;
+        }
+        dispatcher.post(this);
+        synchronized (this) {
+            long time = System.currentTimeMillis() + CLOSE_TIMEOUT;
+            while (!closed) {
+                long delay = time - System.currentTimeMillis();
+                if (delay <= 0) break;
+                try {
+                    wait(delay);
+                }
+                catch (InterruptedException x) {
+                    break;
+                }
+            }
+        }
+        closeSocket();
+    }
+}
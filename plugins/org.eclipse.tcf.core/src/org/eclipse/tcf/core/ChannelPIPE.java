@@ -102,9 +102,9 @@ public class ChannelPIPE extends StreamChannel {
     }
 
     @Override
-    protected final void put(byte[] buf) throws IOException {
+    protected final void put(byte[] buf, int offs, int size) throws IOException {
         if (closed) return;
-        out.write(buf);
+        out.write(buf, offs, size);
     }
 
     @Override
@@ -0,0 +1,507 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * ChannelSHM is a IChannel implementation that works on top of shared memory as a transport.
+ * It is intended for connections between processes running on same host.
+ *
+ * The channel uses a memory mapped file that contains two ring buffers, one for each direction.
+ * A client creates the file in a directory that is watched by ServerSHM. The server accepts the
+ * connection by changing the file state and removes the file from the directory,
+ * the mapping stays valid until both sides close the channel.
+ *
+ * Java has no portable way to signal another process through shared memory, so each thread that
+ * can wait for the other side has a "doorbell": a datagram socket on the loopback interface.
+ * A side that waits for data or for free space spins for a short time, then sets a wait flag
+ * in the ring header and blocks on its doorbell, see waitRing(). The other side sends a datagram
+ * to the doorbell after it updates the ring, if the flag is set. The wait has a timeout, so a lost
+ * datagram only delays the channel, and it is used to check if the other side is still alive:
+ * each side holds a file lock while the channel is open, the lock is released by OS
+ * if the process dies, which allows the other side to detect a dead peer.
+ */
+public class ChannelSHM extends StreamChannel {
+
+    public static final String TRANSPORT_NAME = "SHM";
+
+    /** Peer attribute: path of a directory that is watched by ServerSHM */
+    public static final String ATTR_SHM_PATH = "SharedMemoryPath";
+
+    static final String
+        REQUEST_SUFFIX = ".shm",
+        ACCEPT_SUFFIX = ".acc";
+
+    private static final int
+        MAGIC = 0x54434653,
+        SHM_REQUEST = 1,
+        SHM_ACCEPTED = 2;
+
+    /* File header layout */
+    private static final int
+        HDR_MAGIC = 0,
+        HDR_STATE = 4,
+        HDR_RING_SIZE = 8,
+        HDR_CLIENT_CLOSED = 12,
+        HDR_SERVER_CLOSED = 16,
+        HDR_SIZE = 64;
+
+    /* Ring buffer header layout, fields of the writer and the reader are in separate cache lines:
+     * position, doorbell port and wait flag of each side */
+    private static final int
+        RING_WR = 0,
+        RING_WR_PORT = 8,
+        RING_WR_WAIT = 12,
+        RING_RD = 64,
+        RING_RD_PORT = 72,
+        RING_RD_WAIT = 76,
+        RING_HDR_SIZE = 128;
+
+    private static final int RING_SIZE = 0x100000;
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    /* Spin count before a thread blocks on its doorbell */
+    private static final int SPIN_CNT = 100;
+
+    /* Doorbell wait timeout, the peer process is checked to be alive after each timeout */
+    private static final int DOORBELL_TIMEOUT = 500;
+
+    private static InetAddress loopback;
+
+    private final boolean server;
+    private int timeout = CONNECT_TIMEOUT;
+    private FileChannel file;
+    private FileLock lock;
+    private MappedByteBuffer map;
+    private int ring_mask;
+    private long file_size;
+
+    private int inp_hdr;
+    private ByteBuffer inp_data;
+    private long inp_rd;
+    private DatagramSocket inp_bell;
+    private final DatagramPacket inp_ring = new DatagramPacket(new byte[1], 1);
+    private final byte[] inp_byte = new byte[1];
+
+    private int out_hdr;
+    private ByteBuffer out_data;
+    private long out_wr;
+    private long out_rd;
+    private long out_pub;
+    private DatagramSocket out_bell;
+    private final DatagramPacket out_ring = new DatagramPacket(new byte[1], 1);
+
+    /* Volatile access is used as a memory barrier around updates of ring positions.
+     * Note: this ordering is an assumption about the implementation, it is not guaranteed by the JMM:
+     * MappedByteBuffer puts and gets are plain memory accesses, and the JMM only orders them
+     * for threads that synchronize on the same volatile variable, which the peer process cannot do.
+     * It holds on HotSpot, where a volatile write is a full fence, and the JIT does not move
+     * buffer accesses across volatile accesses. Java 9 VarHandle fences would make it explicit,
+     * the channel must run on Java 6. */
+    private volatile int barrier;
+
+    private boolean started;
+    private volatile boolean closed;
+
+    public ChannelSHM(IPeer remote_peer, final String path) {
+        super(remote_peer);
+        server = false;
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            connect(path);
+                            onConnected(null);
+                        }
+                        catch (Exception x) {
+                            onConnected(x);
+                        }
+                    }
+                };
+                thread.setName("TCF SHM Connect");
+                thread.start();
+            }
+        });
+    }
+
+    ChannelSHM(IPeer local_peer, IPeer remote_peer, File f) throws IOException {
+        super(local_peer, remote_peer);
+        server = true;
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            file = raf.getChannel();
+            long size = file.size();
+            if (size < HDR_SIZE) throw new IOException("Invalid shared memory file size");
+            map = file.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (map.getInt(HDR_MAGIC) != MAGIC) throw new IOException("Invalid shared memory file");
+            if (map.getInt(HDR_STATE) != SHM_REQUEST) throw new IOException("Invalid shared memory file state");
+            int ring_size = map.getInt(HDR_RING_SIZE);
+            if (ring_size <= 0 || (ring_size & (ring_size - 1)) != 0 ||
+                    size != HDR_SIZE + (RING_HDR_SIZE + ring_size) * 2L) {
+                throw new IOException("Invalid shared memory ring size");
+            }
+            init(ring_size);
+            lock = file.lock(file_size + 1, 1, false);
+            barrier = 0;
+            map.putInt(HDR_STATE, SHM_ACCEPTED);
+            barrier = 0;
+            ring(out_bell, map.getInt(out_hdr + RING_RD_PORT));
+        }
+        catch (IOException x) {
+            closeDoorbells();
+            raf.close();
+            throw x;
+        }
+        onConnected(null);
+    }
+
+    public void setConnectTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    private void connect(String path) throws IOException {
+        File dir = new File(path);
+        File tmp = File.createTempFile("tcf", ".tmp", dir);
+        String name = tmp.getName();
+        File req = new File(dir, name.substring(0, name.length() - 4) + REQUEST_SUFFIX);
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        boolean ok = false;
+        try {
+            file = raf.getChannel();
+            raf.setLength(HDR_SIZE + (RING_HDR_SIZE + RING_SIZE) * 2L);
+            map = file.map(FileChannel.MapMode.READ_WRITE, 0, file.size());
+            init(RING_SIZE);
+            lock = file.lock(file_size, 1, false);
+            map.putInt(HDR_RING_SIZE, RING_SIZE);
+            map.putInt(HDR_STATE, SHM_REQUEST);
+            map.putInt(HDR_MAGIC, MAGIC);
+            if (!tmp.renameTo(req)) throw new IOException("Cannot rename " + tmp);
+            ring(out_bell, ServerSHM.getDoorbellPort(dir));
+            /* The server rings the client input doorbell when the request is accepted */
+            long time = System.currentTimeMillis();
+            while (map.getInt(HDR_STATE) != SHM_ACCEPTED) {
+                long wait = timeout - (System.currentTimeMillis() - time);
+                if (wait <= 0) {
+                    throw new SocketTimeoutException("Shared memory server is not responding: " + path);
+                }
+                inp_bell.setSoTimeout((int)Math.min(wait, 100));
+                try {
+                    inp_bell.receive(inp_ring);
+                }
+                catch (SocketTimeoutException x) {
+                    // Check the state again
+                }
+            }
+            ok = true;
+        }
+        finally {
+            if (!ok) {
+                closeDoorbells();
+                if (map != null) map.putInt(HDR_CLIENT_CLOSED, 1);
+                if (!req.delete()) tmp.delete();
+                raf.close();
+            }
+        }
+    }
+
+    private void init(int ring_size) throws IOException {
+        ring_mask = ring_size - 1;
+        file_size = HDR_SIZE + (RING_HDR_SIZE + ring_size) * 2L;
+        int ring0 = HDR_SIZE;
+        int ring1 = HDR_SIZE + RING_HDR_SIZE + ring_size;
+        inp_hdr = server ? ring0 : ring1;
+        out_hdr = server ? ring1 : ring0;
+        inp_data = slice(inp_hdr + RING_HDR_SIZE, ring_size);
+        out_data = slice(out_hdr + RING_HDR_SIZE, ring_size);
+        inp_rd = map.getLong(inp_hdr + RING_RD);
+        out_wr = out_pub = map.getLong(out_hdr + RING_WR);
+        out_rd = map.getLong(out_hdr + RING_RD);
+        inp_bell = openDoorbell();
+        out_bell = openDoorbell();
+        map.putInt(inp_hdr + RING_RD_PORT, inp_bell.getLocalPort());
+        map.putInt(out_hdr + RING_WR_PORT, out_bell.getLocalPort());
+    }
+
+    static synchronized InetAddress getLoopback() throws IOException {
+        if (loopback == null) loopback = InetAddress.getByName(null);
+        return loopback;
+    }
+
+    /**
+     * Create a doorbell: a datagram socket on the loopback interface.
+     */
+    static DatagramSocket openDoorbell() throws IOException {
+        return new DatagramSocket(new InetSocketAddress(getLoopback(), 0));
+    }
+
+    /**
+     * Send a datagram to a doorbell.
+     * @param socket - socket to send from.
+     * @param port - port of the doorbell, 0 if unknown.
+     */
+    static void ring(DatagramSocket socket, int port) throws IOException {
+        if (port <= 0 || port > 0xffff) return;
+        socket.send(new DatagramPacket(new byte[1], 1, getLoopback(), port));
+    }
+
+    private void closeDoorbells() {
+        if (inp_bell != null) inp_bell.close();
+        if (out_bell != null) out_bell.close();
+    }
+
+    private ByteBuffer slice(int offs, int size) {
+        ByteBuffer b = map.duplicate();
+        b.position(offs);
+        b.limit(offs + size);
+        return b.slice();
+    }
+
+    private void onConnected(final Throwable x) {
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                if (x != null) {
+                    terminate(x);
+                    closed = true;
+                }
+                if (closed) {
+                    closeDoorbells();
+                    try {
+                        if (file != null) {
+                            if (map != null) map.putInt(server ? HDR_SERVER_CLOSED : HDR_CLIENT_CLOSED, 1);
+                            file.close();
+                        }
+                    }
+                    catch (IOException y) {
+                        Protocol.log("Cannot close shared memory file", y);
+                    }
+                }
+                else {
+                    started = true;
+                    start();
+                }
+            }
+        });
+    }
+
+    private boolean isPeerClosed() {
+        return map.getInt(server ? HDR_CLIENT_CLOSED : HDR_SERVER_CLOSED) != 0;
+    }
+
+    private boolean isPeerAlive() throws IOException {
+        try {
+            FileLock l = file.tryLock(server ? file_size : file_size + 1, 1, false);
+            if (l == null) return true;
+            l.release();
+            return false;
+        }
+        catch (OverlappingFileLockException x) {
+            /* The peer is in same JVM */
+            return true;
+        }
+    }
+
+    /**
+     * Wait for the other side to update the ring buffer.
+     * The method spins for a short time. Then it sets the wait flag and returns,
+     * so the caller checks the ring again before the thread is blocked on the doorbell.
+     * After that, each call blocks until the doorbell rings or the wait times out,
+     * and checks if the other process is still alive.
+     * The caller must clear the wait flag when the wait is over.
+     * @param cnt - number of times the method was called for current wait.
+     * @param bell - doorbell of the calling thread.
+     * @param flag - offset of the wait flag in the file.
+     * @param packet - buffer for doorbell datagrams.
+     */
+    private void waitRing(int cnt, DatagramSocket bell, int flag, DatagramPacket packet) throws IOException {
+        if (cnt < SPIN_CNT) {
+            Thread.yield();
+            return;
+        }
+        if (cnt == SPIN_CNT) {
+            map.putInt(flag, 1);
+            /* The flag must be visible before the ring is checked again */
+            fence();
+            return;
+        }
+        try {
+            bell.setSoTimeout(DOORBELL_TIMEOUT);
+            bell.receive(packet);
+        }
+        catch (SocketTimeoutException x) {
+            if (!closed && !isPeerAlive()) {
+                throw new IOException("Shared memory channel peer process is terminated");
+            }
+        }
+    }
+
+    /* Volatile write followed by volatile read: stores before it are visible to loads after it */
+    private int fence() {
+        barrier = 0;
+        return barrier;
+    }
+
+    private void endWait(int cnt, int flag) {
+        if (cnt > SPIN_CNT) map.putInt(flag, 0);
+    }
+
+    /* Ring the peer doorbell if the peer is waiting, called after a ring position is updated */
+    private void notifyPeer(DatagramSocket bell, int flag, int port) throws IOException {
+        /* The position must be visible before the flag is checked */
+        fence();
+        if (map.getInt(flag) != 0) ring(bell, map.getInt(port));
+    }
+
+    @Override
+    protected final int get() throws IOException {
+        if (get(inp_byte) < 0) return -1;
+        return inp_byte[0] & 0xff;
+    }
+
+    @Override
+    protected final int get(byte[] buf) throws IOException {
+        try {
+            return read(buf);
+        }
+        catch (IOException x) {
+            if (closed) return -1;
+            throw x;
+        }
+    }
+
+    private int read(byte[] buf) throws IOException {
+        long wr = 0;
+        int cnt = 0;
+        try {
+            for (;;) {
+                if (closed) return -1;
+                boolean eos = isPeerClosed();
+                wr = map.getLong(inp_hdr + RING_WR);
+                if (wr != inp_rd) break;
+                if (eos) return -1;
+                waitRing(cnt++, inp_bell, inp_hdr + RING_RD_WAIT, inp_ring);
+            }
+        }
+        finally {
+            endWait(cnt, inp_hdr + RING_RD_WAIT);
+        }
+        /* Volatile read: ring data must not be read ahead of the write position */
+        if (barrier < 0) return -1;
+        int n = (int)Math.min(wr - inp_rd, buf.length);
+        int pos = (int)inp_rd & ring_mask;
+        int m = Math.min(n, ring_mask + 1 - pos);
+        inp_data.position(pos);
+        inp_data.get(buf, 0, m);
+        if (m < n) {
+            inp_data.position(0);
+            inp_data.get(buf, m, n - m);
+        }
+        inp_rd += n;
+        barrier = 0;
+        map.putLong(inp_hdr + RING_RD, inp_rd);
+        notifyPeer(inp_bell, inp_hdr + RING_WR_WAIT, inp_hdr + RING_WR_PORT);
+        return n;
+    }
+
+    private int reserve() throws IOException {
+        int cnt = 0;
+        try {
+            for (;;) {
+                int free = (int)(ring_mask + 1 - (out_wr - out_rd));
+                if (free > 0) return free;
+                out_rd = map.getLong(out_hdr + RING_RD);
+                if (out_wr - out_rd <= ring_mask) continue;
+                publish();
+                if (isPeerClosed()) throw new IOException("Shared memory channel is closed by remote peer");
+                waitRing(cnt++, out_bell, out_hdr + RING_WR_WAIT, out_ring);
+                if (closed) return 0;
+            }
+        }
+        finally {
+            endWait(cnt, out_hdr + RING_WR_WAIT);
+        }
+    }
+
+    private void publish() throws IOException {
+        if (out_pub == out_wr) return;
+        barrier = 0;
+        map.putLong(out_hdr + RING_WR, out_wr);
+        out_pub = out_wr;
+        notifyPeer(out_bell, out_hdr + RING_RD_WAIT, out_hdr + RING_RD_PORT);
+    }
+
+    @Override
+    protected final void put(int b) throws IOException {
+        assert b >= 0 && b <= 0xff;
+        if (closed) return;
+        if (reserve() == 0) return;
+        out_data.put((int)out_wr & ring_mask, (byte)b);
+        out_wr++;
+    }
+
+    @Override
+    protected final void put(byte[] buf, int offs, int size) throws IOException {
+        while (size > 0) {
+            if (closed) return;
+            int n = Math.min(reserve(), size);
+            if (n == 0) return;
+            int pos = (int)out_wr & ring_mask;
+            int m = Math.min(n, ring_mask + 1 - pos);
+            out_data.position(pos);
+            out_data.put(buf, offs, m);
+            out_wr += m;
+            offs += m;
+            size -= m;
+        }
+    }
+
+    @Override
+    protected final void flush() throws IOException {
+        if (closed) return;
+        publish();
+    }
+
+    @Override
+    protected void stop() throws IOException {
+        closed = true;
+        if (started) {
+            map.putInt(server ? HDR_SERVER_CLOSED : HDR_CLIENT_CLOSED, 1);
+            /* Wake up the peer threads, so they see the channel is closed */
+            barrier = 0;
+            try {
+                ring(out_bell, map.getInt(out_hdr + RING_RD_PORT));
+                ring(out_bell, map.getInt(inp_hdr + RING_WR_PORT));
+            }
+            catch (IOException x) {
+                // Peer threads will see the flag after the doorbell timeout
+            }
+            closeDoorbells();
+            if (lock.isValid()) lock.release();
+            file.close();
+        }
+    }
+}
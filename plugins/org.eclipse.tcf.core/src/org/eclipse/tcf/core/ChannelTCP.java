@@ -60,7 +60,7 @@ public class ChannelTCP extends StreamChannel {
                                 ((SSLSocket)socket).startHandshake();
                             }
                             inp = new BufferedInputStream(socket.getInputStream());
-                            out = new BufferedOutputStream(socket.getOutputStream());
+                            out = new BufferedOutputStream(socket.getOutputStream(), 0x10000);
                             onSocketConnected(null);
                         }
                         catch (Exception x) {
@@ -84,7 +84,7 @@ public class ChannelTCP extends StreamChannel {
         socket.setTcpNoDelay(true);
         socket.setKeepAlive(true);
         inp = new BufferedInputStream(socket.getInputStream());
-        out = new BufferedOutputStream(socket.getOutputStream());
+        out = new BufferedOutputStream(socket.getOutputStream(), 0x10000);
         onSocketConnected(null);
     }
 
@@ -175,9 +175,9 @@ public class ChannelTCP extends StreamChannel {
     }
 
     @Override
-    protected final void put(byte[] buf) throws IOException {
+    protected final void put(byte[] buf, int offs, int size) throws IOException {
         if (closed) return;
-        out.write(buf);
+        out.write(buf, offs, size);
     }
 
     @Override
@@ -11,6 +11,7 @@
 package org.eclipse.tcf.core;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
@@ -29,7 +30,9 @@ import org.eclipse.tcf.protocol.Protocol;
 /**
  * This is utility class that helps to implement sending a command and receiving
  * command result over TCF communication channel. The class uses JSON to encode
- * command arguments and to decode result data.
+ * command arguments and to decode result data. If the channel has negotiated
+ * binary encoding, see AbstractChannel.BINARY_ENCODING, arguments are sent in binary encoding,
+ * which JSON decoding methods recognize, so subclasses do not depend on the choice.
  *
  * The class also provides support for TCF standard error report encoding.
  *
@@ -56,7 +59,7 @@ import org.eclipse.tcf.protocol.Protocol;
  *      }.token;
  *  }
  */
-public abstract class Command implements IChannel.ICommandListener {
+public abstract class Command implements AbstractChannel.BufferCommandListener {
 
     private final IService service;
     private final String command;
@@ -75,8 +78,11 @@ public abstract class Command implements IChannel.ICommandListener {
         this.args = args;
         IToken t = null;
         try {
-            boolean zero_copy = ((AbstractChannel)channel).isZeroCopySupported();
-            t = channel.sendCommand(service, command, JSON.toJSONSequence(args, zero_copy), this);
+            AbstractChannel c = (AbstractChannel)channel;
+            byte[] data = null;
+            if (c.isBinaryEncodingSupported()) data = JSON.toBinarySequence(args);
+            else data = JSON.toJSONSequence(args, c.isZeroCopySupported());
+            t = channel.sendCommand(service, command, data, this);
         }
         catch (Throwable y) {
             t = new Token();
@@ -96,16 +102,36 @@ public abstract class Command implements IChannel.ICommandListener {
         assert this.token == token;
     }
 
+    public void progress(IToken token, ByteBuffer data) {
+        assert this.token == token;
+    }
+
     public void result(IToken token, byte[] data) {
+        result(token, data == null ? null : ByteBuffer.wrap(data));
+    }
+
+    public void result(IToken token, ByteBuffer data) {
         assert this.token == token;
         Exception error = null;
         Object[] args = null;
         try {
-            args = JSON.parseSequence(data);
+            args = parseResult(data);
         }
         catch (Exception e) {
             error = e;
         }
+        result(token, args, error);
+    }
+
+    /**
+     * Decode command result data on the channel receiver thread.
+     * Only used if a subclass implements AbstractChannel.DecodingCommandListener.
+     */
+    public Object[] decodeResult(IToken token, ByteBuffer data) throws Exception {
+        return parseResult(data);
+    }
+
+    public void result(IToken token, Object[] args, Exception error) {
         assert !done;
         done = true;
         done(error, args);
@@ -118,6 +144,22 @@ public abstract class Command implements IChannel.ICommandListener {
         done(error, null);
     }
 
+    /**
+     * Decode command result data.
+     * Default implementation converts the data to Java objects by using JSON.parseSequence().
+     * Clients can override the method to decode the data straight into result objects
+     * by using JSONPullParser, returned array is passed to done().
+     * If a subclass implements AbstractChannel.DecodingCommandListener, the method can be called
+     * by the channel receiver thread, so it must be thread safe: it should only decode the data,
+     * and leave everything else to done().
+     * @param data - command result data.
+     * @return array of decoded result values.
+     * @throws IOException
+     */
+    protected Object[] parseResult(ByteBuffer data) throws IOException {
+        return JSON.parseSequence(data);
+    }
+
     public abstract void done(Exception error, Object[] args);
 
     private int getArgSizeLimit() {
@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.tcf.internal.services.local.LocatorService;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * MuxConnection is a physical TCP connection that carries many logical channels (ChannelMux).
+ * Opening a logical channel over an established connection does not need
+ * a new socket, a new TCP handshake or new threads.
+ *
+ * Each logical channel is a stream of frames, identified by a stream ID.
+ * Streams opened by the connecting side have odd IDs, streams opened by the accepting side have even IDs.
+ * Frame format: type byte, stream ID, then, depending on the type:
+ *   'O' - open a stream,
+ *   'D' - data: size, bytes,
+ *   'W' - window update: number of bytes the receiver has taken in since last update,
+ *   'C' - close: the sender will not send more data on the stream.
+ * Numbers are encoded as in StreamChannel: 7 bits per byte, least significant first.
+ *
+ * Flow control is done per stream: a side can have at most STREAM_WINDOW bytes of data
+ * in flight for a stream, so a stream that is not read by its client cannot block other streams.
+ * The receiver returns window credit after the messages are handled by the dispatch thread.
+ *
+ * A connection uses two threads: a reader thread, which only reads frames from the socket,
+ * and a worker thread, which decodes incoming messages and transmits outgoing messages of all
+ * its logical channels. Logical channels are event driven, they have no threads of their own.
+ * An error in a logical channel terminates that channel only.
+ *
+ * A shared connection, see getConnection(), is closed when its last logical channel is closed.
+ * Connections to a server are accepted by ServerMux.
+ */
+public class MuxConnection {
+
+    static final int STREAM_WINDOW = 0x40000;
+    static final int MAX_FRAME_SIZE = 0x4000;
+
+    static final int
+        FRAME_OPEN = 'O',
+        FRAME_DATA = 'D',
+        FRAME_WINDOW = 'W',
+        FRAME_CLOSE = 'C';
+
+    private static final Object FRAME_CLOSE_OBJ = new Object();
+
+    private static final byte[] MAGIC = { 'T', 'C', 'F', 'M', 'U', 'X', '1', 0 };
+
+    private static final Map<String,MuxConnection> connections = new HashMap<String,MuxConnection>();
+
+    private final String key;
+    private final IPeer local_peer;
+    private final Socket socket;
+    private final Map<Integer,ChannelMux> channels = new ConcurrentHashMap<Integer,ChannelMux>();
+    /* Streams opened by remote side that don't have a channel yet, and frames received for them */
+    private final Map<Integer,List<Object>> opening = new HashMap<Integer,List<Object>>();
+    private final ConcurrentLinkedQueue<ChannelMux> ready = new ConcurrentLinkedQueue<ChannelMux>();
+    private final Thread reader;
+    private final Thread worker;
+    private InputStream inp;
+    private OutputStream out;
+    private int next_id;
+    private volatile boolean worker_waiting;
+    private volatile boolean idle;
+    private volatile Throwable error;
+    private volatile boolean closed;
+
+    /**
+     * Get a shared connection to given host and port, create a new one if needed.
+     * Must be called on the dispatch thread.
+     * @param host - host name or address.
+     * @param port - TCP port.
+     * @return the connection.
+     */
+    public static MuxConnection getConnection(String host, int port) {
+        assert Protocol.isDispatchThread();
+        String key = host + ":" + port;
+        MuxConnection c = connections.get(key);
+        if (c == null || c.closed || c.idle) {
+            c = new MuxConnection(key, host, port);
+            connections.put(key, c);
+        }
+        return c;
+    }
+
+    private MuxConnection(String key, final String host, final int port) {
+        this.key = key;
+        local_peer = null;
+        socket = new Socket();
+        next_id = 1;
+        reader = createReader();
+        worker = createWorker();
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    socket.connect(new InetSocketAddress(host, port));
+                    socket.setTcpNoDelay(true);
+                    socket.setKeepAlive(true);
+                    inp = new BufferedInputStream(socket.getInputStream(), 0x10000);
+                    out = new BufferedOutputStream(socket.getOutputStream(), 0x10000);
+                    out.write(MAGIC);
+                    reader.start();
+                    worker.start();
+                }
+                catch (Throwable x) {
+                    onError(x);
+                }
+            }
+        };
+        thread.setName("TCF Mux Connect");
+        thread.start();
+    }
+
+    /**
+     * Create a connection for a socket accepted by a server.
+     * Logical channels opened by the remote side are created with given local peer.
+     * @param local_peer - the server peer.
+     * @param socket - accepted socket.
+     * @throws IOException
+     */
+    public MuxConnection(IPeer local_peer, Socket socket) throws IOException {
+        assert local_peer != null;
+        key = null;
+        this.local_peer = local_peer;
+        this.socket = socket;
+        next_id = 2;
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        inp = new BufferedInputStream(socket.getInputStream(), 0x10000);
+        out = new BufferedOutputStream(socket.getOutputStream(), 0x10000);
+        out.write(MAGIC);
+        reader = createReader();
+        worker = createWorker();
+        reader.start();
+        worker.start();
+    }
+
+    /**
+     * Open a new logical channel over this connection.
+     * Must be called on the dispatch thread.
+     * @param remote_peer - remote peer of the channel.
+     * @return the channel.
+     */
+    public IChannel openChannel(IPeer remote_peer) {
+        assert Protocol.isDispatchThread();
+        int id = next_id;
+        next_id += 2;
+        return new ChannelMux(LocatorService.getLocalPeer(), remote_peer, this, id, true);
+    }
+
+    /**
+     * @return true if the connection is closed or broken.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the connection and all its logical channels.
+     */
+    public void close() {
+        onError(new IOException("Connection closed"));
+    }
+
+    void add(ChannelMux c) {
+        synchronized (opening) {
+            List<Object> frames = opening.remove(c.id);
+            channels.put(c.id, c);
+            if (frames != null) {
+                for (Object f : frames) deliver(c, f);
+            }
+        }
+        if (closed) c.onLinkError(error);
+        else if (idle) c.onLinkError(new IOException("Connection closed"));
+    }
+
+    void remove(ChannelMux c) {
+        if (channels.remove(c.id) == null) return;
+        if (key == null || !channels.isEmpty()) return;
+        try {
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    closeIfIdle();
+                }
+            });
+        }
+        catch (IllegalStateException x) {
+            // TCF event dispatcher has shut down
+        }
+    }
+
+    /*
+     * Close a shared connection that has no channels.
+     * Called on the dispatch thread, same as getConnection() and openChannel(),
+     * so a new channel cannot be opened over the connection while it is closing.
+     * The worker thread flushes the output and closes the socket.
+     */
+    private void closeIfIdle() {
+        synchronized (opening) {
+            if (!channels.isEmpty() || !opening.isEmpty()) return;
+        }
+        if (closed || idle) return;
+        idle = true;
+        if (connections.get(key) == this) connections.remove(key);
+        LockSupport.unpark(worker);
+    }
+
+    /* Schedule the channel to be processed by the worker thread */
+    void post(ChannelMux c) {
+        if (!c.posted.compareAndSet(false, true)) return;
+        ready.add(c);
+        if (worker_waiting) LockSupport.unpark(worker);
+    }
+
+    private Thread createReader() {
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    byte[] magic = new byte[MAGIC.length];
+                    readFully(magic);
+                    for (int i = 0; i < MAGIC.length; i++) {
+                        if (magic[i] != MAGIC[i]) throw new IOException("Invalid multiplexed connection header");
+                    }
+                    while (!closed) readFrame();
+                }
+                catch (Throwable x) {
+                    onError(x);
+                }
+            }
+        };
+        thread.setName("TCF Mux Reader");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private Thread createWorker() {
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    while (!closed) {
+                        ChannelMux c = ready.poll();
+                        if (c == null) {
+                            out.flush();
+                            if (idle) {
+                                onError(new IOException("Connection closed"));
+                                break;
+                            }
+                            worker_waiting = true;
+                            if (ready.isEmpty() && !closed && !idle) LockSupport.park(this);
+                            worker_waiting = false;
+                            continue;
+                        }
+                        c.posted.set(false);
+                        try {
+                            c.process();
+                        }
+                        catch (Throwable x) {
+                            /* Socket errors close the connection, other errors close the channel only */
+                            if (closed) break;
+                            c.onProcessError(x);
+                        }
+                    }
+                }
+                catch (Throwable x) {
+                    onError(x);
+                }
+            }
+        };
+        thread.setName("TCF Mux Worker");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void readFully(byte[] buf) throws IOException {
+        int pos = 0;
+        while (pos < buf.length) {
+            int rd = inp.read(buf, pos, buf.length - pos);
+            if (rd < 0) throw new EOFException("Multiplexed connection closed by remote peer");
+            pos += rd;
+        }
+    }
+
+    private int readSize() throws IOException {
+        int size = 0;
+        for (int i = 0;; i += 7) {
+            int m = inp.read();
+            if (m < 0) throw new EOFException("Multiplexed connection closed by remote peer");
+            size |= (m & 0x7f) << i;
+            if ((m & 0x80) == 0) return size;
+        }
+    }
+
+    private void readFrame() throws IOException {
+        int type = inp.read();
+        if (type < 0) throw new EOFException("Multiplexed connection closed by remote peer");
+        final int id = readSize();
+        switch (type) {
+        case FRAME_OPEN:
+            synchronized (opening) {
+                if (channels.get(id) != null || opening.get(id) != null || (id & 1) == (next_id & 1)) {
+                    throw new IOException("Invalid stream ID: " + id);
+                }
+                opening.put(id, new ArrayList<Object>());
+            }
+            /* The reader does not wait for the channel, frames of the stream are kept until it is created */
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    if (closed) return;
+                    IPeer peer = local_peer;
+                    if (peer == null) peer = LocatorService.getLocalPeer();
+                    new ChannelMux(peer, getTransientPeer(), MuxConnection.this, id, false);
+                }
+            });
+            break;
+        case FRAME_DATA:
+            int size = readSize();
+            if (size > MAX_FRAME_SIZE) throw new IOException("Invalid frame size: " + size);
+            byte[] buf = new byte[size];
+            readFully(buf);
+            deliver(id, buf);
+            break;
+        case FRAME_WINDOW:
+            deliver(id, Integer.valueOf(readSize()));
+            break;
+        case FRAME_CLOSE:
+            deliver(id, FRAME_CLOSE_OBJ);
+            break;
+        default:
+            throw new IOException("Invalid frame type: " + type);
+        }
+    }
+
+    /* Deliver a frame to its stream, or keep it if the channel of the stream is not created yet */
+    private void deliver(int id, Object frame) {
+        ChannelMux c = channels.get(id);
+        if (c == null) {
+            synchronized (opening) {
+                c = channels.get(id);
+                if (c == null) {
+                    List<Object> frames = opening.get(id);
+                    if (frames != null) frames.add(frame);
+                    return;
+                }
+            }
+        }
+        deliver(c, frame);
+    }
+
+    private static void deliver(ChannelMux c, Object frame) {
+        if (frame instanceof byte[]) c.onData((byte[])frame);
+        else if (frame instanceof Integer) c.onWindow(((Integer)frame).intValue());
+        else c.onRemoteClose();
+    }
+
+    private IPeer getTransientPeer() {
+        String host = socket.getInetAddress().getHostAddress();
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, "MUX:Transient:" + host + ":" + socket.getPort());
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, "MUX");
+        attrs.put(IPeer.ATTR_IP_HOST, host);
+        return new TransientPeer(attrs);
+    }
+
+    private void writeSize(int n) throws IOException {
+        for (;;) {
+            if (n <= 0x7f) {
+                out.write(n);
+                break;
+            }
+            out.write((n & 0x7f) | 0x80);
+            n = n >> 7;
+        }
+    }
+
+    /* Frame writing methods are called by the worker thread only.
+     * A write error breaks the connection, it is reported to all channels. */
+
+    void writeFrame(int type, int id) throws IOException {
+        try {
+            out.write(type);
+            writeSize(id);
+        }
+        catch (IOException x) {
+            onError(x);
+            throw x;
+        }
+    }
+
+    void writeWindow(int id, int n) throws IOException {
+        try {
+            out.write(FRAME_WINDOW);
+            writeSize(id);
+            writeSize(n);
+        }
+        catch (IOException x) {
+            onError(x);
+            throw x;
+        }
+    }
+
+    void writeData(int id, byte[] buf, int offs, int size) throws IOException {
+        try {
+            out.write(FRAME_DATA);
+            writeSize(id);
+            writeSize(size);
+            out.write(buf, offs, size);
+        }
+        catch (IOException x) {
+            onError(x);
+            throw x;
+        }
+    }
+
+    private void onError(Throwable x) {
+        synchronized (this) {
+            if (closed) return;
+            error = x;
+            closed = true;
+        }
+        try {
+            socket.close();
+        }
+        catch (IOException y) {
+            Protocol.log("Cannot close socket", y);
+        }
+        LockSupport.unpark(worker);
+        synchronized (opening) {
+            opening.clear();
+        }
+        for (ChannelMux c : new ArrayList<ChannelMux>(channels.values())) c.onLinkError(x);
+        channels.clear();
+        if (key != null) {
+            try {
+                Protocol.invokeLater(new Runnable() {
+                    public void run() {
+                        if (connections.get(key) == MuxConnection.this) connections.remove(key);
+                    }
+                });
+            }
+            catch (IllegalStateException y) {
+                // TCF event dispatcher has shut down
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.tcf.protocol.IEventQueue;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * RingEventQueue is IEventQueue implementation for high event rates.
+ *
+ * The queue is a lock-free multi-producer single-consumer ring buffer: a chain of fixed size
+ * segments, producers claim slots with an atomic increment, and the dispatch thread reads
+ * the slots in order, without locks, in batches. When the queue is empty, the dispatch thread
+ * spins for a while before parking, the spin limit adapts to the event rate.
+ *
+ * The queue keeps metrics: queue depth, maximal depth, and dispatch latency, which is
+ * measured on a sample of events. getCongestion() is computed from the queue depth.
+ *
+ * Clients can use the class as is, or subclass it to change congestion reporting
+ * or handling of exceptions thrown by events.
+ */
+public class RingEventQueue implements IEventQueue, Runnable {
+
+    private static final int SEGMENT_SIZE = 0x400;
+    private static final int BATCH_SIZE = 0x40;
+
+    /* Latency is sampled once per 64 events */
+    private static final int SAMPLE_SHIFT = 6;
+    private static final int SAMPLE_MASK = (1 << SAMPLE_SHIFT) - 1;
+
+    private static final int MIN_SPINS = 0x10;
+    private static final int MAX_SPINS = 0x4000;
+    private static final int YIELDS = 4;
+
+    private static final class Segment {
+
+        private static final AtomicReferenceFieldUpdater<Segment,Segment> next_updater =
+            AtomicReferenceFieldUpdater.newUpdater(Segment.class, Segment.class, "next");
+
+        /* Sequence number of the first slot */
+        final long base;
+        final AtomicInteger claim = new AtomicInteger();
+        final AtomicReferenceArray<Runnable> slots = new AtomicReferenceArray<Runnable>(SEGMENT_SIZE);
+        final long[] times = new long[SEGMENT_SIZE >> SAMPLE_SHIFT];
+        volatile Segment next;
+
+        Segment(long base) {
+            this.base = base;
+        }
+
+        Segment getNext() {
+            Segment n = next;
+            if (n == null) {
+                n = new Segment(base + SEGMENT_SIZE);
+                if (!next_updater.compareAndSet(this, null, n)) n = next;
+            }
+            return n;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<RingEventQueue,Segment> tail_updater =
+        AtomicReferenceFieldUpdater.newUpdater(RingEventQueue.class, Segment.class, "tail");
+
+    private final Thread thread;
+
+    /* Producers side */
+    private volatile Segment tail;
+    private volatile boolean waiting;
+    private volatile boolean shutdown;
+
+    /* Number of producers that are inside invokeLater(), the dispatch thread does not exit
+     * on shutdown until it is zero, so an event that passed the shutdown check is not lost */
+    private final AtomicInteger producers = new AtomicInteger();
+
+    /* Dispatch thread side */
+    private Segment head;
+    private int head_pos;
+    private int spin_limit = MIN_SPINS;
+
+    /* Metrics, written by dispatch thread */
+    private volatile long dispatched;
+    private volatile long max_depth;
+    private volatile long latency;
+    private volatile long max_latency;
+
+    /**
+     * Create event queue and its dispatch thread.
+     * The thread is started by start().
+     * @param name - dispatch thread name.
+     */
+    public RingEventQueue(String name) {
+        head = tail = new Segment(0);
+        thread = new Thread(this);
+        thread.setDaemon(true);
+        thread.setName(name);
+    }
+
+    /**
+     * Start the dispatch thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop the dispatch thread after all queued events are dispatched, and wait until it exits.
+     * Events cannot be queued after this call.
+     */
+    public void shutdown() {
+        try {
+            shutdown = true;
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+        catch (Throwable e) {
+            Protocol.log("Failed to shutdown TCF event dispatch thread", e); //$NON-NLS-1$
+        }
+    }
+
+    public void run() {
+        for (;;) {
+            int n = 0;
+            while (n < BATCH_SIZE) {
+                Runnable r = poll();
+                if (r == null) break;
+                try {
+                    r.run();
+                }
+                catch (Throwable x) {
+                    handleException(x);
+                }
+                n++;
+            }
+            if (n > 0) {
+                dispatched = head.base + head_pos;
+                long depth = getQueueDepth();
+                if (depth > max_depth) max_depth = depth;
+            }
+            else if (!waitForEvents()) {
+                return;
+            }
+        }
+    }
+
+    public void invokeLater(Runnable r) {
+        if (r == null) throw new NullPointerException();
+        producers.incrementAndGet();
+        if (shutdown) {
+            producers.decrementAndGet();
+            LockSupport.unpark(thread);
+            throw new IllegalStateException("TCF event dispatcher has shut down"); //$NON-NLS-1$
+        }
+        for (;;) {
+            Segment s = tail;
+            int i = s.claim.getAndIncrement();
+            if (i < SEGMENT_SIZE) {
+                if ((i & SAMPLE_MASK) == 0) s.times[i >> SAMPLE_SHIFT] = System.nanoTime();
+                s.slots.set(i, r);
+                break;
+            }
+            tail_updater.compareAndSet(this, s, s.getNext());
+        }
+        producers.decrementAndGet();
+        if (waiting) {
+            waiting = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public boolean isDispatchThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    public int getCongestion() {
+        long n = getQueueDepth() / 10 - 100;
+        if (n > 100) n = 100;
+        return (int)n;
+    }
+
+    /**
+     * Get the number of events in the queue.
+     * The value is updated by the dispatch thread once per batch of events, so it can lag a little.
+     * @return queue depth.
+     */
+    public long getQueueDepth() {
+        Segment s = tail;
+        long n = s.base + Math.min(s.claim.get(), SEGMENT_SIZE) - dispatched;
+        return n < 0 ? 0 : n;
+    }
+
+    /**
+     * @return maximal observed queue depth.
+     */
+    public long getMaxQueueDepth() {
+        return max_depth;
+    }
+
+    /**
+     * @return total number of dispatched events.
+     */
+    public long getDispatchedCount() {
+        return dispatched;
+    }
+
+    /**
+     * Get average time from invokeLater() call to the start of event dispatch.
+     * @return latency in nanoseconds.
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return maximal observed time, in nanoseconds, from invokeLater() call to the start of event dispatch.
+     */
+    public long getMaxLatency() {
+        return max_latency;
+    }
+
+    /**
+     * Reset maximal queue depth and latency.
+     */
+    public void resetMetrics() {
+        max_depth = 0;
+        max_latency = 0;
+    }
+
+    /**
+     * Called by the dispatch thread when an event throws an exception.
+     * Default implementation logs the exception.
+     * @param x - the exception.
+     */
+    protected void handleException(Throwable x) {
+        Protocol.log("Unhandled exception in TCF event dispatch", x); //$NON-NLS-1$
+    }
+
+    /* Take next event, returns null if the queue is empty or next slot is claimed, but not written yet */
+    private Runnable poll() {
+        Segment s = head;
+        int i = head_pos;
+        if (i == SEGMENT_SIZE) {
+            s = s.next;
+            if (s == null) return null;
+            head = s;
+            head_pos = i = 0;
+        }
+        Runnable r = s.slots.get(i);
+        if (r == null) return null;
+        s.slots.lazySet(i, null);
+        head_pos = i + 1;
+        if ((i & SAMPLE_MASK) == 0) {
+            long t = System.nanoTime() - s.times[i >> SAMPLE_SHIFT];
+            latency = latency == 0 ? t : latency + (t - latency) / 8;
+            if (t > max_latency) max_latency = t;
+        }
+        return r;
+    }
+
+    private boolean isReady() {
+        Segment s = head;
+        int i = head_pos;
+        if (i == SEGMENT_SIZE) {
+            s = s.next;
+            if (s == null) return false;
+            i = 0;
+        }
+        return s.slots.get(i) != null;
+    }
+
+    /* Spin, then yield, then park until an event is queued, returns false on shutdown */
+    private boolean waitForEvents() {
+        for (int i = 0; i < spin_limit; i++) {
+            if (isReady()) {
+                if (spin_limit < MAX_SPINS) spin_limit *= 2;
+                return true;
+            }
+        }
+        for (int i = 0; i < YIELDS; i++) {
+            Thread.yield();
+            if (isReady()) return true;
+        }
+        if (spin_limit > MIN_SPINS) spin_limit /= 2;
+        for (;;) {
+            /* The flag is set before every check: a producer may have cleared it
+             * when it filled a later slot, while the next slot is still being written */
+            waiting = true;
+            if (isReady()) break;
+            if (shutdown && producers.get() == 0) {
+                if (isReady()) break;
+                waiting = false;
+                return false;
+            }
+            LockSupport.park(this);
+        }
+        waiting = false;
+        return true;
+    }
+}
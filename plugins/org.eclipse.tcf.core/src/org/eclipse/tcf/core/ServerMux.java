@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.tcf.internal.core.ServiceManager;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * ServerMux is a TCP server that accepts multiplexed connections, see MuxConnection.
+ * Each accepted socket becomes a MuxConnection, and logical channels that are opened
+ * by the remote side over the connection become TCF communication channels of this server.
+ *
+ * Clients may create objects of this class to become a TCF server for "MUX" transport.
+ */
+public class ServerMux extends ServerSocket {
+
+    private static class ServerPeer extends AbstractPeer {
+        ServerPeer(Map<String,String> attrs) {
+            super(attrs);
+        }
+    }
+
+    private final String name;
+    private Map<InetAddress,ServerPeer> peers;
+    private Thread thread;
+
+    public ServerMux(String name, int port) throws IOException {
+        super(port);
+        this.name = name;
+        peers = new HashMap<InetAddress,ServerPeer>();
+        Enumeration<NetworkInterface> e = NetworkInterface.getNetworkInterfaces();
+        while (e.hasMoreElements()) {
+            NetworkInterface f = e.nextElement();
+            Enumeration<InetAddress> n = f.getInetAddresses();
+            while (n.hasMoreElements()) getServerPeer(n.nextElement());
+        }
+        thread = new Thread() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        final Socket socket = accept();
+                        Protocol.invokeLater(new Runnable() {
+                            public void run() {
+                                try {
+                                    new MuxConnection(getServerPeer(socket.getLocalAddress()), socket);
+                                }
+                                catch (final Throwable x) {
+                                    try {
+                                        socket.close();
+                                    }
+                                    catch (IOException y) {
+                                        // Ignore
+                                    }
+                                    Protocol.log("TCF Server: failed to create a connection", x);
+                                }
+                            }
+                        });
+                    }
+                    catch (final Throwable x) {
+                        if (isClosed()) break;
+                        Protocol.invokeLater(new Runnable() {
+                            public void run() {
+                                Protocol.log("TCF Server thread aborted", x);
+                            }
+                        });
+                        break;
+                    }
+                }
+            }
+        };
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private IPeer getServerPeer(InetAddress addr) {
+        if (addr.isAnyLocalAddress()) return getTransientPeer(addr);
+        if (addr.isMulticastAddress()) return getTransientPeer(addr);
+        if (addr.isLinkLocalAddress()) return getTransientPeer(addr);
+        if (peers == null) return getTransientPeer(addr);
+        ServerPeer p = peers.get(addr);
+        if (p != null) return p;
+        String host = addr.getHostAddress();
+        String port = Integer.toString(getLocalPort());
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, "MUX:" + host + ":" + port);
+        attrs.put(IPeer.ATTR_SERVICE_MANGER_ID, ServiceManager.getID());
+        attrs.put(IPeer.ATTR_AGENT_ID, Protocol.getAgentID());
+        attrs.put(IPeer.ATTR_NAME, name);
+        attrs.put(IPeer.ATTR_OS_NAME, System.getProperty("os.name"));
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, "MUX");
+        attrs.put(IPeer.ATTR_IP_HOST, host);
+        attrs.put(IPeer.ATTR_IP_PORT, port);
+        attrs.put(IPeer.ATTR_PROXY, "");
+        p = new ServerPeer(attrs);
+        peers.put(addr, p);
+        return p;
+    }
+
+    private IPeer getTransientPeer(InetAddress addr) {
+        String host = addr.getHostAddress();
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, "MUX:Transient:" + host + ":" + getLocalPort());
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, "MUX");
+        attrs.put(IPeer.ATTR_IP_HOST, host);
+        return new TransientPeer(attrs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (peers != null) {
+            for (ServerPeer s : peers.values()) s.dispose();
+            peers = null;
+        }
+        super.close();
+        if (thread != null) {
+            try {
+                thread.join();
+                thread = null;
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
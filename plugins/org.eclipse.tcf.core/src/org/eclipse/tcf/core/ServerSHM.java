@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.core;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.tcf.internal.core.ServiceManager;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * ServerSHM is a shared memory server that is watching a directory for incoming connection
+ * requests and creates TCF communication channels over shared memory for such requests.
+ * See ChannelSHM for details.
+ *
+ * The server peer is advertised by Locator service on the loopback interface only,
+ * since the transport is usable only by clients running on same host.
+ *
+ * The server thread blocks on a doorbell socket, see ChannelSHM, its port is stored
+ * in the directory. A client rings the doorbell after it creates a connection request.
+ * The directory is also checked periodically, in case a doorbell datagram is lost.
+ *
+ * Clients may create objects of this class to become a TCF server for local clients.
+ * Must be created and closed on the TCF dispatch thread.
+ */
+public class ServerSHM {
+
+    private static final int POLL_PERIOD = 1000;
+
+    private static final String DOORBELL_FILE = "server.port";
+
+    private static class ServerPeer extends AbstractPeer {
+        ServerPeer(Map<String,String> attrs) {
+            super(attrs);
+        }
+    }
+
+    private final File dir;
+    private final RandomAccessFile dir_lock_file;
+    private final FileLock dir_lock;
+    private final DatagramSocket doorbell;
+    private ServerPeer peer;
+    private Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * @return default directory for shared memory connection requests,
+     * located in /dev/shm if the host has it.
+     */
+    public static String getDefaultPath() {
+        File shm = new File("/dev/shm");
+        if (!shm.isDirectory()) shm = new File(System.getProperty("java.io.tmpdir"));
+        return new File(shm, "tcf-" + System.getProperty("user.name")).getAbsolutePath();
+    }
+
+    public ServerSHM(String name) throws IOException {
+        this(name, getDefaultPath());
+    }
+
+    public ServerSHM(String name, String path) throws IOException {
+        assert Protocol.isDispatchThread();
+        dir = new File(path).getCanonicalFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create directory " + dir);
+        dir_lock_file = new RandomAccessFile(new File(dir, "server.lock"), "rw");
+        dir_lock = dir_lock_file.getChannel().tryLock();
+        if (dir_lock == null) {
+            dir_lock_file.close();
+            throw new IOException("Directory is used by another server: " + dir);
+        }
+        doorbell = ChannelSHM.openDoorbell();
+        try {
+            RandomAccessFile f = new RandomAccessFile(new File(dir, DOORBELL_FILE), "rw");
+            try {
+                f.setLength(0);
+                f.writeInt(doorbell.getLocalPort());
+            }
+            finally {
+                f.close();
+            }
+        }
+        catch (IOException x) {
+            doorbell.close();
+            dir_lock.release();
+            dir_lock_file.close();
+            throw x;
+        }
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, ChannelSHM.TRANSPORT_NAME + ":" + dir.getPath());
+        attrs.put(IPeer.ATTR_SERVICE_MANGER_ID, ServiceManager.getID());
+        attrs.put(IPeer.ATTR_AGENT_ID, Protocol.getAgentID());
+        attrs.put(IPeer.ATTR_NAME, name);
+        attrs.put(IPeer.ATTR_OS_NAME, System.getProperty("os.name"));
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, ChannelSHM.TRANSPORT_NAME);
+        attrs.put(IPeer.ATTR_IP_HOST, InetAddress.getByName(null).getHostAddress());
+        attrs.put(ChannelSHM.ATTR_SHM_PATH, dir.getPath());
+        attrs.put(IPeer.ATTR_PROXY, "");
+        peer = new ServerPeer(attrs);
+        thread = new Thread() {
+            @Override
+            public void run() {
+                FilenameFilter filter = new FilenameFilter() {
+                    public boolean accept(File d, String n) {
+                        return n.endsWith(ChannelSHM.REQUEST_SUFFIX);
+                    }
+                };
+                DatagramPacket p = new DatagramPacket(new byte[1], 1);
+                while (!closed) {
+                    try {
+                        File[] list = dir.listFiles(filter);
+                        if (list != null) {
+                            for (File f : list) accept(f);
+                        }
+                        try {
+                            doorbell.setSoTimeout(POLL_PERIOD);
+                            doorbell.receive(p);
+                        }
+                        catch (SocketTimeoutException x) {
+                            // Check the directory anyway
+                        }
+                    }
+                    catch (final Throwable x) {
+                        if (closed) break;
+                        Protocol.invokeLater(new Runnable() {
+                            public void run() {
+                                Protocol.log("TCF SHM Server thread aborted", x);
+                            }
+                        });
+                        break;
+                    }
+                }
+            }
+        };
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get port of the doorbell of a server that is watching a directory.
+     * @param dir - the directory.
+     * @return the port, or 0 if not available.
+     */
+    static int getDoorbellPort(File dir) {
+        try {
+            RandomAccessFile f = new RandomAccessFile(new File(dir, DOORBELL_FILE), "r");
+            try {
+                return f.readInt();
+            }
+            finally {
+                f.close();
+            }
+        }
+        catch (IOException x) {
+            return 0;
+        }
+    }
+
+    private void accept(File f) {
+        String s = f.getName();
+        s = s.substring(0, s.length() - ChannelSHM.REQUEST_SUFFIX.length());
+        final File g = new File(dir, s + ChannelSHM.ACCEPT_SUFFIX);
+        /* Rename is atomic, it makes sure the request is accepted only once */
+        if (!f.renameTo(g)) return;
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                try {
+                    if (closed) return;
+                    new ChannelSHM(peer, getTransientPeer(), g);
+                }
+                catch (final Throwable x) {
+                    Protocol.log("TCF SHM Server: failed to create a channel", x);
+                }
+                finally {
+                    g.delete();
+                }
+            }
+        });
+    }
+
+    private IPeer getTransientPeer() {
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, ChannelSHM.TRANSPORT_NAME + ":Transient:" + dir.getPath());
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, ChannelSHM.TRANSPORT_NAME);
+        return new TransientPeer(attrs);
+    }
+
+    /**
+     * @return the server peer.
+     */
+    public IPeer getPeer() {
+        return peer;
+    }
+
+    public void close() throws IOException {
+        assert Protocol.isDispatchThread();
+        closed = true;
+        if (peer != null) {
+            peer.dispose();
+            peer = null;
+        }
+        doorbell.close();
+        if (thread != null) {
+            try {
+                thread.interrupt();
+                thread.join();
+                thread = null;
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+        new File(dir, DOORBELL_FILE).delete();
+        dir_lock.release();
+        dir_lock_file.close();
+    }
+}
@@ -13,16 +13,24 @@ package org.eclipse.tcf.core;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.tcf.internal.core.ServiceManager;
+import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IPeer;
 import org.eclipse.tcf.protocol.Protocol;
 
@@ -30,58 +38,145 @@ import org.eclipse.tcf.protocol.Protocol;
  * ServerTCP is a TCP server that is listening for incoming connection requests
  * and creates TCF communication channels over TCP sockets for such requests.
  *
+ * By default, the server accepts connections on a blocking server socket and creates
+ * one ChannelTCP per connection. If "org.eclipse.tcf.core.nio" system property is "true",
+ * connections are accepted in batches on a non-blocking server socket channel, and the server
+ * creates ChannelNIO objects instead. In both cases, channels that are accepted while a dispatch
+ * thread event is pending are created by that event.
+ *
+ * Admission control keeps bursts of connection requests from flooding the event queue:
+ * connections above the rate limit or the concurrency limit are not accepted, they wait
+ * in the listen backlog until the server can take them. The limits can be set by
+ * setConnectionRate() and setMaxConnections(), or by system properties
+ * "org.eclipse.tcf.core.server_rate" and "org.eclipse.tcf.core.server_max_connections".
+ *
  * Clients may create objects of this class to become a TCF server.
  */
 public class ServerTCP extends ServerSocket {
 
+    private static final boolean use_nio = Boolean.getBoolean("org.eclipse.tcf.core.nio");
+
+    private static final int DEFAULT_RATE = 100;
+    private static final int DEFAULT_MAX_CONNECTIONS = 256;
+    private static final int MAX_BATCH = 64;
+
     private static class ServerPeer extends AbstractPeer {
         ServerPeer(Map<String,String> attrs) {
             super(attrs);
         }
     }
 
+    /**
+     * Accept loop on a non-blocking server socket channel, used when NIO is enabled.
+     */
+    private class NIOServer {
+
+        final ServerSocketChannel server;
+        final Selector selector;
+
+        NIOServer(int port) throws IOException {
+            server = ServerSocketChannel.open();
+            try {
+                server.socket().bind(new InetSocketAddress(port));
+                server.configureBlocking(false);
+                selector = Selector.open();
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            catch (IOException x) {
+                server.close();
+                throw x;
+            }
+        }
+
+        void acceptLoop() throws IOException {
+            SelectionKey key = server.keyFor(selector);
+            while (!closed) {
+                int limit = admit();
+                if (limit <= 0) {
+                    key.interestOps(0);
+                    selector.select(getAdmissionDelay());
+                    selector.selectedKeys().clear();
+                    continue;
+                }
+                key.interestOps(SelectionKey.OP_ACCEPT);
+                selector.select();
+                selector.selectedKeys().clear();
+                // The limits might have changed while the thread was waiting
+                limit = admit();
+                int cnt = 0;
+                while (cnt < limit) {
+                    SocketChannel socket = server.accept();
+                    if (socket == null) break;
+                    accepted(socket);
+                    cnt++;
+                }
+            }
+        }
+
+        void close() throws IOException {
+            selector.close();
+            server.close();
+        }
+    }
+
     private final String name;
-    private List<ServerPeer> peers;
+    private final NIOServer nio;
+    private final AtomicInteger connection_cnt = new AtomicInteger();
+    private final List<Object> pending = new ArrayList<Object>();
+    private Map<InetAddress,ServerPeer> peers;
     private Thread thread;
+    private volatile int rate = getIntProperty("org.eclipse.tcf.core.server_rate", DEFAULT_RATE);
+    private volatile int max_connections = getIntProperty("org.eclipse.tcf.core.server_max_connections", DEFAULT_MAX_CONNECTIONS);
+    private volatile boolean closed;
+
+    /* Token bucket of the rate limit, used by the server thread only */
+    private double tokens;
+    private long tokens_time = System.nanoTime();
 
     public ServerTCP(String name, int port) throws IOException {
-        super(port);
+        this(name, port, use_nio);
+    }
+
+    /**
+     * Create a server that uses given accept mode, regardless of "org.eclipse.tcf.core.nio" property.
+     * @param name - server name.
+     * @param port - TCP port, 0 means any free port.
+     * @param non_blocking - true to accept connections on a non-blocking server socket channel
+     * and create ChannelNIO objects, false to create ChannelTCP objects.
+     * @throws IOException
+     */
+    public ServerTCP(String name, int port, boolean non_blocking) throws IOException {
+        super();
         this.name = name;
-        peers = new ArrayList<ServerPeer>();
+        if (non_blocking) {
+            nio = new NIOServer(port);
+        }
+        else {
+            nio = null;
+            bind(new InetSocketAddress(port));
+        }
+        peers = new HashMap<InetAddress,ServerPeer>();
         Enumeration<NetworkInterface> e = NetworkInterface.getNetworkInterfaces();
         while (e.hasMoreElements()) {
             NetworkInterface f = e.nextElement();
             Enumeration<InetAddress> n = f.getInetAddresses();
             while (n.hasMoreElements()) getServerPeer(n.nextElement());
         }
+        tokens = rate;
         thread = new Thread() {
             @Override
             public void run() {
-                while (true) {
-                    try {
-                        final Socket socket = accept();
-                        Protocol.invokeLater(new Runnable() {
-                            public void run() {
-                                try {
-                                    new ChannelTCP(
-                                            getServerPeer(socket.getLocalAddress()),
-                                            getTransientPeer(socket.getInetAddress()),
-                                            socket);
-                                }
-                                catch (final Throwable x) {
-                                    Protocol.log("TCF Server: failed to create a channel", x);
-                                }
-                            }
-                        });
-                    }
-                    catch (final Throwable x) {
-                        Protocol.invokeLater(new Runnable() {
-                            public void run() {
-                                Protocol.log("TCF Server thread aborted", x);
-                            }
-                        });
-                        break;
-                    }
+                try {
+                    if (nio != null) nio.acceptLoop();
+                    else acceptLoop();
+                }
+                catch (final Throwable x) {
+                    if (closed) return;
+                    Protocol.invokeLater(new Runnable() {
+                        public void run() {
+                            Protocol.log("TCF Server thread aborted", x);
+                        }
+                    });
                 }
             }
         };
@@ -90,14 +185,176 @@ public class ServerTCP extends ServerSocket {
         thread.start();
     }
 
+    private static int getIntProperty(String name, int dflt) {
+        try {
+            String s = System.getProperty(name);
+            if (s != null) return Integer.parseInt(s);
+        }
+        catch (NumberFormatException x) {
+            Protocol.log("Invalid value of system property " + name, x);
+        }
+        return dflt;
+    }
+
+    /**
+     * Set maximal rate of accepting new connections.
+     * @param rate - connections per second, 0 means no limit.
+     */
+    public void setConnectionRate(int rate) {
+        this.rate = rate;
+        wakeup();
+    }
+
+    /**
+     * Set maximal number of open channels created by this server.
+     * @param max - number of channels, 0 means no limit.
+     */
+    public void setMaxConnections(int max) {
+        max_connections = max;
+        wakeup();
+    }
+
+    /**
+     * @return number of open channels created by this server.
+     */
+    public int getConnectionCount() {
+        return connection_cnt.get();
+    }
+
+    /**
+     * Refill the token bucket and compute how many connections can be accepted now.
+     * The bucket holds up to one second worth of connections.
+     * @return max number of connections to accept, 0 or less if none.
+     */
+    private int admit() {
+        int r = rate;
+        long now = System.nanoTime();
+        if (r > 0) tokens = Math.min(r, tokens + (now - tokens_time) * r / 1e9);
+        tokens_time = now;
+        int limit = MAX_BATCH;
+        if (r > 0) limit = Math.min(limit, (int)tokens);
+        int m = max_connections;
+        if (m > 0) limit = Math.min(limit, m - connection_cnt.get());
+        return limit;
+    }
+
+    /**
+     * @return time in milliseconds until the rate limit admits a connection,
+     * 0 if the server must wait for a connection to close.
+     */
+    private long getAdmissionDelay() {
+        int r = rate;
+        if (r > 0 && tokens < 1) return Math.max(1, (long)((1 - tokens) * 1000 / r));
+        return 0;
+    }
+
+    private void wakeup() {
+        if (nio != null) {
+            nio.selector.wakeup();
+        }
+        else {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private void acceptLoop() throws IOException {
+        while (!closed) {
+            if (admit() <= 0) {
+                long delay = getAdmissionDelay();
+                synchronized (pending) {
+                    try {
+                        if (!closed) pending.wait(delay);
+                    }
+                    catch (InterruptedException x) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                continue;
+            }
+            accepted(accept());
+        }
+    }
+
+    /*
+     * Called by the server thread for each accepted socket.
+     * Sockets are collected in the pending list, and a single dispatch thread event
+     * creates channels for all sockets that were accepted before it runs.
+     */
+    private void accepted(Object socket) {
+        if (rate > 0) tokens -= 1;
+        connection_cnt.incrementAndGet();
+        synchronized (pending) {
+            pending.add(socket);
+            if (pending.size() > 1) return;
+        }
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                Object[] arr = null;
+                synchronized (pending) {
+                    arr = pending.toArray();
+                    pending.clear();
+                }
+                for (Object socket : arr) createChannel(socket);
+            }
+        });
+    }
+
+    private void createChannel(Object socket) {
+        try {
+            if (closed) throw new IOException("Server is closed");
+            IChannel channel = null;
+            if (socket instanceof SocketChannel) {
+                SocketChannel s = (SocketChannel)socket;
+                channel = new ChannelNIO(
+                        getServerPeer(s.socket().getLocalAddress()),
+                        getTransientPeer(s.socket().getInetAddress()),
+                        s);
+            }
+            else {
+                Socket s = (Socket)socket;
+                channel = new ChannelTCP(
+                        getServerPeer(s.getLocalAddress()),
+                        getTransientPeer(s.getInetAddress()),
+                        s);
+            }
+            channel.addChannelListener(new IChannel.IChannelListener() {
+                public void onChannelOpened() {
+                }
+                public void onChannelClosed(Throwable error) {
+                    onConnectionClosed();
+                }
+                public void congestionLevel(int level) {
+                }
+            });
+        }
+        catch (final Throwable x) {
+            onConnectionClosed();
+            try {
+                if (socket instanceof SocketChannel) ((SocketChannel)socket).close();
+                else ((Socket)socket).close();
+            }
+            catch (IOException y) {
+                // Ignore
+            }
+            if (!closed) Protocol.log("TCF Server: failed to create a channel", x);
+        }
+    }
+
+    private void onConnectionClosed() {
+        connection_cnt.decrementAndGet();
+        if (!closed) wakeup();
+    }
+
     private IPeer getServerPeer(InetAddress addr) {
         if (addr.isAnyLocalAddress()) return getTransientPeer(addr);
         if (addr.isMulticastAddress()) return getTransientPeer(addr);
         if (addr.isLinkLocalAddress()) return getTransientPeer(addr);
+        if (peers == null) return getTransientPeer(addr);
+        ServerPeer p = peers.get(addr);
+        if (p != null) return p;
         String host = addr.getHostAddress();
-        for (ServerPeer p : peers) {
-            if (addr.equals(p.getAttributes().get(IPeer.ATTR_IP_HOST))) return p;
-        }
         String port = Integer.toString(getLocalPort());
         Map<String,String> attrs = new HashMap<String,String>();
         attrs.put(IPeer.ATTR_ID, "TCP:" + host + ":" + port);
@@ -109,8 +366,8 @@ public class ServerTCP extends ServerSocket {
         attrs.put(IPeer.ATTR_IP_HOST, host);
         attrs.put(IPeer.ATTR_IP_PORT, port);
         attrs.put(IPeer.ATTR_PROXY, "");
-        ServerPeer p = new ServerPeer(attrs);
-        peers.add(p);
+        p = new ServerPeer(attrs);
+        peers.put(addr, p);
         return p;
     }
 
@@ -123,12 +380,44 @@ public class ServerTCP extends ServerSocket {
         return new TransientPeer(attrs);
     }
 
+    @Override
+    public int getLocalPort() {
+        if (nio != null) return nio.server.socket().getLocalPort();
+        return super.getLocalPort();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        if (nio != null) return nio.server.socket().getInetAddress();
+        return super.getInetAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        if (nio != null) return nio.server.socket().getLocalSocketAddress();
+        return super.getLocalSocketAddress();
+    }
+
+    @Override
+    public boolean isBound() {
+        if (nio != null) return nio.server.socket().isBound();
+        return super.isBound();
+    }
+
+    @Override
+    public ServerSocketChannel getChannel() {
+        if (nio != null) return nio.server;
+        return super.getChannel();
+    }
+
     @Override
     public void close() throws IOException {
         if (peers != null) {
-            for (ServerPeer s : peers) s.dispose();
+            for (ServerPeer s : peers.values()) s.dispose();
             peers = null;
         }
+        closed = true;
+        wakeup();
         super.close();
         if (thread != null) {
             try {
@@ -139,5 +428,6 @@ public class ServerTCP extends ServerSocket {
                 throw new InterruptedIOException();
             }
         }
+        if (nio != null) nio.close();
     }
 }
@@ -11,6 +11,9 @@
 package org.eclipse.tcf.core;
 
 import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.eclipse.tcf.protocol.IPeer;
 
@@ -22,6 +25,11 @@ import org.eclipse.tcf.protocol.IPeer;
  *
  * StreamChannel uses escape sequences to represent End-Of-Message and End-Of-Stream markers.
  *
+ * If both peers list AbstractChannel.COMPRESSION in their Hello messages, blocks of data
+ * larger than COMPRESSION_THRESHOLD are deflated before they are put into the stream.
+ * Compression is disabled by default, it can be enabled by setCompressionEnabled() or
+ * by system property "org.eclipse.tcf.core.compression".
+ *
  * Clients can subclass StreamChannel to support particular stream oriented transport (wire) protocol.
  * Also, see ChannelTCP for a concrete IChannel implementation that works on top of TCP sockets as a transport.
  */
@@ -29,12 +37,102 @@ public abstract class StreamChannel extends AbstractChannel {
 
     public static final int ESC = 3;
 
+    /** Minimal size of a block of data that is compressed when compression is negotiated */
+    public static final int COMPRESSION_THRESHOLD = 0x200;
+
+    /** Maximal size of a block of data that is compressed, larger blocks are sent as is */
+    public static final int COMPRESSION_MAX_SIZE = 0x1000000;
+
     private int bin_data_size;
 
+    private boolean compression_enabled = Boolean.getBoolean("org.eclipse.tcf.core.compression");
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] zip_out;
+    private byte[] zip_inp;
+    private byte[] zip_buf;
+    private int zip_pos;
+    private int zip_len;
+
     private final byte[] buf = new byte[0x1000];
     private int buf_pos;
     private int buf_len;
 
+    /**
+     * Scanner finds end of message markers in a stream of encoded bytes.
+     * Event driven subclasses use it to find out when whole messages are received,
+     * since receive() must not be called before a message is complete.
+     */
+    static final class Scanner {
+
+        /** Number of complete messages found so far, decremented by clients */
+        int msg_cnt;
+
+        /** True if end of stream marker is found */
+        boolean eos;
+
+        private int state;
+        private int bin_size;
+        private int bin_shift;
+
+        /**
+         * Scan bytes arr[pos..end) for end of message markers.
+         * @return offset after last end of message marker in the range, or -1 if none found.
+         */
+        int scan(byte[] arr, int pos, int end) {
+            int res = -1;
+            while (pos < end) {
+                if (state == 3) {
+                    int n = Math.min(bin_size, end - pos);
+                    pos += n;
+                    bin_size -= n;
+                    if (bin_size == 0) state = 0;
+                    continue;
+                }
+                int b = arr[pos++] & 0xff;
+                switch (state) {
+                case 0:
+                    if (b == ESC) state = 1;
+                    break;
+                case 1:
+                    state = 0;
+                    switch (b) {
+                    case 1:
+                        msg_cnt++;
+                        res = pos;
+                        break;
+                    case 2:
+                        eos = true;
+                        break;
+                    case 3:
+                        state = 2;
+                        bin_size = 0;
+                        bin_shift = 0;
+                        break;
+                    case 4:
+                        state = 4;
+                        break;
+                    }
+                    break;
+                case 4:
+                    /* Uncompressed size of a compressed block, not needed to find message boundaries */
+                    if ((b & 0x80) == 0) {
+                        state = 2;
+                        bin_size = 0;
+                        bin_shift = 0;
+                    }
+                    break;
+                case 2:
+                    bin_size |= (b & 0x7f) << bin_shift;
+                    bin_shift += 7;
+                    if ((b & 0x80) == 0) state = bin_size > 0 ? 3 : 0;
+                    break;
+                }
+            }
+            return res;
+        }
+    }
+
     public StreamChannel(IPeer remote_peer) {
         super(remote_peer);
     }
@@ -43,6 +141,21 @@ public abstract class StreamChannel extends AbstractChannel {
         super(local_peer, remote_peer);
     }
 
+    /**
+     * Enable or disable compression of message data for this channel.
+     * The data is compressed only if the remote peer supports compression too.
+     * Must be called before the channel is started, i.e. right after it is created.
+     * @param enabled - true to advertise compression support in Hello message.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        compression_enabled = enabled;
+    }
+
+    @Override
+    protected boolean isCompressionEnabled() {
+        return compression_enabled;
+    }
+
     protected abstract int get() throws IOException;
     protected abstract void put(int n) throws IOException;
 
@@ -61,12 +174,25 @@ public abstract class StreamChannel extends AbstractChannel {
     }
 
     protected void put(byte[] buf) throws IOException {
-        for (byte b : buf) put(b & 0xff);
+        put(buf, 0, buf.length);
+    }
+
+    /**
+     * Put a part of array of bytes into the stream as is, without any encoding.
+     * Subclasses should override this method to transmit whole blocks of data at once.
+     * @param buf - the data.
+     * @param offs - offset of first byte.
+     * @param size - number of bytes.
+     * @throws IOException
+     */
+    protected void put(byte[] buf, int offs, int size) throws IOException {
+        for (int i = 0; i < size; i++) put(buf[offs + i] & 0xff);
     }
 
     @Override
     protected final int read() throws IOException {
         for (;;) {
+            if (zip_pos < zip_len) return zip_buf[zip_pos++] & 0xff;
             while (buf_pos >= buf_len) {
                 buf_len = get(buf);
                 buf_pos = 0;
@@ -100,6 +226,9 @@ public abstract class StreamChannel extends AbstractChannel {
                     if ((m & 0x80) == 0) break;
                 }
                 break;
+            case 4:
+                if (!readCompressed()) return EOS;
+                break;
             default:
                 if (n < 0) return EOS;
                 assert false;
@@ -107,6 +236,106 @@ public abstract class StreamChannel extends AbstractChannel {
         }
     }
 
+    private int readSize() throws IOException {
+        int size = 0;
+        for (int i = 0;; i += 7) {
+            while (buf_pos >= buf_len) {
+                buf_len = get(buf);
+                buf_pos = 0;
+                if (buf_len < 0) return -1;
+            }
+            int m = buf[buf_pos++] & 0xff;
+            size |= (m & 0x7f) << i;
+            if ((m & 0x80) == 0) return size;
+        }
+    }
+
+    /**
+     * Read and inflate a compressed block of data: ESC 4, size of uncompressed data,
+     * size of compressed data, compressed data. Uncompressed data is returned by next
+     * read() calls as is, without any decoding.
+     * @return false if end of stream is reached.
+     */
+    private boolean readCompressed() throws IOException {
+        int size = readSize();
+        if (size < 0) return false;
+        int zsize = readSize();
+        if (zsize < 0) return false;
+        /* Sizes come from the wire, check them before allocating buffers */
+        if (size > COMPRESSION_MAX_SIZE || zsize > size) throw new IOException("Invalid compressed data size");
+        if (zip_inp == null || zip_inp.length < zsize) zip_inp = new byte[Math.max(zsize, 0x1000)];
+        int n = 0;
+        while (n < zsize) {
+            while (buf_pos >= buf_len) {
+                buf_len = get(buf);
+                buf_pos = 0;
+                if (buf_len < 0) return false;
+            }
+            int m = Math.min(buf_len - buf_pos, zsize - n);
+            System.arraycopy(buf, buf_pos, zip_inp, n, m);
+            buf_pos += m;
+            n += m;
+        }
+        if (zip_buf == null || zip_buf.length < size) zip_buf = new byte[Math.max(size, 0x1000)];
+        if (inflater == null) inflater = new Inflater();
+        try {
+            inflater.setInput(zip_inp, 0, zsize);
+            n = inflater.inflate(zip_buf, 0, size);
+            if (n != size || !inflater.finished()) throw new IOException("Invalid compressed data size");
+        }
+        catch (DataFormatException x) {
+            IOException y = new IOException("Invalid compressed data");
+            y.initCause(x);
+            throw y;
+        }
+        finally {
+            inflater.reset();
+        }
+        zip_pos = 0;
+        zip_len = size;
+        return true;
+    }
+
+    @Override
+    protected final int read(byte[] dst, int offs, int size, int end) throws IOException {
+        if (zip_pos < zip_len) {
+            if (end == 0) return 0;
+            int n = Math.min(zip_len - zip_pos, size);
+            System.arraycopy(zip_buf, zip_pos, dst, offs, n);
+            zip_pos += n;
+            return n;
+        }
+        int pos = buf_pos;
+        int lim = buf_len;
+        if (pos >= lim) return 0;
+        if (lim - pos > size) lim = pos + size;
+        if (bin_data_size > 0) {
+            if (end == 0) return 0;
+            int n = lim - pos;
+            if (n > bin_data_size) n = bin_data_size;
+            System.arraycopy(buf, pos, dst, offs, n);
+            bin_data_size -= n;
+            buf_pos = pos + n;
+            return n;
+        }
+        if (end == 0) {
+            while (pos < lim) {
+                byte b = buf[pos];
+                if (b == ESC || b == 0) break;
+                pos++;
+            }
+        }
+        else {
+            while (pos < lim && buf[pos] != ESC) pos++;
+        }
+        int n = pos - buf_pos;
+        if (n > 0) {
+            System.arraycopy(buf, buf_pos, dst, offs, n);
+            buf_pos = pos;
+        }
+        return n;
+    }
+
     @Override
     protected final void write(int n) throws IOException {
         switch (n) {
@@ -119,26 +348,66 @@ public abstract class StreamChannel extends AbstractChannel {
         }
     }
 
+    private void writeSize(int n) throws IOException {
+        for (;;) {
+            if (n <= 0x7f) {
+                put(n);
+                break;
+            }
+            put((n & 0x7f) | 0x80);
+            n = n >> 7;
+        }
+    }
+
+    /**
+     * Deflate a block of data and put it into the stream.
+     * @return false if the data is not compressible, nothing is written in that case.
+     */
+    private boolean writeCompressed(byte[] buf, int offs, int size) throws IOException {
+        /* Compression must save at least 1/8 of the size, otherwise it is not worth the effort */
+        int max = size - (size >> 3);
+        if (zip_out == null || zip_out.length < max) zip_out = new byte[Math.max(max, 0x1000)];
+        if (deflater == null) deflater = new Deflater(Deflater.BEST_SPEED);
+        int zsize = 0;
+        try {
+            deflater.setInput(buf, offs, size);
+            deflater.finish();
+            zsize = deflater.deflate(zip_out, 0, max);
+            if (!deflater.finished()) return false;
+        }
+        finally {
+            deflater.reset();
+        }
+        put(ESC); put(4);
+        writeSize(size);
+        writeSize(zsize);
+        put(zip_out, 0, zsize);
+        return true;
+    }
+
     @Override
-    protected void write(byte[] buf) throws IOException {
-        if (buf.length > 32 && isZeroCopySupported()) {
+    protected void write(byte[] buf, int offs, int size) throws IOException {
+        if (size >= COMPRESSION_THRESHOLD && size <= COMPRESSION_MAX_SIZE &&
+                isCompressionSupported() && writeCompressed(buf, offs, size)) {
+            return;
+        }
+        if (size > 32 && isZeroCopySupported()) {
             put(ESC); put(3);
-            int n = buf.length;
-            for (;;) {
-                if (n <= 0x7f) {
-                    put(n);
-                    break;
-                }
-                put((n & 0x7f) | 0x80);
-                n = n >> 7;
-            }
-            put(buf);
+            writeSize(size);
+            put(buf, offs, size);
         }
         else {
-            for (byte b : buf) {
-                int n = b & 0xff;
-                put(n);
-                if (n == ESC) put(0);
+            int end = offs + size;
+            while (offs < end) {
+                int pos = offs;
+                while (pos < end && buf[pos] != ESC) pos++;
+                if (pos > offs) put(buf, offs, pos - offs);
+                if (pos < end) {
+                    put(ESC);
+                    put(0);
+                    pos++;
+                }
+                offs = pos;
             }
         }
     }
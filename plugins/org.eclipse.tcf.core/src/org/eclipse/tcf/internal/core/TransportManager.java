@@ -18,8 +18,12 @@ import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.tcf.core.AbstractChannel;
+import org.eclipse.tcf.core.ChannelNIO;
 import org.eclipse.tcf.core.ChannelPIPE;
+import org.eclipse.tcf.core.ChannelSHM;
 import org.eclipse.tcf.core.ChannelTCP;
+import org.eclipse.tcf.core.MuxConnection;
+import org.eclipse.tcf.core.ServerSHM;
 import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IPeer;
 import org.eclipse.tcf.protocol.IService;
@@ -38,6 +42,12 @@ public class TransportManager {
     private static final HashMap<String,ITransportProvider> transports =
         new HashMap<String,ITransportProvider>();
 
+    /**
+     * If "org.eclipse.tcf.core.nio" system property is "true",
+     * plain TCP channels are created as ChannelNIO instead of ChannelTCP.
+     */
+    private static final boolean use_nio = Boolean.getBoolean("org.eclipse.tcf.core.nio");
+
     static {
         addTransportProvider(new ITransportProvider() {
 
@@ -51,10 +61,27 @@ public class TransportManager {
                 String host = attrs.get(IPeer.ATTR_IP_HOST);
                 String port = attrs.get(IPeer.ATTR_IP_PORT);
                 if (host == null) throw new IllegalArgumentException("No host name");
+                if (use_nio) return new ChannelNIO(peer, host, parsePort(port));
                 return new ChannelTCP(peer, host, parsePort(port), false);
             }
         });
 
+        addTransportProvider(new ITransportProvider() {
+
+            public String getName() {
+                return "NIO";
+            }
+
+            public IChannel openChannel(IPeer peer) {
+                assert getName().equals(peer.getTransportName());
+                Map<String,String> attrs = peer.getAttributes();
+                String host = attrs.get(IPeer.ATTR_IP_HOST);
+                String port = attrs.get(IPeer.ATTR_IP_PORT);
+                if (host == null) throw new IllegalArgumentException("No host name");
+                return new ChannelNIO(peer, host, parsePort(port));
+            }
+        });
+
         addTransportProvider(new ITransportProvider() {
 
             public String getName() {
@@ -71,6 +98,22 @@ public class TransportManager {
             }
         });
 
+        addTransportProvider(new ITransportProvider() {
+
+            public String getName() {
+                return "MUX";
+            }
+
+            public IChannel openChannel(IPeer peer) {
+                assert getName().equals(peer.getTransportName());
+                Map<String,String> attrs = peer.getAttributes();
+                String host = attrs.get(IPeer.ATTR_IP_HOST);
+                String port = attrs.get(IPeer.ATTR_IP_PORT);
+                if (host == null) throw new IllegalArgumentException("No host name");
+                return MuxConnection.getConnection(host, parsePort(port)).openChannel(peer);
+            }
+        });
+
         addTransportProvider(new ITransportProvider() {
 
             public String getName() {
@@ -85,6 +128,20 @@ public class TransportManager {
             }
         });
 
+        addTransportProvider(new ITransportProvider() {
+
+            public String getName() {
+                return ChannelSHM.TRANSPORT_NAME;
+            }
+
+            public IChannel openChannel(IPeer peer) {
+                assert getName().equals(peer.getTransportName());
+                String path = peer.getAttributes().get(ChannelSHM.ATTR_SHM_PATH);
+                if (path == null) path = ServerSHM.getDefaultPath();
+                return new ChannelSHM(peer, path);
+            }
+        });
+
         addTransportProvider(new ITransportProvider() {
 
             public String getName() {
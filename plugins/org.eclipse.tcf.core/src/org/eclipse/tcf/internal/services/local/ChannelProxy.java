@@ -11,6 +11,7 @@
 package org.eclipse.tcf.internal.services.local;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,7 +36,7 @@ class ChannelProxy {
     private final Map<IToken,IToken> tokens_x = new HashMap<IToken,IToken>();
     private final Map<IToken,IToken> tokens_y = new HashMap<IToken,IToken>();
 
-    private final AbstractChannel.Proxy proxy_x = new AbstractChannel.Proxy() {
+    private final AbstractChannel.BufferProxy proxy_x = new AbstractChannel.BufferProxy() {
 
         public void onChannelClosed(Throwable error) {
             closed_x = true;
@@ -45,6 +46,10 @@ class ChannelProxy {
         }
 
         public void onCommand(IToken token, String service, String name, byte[] data) {
+            onCommand(token, service, name, ByteBuffer.wrap(data));
+        }
+
+        public void onCommand(IToken token, String service, String name, ByteBuffer data) {
             if (closed_y) return;
             assert ch_y.getState() == IChannel.STATE_OPEN;
             IService s = ch_y.getRemoteService(service);
@@ -53,13 +58,17 @@ class ChannelProxy {
         }
 
         public void onEvent(String service, String name, byte[] data) {
+            onEvent(service, name, ByteBuffer.wrap(data));
+        }
+
+        public void onEvent(String service, String name, ByteBuffer data) {
             IService s = ch_x.getRemoteService(service);
             if (s == null) ch_x.terminate(new IOException("Invalid service name"));
             else if (!closed_y) ch_y.sendEvent(s, name, data);
         }
     };
 
-    private final AbstractChannel.Proxy proxy_y = new AbstractChannel.Proxy() {
+    private final AbstractChannel.BufferProxy proxy_y = new AbstractChannel.BufferProxy() {
 
         public void onChannelClosed(Throwable error) {
             closed_y = true;
@@ -69,6 +78,10 @@ class ChannelProxy {
         }
 
         public void onCommand(IToken token, String service, String name, byte[] data) {
+            onCommand(token, service, name, ByteBuffer.wrap(data));
+        }
+
+        public void onCommand(IToken token, String service, String name, ByteBuffer data) {
             if (closed_x) return;
             assert ch_x.getState() == IChannel.STATE_OPEN;
             IService s = ch_x.getRemoteService(service);
@@ -77,37 +90,57 @@ class ChannelProxy {
         }
 
         public void onEvent(String service, String name, byte[] data) {
+            onEvent(service, name, ByteBuffer.wrap(data));
+        }
+
+        public void onEvent(String service, String name, ByteBuffer data) {
             IService s = ch_y.getRemoteService(service);
             if (s == null) ch_y.terminate(new IOException("Invalid service name"));
             else if (!closed_x) ch_x.sendEvent(s, name, data);
         }
     };
 
-    private final IChannel.ICommandListener cmd_listener_x = new IChannel.ICommandListener() {
+    private final AbstractChannel.BufferCommandListener cmd_listener_x = new AbstractChannel.BufferCommandListener() {
 
         public void progress(IToken token, byte[] data) {
             ch_x.sendProgress(tokens_x.get(token), data);
         }
 
+        public void progress(IToken token, ByteBuffer data) {
+            ch_x.sendProgress(tokens_x.get(token), data);
+        }
+
         public void result(IToken token, byte[] data) {
             ch_x.sendResult(tokens_x.remove(token), data);
         }
 
+        public void result(IToken token, ByteBuffer data) {
+            ch_x.sendResult(tokens_x.remove(token), data);
+        }
+
         public void terminated(IToken token, Exception error) {
             ch_x.rejectCommand(tokens_x.remove(token));
         }
     };
 
-    private final IChannel.ICommandListener cmd_listener_y = new IChannel.ICommandListener() {
+    private final AbstractChannel.BufferCommandListener cmd_listener_y = new AbstractChannel.BufferCommandListener() {
 
         public void progress(IToken token, byte[] data) {
             ch_y.sendProgress(tokens_y.get(token), data);
         }
 
+        public void progress(IToken token, ByteBuffer data) {
+            ch_y.sendProgress(tokens_y.get(token), data);
+        }
+
         public void result(IToken token, byte[] data) {
             ch_y.sendResult(tokens_y.remove(token), data);
         }
 
+        public void result(IToken token, ByteBuffer data) {
+            ch_y.sendResult(tokens_y.remove(token), data);
+        }
+
         public void terminated(IToken token, Exception error) {
             ch_y.rejectCommand(tokens_y.remove(token));
         }
@@ -39,6 +39,7 @@ import org.eclipse.tcf.internal.core.LoggingUtil;
 import org.eclipse.tcf.internal.core.RemotePeer;
 import org.eclipse.tcf.internal.core.ServiceManager;
 import org.eclipse.tcf.core.AbstractChannel;
+import org.eclipse.tcf.core.ChannelSHM;
 import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IErrorReport;
 import org.eclipse.tcf.protocol.IPeer;
@@ -433,7 +434,7 @@ public class LocatorService implements ILocator {
                 new ChannelProxy(channel, peer.openChannel());
             }
             else if (name.equals("sync")) {
-                channel.sendResult(token, null);
+                channel.sendResult(token, (byte[])null);
             }
             else if (name.equals("getPeers")) {
                 int i = 0;
@@ -873,7 +874,11 @@ public class LocatorService implements ILocator {
         Map<String,String> attrs = peer.getAttributes();
         InetAddress peer_addr = getInetAddress(attrs.get(IPeer.ATTR_IP_HOST));
         if (peer_addr == null) return;
-        if (attrs.get(IPeer.ATTR_IP_PORT) == null) return;
+        if (attrs.get(IPeer.ATTR_IP_PORT) == null) {
+            /* Shared memory peers have no port, and are reachable only from same host */
+            if (!ChannelSHM.TRANSPORT_NAME.equals(attrs.get(IPeer.ATTR_TRANSPORT_NAME))) return;
+            if (!peer_addr.isLoopbackAddress()) return;
+        }
         out_buf[4] = CONF_PEER_INFO;
         int i = 8;
 
@@ -10,15 +10,20 @@
  *******************************************************************************/
 package org.eclipse.tcf.internal.services.remote;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.eclipse.tcf.core.AbstractChannel;
 import org.eclipse.tcf.core.Command;
 import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IErrorReport;
 import org.eclipse.tcf.protocol.IToken;
 import org.eclipse.tcf.protocol.JSON;
+import org.eclipse.tcf.protocol.JSONPullParser;
 import org.eclipse.tcf.services.IFileSystem;
 
 
@@ -106,6 +111,31 @@ public class FileSystemProxy implements IFileSystem {
         }
     }
 
+    /*
+     * Command that decodes directory entries, which are first result value,
+     * straight from reply data. Other values are decoded as usual.
+     */
+    private abstract class DirEntryCommand extends FileSystemCommand
+            implements AbstractChannel.DecodingCommandListener {
+
+        DirEntryCommand(String command, Object[] args) {
+            super(command, args);
+        }
+
+        @Override
+        protected Object[] parseResult(ByteBuffer data) throws IOException {
+            JSONPullParser p = JSON.getPullParser().reset(data);
+            List<Object> l = new ArrayList<Object>();
+            l.add(readDirEntryArray(p));
+            p.nextSeparator();
+            while (p.peek() != JSONPullParser.END) {
+                l.add(p.nextValue());
+                p.nextSeparator();
+            }
+            return l.toArray();
+        }
+    }
+
     private final IChannel channel;
 
     public FileSystemProxy(IChannel channel) {
@@ -304,7 +334,7 @@ public class FileSystemProxy implements IFileSystem {
     public IToken readdir(IFileHandle handle, final DoneReadDir done) {
         assert handle.getService() == this;
         String id = ((FileHandle)handle).id;
-        return new FileSystemCommand("readdir", new Object[]{ id }) {
+        return new DirEntryCommand("readdir", new Object[]{ id }) {
             public void done(Exception error, Object[] args) {
                 Status s = null;
                 DirEntry[] b = null;
@@ -316,7 +346,7 @@ public class FileSystemProxy implements IFileSystem {
                     assert args.length == 3;
                     s = toFSError(args[1]);
                     if (s == null) {
-                        b = toDirEntryArray(args[0]);
+                        b = (DirEntry[])args[0];
                         eof = ((Boolean)args[2]).booleanValue();
                     }
                 }
@@ -326,7 +356,7 @@ public class FileSystemProxy implements IFileSystem {
     }
 
     public IToken roots(final DoneRoots done) {
-        return new FileSystemCommand("roots", null) {
+        return new DirEntryCommand("roots", null) {
             public void done(Exception error, Object[] args) {
                 Status s = null;
                 DirEntry[] b = null;
@@ -336,7 +366,7 @@ public class FileSystemProxy implements IFileSystem {
                 else {
                     assert args.length == 2;
                     s = toFSError(args[1]);
-                    if (s == null) b = toDirEntryArray(args[0]);
+                    if (s == null) b = (DirEntry[])args[0];
                 }
                 done.doneRoots(token, s, b);
             }
@@ -536,7 +566,23 @@ public class FileSystemProxy implements IFileSystem {
     @SuppressWarnings("unchecked")
     private FileAttrs toFileAttrs(Object o) {
         if (o == null) return null;
-        Map<String,Object> m = new HashMap<String,Object>((Map<String,Object>)o);
+        return toFileAttrs(new HashMap<String,Object>((Map<String,Object>)o));
+    }
+
+    private FileAttrs readFileAttrs(JSONPullParser p) throws IOException {
+        if (p.nextNull()) return null;
+        Map<String,Object> m = new HashMap<String,Object>();
+        p.beginObject();
+        while (p.hasNext()) {
+            String name = p.nextName();
+            m.put(name, p.nextValue());
+        }
+        p.endObject();
+        return toFileAttrs(m);
+    }
+
+    /* Create FileAttrs from a property map, known properties are removed from the map */
+    private FileAttrs toFileAttrs(Map<String,Object> m) {
         int flags = 0;
         long size = 0;
         int uid = 0;
@@ -576,18 +622,26 @@ public class FileSystemProxy implements IFileSystem {
         return new FileHandle(o.toString());
     }
 
-    @SuppressWarnings("unchecked")
-    private DirEntry[] toDirEntryArray(Object o) {
-        if (o == null) return null;
-        Collection<Map<String,Object>> c = (Collection<Map<String,Object>>)o;
-        DirEntry[] res = new DirEntry[c.size()];
-        int i = 0;
-        for (Map<String,Object> m : c) {
-            res[i++] = new DirEntry(
-                    (String)m.get("FileName"),
-                    (String)m.get("LongName"),
-                    toFileAttrs(m.get("Attrs")));
+    private DirEntry[] readDirEntryArray(JSONPullParser p) throws IOException {
+        if (p.nextNull()) return null;
+        List<DirEntry> l = new ArrayList<DirEntry>();
+        p.beginArray();
+        while (p.hasNext()) {
+            String file_name = null;
+            String long_name = null;
+            FileAttrs attrs = null;
+            p.beginObject();
+            while (p.hasNext()) {
+                String name = p.nextName();
+                if (name.equals("FileName")) file_name = p.nextString();
+                else if (name.equals("LongName")) long_name = p.nextString();
+                else if (name.equals("Attrs")) attrs = readFileAttrs(p);
+                else p.skipValue();
+            }
+            p.endObject();
+            l.add(new DirEntry(file_name, long_name, attrs));
         }
-        return res;
+        p.endArray();
+        return l.toArray(new DirEntry[l.size()]);
     }
 }
@@ -10,12 +10,17 @@
  *******************************************************************************/
 package org.eclipse.tcf.internal.services.remote;
 
-import java.util.Collection;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.eclipse.tcf.core.AbstractChannel;
 import org.eclipse.tcf.core.Command;
 import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.JSON;
+import org.eclipse.tcf.protocol.JSONPullParser;
 import org.eclipse.tcf.services.ILineNumbers;
 
 
@@ -31,9 +36,31 @@ public class LineNumbersProxy implements ILineNumbers {
         return NAME;
     }
 
+    /*
+     * Command that decodes code areas straight from reply data,
+     * line number tables can be large.
+     */
+    private abstract class CodeAreaCommand extends Command
+            implements AbstractChannel.DecodingCommandListener {
+
+        CodeAreaCommand(String command, Object[] args) {
+            super(channel, LineNumbersProxy.this, command, args);
+        }
+
+        @Override
+        protected Object[] parseResult(ByteBuffer data) throws IOException {
+            JSONPullParser p = JSON.getPullParser().reset(data);
+            Object error = p.nextValue();
+            p.nextSeparator();
+            CodeArea[] arr = readTextAreaArray(p);
+            p.nextSeparator();
+            return new Object[]{ error, arr };
+        }
+    }
+
     public IToken mapToSource(String context_id, Number start_address,
             Number end_address, final DoneMapToSource done) {
-        return new Command(channel, this, "mapToSource", new Object[]{ context_id,
+        return new CodeAreaCommand("mapToSource", new Object[]{ context_id,
                 start_address, end_address }) {
             @Override
             public void done(Exception error, Object[] args) {
@@ -41,7 +68,7 @@ public class LineNumbersProxy implements ILineNumbers {
                 if (error == null) {
                     assert args.length == 2;
                     error = toError(args[0]);
-                    arr = toTextAreaArray(args[1]);
+                    arr = (CodeArea[])args[1];
                 }
                 done.doneMapToSource(token, error, arr);
             }
@@ -50,7 +77,7 @@ public class LineNumbersProxy implements ILineNumbers {
 
     public IToken mapToMemory(String context_id, String file,
             int line, int column, final DoneMapToMemory done) {
-        return new Command(channel, this, "mapToMemory", new Object[]{ context_id,
+        return new CodeAreaCommand("mapToMemory", new Object[]{ context_id,
                 file, line, column }) {
             @Override
             public void done(Exception error, Object[] args) {
@@ -58,50 +85,61 @@ public class LineNumbersProxy implements ILineNumbers {
                 if (error == null) {
                     assert args.length == 2;
                     error = toError(args[0]);
-                    arr = toTextAreaArray(args[1]);
+                    arr = (CodeArea[])args[1];
                 }
                 done.doneMapToMemory(token, error, arr);
             }
         }.token;
     }
 
-    private static int getInteger(Map<String,Object> map, String name, int def) {
-        Number n = (Number)map.get(name);
-        if (n == null) return def;
-        return n.intValue();
-    }
-
-    private static String getString(Map<String,Object> map, String name, String def) {
-        String s = (String)map.get(name);
-        if (s == null) return def;
-        return s;
-    }
-
-    private static boolean getBoolean(Map<String,Object> map, String name) {
-        Boolean b = (Boolean)map.get(name);
-        if (b == null) return false;
-        return b.booleanValue();
-    }
-
-    @SuppressWarnings("unchecked")
-    private CodeArea[] toTextAreaArray(Object o) {
-        if (o == null) return null;
-        Collection<Map<String,Object>> c = (Collection<Map<String,Object>>)o;
-        int n = 0;
-        CodeArea[] arr = new CodeArea[c.size()];
+    private static CodeArea[] readTextAreaArray(JSONPullParser p) throws IOException {
+        if (p.nextNull()) return null;
+        List<CodeArea> l = new ArrayList<CodeArea>();
         String directory = null;
         String file = null;
-        for (Map<String,Object> area : c) {
-            directory = getString(area, "Dir", directory);
-            file = getString(area, "File", file);
-            arr[n++] = new CodeArea(directory, file,
-                    getInteger(area, "SLine", 0), getInteger(area, "SCol", 0),
-                    getInteger(area, "ELine", 0), getInteger(area, "ECol", 0),
-                    (Number)area.get("SAddr"), (Number)area.get("EAddr"),
-                    getInteger(area, "ISA", 0),
-                    getBoolean(area, "IsStmt"), getBoolean(area, "BasicBlock"),
-                    getBoolean(area, "PrologueEnd"), getBoolean(area, "EpilogueBegin"));
+        p.beginArray();
+        while (p.hasNext()) {
+            int sline = 0;
+            int scol = 0;
+            int eline = 0;
+            int ecol = 0;
+            Number saddr = null;
+            Number eaddr = null;
+            int isa = 0;
+            boolean is_stmt = false;
+            boolean basic_block = false;
+            boolean prologue_end = false;
+            boolean epilogue_begin = false;
+            p.beginObject();
+            while (p.hasNext()) {
+                String name = p.nextName();
+                if (name.equals("SLine")) sline = p.nextInt();
+                else if (name.equals("SCol")) scol = p.nextInt();
+                else if (name.equals("ELine")) eline = p.nextInt();
+                else if (name.equals("ECol")) ecol = p.nextInt();
+                else if (name.equals("SAddr")) saddr = p.nextNumber();
+                else if (name.equals("EAddr")) eaddr = p.nextNumber();
+                else if (name.equals("ISA")) isa = p.nextInt();
+                else if (name.equals("IsStmt")) is_stmt = !p.nextNull() && p.nextBoolean();
+                else if (name.equals("BasicBlock")) basic_block = !p.nextNull() && p.nextBoolean();
+                else if (name.equals("PrologueEnd")) prologue_end = !p.nextNull() && p.nextBoolean();
+                else if (name.equals("EpilogueBegin")) epilogue_begin = !p.nextNull() && p.nextBoolean();
+                else if (name.equals("Dir")) {
+                    /* Areas of a table usually have same directory and file, share the strings */
+                    String s = p.nextString();
+                    if (s != null && !s.equals(directory)) directory = s;
+                }
+                else if (name.equals("File")) {
+                    String s = p.nextString();
+                    if (s != null && !s.equals(file)) file = s;
+                }
+                else p.skipValue();
+            }
+            p.endObject();
+            l.add(new CodeArea(directory, file, sline, scol, eline, ecol, saddr, eaddr,
+                    isa, is_stmt, basic_block, prologue_end, epilogue_begin));
         }
-        return arr;
+        p.endArray();
+        return l.toArray(new CodeArea[l.size()]);
     }
 }
@@ -109,9 +109,10 @@ public class MemoryMapProxy implements IMemoryMap {
     }
 
     static {
-        JSON.addObjectWriter(MemoryRegion.class, new JSON.ObjectWriter<MemoryRegion>() {
-            public void write(MemoryRegion r) throws IOException {
-                JSON.writeObject(r.getProperties());
+        JSON.addObjectWriter(MemoryRegion.class, new JSON.ValueWriter<MemoryRegion>() {
+            @Override
+            public Object toValue(MemoryRegion r) {
+                return r.getProperties();
             }
         });
     }
@@ -12,12 +12,14 @@ package org.eclipse.tcf.internal.services.remote;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.eclipse.tcf.core.AbstractChannel;
 import org.eclipse.tcf.core.Command;
 import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IErrorReport;
@@ -28,6 +30,9 @@ import org.eclipse.tcf.services.IMemory;
 
 public class MemoryProxy implements IMemory {
 
+    /* Memory reads larger than this are split into pipelined commands */
+    private static final int BULK_CHUNK_SIZE = 0x10000;
+
     private final IChannel channel;
     private final Map<MemoryListener,IChannel.IEventListener> listeners =
         new HashMap<MemoryListener,IChannel.IEventListener>();
@@ -65,12 +70,12 @@ public class MemoryProxy implements IMemory {
             this.ranges = c == null ? null : new Range[c.size()];
             if (c != null) {
                 int n = 0;
-                BigInteger addr_bi = JSON.toBigInteger(addr);
+                /* Offsets are small, 64-bit two's complement arithmetic is enough */
+                long addr_l = addr.longValue();
                 for (Map<String,Object> m : c) {
                     Range r = new Range();
                     Number x = (Number)m.get(RANGE_KEY_ADDR);
-                    BigInteger y = JSON.toBigInteger(x);
-                    r.offs = y.subtract(addr_bi).intValue();
+                    r.offs = (int)(x.longValue() - addr_l);
                     r.size = ((Number)m.get(RANGE_KEY_SIZE)).intValue();
                     r.stat = ((Number)m.get(RANGE_KEY_STAT)).intValue();
                     r.msg = Command.toErrorString(m.get(RANGE_KEY_MSG));
@@ -82,6 +87,13 @@ public class MemoryProxy implements IMemory {
             }
         }
 
+        MemoryErrorReport(String msg, Map<String,Object> attrs, Range[] ranges) {
+            super(msg);
+            this.attrs = attrs;
+            this.ranges = ranges;
+            Arrays.sort(this.ranges);
+        }
+
         public int getErrorCode() {
             Number n = (Number)attrs.get(ERROR_CODE);
             if (n == null) return 0;
@@ -218,20 +230,30 @@ public class MemoryProxy implements IMemory {
         public IToken get(final Number addr, int word_size,
                 final byte[] buf, final int offs, final int size,
                 int mode, final DoneMemory done) {
+            int chunk = BULK_CHUNK_SIZE;
+            if (word_size > 1) chunk -= chunk % word_size;
+            if (size > chunk) return new BulkGet(this, addr, word_size, buf, offs, size, chunk, mode, done);
             return new MemoryCommand("get", new Object[] {
                     getID(), addr, word_size, size, mode
                 } ) {
                     public void done(Exception error, Object[] args) {
-                        MemoryError e = null;
-                        if (error != null) {
-                            e = new MemoryError(error.getMessage());
-                        }
-                        else {
-                            assert args.length == 3;
-                            JSON.toByteArray(buf, offs, size, args[0]);
-                            e = toMemoryError(addr, args[1], args[2]);
-                        }
-                        done.doneMemory(token, e);
+                        doneGet(error, args, addr, buf, offs, size, done);
+                    }
+                }.token;
+        }
+
+        /*
+         * Read a chunk of a bulk transfer, the command is subject to the channel command window.
+         * If the transfer is canceled while the chunk is in flight, the chunk data is discarded.
+         */
+        private IToken getChunk(final BulkGet bulk, final Number addr, int word_size,
+                final byte[] buf, final int offs, final int size, int mode) {
+            return new WindowedMemoryCommand("get", new Object[] {
+                    getID(), addr, word_size, size, mode
+                } ) {
+                    public void done(Exception error, Object[] args) {
+                        if (bulk.canceled) bulk.doneMemory(token, null);
+                        else doneGet(error, args, addr, buf, offs, size, bulk);
                     }
                 }.token;
         }
@@ -260,6 +282,118 @@ public class MemoryProxy implements IMemory {
         }
     }
 
+    /* Convert 64-bit unsigned address to a Number that is written to JSON as unsigned value */
+    private static Number toAddress(long addr) {
+        if (addr >= 0) return Long.valueOf(addr);
+        return BigInteger.valueOf(addr & Long.MAX_VALUE).setBit(63);
+    }
+
+    /*
+     * Large memory read, split into chunks that are sent as separate commands.
+     * The chunks are requested all at once, the channel command window limits
+     * how many of them are in flight, see AbstractChannel.WindowedCommandListener, so the data is transferred in a pipeline.
+     * Results are merged into single MemoryError, if any, with per byte status.
+     */
+    private class BulkGet implements IToken, DoneMemory {
+
+        private final DoneMemory done;
+        private final IToken[] tokens;
+        private final int[] offsets;
+        private final int[] sizes;
+        private final MemoryError[] errors;
+        private int cnt;
+        private boolean canceled;
+
+        BulkGet(MemContext ctx, Number addr, int word_size,
+                byte[] buf, int offs, int size, int chunk, int mode, DoneMemory done) {
+            this.done = done;
+            int n = (size + chunk - 1) / chunk;
+            tokens = new IToken[n];
+            offsets = new int[n];
+            sizes = new int[n];
+            errors = new MemoryError[n];
+            long addr_l = addr.longValue();
+            for (int i = 0; i < n; i++) {
+                offsets[i] = i * chunk;
+                sizes[i] = Math.min(chunk, size - offsets[i]);
+            }
+            cnt = n;
+            for (int i = 0; i < n; i++) {
+                tokens[i] = ctx.getChunk(this, toAddress(addr_l + offsets[i]), word_size, buf, offs + offsets[i], sizes[i], mode);
+            }
+        }
+
+        /*
+         * Chunks are sent in order, so if the first outstanding chunk is not sent yet,
+         * the transfer can be canceled. Otherwise it is in progress and cannot be canceled.
+         * A later chunk that cannot be canceled, because it was sent in the meantime, still
+         * completes, but its data is not written into the client buffer, see getChunk().
+         */
+        public boolean cancel() {
+            if (cnt == 0 || canceled) return false;
+            int i = 0;
+            while (tokens[i] == null) i++;
+            if (!tokens[i].cancel()) return false;
+            canceled = true;
+            tokens[i] = null;
+            cnt--;
+            for (i++; i < tokens.length; i++) {
+                if (tokens[i] == null) continue;
+                if (!tokens[i].cancel()) continue;
+                tokens[i] = null;
+                cnt--;
+            }
+            return true;
+        }
+
+        public void doneMemory(IToken token, MemoryError error) {
+            int i = 0;
+            while (i < tokens.length && tokens[i] != token) i++;
+            if (i == tokens.length) return;
+            tokens[i] = null;
+            errors[i] = error;
+            if (--cnt == 0 && !canceled) report();
+        }
+
+        private void report() {
+            MemoryErrorReport report = null;
+            for (MemoryError e : errors) {
+                if (e == null) continue;
+                if (!(e instanceof MemoryErrorReport)) {
+                    done.doneMemory(this, e);
+                    return;
+                }
+                if (report == null) report = (MemoryErrorReport)e;
+            }
+            if (report == null) {
+                done.doneMemory(this, null);
+                return;
+            }
+            ArrayList<Range> ranges = new ArrayList<Range>();
+            for (int i = 0; i < errors.length; i++) {
+                if (errors[i] == null) {
+                    Range r = new Range();
+                    r.offs = offsets[i];
+                    r.size = sizes[i];
+                    r.stat = ErrorOffset.BYTE_VALID;
+                    ranges.add(r);
+                }
+                else if (((MemoryErrorReport)errors[i]).ranges != null) {
+                    for (Range x : ((MemoryErrorReport)errors[i]).ranges) {
+                        Range r = new Range();
+                        r.offs = offsets[i] + x.offs;
+                        r.size = x.size;
+                        r.stat = x.stat;
+                        r.msg = x.msg;
+                        ranges.add(r);
+                    }
+                }
+            }
+            done.doneMemory(this, new MemoryErrorReport(report.getMessage(),
+                    report.attrs, ranges.toArray(new Range[ranges.size()])));
+        }
+    }
+
     public MemoryProxy(IChannel channel) {
         this.channel = channel;
     }
@@ -346,6 +480,20 @@ public class MemoryProxy implements IMemory {
             super(channel, MemoryProxy.this, cmd, args);
         }
 
+        void doneGet(Exception error, Object[] args, Number addr,
+                byte[] buf, int offs, int size, DoneMemory done) {
+            MemoryError e = null;
+            if (error != null) {
+                e = new MemoryError(error.getMessage());
+            }
+            else {
+                assert args.length == 3;
+                JSON.toByteArray(buf, offs, size, args[0]);
+                e = toMemoryError(addr, args[1], args[2]);
+            }
+            done.doneMemory(token, e);
+        }
+
         @SuppressWarnings("unchecked")
         MemoryError toMemoryError(Number addr, Object data, Object ranges) {
             if (data == null) return null;
@@ -363,6 +511,14 @@ public class MemoryProxy implements IMemory {
         }
     }
 
+    private abstract class WindowedMemoryCommand extends MemoryCommand
+            implements AbstractChannel.WindowedCommandListener {
+
+        WindowedMemoryCommand(String cmd, Object[] args) {
+            super(cmd, args);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private MemoryContext[] toContextArray(Object o) {
         Collection<Map<String,Object>> c = (Collection<Map<String,Object>>)o;
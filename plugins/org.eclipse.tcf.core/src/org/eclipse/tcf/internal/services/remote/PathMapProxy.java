@@ -109,9 +109,10 @@ public class PathMapProxy implements IPathMap {
     }
 
     static {
-        JSON.addObjectWriter(PathMapRule.class, new JSON.ObjectWriter<PathMapRule>() {
-            public void write(PathMapRule r) throws IOException {
-                JSON.writeObject(r.getProperties());
+        JSON.addObjectWriter(PathMapRule.class, new JSON.ValueWriter<PathMapRule>() {
+            @Override
+            public Object toValue(PathMapRule r) {
+                return r.getProperties();
             }
         });
     }
@@ -11,14 +11,17 @@
 package org.eclipse.tcf.internal.services.remote;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.eclipse.tcf.core.AbstractChannel;
 import org.eclipse.tcf.core.Command;
 import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IToken;
 import org.eclipse.tcf.protocol.JSON;
+import org.eclipse.tcf.protocol.JSONPullParser;
 import org.eclipse.tcf.services.IRegisters;
 
 
@@ -158,15 +161,14 @@ public class RegistersProxy implements IRegisters {
         }
 
         public IToken get(final DoneGet done) {
-            return new Command(channel, RegistersProxy.this, "get",
-                    new Object[]{ getID() }) {
+            return new ValueCommand("get", new Object[]{ getID() }) {
                 @Override
                 public void done(Exception error, Object[] args) {
                     byte[] val = null;
                     if (error == null) {
                         assert args.length == 2;
                         error = toError(args[0]);
-                        val = JSON.toByteArray(args[1]);
+                        val = (byte[])args[1];
                     }
                     done.doneGet(token, error, val);
                 }
@@ -208,6 +210,28 @@ public class RegistersProxy implements IRegisters {
         }
     }
 
+    /*
+     * Command that reads register value straight from reply data.
+     * Result: error report, binary value.
+     */
+    private abstract class ValueCommand extends Command
+            implements AbstractChannel.DecodingCommandListener {
+
+        ValueCommand(String command, Object[] args) {
+            super(channel, RegistersProxy.this, command, args);
+        }
+
+        @Override
+        protected Object[] parseResult(ByteBuffer data) throws IOException {
+            JSONPullParser p = JSON.getPullParser().reset(data);
+            Object error = p.nextValue();
+            p.nextSeparator();
+            byte[] val = p.nextBinary();
+            p.nextSeparator();
+            return new Object[]{ error, val };
+        }
+    }
+
     public RegistersProxy(IChannel channel) {
         this.channel = channel;
     }
@@ -248,14 +272,14 @@ public class RegistersProxy implements IRegisters {
     }
 
     public IToken getm(Location[] locs, final DoneGet done) {
-        return new Command(channel, this, "getm", new Object[]{ locs }) {
+        return new ValueCommand("getm", new Object[]{ locs }) {
             @Override
             public void done(Exception error, Object[] args) {
                 byte[] val = null;
                 if (error == null) {
                     assert args.length == 2;
                     error = toError(args[0]);
-                    val = JSON.toByteArray(args[1]);
+                    val = (byte[])args[1];
                 }
                 done.doneGet(token, error, val);
             }
@@ -374,15 +398,10 @@ public class RegistersProxy implements IRegisters {
     }
 
     static {
-        JSON.addObjectWriter(Location.class, new JSON.ObjectWriter<Location>() {
-            public void write(Location l) throws IOException {
-                JSON.write('[');
-                JSON.writeObject(l.id);
-                JSON.write(',');
-                JSON.writeUInt(l.offs);
-                JSON.write(',');
-                JSON.writeUInt(l.size);
-                JSON.write(']');
+        JSON.addObjectWriter(Location.class, new JSON.ValueWriter<Location>() {
+            @Override
+            public Object toValue(Location l) {
+                return new Object[]{ l.id, l.offs, l.size };
             }
         });
     }
@@ -11,10 +11,12 @@
 package org.eclipse.tcf.internal.services.remote;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.eclipse.tcf.core.AbstractChannel;
 import org.eclipse.tcf.core.Command;
 import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IToken;
@@ -28,6 +30,13 @@ public class RunControlProxy implements IRunControl {
     private final Map<RunControlListener,IChannel.IEventListener> listeners =
         new HashMap<RunControlListener,IChannel.IEventListener>();
 
+    /* Events are decoded by channel receiver thread, suspend events can be numerous and large */
+    private static final AbstractChannel.EventDecoder event_decoder = new AbstractChannel.EventDecoder() {
+        public Object[] decode(String name, ByteBuffer data) throws Exception {
+            return JSON.parseSequence(data);
+        }
+    };
+
     private class RunContext implements IRunControl.RunControlContext {
 
         private final Map<String, Object> props;
@@ -185,12 +194,23 @@ public class RunControlProxy implements IRunControl {
     }
 
     public void addListener(final RunControlListener listener) {
-        IChannel.IEventListener l = new IChannel.IEventListener() {
+        IChannel.IEventListener l = new AbstractChannel.DecodedEventListener() {
 
-            @SuppressWarnings("unchecked")
             public void event(String name, byte[] data) {
+                Object[] args = null;
+                try {
+                    args = JSON.parseSequence(data);
+                }
+                catch (Throwable x) {
+                    channel.terminate(x);
+                    return;
+                }
+                event(name, args);
+            }
+
+            @SuppressWarnings("unchecked")
+            public void event(String name, Object[] args) {
                 try {
-                    Object[] args = JSON.parseSequence(data);
                     if (name.equals("contextSuspended")) {
                         assert args.length == 4;
                         listener.contextSuspended(
@@ -239,6 +259,9 @@ public class RunControlProxy implements IRunControl {
                 }
             }
         };
+        if (listeners.isEmpty() && channel instanceof AbstractChannel) {
+            ((AbstractChannel)channel).setEventDecoder(this, event_decoder);
+        }
         channel.addEventListener(this, l);
         listeners.put(listener, l);
     }
@@ -246,6 +269,9 @@ public class RunControlProxy implements IRunControl {
     public void removeListener(RunControlListener listener) {
         IChannel.IEventListener l = listeners.remove(listener);
         if (l != null) channel.removeEventListener(this, l);
+        if (listeners.isEmpty() && channel instanceof AbstractChannel) {
+            ((AbstractChannel)channel).setEventDecoder(this, null);
+        }
     }
 
     public IToken getContext(String context_id, final DoneGetContext done) {
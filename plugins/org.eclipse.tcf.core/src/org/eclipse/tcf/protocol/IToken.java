@@ -13,6 +13,7 @@ package org.eclipse.tcf.protocol;
 /**
  * IToken is created by the framework for each command sent to a remote peer.
  * It is used to match results to commands and to cancel pending commands.
+ * IToken is also returned by Protocol.invokeLater(long, TimeUnit, Runnable), to cancel a delayed event.
  *
  * @noextend This interface is not intended to be extended by clients.
  * @noimplement This interface is not intended to be implemented by clients.
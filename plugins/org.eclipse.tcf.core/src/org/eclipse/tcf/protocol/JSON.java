@@ -11,15 +11,10 @@
 package org.eclipse.tcf.protocol;
 
 import java.io.IOException;
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.tcf.core.Base64;
 
@@ -37,6 +32,9 @@ import org.eclipse.tcf.core.Base64;
  * Clients can enable writing support for objects of a other classes by
  * registering ObjectWriter interface implementation.
  *
+ * Static conversion methods of this class can be called by any thread,
+ * they use JSONReader and JSONWriter objects that are kept per thread.
+ *
  * @noextend This class is not intended to be subclassed by clients.
  * @noinstantiate This class is not intended to be instantiated by clients.
  */
@@ -50,8 +48,40 @@ public final class JSON {
         void write(V o) throws IOException;
     }
 
+    /**
+     * ValueWriter is ObjectWriter for objects that are represented in JSON by another object
+     * of a supported class, e.g. by a properties map. JSON writers call toValue() and
+     * write the value directly, which is faster than calling write(), especially in binary encoding.
+     */
+    public static abstract class ValueWriter<V> implements ObjectWriter<V> {
+
+        /**
+         * Get the value that represents an object in JSON.
+         * @param o - an object.
+         * @return an object of a class that is directly supported by JSON library.
+         */
+        public abstract Object toValue(V o);
+
+        public void write(V o) throws IOException {
+            writeObject(toValue(o));
+        }
+    }
+
     private static final Map<Class<?>,ObjectWriter<?>> object_writers =
-        new HashMap<Class<?>,ObjectWriter<?>>();
+        new ConcurrentHashMap<Class<?>,ObjectWriter<?>>();
+
+    /* Writers resolved for concrete classes, including classes that have no writer */
+    private static final Map<Class<?>,ObjectWriter<?>> resolved_writers =
+        new ConcurrentHashMap<Class<?>,ObjectWriter<?>>();
+
+    private static final ObjectWriter<Object> no_writer = new ObjectWriter<Object>() {
+        public void write(Object o) throws IOException {
+            throw new IOException("JSON: unsupported object type:" + o.getClass());
+        }
+    };
+
+    /* Incremented when a writer is added, JSONWriter objects discard their caches when it changes */
+    private static volatile int writers_version;
 
     /** Wrapper class for binary byte blocs */
     public final static class Binary {
@@ -66,21 +96,25 @@ public final class JSON {
         }
     }
 
-    private static char[] tmp_buf = new char[0x1000];
-    private static byte[] tmp_bbf = new byte[0x1000];
-    private static int tmp_buf_pos;
-    private static boolean zero_copy;
-    private static Binary[] bin_buf = new Binary[0x10];
-    private static int bin_buf_pos;
-
-    private static byte[] inp;
-    private static int inp_pos;
-    private static int cur_ch;
-
-    // This buffer is used to create nice error reports
-    private static final char[] err_buf = new char[100];
-    private static int err_buf_pos;
-    private static int err_buf_cnt;
+    /* Readers and writers for static conversion methods, one per thread */
+    private static final ThreadLocal<JSONReader> readers = new ThreadLocal<JSONReader>() {
+        @Override
+        protected JSONReader initialValue() {
+            return new JSONReader();
+        }
+    };
+    private static final ThreadLocal<JSONPullParser> pull_parsers = new ThreadLocal<JSONPullParser>() {
+        @Override
+        protected JSONPullParser initialValue() {
+            return new JSONPullParser();
+        }
+    };
+    private static final ThreadLocal<JSONWriter> writers = new ThreadLocal<JSONWriter>() {
+        @Override
+        protected JSONWriter initialValue() {
+            return new JSONWriter();
+        }
+    };
 
     /**
      * Add a handler for converting objects of a particular class into JSON.
@@ -88,373 +122,118 @@ public final class JSON {
      * @param writer - ObjectWriter implementation that provides generation of JSON for a given class.
      */
     public static <X> void addObjectWriter(Class<X> cls, ObjectWriter<X> writer) {
-        object_writers.put(cls, writer);
+        synchronized (object_writers) {
+            object_writers.put(cls, writer);
+            resolved_writers.clear();
+            writers_version++;
+        }
     }
 
     /**
-     * Write a character into JSON output buffer.
-     * Clients should not call this method directly, except from ObjectWriter implementation.
-     * @param ch
+     * Find ObjectWriter for a class of objects.
+     * The result is cached, so the list of writers is searched once per class.
+     * @param cls - a class.
+     * @return the writer or null if the class has no writer.
      */
-    public static void write(char ch) {
-        if (tmp_buf_pos >= tmp_buf.length) {
-            char[] tmp = new char[tmp_buf.length * 2];
-            System.arraycopy(tmp_buf, 0, tmp, 0, tmp_buf_pos);
-            tmp_buf = tmp;
+    @SuppressWarnings("rawtypes")
+    static ObjectWriter getObjectWriter(Class<?> cls) {
+        ObjectWriter writer = resolved_writers.get(cls);
+        if (writer == null) {
+            synchronized (object_writers) {
+                writer = object_writers.get(cls);
+                if (writer == null) {
+                    for (Map.Entry<Class<?>,ObjectWriter<?>> e : object_writers.entrySet()) {
+                        if (e.getKey().isAssignableFrom(cls)) {
+                            writer = e.getValue();
+                            break;
+                        }
+                    }
+                }
+                if (writer == null) writer = no_writer;
+                resolved_writers.put(cls, writer);
+            }
         }
-        tmp_buf[tmp_buf_pos++] = ch;
+        return writer == no_writer ? null : writer;
     }
 
-    /**
-     * Write a string into JSON output buffer.
-     * The string is written "as-is". Call writeObject() to convert a String into JSON string.
-     * Clients should not call this method directly, except from ObjectWriter implementation.
-     * @param s - a string
-     */
-    public static void write(String s) {
-        int l = s.length();
-        for (int i = 0; i < l; i++) {
-            char ch = s.charAt(i);
-            if (tmp_buf_pos >= tmp_buf.length) write(ch);
-            else tmp_buf[tmp_buf_pos++] = ch;
-        }
+    static int getWritersVersion() {
+        return writers_version;
     }
 
     /**
-     * Write a non-negative integer number into JSON output buffer.
-     * Clients should not call this method directly, except from ObjectWriter implementation.
-     * @param n - a number
+     * Get JSONReader for current thread.
+     * The reader is shared by static methods of this class that are called on the thread.
+     * @return JSONReader object.
      */
-    public static void writeUInt(int n) {
-        assert n >= 0;
-        if (n >= 10) writeUInt(n / 10);
-        write((char)('0' + n % 10));
+    public static JSONReader getReader() {
+        return readers.get();
     }
 
-    private static int readUTF8Char() {
-        if (inp_pos >= inp.length) return -1;
-        int ch = inp[inp_pos++];
-        if (ch < 0) {
-            if ((ch & 0xe0) == 0xc0) {
-                ch = (ch & 0x1f) << 6;
-                ch |= inp[inp_pos++] & 0x3f;
-            }
-            else if ((ch & 0xf0) == 0xe0) {
-                ch = (ch & 0x0f) << 12;
-                ch |= (inp[inp_pos++] & 0x3f) << 6;
-                ch |= inp[inp_pos++] & 0x3f;
-            }
-            else if ((ch & 0xf0) == 0xf0) {
-                ch = (ch & 0x0f) << 18;
-                ch |= (inp[inp_pos++] & 0x3f) << 12;
-                ch |= (inp[inp_pos++] & 0x3f) << 6;
-                ch |= inp[inp_pos++] & 0x3f;
-            }
-            else {
-                ch &= 0xff;
-            }
-        }
-        return ch;
+    /**
+     * Get JSONPullParser for current thread.
+     * @return JSONPullParser object.
+     */
+    public static JSONPullParser getPullParser() {
+        return pull_parsers.get();
     }
 
-    private static void read() throws IOException {
-        cur_ch = readUTF8Char();
-        err_buf[err_buf_pos++] = (char)cur_ch;
-        if (err_buf_pos >= err_buf.length) {
-            err_buf_pos = 0;
-            err_buf_cnt++;
-        }
+    /**
+     * Get JSONWriter for current thread.
+     * The writer is shared by static methods of this class that are called on the thread.
+     * @return JSONWriter object.
+     */
+    public static JSONWriter getWriter() {
+        return writers.get();
     }
 
-    private static void skipWS() throws IOException {
-        while (cur_ch <= ' ') {
-            switch (cur_ch) {
-            case '\r':
-            case '\n':
-            case '\t':
-            case ' ':
-                read();
-                break;
-            default:
-                return;
-            }
-        }
+    /* Writer for a static conversion method, a new one if called from an ObjectWriter */
+    private static JSONWriter getFreeWriter() {
+        JSONWriter w = writers.get();
+        if (JSONWriter.getCurrent() == w) w = new JSONWriter();
+        return w;
     }
 
-    private static void error() throws IOException {
-        error("syntax error");
+    private static JSONWriter getCurrentWriter() {
+        JSONWriter w = JSONWriter.getCurrent();
+        if (w == null) w = writers.get();
+        return w;
     }
 
-    private static void error(String msg) throws IOException {
-        StringBuffer bf = new StringBuffer();
-        bf.append("JSON " + msg + ":");
-        int cnt = 0;
-        boolean nl = true;
-        for (int i = 0;; i++) {
-            char ch = 0;
-            if (err_buf_cnt == 0 && i < err_buf_pos) {
-                ch = err_buf[i];
-            }
-            else if (err_buf_cnt > 0 && i < err_buf.length) {
-                ch = err_buf[(err_buf_pos + i) % err_buf.length];
-            }
-            else {
-                int n = readUTF8Char();
-                if (n < 0) break;
-                ch = (char)n;
-            }
-            if (nl) {
-                bf.append("\n ");
-                if (err_buf_cnt == 0) bf.append(cnt);
-                else bf.append('*');
-                bf.append(": ");
-                if (cnt == 0 && err_buf_cnt > 0) bf.append("...");
-                nl = false;
-            }
-            if (ch == 0) {
-                cnt++;
-                nl = true;
-                continue;
-            }
-            bf.append(ch);
-        }
-        throw new IOException(bf.toString());
+    /**
+     * Write a character into JSON output buffer.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param ch
+     */
+    public static void write(char ch) {
+        getCurrentWriter().write(ch);
     }
 
-    private static int readHexDigit() throws IOException {
-        int n = 0;
-        if (cur_ch >= '0' && cur_ch <= '9') n = cur_ch - '0';
-        else if (cur_ch >= 'A' && cur_ch <= 'F') n = cur_ch - 'A' + 10;
-        else if (cur_ch >= 'a' && cur_ch <= 'f') n = cur_ch - 'a' + 10;
-        else error();
-        read();
-        return n;
+    /**
+     * Write a string into JSON output buffer.
+     * The string is written "as-is". Call writeObject() to convert a String into JSON string.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param s - a string
+     */
+    public static void write(String s) {
+        getCurrentWriter().write(s);
     }
 
-    private static Object readFloat(boolean sign, BigInteger val) throws IOException {
-        int scale = 0;
-        int fraction = 0;
-        if (cur_ch == '.') {
-            read();
-            while (cur_ch >= '0' && cur_ch <= '9') {
-                val = val.multiply(BigInteger.valueOf(10));
-                val = val.add(BigInteger.valueOf(cur_ch - '0'));
-                fraction++;
-                read();
-            }
-        }
-        if (cur_ch == 'E' || cur_ch == 'e') {
-            read();
-            boolean neg = cur_ch == '-';
-            if (neg || cur_ch == '+') read();
-            while (cur_ch >= '0' && cur_ch <= '9') {
-                scale = scale * 10 + cur_ch - '0';
-                read();
-            }
-            if (neg) scale = -scale;
-        }
-        if (sign) val = val.negate();
-        return new BigDecimal(val, fraction - scale);
+    /**
+     * Write a non-negative integer number into JSON output buffer.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param n - a number
+     */
+    public static void writeUInt(int n) {
+        getCurrentWriter().writeUInt(n);
     }
 
-    private static Object readNestedObject() throws IOException {
-        skipWS();
-        switch (cur_ch) {
-        case '(':
-            read();
-            int len = 0;
-            while (cur_ch >= '0' && cur_ch <= '9') {
-                len = len * 10 + (cur_ch - '0');
-                read();
-            }
-            if (cur_ch != ')') error();
-            byte[] res = new byte[len];
-            System.arraycopy(inp, inp_pos, res, 0, len);
-            inp_pos += len;
-            read();
-            return res;
-        case '"':
-            read();
-            tmp_buf_pos = 0;
-            for (;;) {
-                if (cur_ch <= 0) error();
-                if (cur_ch == '"') break;
-                if (cur_ch == '\\') {
-                    read();
-                    if (cur_ch <= 0) error();
-                    switch (cur_ch) {
-                    case '"':
-                    case '\\':
-                    case '/':
-                        break;
-                    case 'b':
-                        cur_ch = '\b';
-                        break;
-                    case 'f':
-                        cur_ch = '\f';
-                        break;
-                    case 'n':
-                        cur_ch = '\n';
-                        break;
-                    case 'r':
-                        cur_ch = '\r';
-                        break;
-                    case 't':
-                        cur_ch = '\t';
-                        break;
-                    case 'u':
-                        read();
-                        int n = 0;
-                        n |= readHexDigit() << 12;
-                        n |= readHexDigit() << 8;
-                        n |= readHexDigit() << 4;
-                        n |= readHexDigit();
-                        write((char)n);
-                        continue;
-                    default:
-                        error();
-                        break;
-                    }
-                }
-                if (tmp_buf_pos >= tmp_buf.length) {
-                    write((char)cur_ch);
-                }
-                else {
-                    tmp_buf[tmp_buf_pos++] = (char)cur_ch;
-                }
-                if (inp_pos >= inp.length || inp[inp_pos] < 0) {
-                    cur_ch = readUTF8Char();
-                }
-                else {
-                    cur_ch = inp[inp_pos++];
-                }
-                err_buf[err_buf_pos++] = (char)cur_ch;
-                if (err_buf_pos >= err_buf.length) {
-                    err_buf_pos = 0;
-                    err_buf_cnt++;
-                }
-            }
-            read();
-            return new String(tmp_buf, 0, tmp_buf_pos);
-        case '[':
-            read();
-            skipWS();
-            List<Object> l = new ArrayList<Object>();
-            if (cur_ch <= 0) error();
-            if (cur_ch != ']') {
-                for (;;) {
-                    l.add(readNestedObject());
-                    skipWS();
-                    if (cur_ch == ']') break;
-                    if (cur_ch != ',') error();
-                    read();
-                }
-            }
-            read();
-            return Collections.unmodifiableList(l);
-        case '{':
-            read();
-            skipWS();
-            Map<String,Object> m = new HashMap<String,Object>();
-            if (cur_ch <= 0) error();
-            if (cur_ch != '}') {
-                for (;;) {
-                    String key = (String)readNestedObject();
-                    skipWS();
-                    if (cur_ch != ':') error();
-                    read();
-                    Object val = readNestedObject();
-                    m.put(key, val);
-                    skipWS();
-                    if (cur_ch == '}') break;
-                    if (cur_ch != ',') error();
-                    read();
-                }
-            }
-            read();
-            return Collections.unmodifiableMap(m);
-        case 'n':
-            read();
-            if (cur_ch != 'u') error();
-            read();
-            if (cur_ch != 'l') error();
-            read();
-            if (cur_ch != 'l') error();
-            read();
-            return null;
-        case 'f':
-            read();
-            if (cur_ch != 'a') error();
-            read();
-            if (cur_ch != 'l') error();
-            read();
-            if (cur_ch != 's') error();
-            read();
-            if (cur_ch != 'e') error();
-            read();
-            return Boolean.FALSE;
-        case 't':
-            read();
-            if (cur_ch != 'r') error();
-            read();
-            if (cur_ch != 'u') error();
-            read();
-            if (cur_ch != 'e') error();
-            read();
-            return Boolean.TRUE;
-        case 'N':
-            read();
-            if (cur_ch != 'a') error();
-            read();
-            if (cur_ch != 'N') error();
-            read();
-            return Float.NaN;
-        default:
-            boolean neg = cur_ch == '-';
-            if (neg) read();
-            if (cur_ch >= '0' && cur_ch <= '9') {
-                int v = 0;
-                while (v <= 0x7fffffff / 10 - 1) {
-                    v = v * 10 + (cur_ch - '0');
-                    read();
-                    if (cur_ch < '0' || cur_ch > '9') {
-                        if (cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
-                            return readFloat(neg, BigInteger.valueOf(v));
-                        }
-                        if (neg) v = -v;
-                        return Integer.valueOf(v);
-                    }
-                }
-                long vl = v;
-                while (vl < 0x7fffffffffffffffl / 10 - 1) {
-                    vl = vl * 10 + (cur_ch - '0');
-                    read();
-                    if (cur_ch < '0' || cur_ch > '9') {
-                        if (cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
-                            return readFloat(neg, BigInteger.valueOf(vl));
-                        }
-                        if (neg) vl = -vl;
-                        return Long.valueOf(vl);
-                    }
-                }
-                StringBuffer sb = new StringBuffer();
-                sb.append(vl);
-                while (true) {
-                    sb.append((char)cur_ch);
-                    read();
-                    if (cur_ch < '0' || cur_ch > '9') {
-                        BigInteger n = new BigInteger(sb.toString());
-                        if (cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
-                            return readFloat(neg, n);
-                        }
-                        if (neg) n = n.negate();
-                        return n;
-                    }
-                }
-            }
-            error();
-            return null;
-        }
+    /**
+     * Write an integer number into JSON output buffer.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param n - a number
+     */
+    public static void writeLong(long n) {
+        getCurrentWriter().writeLong(n);
     }
 
     /**
@@ -462,182 +241,8 @@ public final class JSON {
      * Clients should not call this method directly, except from ObjectWriter implementation.
      * @param o - an object to write
      */
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     public static void writeObject(Object o) throws IOException {
-        if (o == null) {
-            write("null");
-        }
-        else if (o instanceof Boolean) {
-            write(o.toString());
-        }
-        else if (o instanceof Number) {
-            write(o.toString());
-        }
-        else if (o instanceof String) {
-            String s = (String)o;
-            char[] arr = new char[s.length()];
-            s.getChars(0, arr.length, arr, 0);
-            writeObject(arr);
-        }
-        else if (o instanceof char[]) {
-            char[] s = (char[])o;
-            write('"');
-            int l = s.length;
-            for (int i = 0; i < l; i++) {
-                char ch = s[i];
-                switch (ch) {
-                case 0:
-                    write("\\u0000");
-                    break;
-                case 1:
-                    write("\\u0001");
-                    break;
-                case '\r':
-                    write("\\r");
-                    break;
-                case '\n':
-                    write("\\n");
-                    break;
-                case '\t':
-                    write("\\t");
-                    break;
-                case '\b':
-                    write("\\b");
-                    break;
-                case '\f':
-                    write("\\f");
-                    break;
-                case '"':
-                case '\\':
-                    write('\\');
-                default:
-                    if (tmp_buf_pos >= tmp_buf.length) write(ch);
-                    else tmp_buf[tmp_buf_pos++] = ch;
-                }
-            }
-            write('"');
-        }
-        else if (o instanceof Binary) {
-            Binary b = (Binary)o;
-            if (zero_copy) {
-                write('(');
-                write(Integer.toString(b.size));
-                write(')');
-                write((char)1);
-                bin_buf[bin_buf_pos++] = b;
-            }
-            else {
-                writeObject(Base64.toBase64(b.bytes, b.offs, b.size));
-            }
-        }
-        else if (o instanceof byte[]) {
-            write('[');
-            byte[] arr = (byte[])o;
-            boolean comma = false;
-            for (int i = 0; i < arr.length; i++) {
-                if (comma) write(',');
-                writeUInt(arr[i] & 0xff);
-                comma = true;
-            }
-            write(']');
-        }
-        else if (o instanceof Object[]) {
-            write('[');
-            Object[] arr = (Object[])o;
-            boolean comma = false;
-            for (int i = 0; i < arr.length; i++) {
-                if (comma) write(',');
-                writeObject(arr[i]);
-                comma = true;
-            }
-            write(']');
-        }
-        else if (o instanceof Collection) {
-            write('[');
-            boolean comma = false;
-            for (Iterator<Object> i = ((Collection<Object>)o).iterator(); i.hasNext();) {
-                if (comma) write(',');
-                writeObject(i.next());
-                comma = true;
-            }
-            write(']');
-        }
-        else if (o instanceof Map) {
-            Map<String,Object> map = (Map<String,Object>)o;
-            write('{');
-            boolean comma = false;
-            for (Iterator<Map.Entry<String,Object>> i = map.entrySet().iterator(); i.hasNext();) {
-                if (comma) write(',');
-                Map.Entry<String,Object> e = i.next();
-                writeObject(e.getKey());
-                write(':');
-                writeObject(e.getValue());
-                comma = true;
-            }
-            write('}');
-        }
-        else {
-            ObjectWriter writer = object_writers.get(o.getClass());
-            if (writer == null) {
-                for (Class<?> c : object_writers.keySet()) {
-                    if (c.isInstance(o)) {
-                        writer = object_writers.get(c);
-                        break;
-                    }
-                }
-            }
-            if (writer != null) {
-                writer.write(o);
-            }
-            else {
-                throw new IOException("JSON: unsupported object type:" + o.getClass());
-            }
-        }
-    }
-
-    private static byte[] toBytes() {
-        int inp_pos = 0;
-        int out_pos = 0;
-        int blc_pos = 0;
-        while (inp_pos < tmp_buf_pos) {
-            if (out_pos > tmp_bbf.length - 4) {
-                byte[] tmp = new byte[tmp_bbf.length * 2];
-                System.arraycopy(tmp_bbf, 0, tmp, 0, out_pos);
-                tmp_bbf = tmp;
-            }
-            int ch = tmp_buf[inp_pos++];
-            if (ch == 1) {
-                Binary b = bin_buf[blc_pos++];
-                while (out_pos > tmp_bbf.length - b.size) {
-                    byte[] tmp = new byte[tmp_bbf.length * 2];
-                    System.arraycopy(tmp_bbf, 0, tmp, 0, out_pos);
-                    tmp_bbf = tmp;
-                }
-                System.arraycopy(b.bytes, b.offs, tmp_bbf, out_pos, b.size);
-                out_pos += b.size;
-            }
-            else if (ch < 0x80) {
-                tmp_bbf[out_pos++] = (byte)ch;
-            }
-            else if (ch < 0x800) {
-                tmp_bbf[out_pos++] = (byte)((ch >> 6) | 0xc0);
-                tmp_bbf[out_pos++] = (byte)(ch & 0x3f | 0x80);
-            }
-            else if (ch < 0x10000) {
-                tmp_bbf[out_pos++] = (byte)((ch >> 12) | 0xe0);
-                tmp_bbf[out_pos++] = (byte)((ch >> 6) & 0x3f | 0x80);
-                tmp_bbf[out_pos++] = (byte)(ch & 0x3f | 0x80);
-            }
-            else {
-                tmp_bbf[out_pos++] = (byte)((ch >> 18) | 0xf0);
-                tmp_bbf[out_pos++] = (byte)((ch >> 12) & 0x3f | 0x80);
-                tmp_bbf[out_pos++] = (byte)((ch >> 6) & 0x3f | 0x80);
-                tmp_bbf[out_pos++] = (byte)(ch & 0x3f | 0x80);
-            }
-        }
-        byte[] res = new byte[out_pos];
-        System.arraycopy(tmp_bbf, 0, res, 0, out_pos);
-        return res;
+        getCurrentWriter().writeObject(o);
     }
 
     /**
@@ -647,12 +252,7 @@ public final class JSON {
      * @throws IOException
      */
     public static String toJSON(Object o) throws IOException {
-        assert Protocol.isDispatchThread();
-        tmp_buf_pos = 0;
-        bin_buf_pos = 0;
-        zero_copy = false;
-        writeObject(o);
-        return new String(tmp_buf, 0, tmp_buf_pos);
+        return getFreeWriter().toJSON(o);
     }
 
     /**
@@ -662,12 +262,7 @@ public final class JSON {
      * @throws IOException
      */
     public static byte[] toJASONBytes(Object o) throws IOException {
-        assert Protocol.isDispatchThread();
-        tmp_buf_pos = 0;
-        bin_buf_pos = 0;
-        zero_copy = false;
-        writeObject(o);
-        return toBytes();
+        return getFreeWriter().toJSONBytes(o);
     }
 
     /**
@@ -678,16 +273,7 @@ public final class JSON {
      * @throws IOException
      */
     public static byte[] toJSONSequence(Object[] o) throws IOException {
-        assert Protocol.isDispatchThread();
-        if (o == null || o.length == 0) return null;
-        tmp_buf_pos = 0;
-        bin_buf_pos = 0;
-        zero_copy = false;
-        for (int i = 0; i < o.length; i++) {
-            writeObject(o[i]);
-            write((char)0);
-        }
-        return toBytes();
+        return getFreeWriter().toJSONSequence(o, false);
     }
 
     /**
@@ -701,16 +287,18 @@ public final class JSON {
      * @throws IOException
      */
     public static byte[] toJSONSequence(Object[] o, boolean zero_copy) throws IOException {
-        assert Protocol.isDispatchThread();
-        if (o == null || o.length == 0) return null;
-        tmp_buf_pos = 0;
-        bin_buf_pos = 0;
-        JSON.zero_copy = zero_copy;
-        for (int i = 0; i < o.length; i++) {
-            writeObject(o[i]);
-            write((char)0);
-        }
-        return toBytes();
+        return getFreeWriter().toJSONSequence(o, zero_copy);
+    }
+
+    /**
+     * Convert multiple Java object to array of bytes that contains the objects in binary encoding,
+     * see JSONWriter.toBinarySequence(). The data can be converted back by parseSequence().
+     * @param o - array of Java objects
+     * @return array of bytes
+     * @throws IOException
+     */
+    public static byte[] toBinarySequence(Object[] o) throws IOException {
+        return getFreeWriter().toBinarySequence(o);
     }
 
     /**
@@ -720,16 +308,7 @@ public final class JSON {
      * @throws IOException
      */
     public static Object parseOne(byte[] b) throws IOException {
-        assert Protocol.isDispatchThread();
-        if (b.length == 0) return null;
-        inp = b;
-        inp_pos = 0;
-        err_buf_pos = 0;
-        err_buf_cnt = 0;
-        read();
-        Object o = readNestedObject();
-        if (cur_ch >= 0) error();
-        return o;
+        return readers.get().parseOne(b);
     }
 
     /**
@@ -740,20 +319,19 @@ public final class JSON {
      * @throws IOException
      */
     public static Object[] parseSequence(byte[] b) throws IOException {
-        assert Protocol.isDispatchThread();
-        inp = b;
-        inp_pos = 0;
-        err_buf_pos = 0;
-        err_buf_cnt = 0;
-        read();
-        List<Object> l = new ArrayList<Object>();
-        while (cur_ch >= 0) {
-            if (cur_ch == 0) l.add(null);
-            else l.add(readNestedObject());
-            if (cur_ch != 0) error("missing \\0 terminator");
-            read();
-        }
-        return l.toArray();
+        return readers.get().parseSequence(b);
+    }
+
+    /**
+     * Convert byte buffer that contains sequence of zero terminated UTF-8 encoded JSON string
+     * to array of Java objects. Buffer position is not changed.
+     * If the buffer is backed by an array, the data is parsed in place, without copying.
+     * @param b - byte buffer with sequence of zero terminated UTF-8 encoded JSON string
+     * @return array of Java objects that represents data in the sequence of JSON strings
+     * @throws IOException
+     */
+    public static Object[] parseSequence(ByteBuffer b) throws IOException {
+        return readers.get().parseSequence(b);
     }
 
     /**
@@ -0,0 +1,1078 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.protocol;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.tcf.core.Base64;
+
+/**
+ * JSONPullParser reads a sequence of zero terminated UTF-8 encoded JSON strings
+ * as a stream of tokens. Unlike JSON.parseSequence(), it does not create objects for
+ * data that the client does not need, so a client can decode data straight into its own objects.
+ *
+ * Typical usage example:
+ *
+ *  p.beginArray();
+ *  while (p.hasNext()) {
+ *      p.beginObject();
+ *      while (p.hasNext()) {
+ *          String name = p.nextName();
+ *          if (name.equals("ID")) id = p.nextString();
+ *          else if (name.equals("Size")) size = p.nextLong();
+ *          else p.skipValue();
+ *      }
+ *      p.endObject();
+ *  }
+ *  p.endArray();
+ *  p.nextSeparator();
+ *
+ * The parser also reads the binary encoding of the same data, see JSONWriter.toBinarySequence().
+ * The encoding is detected by reset(), so clients do not need to know which one the sender used.
+ * In binary data values are not separated, nextSeparator() only checks that a value is complete.
+ *
+ * An object is not thread safe, but it can be reused for any number of sequences.
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public final class JSONPullParser {
+
+    /** Token types, see peek() */
+    public static final int
+        NULL = 0,
+        BOOLEAN = 1,
+        NUMBER = 2,
+        STRING = 3,
+        BINARY = 4,
+        BEGIN_ARRAY = 5,
+        END_ARRAY = 6,
+        BEGIN_OBJECT = 7,
+        END_OBJECT = 8,
+        SEPARATOR = 9,
+        END = 10;
+
+    private static final int BUF_SIZE = 0x100;
+    private static final int MAX_KEEP_SIZE = 0x100000;
+
+    /* Binary encoding: CBOR major types and tags */
+    static final int
+        MT_UINT = 0,
+        MT_NINT = 1,
+        MT_BYTES = 2,
+        MT_TEXT = 3,
+        MT_ARRAY = 4,
+        MT_MAP = 5,
+        MT_TAG = 6,
+        MT_SIMPLE = 7;
+
+    static final int
+        TAG_BIGNUM = 2,
+        TAG_NEG_BIGNUM = 3,
+        TAG_DECIMAL = 4;
+
+    static final int
+        SIMPLE_FALSE = 0xf4,
+        SIMPLE_TRUE = 0xf5,
+        SIMPLE_NULL = 0xf6,
+        SIMPLE_FLOAT = 0xfa,
+        SIMPLE_DOUBLE = 0xfb;
+
+    /* Binary data starts with CBOR self-describe tag, which is not a valid start of JSON text */
+    static final byte[] BINARY_MAGIC = { (byte)0xd9, (byte)0xd9, (byte)0xf7 };
+
+    private byte[] inp;
+    private int inp_beg;
+    private int inp_pos;
+    private int inp_end;
+    private int cur_ch;
+
+    /* Nesting state: comma[n] is true if a comma is expected before next value at level n */
+    private boolean[] comma = new boolean[16];
+    private int level;
+
+    private char[] str_buf = new char[BUF_SIZE];
+    private int str_pos;
+
+    private final PropertyMap.Builder props = new PropertyMap.Builder();
+
+    /* Binary mode state: count[n] is the number of items left in the container at level n */
+    private boolean binary;
+    private int[] count = new int[16];
+    private boolean[] object = new boolean[16];
+    private int bin_major;
+    private String[] keys = new String[16];
+    private int key_cnt;
+
+    static boolean isBinary(byte[] b, int offs, int size) {
+        return size >= BINARY_MAGIC.length &&
+                b[offs] == BINARY_MAGIC[0] &&
+                b[offs + 1] == BINARY_MAGIC[1] &&
+                b[offs + 2] == BINARY_MAGIC[2];
+    }
+
+    /**
+     * Start parsing of a sequence of JSON strings.
+     * @param b - array of bytes with sequence of zero terminated UTF-8 encoded JSON strings.
+     * @param offs - offset of the sequence in the array.
+     * @param size - size of the sequence in bytes.
+     * @return this parser.
+     */
+    public JSONPullParser reset(byte[] b, int offs, int size) {
+        inp = b;
+        inp_beg = offs;
+        inp_pos = offs;
+        inp_end = offs + size;
+        level = 0;
+        comma[0] = false;
+        if (str_buf.length > MAX_KEEP_SIZE) str_buf = new char[BUF_SIZE];
+        props.reset();
+        for (int i = 0; i < key_cnt; i++) keys[i] = null;
+        key_cnt = 0;
+        binary = isBinary(b, offs, size);
+        if (binary) inp_pos += BINARY_MAGIC.length;
+        else read();
+        return this;
+    }
+
+    /**
+     * Start parsing of a sequence of JSON strings. Buffer position is not changed.
+     * If the buffer is backed by an array, the data is parsed in place, without copying.
+     * @param b - byte buffer with sequence of zero terminated UTF-8 encoded JSON strings.
+     * @return this parser.
+     */
+    public JSONPullParser reset(ByteBuffer b) {
+        if (b.hasArray()) return reset(b.array(), b.arrayOffset() + b.position(), b.remaining());
+        byte[] arr = new byte[b.remaining()];
+        b.duplicate().get(arr);
+        return reset(arr, 0, arr.length);
+    }
+
+    private void read() {
+        if (inp_pos >= inp_end) {
+            cur_ch = -1;
+            return;
+        }
+        int ch = inp[inp_pos++];
+        if (ch < 0) {
+            if ((ch & 0xe0) == 0xc0) {
+                ch = (ch & 0x1f) << 6;
+                ch |= inp[inp_pos++] & 0x3f;
+            }
+            else if ((ch & 0xf0) == 0xe0) {
+                ch = (ch & 0x0f) << 12;
+                ch |= (inp[inp_pos++] & 0x3f) << 6;
+                ch |= inp[inp_pos++] & 0x3f;
+            }
+            else if ((ch & 0xf0) == 0xf0) {
+                ch = (ch & 0x0f) << 18;
+                ch |= (inp[inp_pos++] & 0x3f) << 12;
+                ch |= (inp[inp_pos++] & 0x3f) << 6;
+                ch |= inp[inp_pos++] & 0x3f;
+            }
+            else {
+                ch &= 0xff;
+            }
+        }
+        cur_ch = ch;
+    }
+
+    private void skipWS() {
+        while (cur_ch == ' ' || cur_ch == '\t' || cur_ch == '\r' || cur_ch == '\n') read();
+    }
+
+    private void error() throws IOException {
+        error("syntax error");
+    }
+
+    private void error(String msg) throws IOException {
+        if (binary) throw new IOException("Binary data " + msg + " at offset " + (inp_pos - inp_beg));
+        int pos = inp_pos > inp_beg ? inp_pos - 1 : inp_pos;
+        int beg = Math.max(inp_beg, pos - 40);
+        int end = Math.min(inp_end, pos + 20);
+        StringBuffer bf = new StringBuffer();
+        bf.append("JSON " + msg + " at offset " + (pos - inp_beg) + ":\n ");
+        bf.append(new String(inp, beg, end - beg, "UTF-8").replace('\0', ' '));
+        throw new IOException(bf.toString());
+    }
+
+    private void expect(int ch) throws IOException {
+        if (cur_ch != ch) error();
+        read();
+    }
+
+    /* Skip white space and the comma before next value */
+    private void prepare() throws IOException {
+        skipWS();
+        if (comma[level] && cur_ch == ',') {
+            read();
+            skipWS();
+            comma[level] = false;
+            if (cur_ch == ']' || cur_ch == '}') error();
+        }
+    }
+
+    private void beginValue() throws IOException {
+        prepare();
+        if (comma[level]) error("missing comma");
+    }
+
+    private void endValue() {
+        if (level > 0) comma[level] = true;
+    }
+
+    /**
+     * Get type of next token without consuming it.
+     * @return token type.
+     * @throws IOException
+     */
+    public int peek() throws IOException {
+        if (binary) return binPeek();
+        prepare();
+        switch (cur_ch) {
+        case -1: return END;
+        case 0: return SEPARATOR;
+        case 'n': return NULL;
+        case 't': case 'f': return BOOLEAN;
+        case '"': return STRING;
+        case '(': return BINARY;
+        case '[': return BEGIN_ARRAY;
+        case ']': return END_ARRAY;
+        case '{': return BEGIN_OBJECT;
+        case '}': return END_OBJECT;
+        }
+        if (cur_ch == '-' || cur_ch == 'N' || cur_ch >= '0' && cur_ch <= '9') return NUMBER;
+        error();
+        return END;
+    }
+
+    /**
+     * Check if current array or object has more elements.
+     * @return false if next token is end of array or end of object.
+     * @throws IOException
+     */
+    public boolean hasNext() throws IOException {
+        if (binary) {
+            if (level == 0) error();
+            return count[level] > 0;
+        }
+        prepare();
+        if (cur_ch == ']' || cur_ch == '}') return false;
+        if (cur_ch <= 0) error();
+        return true;
+    }
+
+    public void beginArray() throws IOException {
+        if (binary) {
+            binBeginContainer(MT_ARRAY);
+            return;
+        }
+        beginValue();
+        expect('[');
+        push();
+    }
+
+    public void endArray() throws IOException {
+        if (binary) {
+            binEndContainer(false);
+            return;
+        }
+        prepare();
+        expect(']');
+        level--;
+        endValue();
+    }
+
+    public void beginObject() throws IOException {
+        if (binary) {
+            binBeginContainer(MT_MAP);
+            return;
+        }
+        beginValue();
+        expect('{');
+        push();
+    }
+
+    public void endObject() throws IOException {
+        if (binary) {
+            binEndContainer(true);
+            return;
+        }
+        prepare();
+        expect('}');
+        level--;
+        endValue();
+    }
+
+    private void push() {
+        level++;
+        if (level >= comma.length) {
+            int n = comma.length * 2;
+            boolean[] tmp = new boolean[n];
+            System.arraycopy(comma, 0, tmp, 0, comma.length);
+            comma = tmp;
+            int[] cnt = new int[n];
+            System.arraycopy(count, 0, cnt, 0, count.length);
+            count = cnt;
+            boolean[] obj = new boolean[n];
+            System.arraycopy(object, 0, obj, 0, object.length);
+            object = obj;
+        }
+        comma[level] = false;
+    }
+
+    /**
+     * Read name of next object property. Must be followed by reading or skipping of the property value.
+     * @return property name.
+     * @throws IOException
+     */
+    public String nextName() throws IOException {
+        if (binary) {
+            if (level == 0 || !object[level] || (count[level] & 1) != 0) error();
+            binBeginItem();
+            return readKey();
+        }
+        beginValue();
+        if (cur_ch != '"') error();
+        readChars();
+        String s = props.getKey(str_buf, str_pos);
+        skipWS();
+        expect(':');
+        return s;
+    }
+
+    /**
+     * Consume zero terminator of a JSON string in the sequence.
+     * @throws IOException
+     */
+    public void nextSeparator() throws IOException {
+        if (binary) {
+            if (level != 0) error("incomplete value");
+            return;
+        }
+        skipWS();
+        if (level != 0 || cur_ch != 0) error("missing \\0 terminator");
+        read();
+    }
+
+    /**
+     * Consume next value if it is null.
+     * An empty string in the sequence is treated as null, the terminator is not consumed.
+     * @return true if the value is null.
+     * @throws IOException
+     */
+    public boolean nextNull() throws IOException {
+        if (binary) {
+            if (binPeekByte() != SIMPLE_NULL) return false;
+            binBeginItem();
+            inp_pos++;
+            return true;
+        }
+        beginValue();
+        if (cur_ch == 0 && level == 0) return true;
+        if (cur_ch != 'n') return false;
+        read();
+        expect('u');
+        expect('l');
+        expect('l');
+        endValue();
+        return true;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        if (binary) {
+            int b = binPeekByte();
+            if (b != SIMPLE_TRUE && b != SIMPLE_FALSE) error();
+            binBeginItem();
+            inp_pos++;
+            return b == SIMPLE_TRUE;
+        }
+        beginValue();
+        boolean b = false;
+        if (cur_ch == 't') {
+            read();
+            expect('r');
+            expect('u');
+            expect('e');
+            b = true;
+        }
+        else {
+            expect('f');
+            expect('a');
+            expect('l');
+            expect('s');
+            expect('e');
+        }
+        endValue();
+        return b;
+    }
+
+    /**
+     * Read next value as a string, null value is returned as null.
+     * @return the string.
+     * @throws IOException
+     */
+    public String nextString() throws IOException {
+        if (nextNull()) return null;
+        if (binary) {
+            binBeginItem();
+            long n = readHeader();
+            if (bin_major != MT_TEXT) error();
+            return readText(n);
+        }
+        if (cur_ch != '"') error();
+        String s = readString();
+        endValue();
+        return s;
+    }
+
+    /**
+     * Read next value as a 64-bit integer.
+     * Numbers in range of 64-bit unsigned integers, like addresses, are returned as two's complement values.
+     * Fractions are truncated. Null value is returned as 0.
+     * @return the number.
+     * @throws IOException
+     */
+    public long nextLong() throws IOException {
+        if (nextNull()) return 0;
+        if (binary) {
+            binBeginItem();
+            int pos = inp_pos;
+            long v = readHeader();
+            if (bin_major == MT_UINT) return v;
+            if (bin_major == MT_NINT) return -1 - v;
+            inp_pos = pos;
+            return readBinNumber().longValue();
+        }
+        boolean neg = cur_ch == '-';
+        if (neg) read();
+        if (cur_ch < '0' || cur_ch > '9') error();
+        long v = 0;
+        int n = 0;
+        int pos = inp_pos;
+        while (cur_ch >= '0' && cur_ch <= '9') {
+            v = v * 10 + (cur_ch - '0');
+            n++;
+            read();
+        }
+        if (n > 18 || cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
+            /* Rare case: long number or a fraction */
+            inp_pos = pos - 1;
+            read();
+            v = readBigNumber(neg).longValue();
+            endValue();
+            return v;
+        }
+        endValue();
+        return neg ? -v : v;
+    }
+
+    public int nextInt() throws IOException {
+        return (int)nextLong();
+    }
+
+    /**
+     * Read next value as a Number: Integer, Long, BigInteger or BigDecimal, same as JSON.parseSequence().
+     * @return the number, or null.
+     * @throws IOException
+     */
+    public Number nextNumber() throws IOException {
+        if (nextNull()) return null;
+        if (binary) {
+            binBeginItem();
+            return readBinNumber();
+        }
+        if (cur_ch == 'N') {
+            read();
+            expect('a');
+            expect('N');
+            endValue();
+            return Float.NaN;
+        }
+        boolean neg = cur_ch == '-';
+        if (neg) read();
+        if (cur_ch < '0' || cur_ch > '9') error();
+        long v = 0;
+        int n = 0;
+        int pos = inp_pos;
+        while (cur_ch >= '0' && cur_ch <= '9') {
+            v = v * 10 + (cur_ch - '0');
+            n++;
+            read();
+        }
+        Number x = null;
+        if (n > 18 || cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
+            inp_pos = pos - 1;
+            read();
+            x = readBigNumber(neg);
+            if (x instanceof BigInteger && ((BigInteger)x).bitLength() < 64) x = Long.valueOf(x.longValue());
+        }
+        else {
+            if (neg) v = -v;
+            if (v == (int)v) x = Integer.valueOf((int)v);
+            else x = Long.valueOf(v);
+        }
+        endValue();
+        return x;
+    }
+
+    /* Read a long number or a fraction, the mantissa is kept in a long unless it overflows */
+    private Number readBigNumber(boolean neg) throws IOException {
+        long val = 0;
+        BigInteger big = null;
+        while (cur_ch >= '0' && cur_ch <= '9') {
+            int d = cur_ch - '0';
+            if (big == null && val <= (Long.MAX_VALUE - d) / 10) {
+                val = val * 10 + d;
+            }
+            else {
+                if (big == null) big = BigInteger.valueOf(val);
+                big = big.multiply(BigInteger.TEN).add(BigInteger.valueOf(d));
+            }
+            read();
+        }
+        if (cur_ch != '.' && cur_ch != 'E' && cur_ch != 'e') {
+            if (big == null) return Long.valueOf(neg ? -val : val);
+            return neg ? big.negate() : big;
+        }
+        int scale = 0;
+        int fraction = 0;
+        if (cur_ch == '.') {
+            read();
+            while (cur_ch >= '0' && cur_ch <= '9') {
+                int d = cur_ch - '0';
+                if (big == null && val <= (Long.MAX_VALUE - d) / 10) {
+                    val = val * 10 + d;
+                }
+                else {
+                    if (big == null) big = BigInteger.valueOf(val);
+                    big = big.multiply(BigInteger.TEN).add(BigInteger.valueOf(d));
+                }
+                fraction++;
+                read();
+            }
+        }
+        if (cur_ch == 'E' || cur_ch == 'e') {
+            read();
+            boolean n = cur_ch == '-';
+            if (n || cur_ch == '+') read();
+            while (cur_ch >= '0' && cur_ch <= '9') {
+                scale = scale * 10 + cur_ch - '0';
+                read();
+            }
+            if (n) scale = -scale;
+        }
+        if (big == null) return BigDecimal.valueOf(neg ? -val : val, fraction - scale);
+        if (neg) big = big.negate();
+        return new BigDecimal(big, fraction - scale);
+    }
+
+    /**
+     * Read next value as binary data: "zero copy" binary block or Base64 encoded string.
+     * @return the data, or null.
+     * @throws IOException
+     */
+    public byte[] nextBinary() throws IOException {
+        if (nextNull()) return null;
+        byte[] res = null;
+        if (binary) {
+            binBeginItem();
+            long n = readHeader();
+            if (bin_major == MT_BYTES) {
+                checkLength(n);
+                res = new byte[(int)n];
+                System.arraycopy(inp, inp_pos, res, 0, res.length);
+                inp_pos += res.length;
+            }
+            else if (bin_major == MT_TEXT) {
+                /* Base64 string, e.g. written by an ObjectWriter */
+                checkLength(n);
+                try {
+                    res = Base64.toByteArray(inp, inp_pos, (int)n);
+                }
+                catch (IllegalArgumentException x) {
+                    error(x.getMessage());
+                }
+                inp_pos += (int)n;
+            }
+            else {
+                error();
+            }
+            return res;
+        }
+        if (cur_ch == '(') {
+            read();
+            int len = 0;
+            while (cur_ch >= '0' && cur_ch <= '9') {
+                len = len * 10 + (cur_ch - '0');
+                read();
+            }
+            if (cur_ch != ')' || len > inp_end - inp_pos) error();
+            res = new byte[len];
+            System.arraycopy(inp, inp_pos, res, 0, len);
+            inp_pos += len;
+            read();
+        }
+        else if (cur_ch == '"') {
+            int pos = inp_pos;
+            while (pos < inp_end && inp[pos] != '"' && inp[pos] != '\\') pos++;
+            if (pos < inp_end && inp[pos] == '"') {
+                /* Fast path: no escape sequences, decode the data in place */
+                try {
+                    res = Base64.toByteArray(inp, inp_pos, pos - inp_pos);
+                }
+                catch (IllegalArgumentException x) {
+                    error(x.getMessage());
+                }
+                inp_pos = pos + 1;
+                read();
+            }
+            else {
+                char[] arr = readString().toCharArray();
+                try {
+                    res = Base64.toByteArray(arr);
+                }
+                catch (IllegalArgumentException x) {
+                    error(x.getMessage());
+                }
+            }
+        }
+        else {
+            error();
+        }
+        endValue();
+        return res;
+    }
+
+    private void putChar(char ch) {
+        if (str_pos >= str_buf.length) {
+            char[] tmp = new char[str_buf.length * 2];
+            System.arraycopy(str_buf, 0, tmp, 0, str_pos);
+            str_buf = tmp;
+        }
+        str_buf[str_pos++] = ch;
+    }
+
+    private int readHexDigit() throws IOException {
+        read();
+        if (cur_ch >= '0' && cur_ch <= '9') return cur_ch - '0';
+        if (cur_ch >= 'A' && cur_ch <= 'F') return cur_ch - 'A' + 10;
+        if (cur_ch >= 'a' && cur_ch <= 'f') return cur_ch - 'a' + 10;
+        error();
+        return 0;
+    }
+
+    private String readString() throws IOException {
+        readChars();
+        return new String(str_buf, 0, str_pos);
+    }
+
+    /* Read a string into str_buf */
+    private void readChars() throws IOException {
+        assert cur_ch == '"';
+        str_pos = 0;
+        for (;;) {
+            /* Fast path for ASCII characters */
+            if (inp_pos < inp_end && inp[inp_pos] > 0) {
+                byte b = inp[inp_pos];
+                if (b == '"') {
+                    inp_pos++;
+                    read();
+                    return;
+                }
+                if (b != '\\') {
+                    inp_pos++;
+                    if (str_pos >= str_buf.length) putChar((char)b);
+                    else str_buf[str_pos++] = (char)b;
+                    continue;
+                }
+            }
+            read();
+            if (cur_ch <= 0) error();
+            if (cur_ch == '"') break;
+            if (cur_ch == '\\') {
+                read();
+                switch (cur_ch) {
+                case '"':
+                case '\\':
+                case '/':
+                    break;
+                case 'b':
+                    cur_ch = '\b';
+                    break;
+                case 'f':
+                    cur_ch = '\f';
+                    break;
+                case 'n':
+                    cur_ch = '\n';
+                    break;
+                case 'r':
+                    cur_ch = '\r';
+                    break;
+                case 't':
+                    cur_ch = '\t';
+                    break;
+                case 'u':
+                    int n = 0;
+                    n |= readHexDigit() << 12;
+                    n |= readHexDigit() << 8;
+                    n |= readHexDigit() << 4;
+                    n |= readHexDigit();
+                    cur_ch = n;
+                    break;
+                default:
+                    error();
+                    break;
+                }
+            }
+            putChar((char)cur_ch);
+        }
+        read();
+    }
+
+    /**
+     * Read next value as Java objects, same as JSON.parseSequence() does.
+     * @return the value.
+     * @throws IOException
+     */
+    public Object nextValue() throws IOException {
+        switch (peek()) {
+        case NULL:
+        case SEPARATOR:
+            if (!nextNull()) error();
+            return null;
+        case BOOLEAN:
+            return Boolean.valueOf(nextBoolean());
+        case NUMBER:
+            return nextNumber();
+        case STRING:
+            return nextString();
+        case BINARY:
+            return nextBinary();
+        case BEGIN_ARRAY:
+            List<Object> l = new ArrayList<Object>();
+            beginArray();
+            while (hasNext()) l.add(nextValue());
+            endArray();
+            return Collections.unmodifiableList(l);
+        case BEGIN_OBJECT:
+            int mark = props.begin();
+            beginObject();
+            while (hasNext()) {
+                String key = nextName();
+                props.add(mark, key, nextValue());
+            }
+            endObject();
+            return props.end(mark);
+        }
+        error();
+        return null;
+    }
+
+    /**
+     * Skip next value, including nested arrays and objects.
+     * @throws IOException
+     */
+    public void skipValue() throws IOException {
+        if (binary) {
+            binBeginItem();
+            skipItem();
+            return;
+        }
+        switch (peek()) {
+        case NULL:
+        case SEPARATOR:
+            if (!nextNull()) error();
+            break;
+        case BOOLEAN:
+            nextBoolean();
+            break;
+        case NUMBER:
+            beginValue();
+            if (cur_ch == 'N') {
+                nextNumber();
+                break;
+            }
+            while (cur_ch == '-' || cur_ch == '+' || cur_ch == '.' || cur_ch == 'e' || cur_ch == 'E' ||
+                    cur_ch >= '0' && cur_ch <= '9') read();
+            endValue();
+            break;
+        case STRING:
+            beginValue();
+            for (;;) {
+                read();
+                if (cur_ch <= 0) error();
+                if (cur_ch == '"') break;
+                if (cur_ch == '\\') read();
+            }
+            read();
+            endValue();
+            break;
+        case BINARY:
+            nextBinary();
+            break;
+        case BEGIN_ARRAY:
+            beginArray();
+            while (hasNext()) skipValue();
+            endArray();
+            break;
+        case BEGIN_OBJECT:
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+            break;
+        default:
+            error();
+            break;
+        }
+    }
+
+    /* Binary encoding support */
+
+    private int binPeekByte() throws IOException {
+        if (level > 0 && count[level] == 0) return -1;
+        if (inp_pos >= inp_end) return -1;
+        return inp[inp_pos] & 0xff;
+    }
+
+    private int binPeek() throws IOException {
+        if (level > 0 && count[level] == 0) return object[level] ? END_OBJECT : END_ARRAY;
+        if (inp_pos >= inp_end) {
+            if (level > 0) error("unexpected end of data");
+            return END;
+        }
+        int b = inp[inp_pos] & 0xff;
+        switch (b >> 5) {
+        case MT_UINT:
+        case MT_NINT:
+        case MT_TAG:
+            return NUMBER;
+        case MT_BYTES:
+            return BINARY;
+        case MT_TEXT:
+            return STRING;
+        case MT_ARRAY:
+            return BEGIN_ARRAY;
+        case MT_MAP:
+            return BEGIN_OBJECT;
+        }
+        switch (b) {
+        case SIMPLE_FALSE:
+        case SIMPLE_TRUE:
+            return BOOLEAN;
+        case SIMPLE_NULL:
+            return NULL;
+        case SIMPLE_FLOAT:
+        case SIMPLE_DOUBLE:
+            return NUMBER;
+        }
+        error();
+        return END;
+    }
+
+    /* Account for next item in current container */
+    private void binBeginItem() throws IOException {
+        if (level > 0) {
+            if (count[level] == 0) error();
+            count[level]--;
+        }
+        else if (inp_pos >= inp_end) {
+            error("unexpected end of data");
+        }
+    }
+
+    private void binBeginContainer(int major) throws IOException {
+        binBeginItem();
+        long n = readHeader();
+        if (bin_major != major) error();
+        if (major == MT_MAP) n *= 2;
+        if (n > inp_end - inp_pos) error("invalid length");
+        push();
+        count[level] = (int)n;
+        object[level] = major == MT_MAP;
+    }
+
+    private void binEndContainer(boolean map) throws IOException {
+        if (level == 0 || object[level] != map || count[level] != 0) error();
+        level--;
+    }
+
+    /* Read header of a data item, set bin_major and return its argument */
+    private long readHeader() throws IOException {
+        if (inp_pos >= inp_end) error("unexpected end of data");
+        int b = inp[inp_pos++] & 0xff;
+        bin_major = b >> 5;
+        int info = b & 0x1f;
+        if (info < 24) return info;
+        int n = 0;
+        switch (info) {
+        case 24: n = 1; break;
+        case 25: n = 2; break;
+        case 26: n = 4; break;
+        case 27: n = 8; break;
+        default: error("unsupported item"); break;
+        }
+        if (inp_end - inp_pos < n) error("unexpected end of data");
+        long v = 0;
+        while (n-- > 0) v = (v << 8) | (inp[inp_pos++] & 0xff);
+        return v;
+    }
+
+    private void checkLength(long n) throws IOException {
+        if (n < 0 || n > inp_end - inp_pos) error("invalid length");
+    }
+
+    private String readText(long n) throws IOException {
+        readTextChars(n);
+        return new String(str_buf, 0, str_pos);
+    }
+
+    /* Read UTF-8 text into str_buf */
+    private void readTextChars(long n) throws IOException {
+        checkLength(n);
+        int end = inp_pos + (int)n;
+        str_pos = 0;
+        while (inp_pos < end) {
+            int ch = inp[inp_pos++];
+            if (ch < 0) {
+                if ((ch & 0xe0) == 0xc0) {
+                    ch = (ch & 0x1f) << 6;
+                    ch |= inp[inp_pos++] & 0x3f;
+                }
+                else if ((ch & 0xf0) == 0xe0) {
+                    ch = (ch & 0x0f) << 12;
+                    ch |= (inp[inp_pos++] & 0x3f) << 6;
+                    ch |= inp[inp_pos++] & 0x3f;
+                }
+                else {
+                    error("invalid UTF-8 sequence");
+                }
+            }
+            if (str_pos >= str_buf.length) putChar((char)ch);
+            else str_buf[str_pos++] = (char)ch;
+        }
+        if (inp_pos > end) error("invalid UTF-8 sequence");
+    }
+
+    /* Map keys are either text, which also defines next key index, or index of a key defined earlier */
+    private String readKey() throws IOException {
+        long n = readHeader();
+        if (bin_major == MT_UINT) {
+            if (n >= key_cnt) error("invalid key index");
+            return keys[(int)n];
+        }
+        if (bin_major != MT_TEXT) error();
+        readTextChars(n);
+        String key = props.getKey(str_buf, str_pos);
+        if (key_cnt >= keys.length) {
+            String[] tmp = new String[keys.length * 2];
+            System.arraycopy(keys, 0, tmp, 0, key_cnt);
+            keys = tmp;
+        }
+        keys[key_cnt++] = key;
+        return key;
+    }
+
+    private Number readBinNumber() throws IOException {
+        int b = inp_pos < inp_end ? inp[inp_pos] & 0xff : -1;
+        if (b == SIMPLE_FLOAT) {
+            inp_pos++;
+            if (inp_end - inp_pos < 4) error("unexpected end of data");
+            int v = 0;
+            for (int i = 0; i < 4; i++) v = (v << 8) | (inp[inp_pos++] & 0xff);
+            return Float.intBitsToFloat(v);
+        }
+        if (b == SIMPLE_DOUBLE) {
+            inp_pos++;
+            if (inp_end - inp_pos < 8) error("unexpected end of data");
+            long v = 0;
+            for (int i = 0; i < 8; i++) v = (v << 8) | (inp[inp_pos++] & 0xff);
+            return Double.longBitsToDouble(v);
+        }
+        long v = readHeader();
+        switch (bin_major) {
+        case MT_UINT:
+            if (v >= 0 && v <= Integer.MAX_VALUE) return Integer.valueOf((int)v);
+            if (v >= 0) return Long.valueOf(v);
+            return toUnsigned(v);
+        case MT_NINT:
+            if (v >= 0 && v <= Integer.MAX_VALUE) return Integer.valueOf((int)(-1 - v));
+            if (v >= 0) return Long.valueOf(-1 - v);
+            return toUnsigned(v).negate().subtract(BigInteger.ONE);
+        case MT_TAG:
+            if (v == TAG_BIGNUM || v == TAG_NEG_BIGNUM) {
+                long n = readHeader();
+                if (bin_major != MT_BYTES) error();
+                checkLength(n);
+                byte[] buf = new byte[(int)n];
+                System.arraycopy(inp, inp_pos, buf, 0, buf.length);
+                inp_pos += buf.length;
+                BigInteger x = new BigInteger(1, buf);
+                if (v == TAG_NEG_BIGNUM) x = x.negate().subtract(BigInteger.ONE);
+                return x;
+            }
+            if (v == TAG_DECIMAL) {
+                if (readHeader() != 2 || bin_major != MT_ARRAY) error();
+                Number e = readBinNumber();
+                Number m = readBinNumber();
+                if (!(e instanceof Integer)) error();
+                BigInteger x = m instanceof BigInteger ? (BigInteger)m : BigInteger.valueOf(m.longValue());
+                return new BigDecimal(x, -e.intValue());
+            }
+            break;
+        }
+        error();
+        return null;
+    }
+
+    private static BigInteger toUnsigned(long v) {
+        return BigInteger.valueOf(v & Long.MAX_VALUE).setBit(63);
+    }
+
+    /* Skip a data item, key definitions in skipped maps are recorded */
+    private void skipItem() throws IOException {
+        int b = inp_pos < inp_end ? inp[inp_pos] & 0xff : -1;
+        if (b == SIMPLE_FLOAT || b == SIMPLE_DOUBLE) {
+            readBinNumber();
+            return;
+        }
+        long n = readHeader();
+        switch (bin_major) {
+        case MT_BYTES:
+        case MT_TEXT:
+            checkLength(n);
+            inp_pos += (int)n;
+            break;
+        case MT_ARRAY:
+            checkLength(n);
+            for (long i = 0; i < n; i++) skipItem();
+            break;
+        case MT_MAP:
+            checkLength(n);
+            for (long i = 0; i < n; i++) {
+                readKey();
+                skipItem();
+            }
+            break;
+        case MT_TAG:
+            skipItem();
+            break;
+        }
+    }
+}
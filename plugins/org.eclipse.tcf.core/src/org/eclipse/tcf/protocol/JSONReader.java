@@ -0,0 +1,527 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.protocol;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JSONReader converts JSON strings to Java objects, see JSON for object classes it produces.
+ *
+ * Unlike static methods of JSON class, a JSONReader object can be used by any thread.
+ * An object is not thread safe itself, but it is reusable: it keeps its buffers between
+ * conversions, so a thread can keep a reader and use it for all its data.
+ *
+ * Sequences in the binary encoding, see JSONWriter.toBinarySequence(), are recognized
+ * and decoded into the same objects.
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public final class JSONReader {
+
+    private static final int BUF_SIZE = 0x1000;
+    private static final int MAX_KEEP_SIZE = 0x100000;
+
+    private byte[] inp;
+    private int inp_pos;
+    private int inp_end;
+    private int cur_ch;
+
+    private char[] str_buf = new char[BUF_SIZE];
+    private int str_pos;
+
+    // This buffer is used to create nice error reports
+    private final char[] err_buf = new char[100];
+    private int err_buf_pos;
+    private int err_buf_cnt;
+
+    private JSONPullParser bin_parser;
+
+    private final PropertyMap.Builder props = new PropertyMap.Builder();
+
+    private void putChar(char ch) {
+        if (str_pos >= str_buf.length) {
+            char[] tmp = new char[str_buf.length * 2];
+            System.arraycopy(str_buf, 0, tmp, 0, str_pos);
+            str_buf = tmp;
+        }
+        str_buf[str_pos++] = ch;
+    }
+
+    private int readUTF8Char() {
+        if (inp_pos >= inp_end) return -1;
+        int ch = inp[inp_pos++];
+        if (ch < 0) {
+            if ((ch & 0xe0) == 0xc0) {
+                ch = (ch & 0x1f) << 6;
+                ch |= inp[inp_pos++] & 0x3f;
+            }
+            else if ((ch & 0xf0) == 0xe0) {
+                ch = (ch & 0x0f) << 12;
+                ch |= (inp[inp_pos++] & 0x3f) << 6;
+                ch |= inp[inp_pos++] & 0x3f;
+            }
+            else if ((ch & 0xf0) == 0xf0) {
+                ch = (ch & 0x0f) << 18;
+                ch |= (inp[inp_pos++] & 0x3f) << 12;
+                ch |= (inp[inp_pos++] & 0x3f) << 6;
+                ch |= inp[inp_pos++] & 0x3f;
+            }
+            else {
+                ch &= 0xff;
+            }
+        }
+        return ch;
+    }
+
+    private void read() throws IOException {
+        cur_ch = readUTF8Char();
+        err_buf[err_buf_pos++] = (char)cur_ch;
+        if (err_buf_pos >= err_buf.length) {
+            err_buf_pos = 0;
+            err_buf_cnt++;
+        }
+    }
+
+    private void skipWS() throws IOException {
+        while (cur_ch <= ' ') {
+            switch (cur_ch) {
+            case '\r':
+            case '\n':
+            case '\t':
+            case ' ':
+                read();
+                break;
+            default:
+                return;
+            }
+        }
+    }
+
+    private void error() throws IOException {
+        error("syntax error");
+    }
+
+    private void error(String msg) throws IOException {
+        StringBuffer bf = new StringBuffer();
+        bf.append("JSON " + msg + ":");
+        int cnt = 0;
+        boolean nl = true;
+        for (int i = 0;; i++) {
+            char ch = 0;
+            if (err_buf_cnt == 0 && i < err_buf_pos) {
+                ch = err_buf[i];
+            }
+            else if (err_buf_cnt > 0 && i < err_buf.length) {
+                ch = err_buf[(err_buf_pos + i) % err_buf.length];
+            }
+            else {
+                int n = readUTF8Char();
+                if (n < 0) break;
+                ch = (char)n;
+            }
+            if (nl) {
+                bf.append("\n ");
+                if (err_buf_cnt == 0) bf.append(cnt);
+                else bf.append('*');
+                bf.append(": ");
+                if (cnt == 0 && err_buf_cnt > 0) bf.append("...");
+                nl = false;
+            }
+            if (ch == 0) {
+                cnt++;
+                nl = true;
+                continue;
+            }
+            bf.append(ch);
+        }
+        throw new IOException(bf.toString());
+    }
+
+    private int readHexDigit() throws IOException {
+        int n = 0;
+        if (cur_ch >= '0' && cur_ch <= '9') n = cur_ch - '0';
+        else if (cur_ch >= 'A' && cur_ch <= 'F') n = cur_ch - 'A' + 10;
+        else if (cur_ch >= 'a' && cur_ch <= 'f') n = cur_ch - 'a' + 10;
+        else error();
+        read();
+        return n;
+    }
+
+    /* Read fraction and exponent of a number, the mantissa is kept in a long unless it overflows */
+    private Object readFloat(boolean sign, long val, BigInteger big) throws IOException {
+        int scale = 0;
+        int fraction = 0;
+        if (cur_ch == '.') {
+            read();
+            while (cur_ch >= '0' && cur_ch <= '9') {
+                int d = cur_ch - '0';
+                if (big == null && val <= (Long.MAX_VALUE - d) / 10) {
+                    val = val * 10 + d;
+                }
+                else {
+                    if (big == null) big = BigInteger.valueOf(val);
+                    big = big.multiply(BigInteger.TEN).add(BigInteger.valueOf(d));
+                }
+                fraction++;
+                read();
+            }
+        }
+        if (cur_ch == 'E' || cur_ch == 'e') {
+            read();
+            boolean neg = cur_ch == '-';
+            if (neg || cur_ch == '+') read();
+            while (cur_ch >= '0' && cur_ch <= '9') {
+                scale = scale * 10 + cur_ch - '0';
+                read();
+            }
+            if (neg) scale = -scale;
+        }
+        if (big == null) return BigDecimal.valueOf(sign ? -val : val, fraction - scale);
+        if (sign) big = big.negate();
+        return new BigDecimal(big, fraction - scale);
+    }
+
+    /* Read a string into str_buf */
+    private void readString() throws IOException {
+        read();
+        str_pos = 0;
+        for (;;) {
+            if (cur_ch <= 0) error();
+            if (cur_ch == '"') break;
+            if (cur_ch == '\\') {
+                read();
+                if (cur_ch <= 0) error();
+                switch (cur_ch) {
+                case '"':
+                case '\\':
+                case '/':
+                    break;
+                case 'b':
+                    cur_ch = '\b';
+                    break;
+                case 'f':
+                    cur_ch = '\f';
+                    break;
+                case 'n':
+                    cur_ch = '\n';
+                    break;
+                case 'r':
+                    cur_ch = '\r';
+                    break;
+                case 't':
+                    cur_ch = '\t';
+                    break;
+                case 'u':
+                    read();
+                    int n = 0;
+                    n |= readHexDigit() << 12;
+                    n |= readHexDigit() << 8;
+                    n |= readHexDigit() << 4;
+                    n |= readHexDigit();
+                    putChar((char)n);
+                    continue;
+                default:
+                    error();
+                    break;
+                }
+            }
+            if (str_pos >= str_buf.length) {
+                putChar((char)cur_ch);
+            }
+            else {
+                str_buf[str_pos++] = (char)cur_ch;
+            }
+            if (inp_pos >= inp_end || inp[inp_pos] < 0) {
+                cur_ch = readUTF8Char();
+            }
+            else {
+                cur_ch = inp[inp_pos++];
+            }
+            err_buf[err_buf_pos++] = (char)cur_ch;
+            if (err_buf_pos >= err_buf.length) {
+                err_buf_pos = 0;
+                err_buf_cnt++;
+            }
+        }
+        read();
+    }
+
+    private Object readNestedObject() throws IOException {
+        skipWS();
+        switch (cur_ch) {
+        case '(':
+            read();
+            int len = 0;
+            while (cur_ch >= '0' && cur_ch <= '9') {
+                len = len * 10 + (cur_ch - '0');
+                read();
+            }
+            if (cur_ch != ')') error();
+            byte[] res = new byte[len];
+            System.arraycopy(inp, inp_pos, res, 0, len);
+            inp_pos += len;
+            read();
+            return res;
+        case '"':
+            readString();
+            return new String(str_buf, 0, str_pos);
+        case '[':
+            read();
+            skipWS();
+            List<Object> l = new ArrayList<Object>();
+            if (cur_ch <= 0) error();
+            if (cur_ch != ']') {
+                for (;;) {
+                    l.add(readNestedObject());
+                    skipWS();
+                    if (cur_ch == ']') break;
+                    if (cur_ch != ',') error();
+                    read();
+                }
+            }
+            read();
+            return Collections.unmodifiableList(l);
+        case '{':
+            read();
+            skipWS();
+            int mark = props.begin();
+            if (cur_ch <= 0) error();
+            if (cur_ch != '}') {
+                for (;;) {
+                    skipWS();
+                    if (cur_ch != '"') error();
+                    readString();
+                    String key = props.getKey(str_buf, str_pos);
+                    skipWS();
+                    if (cur_ch != ':') error();
+                    read();
+                    Object val = readNestedObject();
+                    props.add(mark, key, val);
+                    skipWS();
+                    if (cur_ch == '}') break;
+                    if (cur_ch != ',') error();
+                    read();
+                }
+            }
+            read();
+            return props.end(mark);
+        case 'n':
+            read();
+            if (cur_ch != 'u') error();
+            read();
+            if (cur_ch != 'l') error();
+            read();
+            if (cur_ch != 'l') error();
+            read();
+            return null;
+        case 'f':
+            read();
+            if (cur_ch != 'a') error();
+            read();
+            if (cur_ch != 'l') error();
+            read();
+            if (cur_ch != 's') error();
+            read();
+            if (cur_ch != 'e') error();
+            read();
+            return Boolean.FALSE;
+        case 't':
+            read();
+            if (cur_ch != 'r') error();
+            read();
+            if (cur_ch != 'u') error();
+            read();
+            if (cur_ch != 'e') error();
+            read();
+            return Boolean.TRUE;
+        case 'N':
+            read();
+            if (cur_ch != 'a') error();
+            read();
+            if (cur_ch != 'N') error();
+            read();
+            return Float.NaN;
+        default:
+            boolean neg = cur_ch == '-';
+            if (neg) read();
+            if (cur_ch >= '0' && cur_ch <= '9') {
+                int v = 0;
+                while (v <= 0x7fffffff / 10 - 1) {
+                    v = v * 10 + (cur_ch - '0');
+                    read();
+                    if (cur_ch < '0' || cur_ch > '9') {
+                        if (cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
+                            return readFloat(neg, v, null);
+                        }
+                        if (neg) v = -v;
+                        return Integer.valueOf(v);
+                    }
+                }
+                long vl = v;
+                while (vl < 0x7fffffffffffffffl / 10 - 1) {
+                    vl = vl * 10 + (cur_ch - '0');
+                    read();
+                    if (cur_ch < '0' || cur_ch > '9') {
+                        if (cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
+                            return readFloat(neg, vl, null);
+                        }
+                        if (neg) vl = -vl;
+                        if (vl == (int)vl) return Integer.valueOf((int)vl);
+                        return Long.valueOf(vl);
+                    }
+                }
+                /* Last digits of a long: check for overflow */
+                for (;;) {
+                    int d = cur_ch - '0';
+                    if (vl > (Long.MAX_VALUE - d) / 10) break;
+                    vl = vl * 10 + d;
+                    read();
+                    if (cur_ch < '0' || cur_ch > '9') {
+                        if (cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
+                            return readFloat(neg, vl, null);
+                        }
+                        if (neg) vl = -vl;
+                        if (vl == (int)vl) return Integer.valueOf((int)vl);
+                        return Long.valueOf(vl);
+                    }
+                }
+                StringBuffer sb = new StringBuffer();
+                sb.append(vl);
+                while (true) {
+                    sb.append((char)cur_ch);
+                    read();
+                    if (cur_ch < '0' || cur_ch > '9') {
+                        BigInteger n = new BigInteger(sb.toString());
+                        if (cur_ch == '.' || cur_ch == 'E' || cur_ch == 'e') {
+                            return readFloat(neg, 0, n);
+                        }
+                        if (neg) n = n.negate();
+                        /* Long.MIN_VALUE does not fit into the positive accumulator */
+                        if (n.bitLength() < 64) return Long.valueOf(n.longValue());
+                        return n;
+                    }
+                }
+            }
+            error();
+            return null;
+        }
+    }
+
+    /* Data in binary encoding is decoded by a pull parser */
+    private Object[] parseBinary(byte[] b, int offs, int size) throws IOException {
+        if (bin_parser == null) bin_parser = new JSONPullParser();
+        JSONPullParser p = bin_parser.reset(b, offs, size);
+        List<Object> l = new ArrayList<Object>();
+        while (p.peek() != JSONPullParser.END) l.add(p.nextValue());
+        p.reset(null, 0, 0);
+        return l.toArray();
+    }
+
+    private void reset(byte[] b, int offs, int size) {
+        inp = b;
+        inp_pos = offs;
+        inp_end = offs + size;
+        err_buf_pos = 0;
+        err_buf_cnt = 0;
+    }
+
+    /* Release input data and buffers that grew too large while reading a big object */
+    private void trim() {
+        inp = null;
+        props.reset();
+        if (str_buf.length > MAX_KEEP_SIZE) str_buf = new char[BUF_SIZE];
+    }
+
+    /**
+     * Convert byte array that contains UTF-8 encoded JSON string to Java object.
+     * @param b - array of bytes with UTF-8 encoded JSON string
+     * @return Java object that represents data in the JSON string
+     * @throws IOException
+     */
+    public Object parseOne(byte[] b) throws IOException {
+        if (b.length == 0) return null;
+        if (JSONPullParser.isBinary(b, 0, b.length)) {
+            Object[] arr = parseBinary(b, 0, b.length);
+            if (arr.length != 1) throw new IOException("Binary data: invalid number of values");
+            return arr[0];
+        }
+        reset(b, 0, b.length);
+        try {
+            read();
+            Object o = readNestedObject();
+            if (cur_ch >= 0) error();
+            return o;
+        }
+        finally {
+            trim();
+        }
+    }
+
+    /**
+     * Convert byte array that contains sequence of zero terminated UTF-8 encoded JSON string
+     * to array of Java objects.
+     * @param b - array of bytes with sequence of zero terminated UTF-8 encoded JSON string
+     * @return array of Java objects that represents data in the sequence of JSON strings
+     * @throws IOException
+     */
+    public Object[] parseSequence(byte[] b) throws IOException {
+        return parseSequence(b, 0, b.length);
+    }
+
+    /**
+     * Convert byte buffer that contains sequence of zero terminated UTF-8 encoded JSON string
+     * to array of Java objects. Buffer position is not changed.
+     * If the buffer is backed by an array, the data is parsed in place, without copying.
+     * @param b - byte buffer with sequence of zero terminated UTF-8 encoded JSON string
+     * @return array of Java objects that represents data in the sequence of JSON strings
+     * @throws IOException
+     */
+    public Object[] parseSequence(ByteBuffer b) throws IOException {
+        if (b.hasArray()) return parseSequence(b.array(), b.arrayOffset() + b.position(), b.remaining());
+        byte[] arr = new byte[b.remaining()];
+        b.duplicate().get(arr);
+        return parseSequence(arr, 0, arr.length);
+    }
+
+    /**
+     * Convert a range of byte array that contains sequence of zero terminated UTF-8 encoded JSON string
+     * to array of Java objects.
+     * @param b - array of bytes with sequence of zero terminated UTF-8 encoded JSON string
+     * @param offs - offset of the sequence in the array
+     * @param size - size of the sequence in bytes
+     * @return array of Java objects that represents data in the sequence of JSON strings
+     * @throws IOException
+     */
+    public Object[] parseSequence(byte[] b, int offs, int size) throws IOException {
+        if (JSONPullParser.isBinary(b, offs, size)) return parseBinary(b, offs, size);
+        reset(b, offs, size);
+        try {
+            read();
+            List<Object> l = new ArrayList<Object>();
+            while (cur_ch >= 0) {
+                if (cur_ch == 0) l.add(null);
+                else l.add(readNestedObject());
+                if (cur_ch != 0) error("missing \\0 terminator");
+                read();
+            }
+            return l.toArray();
+        }
+        finally {
+            trim();
+        }
+    }
+}
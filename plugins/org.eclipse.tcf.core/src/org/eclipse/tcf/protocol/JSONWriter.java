@@ -0,0 +1,718 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.protocol;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.tcf.core.Base64;
+
+/**
+ * JSONWriter converts Java objects to JSON strings, see JSON for supported object classes.
+ *
+ * Unlike static methods of JSON class, a JSONWriter object can be used by any thread.
+ * An object is not thread safe itself, but it is reusable: it keeps its buffers between
+ * conversions, so a thread can keep a writer and use it for all its data.
+ *
+ * The writer encodes UTF-8 bytes directly into its output buffer: strings, booleans and integer
+ * numbers are written without intermediate char arrays or strings, and binary data of
+ * "zero copy" sequences is copied into the buffer as is.
+ *
+ * toBinarySequence() encodes the same data in a compact binary form (CBOR, RFC 7049), which
+ * JSONReader and JSONPullParser recognize and decode into the same objects as the JSON text.
+ * Differences from plain CBOR: the data starts with CBOR self-describe tag, values of
+ * the sequence follow each other without separators, and map keys are interned: first use of a key
+ * is written as text and gets next index, later uses of the key are written as the index.
+ *
+ * Object classes are dispatched through a class-indexed cache, and encoded map keys are cached,
+ * so writing of large sets of similar maps, e.g. breakpoint properties, does not repeat the lookups.
+ *
+ * ObjectWriter implementations call static JSON.write() and JSON.writeObject() methods,
+ * the calls are forwarded to the writer that invoked the ObjectWriter.
+ * Values of JSON.ValueWriter are written directly, without calling the ObjectWriter.
+ *
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public final class JSONWriter {
+
+    private static final int BUF_SIZE = 0x1000;
+    private static final int MAX_KEEP_SIZE = 0x100000;
+
+    private static final byte[]
+        NULL = { 'n', 'u', 'l', 'l' },
+        TRUE = { 't', 'r', 'u', 'e' },
+        FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+    /* The writer that is calling an ObjectWriter on current thread */
+    private static final ThreadLocal<JSONWriter> current = new ThreadLocal<JSONWriter>();
+
+    private byte[] buf = new byte[BUF_SIZE];
+    private int buf_pos;
+    private boolean zero_copy;
+    private final byte[] num_buf = new byte[20];
+
+    /* Kinds of objects, see getKind() */
+    private static final int
+        K_STRING = 1,
+        K_INTEGER = 2,
+        K_BOOLEAN = 3,
+        K_NUMBER = 4,
+        K_CHARS = 5,
+        K_BINARY = 6,
+        K_BYTES = 7,
+        K_ARRAY = 8,
+        K_COLLECTION = 9,
+        K_MAP = 10,
+        K_VALUE_WRITER = 11,
+        K_OBJECT_WRITER = 12,
+        K_UNSUPPORTED = 13;
+
+    /* Class-indexed cache of object kinds and writers, direct mapped */
+    private static final int KIND_CACHE_SIZE = 0x40;
+    private final Class<?>[] kind_class = new Class<?>[KIND_CACHE_SIZE];
+    private final int[] kind_value = new int[KIND_CACHE_SIZE];
+    private final JSON.ObjectWriter<?>[] kind_writer = new JSON.ObjectWriter<?>[KIND_CACHE_SIZE];
+    private int kind_version = JSON.getWritersVersion();
+
+    /* Cache of encoded map keys, direct mapped */
+    private static final int KEY_CACHE_SIZE = 0x100;
+    private static final int MAX_KEY_LENGTH = 64;
+    private final String[] key_string = new String[KEY_CACHE_SIZE];
+    private final byte[][] key_bytes = new byte[KEY_CACHE_SIZE][];
+
+    /* Binary encoding state */
+    private final Map<String,Integer> bin_keys = new HashMap<String,Integer>();
+    private JSONWriter json_writer;
+
+    static JSONWriter getCurrent() {
+        return current.get();
+    }
+
+    private void grow(int n) {
+        int size = buf.length * 2;
+        while (size - buf_pos < n) size *= 2;
+        byte[] tmp = new byte[size];
+        System.arraycopy(buf, 0, tmp, 0, buf_pos);
+        buf = tmp;
+    }
+
+    /* Encode a character, the caller must ensure there is room for 3 bytes */
+    private void putChar(char ch) {
+        if (ch < 0x80) {
+            buf[buf_pos++] = (byte)ch;
+        }
+        else if (ch < 0x800) {
+            buf[buf_pos++] = (byte)((ch >> 6) | 0xc0);
+            buf[buf_pos++] = (byte)(ch & 0x3f | 0x80);
+        }
+        else {
+            buf[buf_pos++] = (byte)((ch >> 12) | 0xe0);
+            buf[buf_pos++] = (byte)((ch >> 6) & 0x3f | 0x80);
+            buf[buf_pos++] = (byte)(ch & 0x3f | 0x80);
+        }
+    }
+
+    private void putBytes(byte[] b, int offs, int size) {
+        if (buf.length - buf_pos < size) grow(size);
+        System.arraycopy(b, offs, buf, buf_pos, size);
+        buf_pos += size;
+    }
+
+    /**
+     * Write a character into JSON output buffer.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param ch
+     */
+    public void write(char ch) {
+        if (buf.length - buf_pos < 3) grow(3);
+        putChar(ch);
+    }
+
+    /**
+     * Write a string into JSON output buffer.
+     * The string is written "as-is". Call writeObject() to convert a String into JSON string.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param s - a string
+     */
+    public void write(String s) {
+        int l = s.length();
+        if (buf.length - buf_pos < l) grow(l);
+        for (int i = 0; i < l; i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) {
+                buf[buf_pos++] = (byte)ch;
+            }
+            else {
+                if (buf.length - buf_pos < l - i + 2) grow(l - i + 2);
+                putChar(ch);
+            }
+        }
+    }
+
+    /**
+     * Write a non-negative integer number into JSON output buffer.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param n - a number
+     */
+    public void writeUInt(int n) {
+        assert n >= 0;
+        writeLong(n);
+    }
+
+    /**
+     * Write an integer number into JSON output buffer.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param n - a number
+     */
+    public void writeLong(long n) {
+        if (n < 0) {
+            if (n == Long.MIN_VALUE) {
+                write(Long.toString(n));
+                return;
+            }
+            write('-');
+            n = -n;
+        }
+        int pos = num_buf.length;
+        do {
+            num_buf[--pos] = (byte)('0' + n % 10);
+            n /= 10;
+        }
+        while (n != 0);
+        putBytes(num_buf, pos, num_buf.length - pos);
+    }
+
+    private void writeString(String s) {
+        int l = s.length();
+        if (buf.length - buf_pos < l + 2) grow(l + 2);
+        buf[buf_pos++] = '"';
+        for (int i = 0; i < l; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x20 && ch < 0x80 && ch != '"' && ch != '\\') {
+                /* Fast path: printable ASCII, room was reserved in advance */
+                buf[buf_pos++] = (byte)ch;
+            }
+            else {
+                /* Reserve room for an escape sequence and the rest of the string */
+                if (buf.length - buf_pos < l - i + 6) grow(l - i + 6);
+                writeSpecialChar(ch);
+            }
+        }
+        buf[buf_pos++] = '"';
+    }
+
+    private void writeString(char[] s) {
+        int l = s.length;
+        if (buf.length - buf_pos < l + 2) grow(l + 2);
+        buf[buf_pos++] = '"';
+        for (int i = 0; i < l; i++) {
+            char ch = s[i];
+            if (ch >= 0x20 && ch < 0x80 && ch != '"' && ch != '\\') {
+                buf[buf_pos++] = (byte)ch;
+            }
+            else {
+                if (buf.length - buf_pos < l - i + 6) grow(l - i + 6);
+                writeSpecialChar(ch);
+            }
+        }
+        buf[buf_pos++] = '"';
+    }
+
+    /* Write a string character that needs escaping or multi-byte encoding, up to 6 bytes */
+    private void writeSpecialChar(char ch) {
+        switch (ch) {
+        case 0:
+        case 1:
+            buf[buf_pos++] = '\\';
+            buf[buf_pos++] = 'u';
+            buf[buf_pos++] = '0';
+            buf[buf_pos++] = '0';
+            buf[buf_pos++] = '0';
+            buf[buf_pos++] = (byte)('0' + ch);
+            break;
+        case '\r':
+            buf[buf_pos++] = '\\';
+            buf[buf_pos++] = 'r';
+            break;
+        case '\n':
+            buf[buf_pos++] = '\\';
+            buf[buf_pos++] = 'n';
+            break;
+        case '\t':
+            buf[buf_pos++] = '\\';
+            buf[buf_pos++] = 't';
+            break;
+        case '\b':
+            buf[buf_pos++] = '\\';
+            buf[buf_pos++] = 'b';
+            break;
+        case '\f':
+            buf[buf_pos++] = '\\';
+            buf[buf_pos++] = 'f';
+            break;
+        case '"':
+        case '\\':
+            buf[buf_pos++] = '\\';
+        default:
+            putChar(ch);
+        }
+    }
+
+    /*
+     * Get kind of objects of a class, and look up ObjectWriter for the class if needed.
+     * Returns index of the cache entry, the entry is valid until next call.
+     */
+    private int getKind(Class<?> cls) {
+        int h = cls.hashCode();
+        int idx = (h ^ (h >>> 7)) & (KIND_CACHE_SIZE - 1);
+        int version = JSON.getWritersVersion();
+        if (kind_class[idx] == cls && kind_version == version) return idx;
+        if (kind_version != version) {
+            for (int i = 0; i < KIND_CACHE_SIZE; i++) {
+                kind_class[i] = null;
+                kind_writer[i] = null;
+            }
+            kind_version = version;
+        }
+        JSON.ObjectWriter<?> writer = null;
+        int kind = 0;
+        if (cls == String.class) kind = K_STRING;
+        else if (cls == Integer.class || cls == Long.class || cls == Short.class || cls == Byte.class) kind = K_INTEGER;
+        else if (cls == Boolean.class) kind = K_BOOLEAN;
+        else if (Number.class.isAssignableFrom(cls)) kind = K_NUMBER;
+        else if (cls == char[].class) kind = K_CHARS;
+        else if (cls == JSON.Binary.class) kind = K_BINARY;
+        else if (cls == byte[].class) kind = K_BYTES;
+        else if (Object[].class.isAssignableFrom(cls)) kind = K_ARRAY;
+        else if (Collection.class.isAssignableFrom(cls)) kind = K_COLLECTION;
+        else if (Map.class.isAssignableFrom(cls)) kind = K_MAP;
+        else if ((writer = JSON.getObjectWriter(cls)) == null) kind = K_UNSUPPORTED;
+        else if (writer instanceof JSON.ValueWriter) kind = K_VALUE_WRITER;
+        else kind = K_OBJECT_WRITER;
+        kind_class[idx] = cls;
+        kind_value[idx] = kind;
+        kind_writer[idx] = writer;
+        return idx;
+    }
+
+    /* Write a map key, encoded keys are cached since maps usually have same keys */
+    private void writeKey(Object key) throws IOException {
+        if (!(key instanceof String)) {
+            writeObject(key);
+            return;
+        }
+        String s = (String)key;
+        int h = s.hashCode();
+        int idx = (h ^ (h >>> 8)) & (KEY_CACHE_SIZE - 1);
+        String k = key_string[idx];
+        if (k == s || k != null && k.equals(s)) {
+            byte[] b = key_bytes[idx];
+            putBytes(b, 0, b.length);
+            return;
+        }
+        int pos = buf_pos;
+        writeString(s);
+        if (s.length() <= MAX_KEY_LENGTH) {
+            byte[] b = new byte[buf_pos - pos];
+            System.arraycopy(buf, pos, b, 0, b.length);
+            key_string[idx] = s;
+            key_bytes[idx] = b;
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void callObjectWriter(JSON.ObjectWriter writer, Object o) throws IOException {
+        JSONWriter prev = current.get();
+        current.set(this);
+        try {
+            writer.write(o);
+        }
+        finally {
+            current.set(prev);
+        }
+    }
+
+    /**
+     * Write an object into JSON output buffer.
+     * Clients should not call this method directly, except from ObjectWriter implementation.
+     * @param o - an object to write
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void writeObject(Object o) throws IOException {
+        if (o == null) {
+            putBytes(NULL, 0, NULL.length);
+            return;
+        }
+        int idx = getKind(o.getClass());
+        switch (kind_value[idx]) {
+        case K_STRING:
+            writeString((String)o);
+            break;
+        case K_INTEGER:
+            writeLong(((Number)o).longValue());
+            break;
+        case K_BOOLEAN:
+            byte[] b = ((Boolean)o).booleanValue() ? TRUE : FALSE;
+            putBytes(b, 0, b.length);
+            break;
+        case K_NUMBER:
+            write(o.toString());
+            break;
+        case K_CHARS:
+            writeString((char[])o);
+            break;
+        case K_BINARY:
+            JSON.Binary bin = (JSON.Binary)o;
+            if (zero_copy) {
+                write('(');
+                writeLong(bin.size);
+                write(')');
+                putBytes(bin.bytes, bin.offs, bin.size);
+            }
+            else {
+                writeString(Base64.toBase64(bin.bytes, bin.offs, bin.size));
+            }
+            break;
+        case K_BYTES:
+            write('[');
+            byte[] bytes = (byte[])o;
+            for (int i = 0; i < bytes.length; i++) {
+                if (i > 0) write(',');
+                writeLong(bytes[i] & 0xff);
+            }
+            write(']');
+            break;
+        case K_ARRAY:
+            write('[');
+            Object[] arr = (Object[])o;
+            for (int i = 0; i < arr.length; i++) {
+                if (i > 0) write(',');
+                writeObject(arr[i]);
+            }
+            write(']');
+            break;
+        case K_COLLECTION:
+            write('[');
+            boolean comma = false;
+            for (Iterator<Object> i = ((Collection<Object>)o).iterator(); i.hasNext();) {
+                if (comma) write(',');
+                writeObject(i.next());
+                comma = true;
+            }
+            write(']');
+            break;
+        case K_MAP:
+            Map<String,Object> map = (Map<String,Object>)o;
+            write('{');
+            boolean first = true;
+            for (Iterator<Map.Entry<String,Object>> i = map.entrySet().iterator(); i.hasNext();) {
+                if (!first) write(',');
+                Map.Entry<String,Object> e = i.next();
+                writeKey(e.getKey());
+                write(':');
+                writeObject(e.getValue());
+                first = false;
+            }
+            write('}');
+            break;
+        case K_VALUE_WRITER:
+            writeObject(((JSON.ValueWriter)kind_writer[idx]).toValue(o));
+            break;
+        case K_OBJECT_WRITER:
+            callObjectWriter(kind_writer[idx], o);
+            break;
+        default:
+            throw new IOException("JSON: unsupported object type:" + o.getClass());
+        }
+    }
+
+    private void putHeader(int major, long n) {
+        if (buf.length - buf_pos < 9) grow(9);
+        major <<= 5;
+        if (n >= 0 && n < 24) {
+            buf[buf_pos++] = (byte)(major | (int)n);
+            return;
+        }
+        int size = 8;
+        if (n >= 0 && n < 0x100) size = 1;
+        else if (n >= 0 && n < 0x10000) size = 2;
+        else if (n >= 0 && n < 0x100000000l) size = 4;
+        switch (size) {
+        case 1: buf[buf_pos++] = (byte)(major | 24); break;
+        case 2: buf[buf_pos++] = (byte)(major | 25); break;
+        case 4: buf[buf_pos++] = (byte)(major | 26); break;
+        default: buf[buf_pos++] = (byte)(major | 27); break;
+        }
+        for (int i = size - 1; i >= 0; i--) buf[buf_pos++] = (byte)(n >>> (i * 8));
+    }
+
+    private void putText(String s) {
+        int l = s.length();
+        int n = l;
+        for (int i = 0; i < l; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x80) n += ch < 0x800 ? 1 : 2;
+        }
+        putHeader(JSONPullParser.MT_TEXT, n);
+        if (buf.length - buf_pos < n) grow(n);
+        for (int i = 0; i < l; i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) buf[buf_pos++] = (byte)ch;
+            else putChar(ch);
+        }
+    }
+
+    private void putKey(String key) {
+        Integer n = bin_keys.get(key);
+        if (n != null) {
+            putHeader(JSONPullParser.MT_UINT, n.intValue());
+        }
+        else {
+            bin_keys.put(key, Integer.valueOf(bin_keys.size()));
+            putText(key);
+        }
+    }
+
+    private void putBigInteger(BigInteger x) {
+        boolean neg = x.signum() < 0;
+        if (neg) x = x.not();
+        if (x.bitLength() <= 64) {
+            putHeader(neg ? JSONPullParser.MT_NINT : JSONPullParser.MT_UINT, x.longValue());
+            return;
+        }
+        byte[] b = x.toByteArray();
+        int offs = b[0] == 0 ? 1 : 0;
+        putHeader(JSONPullParser.MT_TAG, neg ? JSONPullParser.TAG_NEG_BIGNUM : JSONPullParser.TAG_BIGNUM);
+        putHeader(JSONPullParser.MT_BYTES, b.length - offs);
+        putBytes(b, offs, b.length - offs);
+    }
+
+    /* Other numbers are written as their JSON text would be read: an integer or a decimal fraction */
+    private void putNumber(Number x) {
+        if (x instanceof Float || x instanceof Double) {
+            double d = x.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                if (buf.length - buf_pos < 5) grow(5);
+                int bits = Float.floatToIntBits((float)d);
+                buf[buf_pos++] = (byte)JSONPullParser.SIMPLE_FLOAT;
+                for (int i = 3; i >= 0; i--) buf[buf_pos++] = (byte)(bits >>> (i * 8));
+                return;
+            }
+        }
+        if (x instanceof BigInteger) {
+            putBigInteger((BigInteger)x);
+            return;
+        }
+        String s = x.toString();
+        if (s.indexOf('.') < 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            putBigInteger(new BigInteger(s));
+            return;
+        }
+        BigDecimal d = new BigDecimal(s);
+        putHeader(JSONPullParser.MT_TAG, JSONPullParser.TAG_DECIMAL);
+        putHeader(JSONPullParser.MT_ARRAY, 2);
+        int e = -d.scale();
+        putHeader(e < 0 ? JSONPullParser.MT_NINT : JSONPullParser.MT_UINT, e < 0 ? -1 - e : e);
+        putBigInteger(d.unscaledValue());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void writeBinary(Object o) throws IOException {
+        if (o == null) {
+            if (buf_pos >= buf.length) grow(1);
+            buf[buf_pos++] = (byte)JSONPullParser.SIMPLE_NULL;
+            return;
+        }
+        int idx = getKind(o.getClass());
+        switch (kind_value[idx]) {
+        case K_STRING:
+            putText((String)o);
+            break;
+        case K_INTEGER:
+            long n = ((Number)o).longValue();
+            if (n >= 0) putHeader(JSONPullParser.MT_UINT, n);
+            else putHeader(JSONPullParser.MT_NINT, -1 - n);
+            break;
+        case K_BOOLEAN:
+            if (buf_pos >= buf.length) grow(1);
+            boolean b = ((Boolean)o).booleanValue();
+            buf[buf_pos++] = (byte)(b ? JSONPullParser.SIMPLE_TRUE : JSONPullParser.SIMPLE_FALSE);
+            break;
+        case K_NUMBER:
+            putNumber((Number)o);
+            break;
+        case K_CHARS:
+            putText(new String((char[])o));
+            break;
+        case K_BINARY:
+            JSON.Binary bin = (JSON.Binary)o;
+            putHeader(JSONPullParser.MT_BYTES, bin.size);
+            putBytes(bin.bytes, bin.offs, bin.size);
+            break;
+        case K_BYTES:
+            byte[] bytes = (byte[])o;
+            putHeader(JSONPullParser.MT_ARRAY, bytes.length);
+            for (int i = 0; i < bytes.length; i++) putHeader(JSONPullParser.MT_UINT, bytes[i] & 0xff);
+            break;
+        case K_ARRAY:
+            Object[] arr = (Object[])o;
+            putHeader(JSONPullParser.MT_ARRAY, arr.length);
+            for (int i = 0; i < arr.length; i++) writeBinary(arr[i]);
+            break;
+        case K_COLLECTION:
+            Collection<Object> c = (Collection<Object>)o;
+            putHeader(JSONPullParser.MT_ARRAY, c.size());
+            for (Iterator<Object> i = c.iterator(); i.hasNext();) writeBinary(i.next());
+            break;
+        case K_MAP:
+            Map<String,Object> map = (Map<String,Object>)o;
+            putHeader(JSONPullParser.MT_MAP, map.size());
+            for (Iterator<Map.Entry<String,Object>> i = map.entrySet().iterator(); i.hasNext();) {
+                Map.Entry<String,Object> e = i.next();
+                putKey(String.valueOf(e.getKey()));
+                writeBinary(e.getValue());
+            }
+            break;
+        case K_VALUE_WRITER:
+            writeBinary(((JSON.ValueWriter)kind_writer[idx]).toValue(o));
+            break;
+        case K_OBJECT_WRITER:
+            /* ObjectWriter produces JSON text, convert it to objects that can be encoded */
+            if (json_writer == null) json_writer = new JSONWriter();
+            writeBinary(JSON.getReader().parseOne(json_writer.toJSONBytes(o)));
+            break;
+        default:
+            throw new IOException("JSON: unsupported object type:" + o.getClass());
+        }
+    }
+
+    private void reset(boolean zero_copy) {
+        buf_pos = 0;
+        this.zero_copy = zero_copy;
+    }
+
+    /* Release the buffer if it grew too large while converting a big object */
+    private void trim() {
+        if (buf.length > MAX_KEEP_SIZE) buf = new byte[BUF_SIZE];
+    }
+
+    private byte[] toBytes() {
+        byte[] res = new byte[buf_pos];
+        System.arraycopy(buf, 0, res, 0, buf_pos);
+        return res;
+    }
+
+    /* Decode the buffer, it contains only 1 to 3 byte sequences created by putChar() */
+    private String toChars() {
+        char[] arr = new char[buf_pos];
+        int inp_pos = 0;
+        int out_pos = 0;
+        while (inp_pos < buf_pos) {
+            int ch = buf[inp_pos++] & 0xff;
+            if (ch >= 0xe0) {
+                ch = (ch & 0x0f) << 12;
+                ch |= (buf[inp_pos++] & 0x3f) << 6;
+                ch |= buf[inp_pos++] & 0x3f;
+            }
+            else if (ch >= 0xc0) {
+                ch = (ch & 0x1f) << 6;
+                ch |= buf[inp_pos++] & 0x3f;
+            }
+            arr[out_pos++] = (char)ch;
+        }
+        return new String(arr, 0, out_pos);
+    }
+
+    /**
+     * Convert Java object to JSON string.
+     * @param o - a Java object
+     * @return JASON string
+     * @throws IOException
+     */
+    public String toJSON(Object o) throws IOException {
+        reset(false);
+        try {
+            writeObject(o);
+            return toChars();
+        }
+        finally {
+            trim();
+        }
+    }
+
+    /**
+     * Convert Java object to array of bytes that contains UTF-8 encoded JSON string.
+     * @param o - a Java object
+     * @return array of bytes
+     * @throws IOException
+     */
+    public byte[] toJSONBytes(Object o) throws IOException {
+        reset(false);
+        try {
+            writeObject(o);
+            return toBytes();
+        }
+        finally {
+            trim();
+        }
+    }
+
+    /**
+     * Convert multiple Java object to array of bytes that contains
+     * a sequence of zero terminate UTF-8 encoded JSON strings.
+     * @param o - array of Java objects
+     * @param zero_copy - true to enable "zero copy" JSON extension.
+     * @return array of bytes
+     * @throws IOException
+     */
+    public byte[] toJSONSequence(Object[] o, boolean zero_copy) throws IOException {
+        if (o == null || o.length == 0) return null;
+        reset(zero_copy);
+        try {
+            for (int i = 0; i < o.length; i++) {
+                writeObject(o[i]);
+                write((char)0);
+            }
+            return toBytes();
+        }
+        finally {
+            trim();
+        }
+    }
+
+    /**
+     * Convert multiple Java object to array of bytes that contains the objects in binary encoding.
+     * The encoding is more compact than JSON, and binary data is stored as is, but it can only be used
+     * if the receiver supports it, e.g. in commands sent over a channel that negotiated binary encoding.
+     * @param o - array of Java objects
+     * @return array of bytes
+     * @throws IOException
+     */
+    public byte[] toBinarySequence(Object[] o) throws IOException {
+        if (o == null || o.length == 0) return null;
+        reset(false);
+        bin_keys.clear();
+        try {
+            putBytes(JSONPullParser.BINARY_MAGIC, 0, JSONPullParser.BINARY_MAGIC.length);
+            for (int i = 0; i < o.length; i++) writeBinary(o[i]);
+            return toBytes();
+        }
+        finally {
+            bin_keys.clear();
+            trim();
+        }
+    }
+}
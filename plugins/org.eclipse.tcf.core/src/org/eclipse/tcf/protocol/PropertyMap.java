@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.protocol;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * PropertyMap is a compact immutable map that JSON readers create for JSON objects.
+ *
+ * Context properties are the bulk of data that clients keep: thousands of maps
+ * with the same small set of keys. A PropertyMap stores its values in a single array,
+ * equal keys are shared through a small per-reader cache, and maps with same keys in same order
+ * share the key array (a "shape"). Keys are not interned: the JVM string pool is global
+ * and cannot be bounded, while key names come from remote peers.
+ * Lookup is a linear scan, which is fast for the small maps.
+ */
+final class PropertyMap extends AbstractMap<String,Object> {
+
+    private final String[] keys;
+    private final Object[] values;
+
+    private PropertyMap(String[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    private int indexOf(Object key) {
+        int n = keys.length;
+        for (int i = 0; i < n; i++) {
+            if (keys[i] == key) return i;
+        }
+        if (key == null) return -1;
+        for (int i = 0; i < n; i++) {
+            if (keys[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String,Object>>() {
+
+            @Override
+            public Iterator<Map.Entry<String,Object>> iterator() {
+                return new Iterator<Map.Entry<String,Object>>() {
+
+                    int pos;
+
+                    public boolean hasNext() {
+                        return pos < keys.length;
+                    }
+
+                    public Map.Entry<String,Object> next() {
+                        if (pos >= keys.length) throw new NoSuchElementException();
+                        Map.Entry<String,Object> e = new AbstractMap.SimpleImmutableEntry<String,Object>(keys[pos], values[pos]);
+                        pos++;
+                        return e;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    /**
+     * Builder keeps key and shape caches of a reader, and a stack of properties of
+     * the objects being read. Properties of nested objects are pushed on top
+     * of the properties of the enclosing object, and popped when the nested object ends.
+     * When an object gets more than MAX_ARRAY_SIZE properties, they are moved into a hash map,
+     * which takes a single stack slot with null key, so duplicate keys are found without a linear scan.
+     * A builder is not thread safe, each reader has its own.
+     */
+    static final class Builder {
+
+        /* Larger objects are stored in hash maps */
+        private static final int MAX_ARRAY_SIZE = 32;
+
+        /* Longer keys are not cached */
+        private static final int MAX_KEY_LENGTH = 64;
+
+        private static final int KEY_CACHE_SIZE = 0x400;
+        private static final int SHAPE_CACHE_SIZE = 0x100;
+        private static final int STACK_SIZE = 0x100;
+
+        private static final String[] empty_shape = new String[0];
+        private static final Object[] empty_values = new Object[0];
+
+        private final String[] key_cache = new String[KEY_CACHE_SIZE];
+        private final String[][] shape_cache = new String[SHAPE_CACHE_SIZE][];
+
+        private String[] key_stack = new String[STACK_SIZE];
+        private Object[] val_stack = new Object[STACK_SIZE];
+        private int stack_top;
+
+        /**
+         * Get a key string, equal keys are returned as same object while the key is cached.
+         * @param buf - key characters.
+         * @param len - key length.
+         * @return the key.
+         */
+        String getKey(char[] buf, int len) {
+            if (len > MAX_KEY_LENGTH) return new String(buf, 0, len);
+            int h = 0;
+            for (int i = 0; i < len; i++) h = h * 31 + buf[i];
+            int idx = (h ^ (h >>> 10)) & (KEY_CACHE_SIZE - 1);
+            String s = key_cache[idx];
+            if (s != null && s.length() == len) {
+                int i = 0;
+                while (i < len && s.charAt(i) == buf[i]) i++;
+                if (i == len) return s;
+            }
+            s = new String(buf, 0, len);
+            key_cache[idx] = s;
+            return s;
+        }
+
+        /**
+         * Start an object.
+         * @return mark that must be passed to add() and end().
+         */
+        int begin() {
+            return stack_top;
+        }
+
+        /**
+         * Add a property to the object that was started at given mark.
+         * If the object already has the key, the value is replaced.
+         */
+        @SuppressWarnings("unchecked")
+        void add(int mark, String key, Object val) {
+            if (mark < stack_top && key_stack[mark] == null) {
+                ((Map<String,Object>)val_stack[mark]).put(key, val);
+                return;
+            }
+            for (int i = mark; i < stack_top; i++) {
+                String k = key_stack[i];
+                if (k == key || k.equals(key)) {
+                    val_stack[i] = val;
+                    return;
+                }
+            }
+            if (stack_top >= key_stack.length) {
+                String[] k = new String[key_stack.length * 2];
+                System.arraycopy(key_stack, 0, k, 0, stack_top);
+                key_stack = k;
+                Object[] v = new Object[val_stack.length * 2];
+                System.arraycopy(val_stack, 0, v, 0, stack_top);
+                val_stack = v;
+            }
+            key_stack[stack_top] = key;
+            val_stack[stack_top] = val;
+            stack_top++;
+            if (stack_top - mark > MAX_ARRAY_SIZE) {
+                Map<String,Object> h = new HashMap<String,Object>();
+                for (int i = mark; i < stack_top; i++) {
+                    h.put(key_stack[i], val_stack[i]);
+                    key_stack[i] = null;
+                    val_stack[i] = null;
+                }
+                val_stack[mark] = h;
+                stack_top = mark + 1;
+            }
+        }
+
+        /**
+         * End the object that was started at given mark, and pop its properties.
+         * @return immutable map of the properties.
+         */
+        @SuppressWarnings("unchecked")
+        Map<String,Object> end(int mark) {
+            int n = stack_top - mark;
+            Map<String,Object> m = null;
+            if (n == 0) {
+                m = new PropertyMap(empty_shape, empty_values);
+            }
+            else if (key_stack[mark] == null) {
+                m = Collections.unmodifiableMap((Map<String,Object>)val_stack[mark]);
+            }
+            else {
+                Object[] values = new Object[n];
+                System.arraycopy(val_stack, mark, values, 0, n);
+                m = new PropertyMap(getShape(mark, n), values);
+            }
+            for (int i = mark; i < stack_top; i++) {
+                key_stack[i] = null;
+                val_stack[i] = null;
+            }
+            stack_top = mark;
+            return m;
+        }
+
+        /**
+         * Discard objects that were not completed, e.g. because of a syntax error.
+         */
+        void reset() {
+            for (int i = 0; i < stack_top; i++) {
+                key_stack[i] = null;
+                val_stack[i] = null;
+            }
+            stack_top = 0;
+            if (key_stack.length > STACK_SIZE) {
+                key_stack = new String[STACK_SIZE];
+                val_stack = new Object[STACK_SIZE];
+            }
+        }
+
+        private String[] getShape(int mark, int n) {
+            int h = n;
+            for (int i = 0; i < n; i++) h = h * 31 + key_stack[mark + i].hashCode();
+            int idx = (h ^ (h >>> 8)) & (SHAPE_CACHE_SIZE - 1);
+            String[] s = shape_cache[idx];
+            if (s != null && s.length == n) {
+                int i = 0;
+                while (i < n && (s[i] == key_stack[mark + i] || s[i].equals(key_stack[mark + i]))) i++;
+                if (i == n) return s;
+            }
+            s = new String[n];
+            System.arraycopy(key_stack, mark, s, 0, n);
+            shape_cache[idx] = s;
+            return s;
+        }
+    }
+}
@@ -11,8 +11,8 @@
 package org.eclipse.tcf.protocol;
 
 import java.util.ArrayList;
-import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.tcf.internal.core.ServiceManager;
 import org.eclipse.tcf.internal.core.TransportManager;
@@ -39,62 +39,8 @@ public final class Protocol {
 
     private static IEventQueue event_queue;
     private static ILogger logger;
-    private static final TreeSet<Timer> timer_queue = new TreeSet<Timer>();
+    private static TimerWheel timer_wheel;
     private static final String agent_id = UUID.randomUUID().toString();
-    private static int timer_cnt;
-
-    private static class Timer implements Comparable<Timer>{
-        final int id;
-        final long time;
-        final Runnable run;
-
-        Timer(long time, Runnable run) {
-            this.id = timer_cnt++;
-            this.time = time;
-            this.run = run;
-        }
-
-        public int compareTo(Timer x) {
-            if (x == this) return 0;
-            if (time < x.time) return -1;
-            if (time > x.time) return +1;
-            if (id < x.id) return -1;
-            if (id > x.id) return +1;
-            assert false;
-            return 0;
-        }
-    }
-
-    private static final Thread timer_dispatcher = new Thread() {
-        public void run() {
-            try {
-                synchronized (timer_queue) {
-                    while (true) {
-                        if (timer_queue.isEmpty()) {
-                            timer_queue.wait();
-                        }
-                        else {
-                            long time = System.currentTimeMillis();
-                            Timer t = timer_queue.first();
-                            if (t.time > time) {
-                                timer_queue.wait(t.time - time);
-                            }
-                            else {
-                                timer_queue.remove(t);
-                                invokeLater(t.run);
-                            }
-                        }
-                    }
-                }
-            }
-            catch (IllegalStateException x) {
-                // Dispatch is shut down, exit this thread
-            }
-            catch (Throwable x) {
-                log("Exception in TCF dispatch loop", x);
-            }
-        }
-    };
 
     private static final ArrayList<CongestionMonitor> congestion_monitors = new ArrayList<CongestionMonitor>();
 
@@ -121,9 +67,8 @@ public final class Protocol {
                 new LocatorService();
             }
         });
-        timer_dispatcher.setName("TCF Timer Dispatcher");
-        timer_dispatcher.setDaemon(true);
-        timer_dispatcher.start();
+        timer_wheel = new TimerWheel(event_queue);
+        timer_wheel.start();
     }
 
     /**
@@ -179,13 +124,33 @@ public final class Protocol {
             event_queue.invokeLater(runnable);
         }
         else {
-            synchronized (timer_queue) {
-                timer_queue.add(new Timer(System.currentTimeMillis() + delay, runnable));
-                timer_queue.notify();
-            }
+            timer_wheel.add(delay, runnable);
         }
     }
 
+    /**
+     * Causes <code>runnable</code> event to have its <code>run</code>
+     * method called in the dispatch thread of the framework.
+     * The event is dispatched after given delay, unless it is canceled by
+     * calling <code>cancel()</code> of the returned token.
+     * Timer resolution is one millisecond.
+     *
+     * This method can be invoked from any thread.
+     *
+     * @param delay     time to delay event dispatch.
+     *                  If delay <= 0 the event is dispatched without delay.
+     * @param unit      time unit of the delay.
+     * @param runnable  the <code>Runnable</code> whose <code>run</code>
+     *                  method should be executed asynchronously.
+     * @return token that can be used to cancel the event, cancel() returns
+     *         false if the event is already dispatched or canceled.
+     */
+    public static IToken invokeLater(long delay, TimeUnit unit, Runnable runnable) {
+        long ms = unit.toMillis(delay);
+        if (ms == 0 && delay > 0) ms = 1;
+        return timer_wheel.add(ms, runnable);
+    }
+
     /**
      * Causes <code>runnable</code> to have its <code>run</code>
      * method called in the dispatch thread of the framework.
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.protocol;
+
+/**
+ * TimerWheel is the scheduler of delayed TCF events, see Protocol.invokeLater(long, Runnable).
+ *
+ * Timers are kept in a hierarchical timing wheel: 4 levels of 256 slots with 1 millisecond tick,
+ * each slot is a linked list of timers, so adding and canceling a timer takes constant time.
+ * Level 0 slots hold timers that expire within 256 ticks, timers of upper levels are moved to
+ * lower levels when the lower level wheel wraps around. Timers beyond the wheel range are kept in
+ * the farthest slot and re-inserted when it is reached.
+ *
+ * A single timer thread advances the wheel and posts expired timers into the event queue.
+ * The thread sleeps until the next non-empty slot of level 0, or until level 0 wraps around.
+ */
+final class TimerWheel implements Runnable {
+
+    private static final int LEVEL_BITS = 8;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVEL_MASK = LEVEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY = (1L << (LEVEL_BITS * LEVELS)) - 1;
+
+    private static final int
+        STATE_PENDING = 0,
+        STATE_POSTED = 1,
+        STATE_DONE = 2,
+        STATE_CANCELED = 3;
+
+    /**
+     * Timer is a node in a slot list, and also the event that is posted when the timer expires.
+     */
+    final class Timer implements IToken, Runnable {
+
+        private final Runnable run;
+        private final long tick;
+        private int state;
+        private int level;
+        private int idx;
+        private Timer prev;
+        private Timer next;
+
+        Timer(long tick, Runnable run) {
+            this.tick = tick;
+            this.run = run;
+        }
+
+        public boolean cancel() {
+            synchronized (TimerWheel.this) {
+                switch (state) {
+                case STATE_PENDING:
+                    unlink(this);
+                    count--;
+                    break;
+                case STATE_POSTED:
+                    break;
+                default:
+                    return false;
+                }
+                state = STATE_CANCELED;
+                return true;
+            }
+        }
+
+        public void run() {
+            synchronized (TimerWheel.this) {
+                if (state != STATE_POSTED) return;
+                state = STATE_DONE;
+            }
+            run.run();
+        }
+    }
+
+    private final IEventQueue queue;
+    private final Thread thread;
+    private final long base_time = System.nanoTime();
+
+    /* Slot lists: heads of circular doubly linked lists */
+    private final Timer[][] slots = new Timer[LEVELS][LEVEL_SIZE];
+    private long cur_tick;
+    private long wake_tick = Long.MAX_VALUE;
+    private int count;
+
+    TimerWheel(IEventQueue queue) {
+        this.queue = queue;
+        thread = new Thread(this);
+        thread.setName("TCF Timer Dispatcher");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private long getTick() {
+        return (System.nanoTime() - base_time) / 1000000;
+    }
+
+    /**
+     * Add a timer.
+     * @param delay - milliseconds, if delay <= 0 the event is posted right away.
+     * @param run - the event to post when the timer expires.
+     * @return the timer.
+     */
+    Timer add(long delay, Runnable run) {
+        if (delay <= 0) {
+            Timer t = new Timer(0, run);
+            t.state = STATE_POSTED;
+            queue.invokeLater(t);
+            return t;
+        }
+        synchronized (this) {
+            if (count == 0) cur_tick = getTick();
+            Timer t = new Timer(getTick() + delay, run);
+            insert(t);
+            count++;
+            if (t.tick < wake_tick) notify();
+            return t;
+        }
+    }
+
+    private void insert(Timer t) {
+        long delta = t.tick - cur_tick;
+        if (delta <= 0) delta = 1;
+        if (delta > MAX_DELAY) delta = MAX_DELAY;
+        long tick = cur_tick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (LEVEL_BITS * (level + 1))) level++;
+        int idx = (int)(tick >>> (LEVEL_BITS * level)) & LEVEL_MASK;
+        t.level = level;
+        t.idx = idx;
+        Timer head = slots[level][idx];
+        if (head == null) {
+            t.prev = t.next = t;
+            slots[level][idx] = t;
+        }
+        else {
+            t.next = head;
+            t.prev = head.prev;
+            head.prev.next = t;
+            head.prev = t;
+        }
+    }
+
+    private void unlink(Timer t) {
+        Timer[] list = slots[t.level];
+        if (list[t.idx] == t) list[t.idx] = t.next == t ? null : t.next;
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = t.next = null;
+    }
+
+    /* Remove all timers from a slot, returns the list head */
+    private Timer take(int level, int idx) {
+        Timer head = slots[level][idx];
+        slots[level][idx] = null;
+        return head;
+    }
+
+    /* Advance the wheel by one tick, expired timers are appended to the list */
+    private Timer advance(Timer expired) {
+        cur_tick++;
+        int idx = (int)cur_tick & LEVEL_MASK;
+        if (idx == 0) {
+            /* Cascade upper level slots that became current */
+            for (int level = 1; level < LEVELS; level++) {
+                int i = (int)(cur_tick >>> (LEVEL_BITS * level)) & LEVEL_MASK;
+                Timer t = take(level, i);
+                while (t != null) {
+                    Timer n = t.next == t ? null : t.next;
+                    t.prev.next = t.next;
+                    t.next.prev = t.prev;
+                    insert(t);
+                    t = n;
+                }
+                if (i != 0) break;
+            }
+        }
+        Timer t = take(0, idx);
+        while (t != null) {
+            Timer n = t.next == t ? null : t.next;
+            t.prev.next = t.next;
+            t.next.prev = t.prev;
+            if (t.tick > cur_tick) {
+                /* Farther than the wheel range */
+                insert(t);
+            }
+            else {
+                count--;
+                t.state = STATE_POSTED;
+                t.next = expired;
+                expired = t;
+            }
+            t = n;
+        }
+        return expired;
+    }
+
+    /* Find the tick when the wheel needs to be advanced next time */
+    private long getWakeTick() {
+        if (count == 0) return Long.MAX_VALUE;
+        long tick = cur_tick + 1;
+        while (((int)tick & LEVEL_MASK) != 0) {
+            if (slots[0][(int)tick & LEVEL_MASK] != null) return tick;
+            tick++;
+        }
+        return tick;
+    }
+
+    public void run() {
+        try {
+            for (;;) {
+                Timer expired = null;
+                synchronized (this) {
+                    long now = getTick();
+                    while (cur_tick < now && count > 0) expired = advance(expired);
+                    if (count == 0) cur_tick = now;
+                    if (expired == null) {
+                        wake_tick = getWakeTick();
+                        if (wake_tick == Long.MAX_VALUE) wait();
+                        else if (wake_tick > now) wait(wake_tick - now);
+                        wake_tick = Long.MAX_VALUE;
+                        continue;
+                    }
+                }
+                /* Expired timers are in reverse order */
+                Timer list = null;
+                while (expired != null) {
+                    Timer n = expired.next;
+                    expired.next = list;
+                    list = expired;
+                    expired = n;
+                }
+                while (list != null) {
+                    Timer n = list.next;
+                    list.next = null;
+                    queue.invokeLater(list);
+                    list = n;
+                }
+            }
+        }
+        catch (IllegalStateException x) {
+            // Dispatch is shut down, exit this thread
+        }
+        catch (Throwable x) {
+            Protocol.log("Exception in TCF dispatch loop", x);
+        }
+    }
+}
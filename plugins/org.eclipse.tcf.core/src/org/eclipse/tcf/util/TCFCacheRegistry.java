@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * TCFCacheRegistry limits the amount of memory used by TCFDataCache objects.
+ *
+ * Caches opt in by calling TCFDataCache.setCategory(). The registry keeps valid caches
+ * of all its categories in a single least-recently-used list, and keeps counts of entries
+ * and of cached data bytes, as estimated by TCFDataCache.getDataSize().
+ * When a count goes over the registry limit, least-recently-used caches are evicted,
+ * see TCFDataCache.evict(). Eviction is done in a separate dispatch cycle, so clients never
+ * see a cache that they have validated becoming invalid in the middle of a dispatch cycle.
+ *
+ * Each category keeps statistics: hits, misses and evictions.
+ *
+ * Default limits of the default registry can be changed by system properties
+ * "org.eclipse.tcf.core.cache_max_entries" and "org.eclipse.tcf.core.cache_max_bytes".
+ *
+ * All methods must be called from the TCF dispatch thread.
+ */
+public class TCFCacheRegistry {
+
+    /**
+     * Default estimate of memory used by a cache entry, in bytes.
+     */
+    public static final long DEFAULT_ENTRY_SIZE = 0x100;
+
+    private static final int DEFAULT_MAX_ENTRIES = 0x4000;
+    private static final long DEFAULT_MAX_BYTES = 0x4000000;
+
+    private static TCFCacheRegistry default_registry;
+
+    /**
+     * Category groups caches of same kind, e.g. line number lookups, and keeps their statistics.
+     */
+    public final class Category {
+
+        private final String name;
+
+        private long hits;
+        private long misses;
+        private long evictions;
+        private int entry_cnt;
+        private long byte_cnt;
+
+        private Category(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the registry that owns this category.
+         */
+        public TCFCacheRegistry getRegistry() {
+            return TCFCacheRegistry.this;
+        }
+
+        /**
+         * @return category name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return number of validate() calls that found the cache valid.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return number of times data retrieval was started.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return number of caches evicted to stay within the registry limits.
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return number of valid caches in the category.
+         */
+        public int getEntryCount() {
+            return entry_cnt;
+        }
+
+        /**
+         * @return estimated number of bytes of data cached by the category.
+         */
+        public long getByteCount() {
+            return byte_cnt;
+        }
+
+        /**
+         * Reset hits, misses and evictions counters.
+         */
+        public void resetStatistics() {
+            hits = 0;
+            misses = 0;
+            evictions = 0;
+        }
+
+        void hit(TCFDataCache<?> cache) {
+            hits++;
+            if (cache.lru_linked && lru_head != cache) {
+                unlink(cache);
+                link(cache);
+            }
+        }
+
+        void miss() {
+            misses++;
+        }
+
+        @Override
+        public String toString() {
+            StringBuffer bf = new StringBuffer();
+            bf.append('[');
+            bf.append(name);
+            bf.append(",hits=");
+            bf.append(hits);
+            bf.append(",misses=");
+            bf.append(misses);
+            bf.append(",evictions=");
+            bf.append(evictions);
+            bf.append(",entries=");
+            bf.append(entry_cnt);
+            bf.append(",bytes=");
+            bf.append(byte_cnt);
+            bf.append(']');
+            return bf.toString();
+        }
+    }
+
+    private final Map<String,Category> categories = new LinkedHashMap<String,Category>();
+
+    private int max_entries;
+    private long max_bytes;
+    private int entry_cnt;
+    private long byte_cnt;
+
+    /* LRU list of valid caches, most recently used first */
+    private TCFDataCache<?> lru_head;
+    private TCFDataCache<?> lru_tail;
+
+    private boolean evict_posted;
+
+    private final Runnable evict_event = new Runnable() {
+        public void run() {
+            evict_posted = false;
+            while (isOverLimit() && lru_tail != null) {
+                TCFDataCache<?> cache = lru_tail;
+                unlink(cache);
+                cache.category.evictions++;
+                cache.evict();
+            }
+        }
+    };
+
+    /**
+     * Create a registry.
+     * @param max_entries - maximal number of valid caches.
+     * @param max_bytes - maximal estimated number of bytes of cached data.
+     */
+    public TCFCacheRegistry(int max_entries, long max_bytes) {
+        this.max_entries = max_entries;
+        this.max_bytes = max_bytes;
+    }
+
+    /**
+     * @return default registry, which is shared by all caches of the TCF framework.
+     */
+    public static TCFCacheRegistry getDefault() {
+        assert Protocol.isDispatchThread();
+        if (default_registry == null) {
+            default_registry = new TCFCacheRegistry(
+                    Integer.getInteger("org.eclipse.tcf.core.cache_max_entries", DEFAULT_MAX_ENTRIES),
+                    Long.getLong("org.eclipse.tcf.core.cache_max_bytes", DEFAULT_MAX_BYTES));
+        }
+        return default_registry;
+    }
+
+    /**
+     * Get a category, the category is created if it does not exist.
+     * @param name - category name.
+     * @return the category.
+     */
+    public Category getCategory(String name) {
+        assert Protocol.isDispatchThread();
+        Category c = categories.get(name);
+        if (c == null) categories.put(name, c = new Category(name));
+        return c;
+    }
+
+    /**
+     * @return all categories of the registry.
+     */
+    public Collection<Category> getCategories() {
+        assert Protocol.isDispatchThread();
+        return new ArrayList<Category>(categories.values());
+    }
+
+    /**
+     * Change the registry limits.
+     * If the registry is over the new limits, caches are evicted in a next dispatch cycle.
+     * @param max_entries - maximal number of valid caches.
+     * @param max_bytes - maximal estimated number of bytes of cached data.
+     */
+    public void setLimits(int max_entries, long max_bytes) {
+        assert Protocol.isDispatchThread();
+        this.max_entries = max_entries;
+        this.max_bytes = max_bytes;
+        postEviction();
+    }
+
+    /**
+     * @return maximal number of valid caches.
+     */
+    public int getMaxEntries() {
+        return max_entries;
+    }
+
+    /**
+     * @return maximal estimated number of bytes of cached data.
+     */
+    public long getMaxBytes() {
+        return max_bytes;
+    }
+
+    /**
+     * @return number of valid caches in all categories.
+     */
+    public int getEntryCount() {
+        return entry_cnt;
+    }
+
+    /**
+     * @return estimated number of bytes of data cached by all categories.
+     */
+    public long getByteCount() {
+        return byte_cnt;
+    }
+
+    /**
+     * Called by a cache when it becomes valid.
+     * The cache is moved to the head of LRU list and its data size is updated.
+     */
+    void update(TCFDataCache<?> cache) {
+        assert Protocol.isDispatchThread();
+        assert cache.category.getRegistry() == this;
+        if (cache.lru_linked) unlink(cache);
+        cache.lru_size = cache.getDataSize();
+        link(cache);
+        postEviction();
+    }
+
+    /**
+     * Called by a cache when it becomes invalid, or leaves the category.
+     */
+    void remove(TCFDataCache<?> cache) {
+        assert Protocol.isDispatchThread();
+        if (cache.lru_linked) unlink(cache);
+    }
+
+    private boolean isOverLimit() {
+        return entry_cnt > max_entries || byte_cnt > max_bytes;
+    }
+
+    private void postEviction() {
+        if (evict_posted || !isOverLimit()) return;
+        Protocol.invokeLater(evict_event);
+        evict_posted = true;
+    }
+
+    private void link(TCFDataCache<?> cache) {
+        assert !cache.lru_linked;
+        cache.lru_prev = null;
+        cache.lru_next = lru_head;
+        if (lru_head != null) lru_head.lru_prev = cache;
+        else lru_tail = cache;
+        lru_head = cache;
+        cache.lru_linked = true;
+        Category c = cache.category;
+        c.entry_cnt++;
+        c.byte_cnt += cache.lru_size;
+        entry_cnt++;
+        byte_cnt += cache.lru_size;
+    }
+
+    private void unlink(TCFDataCache<?> cache) {
+        assert cache.lru_linked;
+        if (cache.lru_prev != null) cache.lru_prev.lru_next = cache.lru_next;
+        else lru_head = cache.lru_next;
+        if (cache.lru_next != null) cache.lru_next.lru_prev = cache.lru_prev;
+        else lru_tail = cache.lru_prev;
+        cache.lru_prev = null;
+        cache.lru_next = null;
+        cache.lru_linked = false;
+        Category c = cache.category;
+        c.entry_cnt--;
+        c.byte_cnt -= cache.lru_size;
+        entry_cnt--;
+        byte_cnt -= cache.lru_size;
+    }
+}
@@ -42,6 +42,9 @@ import org.eclipse.tcf.protocol.Protocol;
  * All remote data and everything derived from remote data should be kept in cache items
  * that implement proper event handling and can keep data consistent across dispatch cycles.
  *
+ * A cache can join a category of TCFCacheRegistry, see setCategory(). The registry keeps statistics
+ * and evicts least-recently used caches when the amount of cached data goes over the registry limits.
+ *
  * @param <V> - type of data to be stored in the cache.
  */
 public abstract class TCFDataCache<V> implements Runnable {
@@ -60,6 +63,14 @@ public abstract class TCFDataCache<V> implements Runnable {
     private Runnable[] waiting_list = null;
     private int waiting_cnt;
 
+    /* Cache registry state, see TCFCacheRegistry */
+    TCFCacheRegistry.Category category;
+    TCFDataCache<?> lru_prev;
+    TCFDataCache<?> lru_next;
+    boolean lru_linked;
+    long lru_size;
+    private boolean missed;
+
     public TCFDataCache(IChannel channel) {
         assert channel != null;
         this.channel = channel;
@@ -195,7 +206,16 @@ public abstract class TCFDataCache<V> implements Runnable {
         }
         else {
             if (command != null) return false;
-            if (!valid && !startDataRetrieval()) return false;
+            if (!valid) {
+                if (category != null && !missed) {
+                    category.miss();
+                    missed = true;
+                }
+                if (!startDataRetrieval()) return false;
+            }
+            else if (category != null) {
+                category.hit(this);
+            }
         }
         assert valid;
         assert command == null;
@@ -266,6 +286,7 @@ public abstract class TCFDataCache<V> implements Runnable {
             this.error = error;
             this.data = data;
             valid = true;
+            updateRegistry();
         }
         post();
     }
@@ -284,6 +305,7 @@ public abstract class TCFDataCache<V> implements Runnable {
             this.data = data;
             error = null;
             valid = true;
+            updateRegistry();
         }
         post();
     }
@@ -298,6 +320,7 @@ public abstract class TCFDataCache<V> implements Runnable {
             error = null;
             valid = false;
             data = null;
+            if (lru_linked) category.getRegistry().remove(this);
         }
         post();
     }
@@ -324,6 +347,53 @@ public abstract class TCFDataCache<V> implements Runnable {
         disposed = true;
     }
 
+    /**
+     * Add the cache to a category of a cache registry, or remove it from its current category.
+     * The registry counts cache hits and misses, and evicts least-recently used caches
+     * when it goes over its limits, see evict().
+     * Caches that are not in a category are never evicted.
+     * @param category - registry category, or null to leave current category.
+     */
+    public void setCategory(TCFCacheRegistry.Category category) {
+        assert Protocol.isDispatchThread();
+        if (this.category == category) return;
+        if (lru_linked) this.category.getRegistry().remove(this);
+        this.category = category;
+        if (category != null && valid && !disposed) category.getRegistry().update(this);
+    }
+
+    /**
+     * @return the registry category of the cache, or null if the cache is not in a category.
+     */
+    public TCFCacheRegistry.Category getCategory() {
+        return category;
+    }
+
+    /**
+     * Estimate amount of memory used by cached data.
+     * Sub-classes that cache large or variable size data should override this method.
+     * It is called when the cache becomes valid.
+     * @return size of cached data in bytes.
+     */
+    protected long getDataSize() {
+        return TCFCacheRegistry.DEFAULT_ENTRY_SIZE;
+    }
+
+    /**
+     * Called by cache registry to release cached data when the registry goes over its limits.
+     * Default implementation invalidates the cache.
+     * Sub-classes can override this method, for example, to dispose the cache and
+     * remove it from its owner.
+     */
+    protected void evict() {
+        reset();
+    }
+
+    private void updateRegistry() {
+        missed = false;
+        if (category != null) category.getRegistry().update(this);
+    }
+
     @Override
     public String toString() {
         StringBuffer bf = new StringBuffer();
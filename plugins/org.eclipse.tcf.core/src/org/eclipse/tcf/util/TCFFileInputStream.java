@@ -15,6 +15,8 @@ import java.io.InputStream;
 import java.util.Iterator;
 import java.util.LinkedList;
 
+import org.eclipse.tcf.core.AbstractChannel;
+import org.eclipse.tcf.protocol.IChannel;
 import org.eclipse.tcf.protocol.IToken;
 import org.eclipse.tcf.protocol.Protocol;
 import org.eclipse.tcf.services.IFileSystem;
@@ -24,12 +26,15 @@ import org.eclipse.tcf.services.IFileSystem.IFileHandle;
 /**
  * TCFFileInputStream is high performance InputStream implementation over TCF FileSystem service.
  * The class uses read-ahead buffers to achieve maximum throughput.
+ * Number of read-ahead buffers follows the channel command window, so the read-ahead
+ * fills the pipe on both low and high latency connections.
  *
  * @noextend This class is not intended to be subclassed by clients.
  */
 public final class TCFFileInputStream extends InputStream {
 
-    private static final int MAX_READ_AHEAD = 8;
+    private static final int MIN_READ_AHEAD = 8;
+    private static final int MAX_READ_AHEAD_SIZE = 0x800000;
 
     private static class Buffer {
 
@@ -52,6 +57,8 @@ public final class TCFFileInputStream extends InputStream {
     private final IFileHandle handle;
     private final IFileSystem fs;
     private final int buf_size;
+    private AbstractChannel channel;
+    private boolean channel_lookup_done;
     private long mark = 0;
     private long offset = 0;
     private Buffer buf;
@@ -78,7 +85,8 @@ public final class TCFFileInputStream extends InputStream {
         }
         if (prv.eof) return;
         long pos = prv.offset + (prv.buf == null ? buf_size : prv.buf.length);
-        while (read_ahead_buffers.size() < MAX_READ_AHEAD) {
+        int max = getReadAheadLimit();
+        while (read_ahead_buffers.size() < max) {
             final Buffer buf = new Buffer(pos);
             buf.token = fs.read(handle, pos, buf_size, new IFileSystem.DoneRead() {
                 public void doneRead(IToken token, FileSystemException error,
@@ -111,6 +119,22 @@ public final class TCFFileInputStream extends InputStream {
         }
     }
 
+    private int getReadAheadLimit() {
+        if (!channel_lookup_done) {
+            for (IChannel c : Protocol.getOpenChannels()) {
+                if (c.getState() == IChannel.STATE_OPEN && c.getRemoteService(IFileSystem.class) == fs) {
+                    if (c instanceof AbstractChannel) channel = (AbstractChannel)c;
+                    break;
+                }
+            }
+            channel_lookup_done = true;
+        }
+        int n = MIN_READ_AHEAD;
+        /* Leave half of the command window to other clients of the channel */
+        if (channel != null) n = Math.max(n, channel.getCommandWindow() / 2);
+        return Math.max(MIN_READ_AHEAD, Math.min(n, MAX_READ_AHEAD_SIZE / buf_size));
+    }
+
     private boolean stopReadAhead(Runnable done) {
         suspend_read_ahead = true;
         for (Iterator<Buffer> i = read_ahead_buffers.iterator(); i.hasNext();) {
@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.services.IFileSystem;
+import org.eclipse.tcf.services.IFileSystem.DirEntry;
+import org.eclipse.tcf.services.IFileSystem.FileAttrs;
+import org.eclipse.tcf.services.IFileSystem.FileSystemException;
+import org.eclipse.tcf.services.IFileSystem.IFileHandle;
+
+/**
+ * TCFFileSystemFutures is an adapter of IFileSystem service that returns TCFFuture objects
+ * instead of using call-backs. Methods can be called from any thread, commands are sent by
+ * TCF dispatch thread, and the calling thread is never blocked.
+ * See IFileSystem for description of the commands.
+ */
+public class TCFFileSystemFutures {
+
+    /**
+     * Result of read().
+     */
+    public static class ReadResult {
+        public final byte[] data;
+        public final boolean eof;
+
+        ReadResult(byte[] data, boolean eof) {
+            this.data = data;
+            this.eof = eof;
+        }
+    }
+
+    /**
+     * Result of readdir().
+     */
+    public static class ReadDirResult {
+        public final DirEntry[] entries;
+        public final boolean eof;
+
+        ReadDirResult(DirEntry[] entries, boolean eof) {
+            this.entries = entries;
+            this.eof = eof;
+        }
+    }
+
+    /**
+     * Result of user().
+     */
+    public static class UserInfo {
+        public final int real_uid;
+        public final int effective_uid;
+        public final int real_gid;
+        public final int effective_gid;
+        public final String home;
+
+        UserInfo(int real_uid, int effective_uid, int real_gid, int effective_gid, String home) {
+            this.real_uid = real_uid;
+            this.effective_uid = effective_uid;
+            this.real_gid = real_gid;
+            this.effective_gid = effective_gid;
+            this.home = home;
+        }
+    }
+
+    private final IFileSystem service;
+
+    /**
+     * Create an adapter.
+     * @param service - file system service proxy.
+     */
+    public TCFFileSystemFutures(IFileSystem service) {
+        this.service = service;
+    }
+
+    /**
+     * @return the file system service proxy.
+     */
+    public IFileSystem getService() {
+        return service;
+    }
+
+    public TCFFuture<IFileHandle> open(final String file_name, final int flags, final FileAttrs attrs) {
+        return new FSCommand<IFileHandle>() {
+            protected IToken start() {
+                return service.open(file_name, flags, attrs, new IFileSystem.DoneOpen() {
+                    public void doneOpen(IToken token, FileSystemException error, IFileHandle handle) {
+                        done(error, handle);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> close(final IFileHandle handle) {
+        return new FSCommand<Object>() {
+            protected IToken start() {
+                return service.close(handle, new IFileSystem.DoneClose() {
+                    public void doneClose(IToken token, FileSystemException error) {
+                        done(error, null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<ReadResult> read(final IFileHandle handle, final long offset, final int len) {
+        return new FSCommand<ReadResult>() {
+            protected IToken start() {
+                return service.read(handle, offset, len, new IFileSystem.DoneRead() {
+                    public void doneRead(IToken token, FileSystemException error, byte[] data, boolean eof) {
+                        done(error, error == null ? new ReadResult(data, eof) : null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> write(final IFileHandle handle, final long offset,
+            final byte[] data, final int data_pos, final int data_size) {
+        return new FSCommand<Object>() {
+            protected IToken start() {
+                return service.write(handle, offset, data, data_pos, data_size, new IFileSystem.DoneWrite() {
+                    public void doneWrite(IToken token, FileSystemException error) {
+                        done(error, null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<FileAttrs> stat(final String path) {
+        return new StatCommand() {
+            protected IToken start() {
+                return service.stat(path, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<FileAttrs> lstat(final String path) {
+        return new StatCommand() {
+            protected IToken start() {
+                return service.lstat(path, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<FileAttrs> fstat(final IFileHandle handle) {
+        return new StatCommand() {
+            protected IToken start() {
+                return service.fstat(handle, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> setstat(final String path, final FileAttrs attrs) {
+        return new SetStatCommand() {
+            protected IToken start() {
+                return service.setstat(path, attrs, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> fsetstat(final IFileHandle handle, final FileAttrs attrs) {
+        return new SetStatCommand() {
+            protected IToken start() {
+                return service.fsetstat(handle, attrs, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<IFileHandle> opendir(final String path) {
+        return new FSCommand<IFileHandle>() {
+            protected IToken start() {
+                return service.opendir(path, new IFileSystem.DoneOpen() {
+                    public void doneOpen(IToken token, FileSystemException error, IFileHandle handle) {
+                        done(error, handle);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<ReadDirResult> readdir(final IFileHandle handle) {
+        return new FSCommand<ReadDirResult>() {
+            protected IToken start() {
+                return service.readdir(handle, new IFileSystem.DoneReadDir() {
+                    public void doneReadDir(IToken token, FileSystemException error, DirEntry[] entries, boolean eof) {
+                        done(error, error == null ? new ReadDirResult(entries, eof) : null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> mkdir(final String path, final FileAttrs attrs) {
+        return new FSCommand<Object>() {
+            protected IToken start() {
+                return service.mkdir(path, attrs, new IFileSystem.DoneMkDir() {
+                    public void doneMkDir(IToken token, FileSystemException error) {
+                        done(error, null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> rmdir(final String path) {
+        return new RemoveCommand() {
+            protected IToken start() {
+                return service.rmdir(path, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> remove(final String file_name) {
+        return new RemoveCommand() {
+            protected IToken start() {
+                return service.remove(file_name, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<DirEntry[]> roots() {
+        return new FSCommand<DirEntry[]>() {
+            protected IToken start() {
+                return service.roots(new IFileSystem.DoneRoots() {
+                    public void doneRoots(IToken token, FileSystemException error, DirEntry[] entries) {
+                        done(error, entries);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<String> realpath(final String path) {
+        return new FSCommand<String>() {
+            protected IToken start() {
+                return service.realpath(path, new IFileSystem.DoneRealPath() {
+                    public void doneRealPath(IToken token, FileSystemException error, String path) {
+                        done(error, path);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> rename(final String old_path, final String new_path) {
+        return new FSCommand<Object>() {
+            protected IToken start() {
+                return service.rename(old_path, new_path, new IFileSystem.DoneRename() {
+                    public void doneRename(IToken token, FileSystemException error) {
+                        done(error, null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<String> readlink(final String path) {
+        return new FSCommand<String>() {
+            protected IToken start() {
+                return service.readlink(path, new IFileSystem.DoneReadLink() {
+                    public void doneReadLink(IToken token, FileSystemException error, String path) {
+                        done(error, path);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> symlink(final String link_path, final String target_path) {
+        return new FSCommand<Object>() {
+            protected IToken start() {
+                return service.symlink(link_path, target_path, new IFileSystem.DoneSymLink() {
+                    public void doneSymLink(IToken token, FileSystemException error) {
+                        done(error, null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> copy(final String src_path, final String dst_path,
+            final boolean copy_permissions, final boolean copy_ownership) {
+        return new FSCommand<Object>() {
+            protected IToken start() {
+                return service.copy(src_path, dst_path, copy_permissions, copy_ownership, new IFileSystem.DoneCopy() {
+                    public void doneCopy(IToken token, FileSystemException error) {
+                        done(error, null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<UserInfo> user() {
+        return new FSCommand<UserInfo>() {
+            protected IToken start() {
+                return service.user(new IFileSystem.DoneUser() {
+                    public void doneUser(IToken token, FileSystemException error,
+                            int real_uid, int effective_uid, int real_gid, int effective_gid,
+                            String home) {
+                        done(error, error == null ? new UserInfo(real_uid, effective_uid,
+                                real_gid, effective_gid, home) : null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    private static abstract class FSCommand<V> extends TCFFuture.Command<V> {
+        void done(FileSystemException error, V result) {
+            if (error != null) error(error);
+            else done(result);
+        }
+    }
+
+    private static abstract class StatCommand extends FSCommand<FileAttrs> implements IFileSystem.DoneStat {
+        public void doneStat(IToken token, FileSystemException error, FileAttrs attrs) {
+            done(error, attrs);
+        }
+    }
+
+    private static abstract class SetStatCommand extends FSCommand<Object> implements IFileSystem.DoneSetStat {
+        public void doneSetStat(IToken token, FileSystemException error) {
+            done(error, null);
+        }
+    }
+
+    private static abstract class RemoveCommand extends FSCommand<Object> implements IFileSystem.DoneRemove {
+        public void doneRemove(IToken token, FileSystemException error) {
+            done(error, null);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * A <tt>TCFFuture</tt> represents the result of an asynchronous communication over TCF framework.
+ *
+ * Unlike TCFTask, a client does not need to block a thread to get the result: it can add a call-back
+ * with addCallback(), or compose futures with then(), thenCompose() and all(). A thread that issues
+ * many remote commands can keep all of them outstanding at same time, and only wait, if ever,
+ * for the final result. The blocking Future.get() methods are still available for threads other
+ * than TCF dispatch thread.
+ *
+ * Call-backs are always invoked by TCF dispatch thread, in a dispatch cycle posted after the future
+ * is completed, regardless of the thread that completed the future or added the call-back.
+ *
+ * A future is completed by done() or error(), which can be called from any thread.
+ * Remote commands are usually wrapped by sub-classing TCFFuture.Command, see TCFFileSystemFutures,
+ * TCFRunControlFutures, TCFMemoryFutures, TCFRegistersFutures and TCFStackTraceFutures for examples.
+ *
+ * @param <V> - type of the result.
+ */
+public class TCFFuture<V> implements Future<V> {
+
+    /**
+     * Call back interface for addCallback().
+     */
+    public interface Callback<V> {
+        /**
+         * Called by TCF dispatch thread when the future is completed.
+         * @param error - error description if the computation failed or was canceled, null if succeeded.
+         * @param result - the result, or null if failed.
+         */
+        void done(Throwable error, V result);
+    }
+
+    /**
+     * A function that maps a result to a new value, see then().
+     */
+    public interface Function<V,R> {
+        R apply(V value) throws Exception;
+    }
+
+    /**
+     * A function that maps a result to a new asynchronous computation, see thenCompose().
+     */
+    public interface AsyncFunction<V,R> {
+        TCFFuture<R> apply(V value) throws Exception;
+    }
+
+    /**
+     * Command is a future of a remote command that is started by TCF dispatch thread.
+     * Sub-classes implement start() to send the command and call done() or error()
+     * from the command call-back. Canceling the future cancels the command.
+     */
+    public static abstract class Command<V> extends TCFFuture<V> implements Runnable {
+
+        /**
+         * Schedule the command for execution by TCF dispatch thread.
+         * If called by the dispatch thread, the command is started immediately.
+         * @return this future.
+         */
+        public TCFFuture<V> submit() {
+            if (Protocol.isDispatchThread()) run();
+            else Protocol.invokeLater(this);
+            return this;
+        }
+
+        public void run() {
+            if (isDone()) return;
+            try {
+                IToken token = start();
+                if (token != null) setToken(token);
+            }
+            catch (Throwable x) {
+                error(x);
+            }
+        }
+
+        /**
+         * Start the command. Called by TCF dispatch thread.
+         * @return the command token, or null if the command cannot be canceled.
+         * @throws Exception - if the command cannot be started, the future is completed with the exception.
+         */
+        protected abstract IToken start() throws Exception;
+    }
+
+    private V result;
+    private Throwable error;
+    private boolean done;
+    private boolean canceled;
+    private IToken token;
+    private List<Callback<? super V>> callbacks;
+
+    /**
+     * Create a future that is completed with a result.
+     * @param result - the result.
+     * @return the future.
+     */
+    public static <V> TCFFuture<V> completed(V result) {
+        TCFFuture<V> f = new TCFFuture<V>();
+        f.done(result);
+        return f;
+    }
+
+    /**
+     * Create a future that is completed with an error.
+     * @param error - the error.
+     * @return the future.
+     */
+    public static <V> TCFFuture<V> failed(Throwable error) {
+        TCFFuture<V> f = new TCFFuture<V>();
+        f.error(error);
+        return f;
+    }
+
+    /**
+     * Create a future that is completed when all given futures are completed.
+     * If any of the futures fails, the new future fails with the first error.
+     * Canceling the new future cancels all given futures.
+     * @param list - the futures.
+     * @return a future that returns the list of results, in same order as the futures.
+     */
+    public static <V> TCFFuture<List<V>> all(List<? extends TCFFuture<? extends V>> list) {
+        final TCFFuture<List<V>> res = new TCFFuture<List<V>>();
+        final int n = list.size();
+        if (n == 0) {
+            res.done(new ArrayList<V>());
+            return res;
+        }
+        final Object[] arr = new Object[n];
+        final int[] cnt = new int[1];
+        for (int i = 0; i < n; i++) {
+            final int pos = i;
+            list.get(i).addCallback(new Callback<V>() {
+                @SuppressWarnings("unchecked")
+                public void done(Throwable error, V result) {
+                    if (error != null) {
+                        res.error(error);
+                        return;
+                    }
+                    arr[pos] = result;
+                    if (++cnt[0] == n) res.done((List<V>)Arrays.asList(arr));
+                }
+            });
+            cancelOnCancel(res, list.get(i));
+        }
+        return res;
+    }
+
+    /**
+     * Complete the future with a result.
+     * Can be called from any thread.
+     * @param result - the result.
+     * @return false if the future is already completed.
+     */
+    public boolean done(V result) {
+        return complete(null, result, false);
+    }
+
+    /**
+     * Complete the future with an error.
+     * Can be called from any thread.
+     * @param error - the error.
+     * @return false if the future is already completed.
+     */
+    public boolean error(Throwable error) {
+        assert error != null;
+        return complete(error, null, false);
+    }
+
+    private boolean complete(Throwable error, V result, boolean cancel) {
+        List<Callback<? super V>> list = null;
+        IToken t = null;
+        synchronized (this) {
+            if (done) return false;
+            this.error = error;
+            this.result = result;
+            if (cancel) {
+                canceled = true;
+                t = token;
+            }
+            done = true;
+            token = null;
+            list = callbacks;
+            callbacks = null;
+            notifyAll();
+        }
+        if (t != null) cancelCommand(t);
+        if (list != null) post(list);
+        return true;
+    }
+
+    private static void cancelCommand(final IToken token) {
+        if (Protocol.isDispatchThread()) {
+            token.cancel();
+        }
+        else {
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    token.cancel();
+                }
+            });
+        }
+    }
+
+    private void post(final List<Callback<? super V>> list) {
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                for (Callback<? super V> c : list) {
+                    try {
+                        c.done(error, result);
+                    }
+                    catch (Throwable x) {
+                        Protocol.log("Unhandled exception in TCFFuture call-back", x);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Set token of the remote command that computes the result.
+     * The command is canceled if the future is canceled, including when
+     * the future was canceled before the token was set.
+     * @param token - the command token.
+     */
+    public void setToken(IToken token) {
+        synchronized (this) {
+            if (!done) {
+                this.token = token;
+                return;
+            }
+            if (!canceled) return;
+        }
+        cancelCommand(token);
+    }
+
+    /**
+     * Add a call-back that is invoked by TCF dispatch thread when the future is completed.
+     * If the future is already completed, the call-back is invoked in a next dispatch cycle.
+     * Can be called from any thread.
+     * @param callback - the call-back.
+     * @return this future.
+     */
+    public TCFFuture<V> addCallback(Callback<? super V> callback) {
+        synchronized (this) {
+            if (!done) {
+                if (callbacks == null) callbacks = new ArrayList<Callback<? super V>>();
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        List<Callback<? super V>> list = new ArrayList<Callback<? super V>>(1);
+        list.add(callback);
+        post(list);
+        return this;
+    }
+
+    /**
+     * Create a future that is completed with the result of this future mapped by a function.
+     * The function is called by TCF dispatch thread. If this future or the function fails,
+     * the new future fails with same error. Canceling the new future cancels this future.
+     * @param function - the function.
+     * @return the new future.
+     */
+    public <R> TCFFuture<R> then(final Function<? super V,? extends R> function) {
+        final TCFFuture<R> res = new TCFFuture<R>();
+        addCallback(new Callback<V>() {
+            public void done(Throwable error, V result) {
+                if (error != null) {
+                    res.error(error);
+                    return;
+                }
+                try {
+                    res.done(function.apply(result));
+                }
+                catch (Throwable x) {
+                    res.error(x);
+                }
+            }
+        });
+        cancelOnCancel(res, this);
+        return res;
+    }
+
+    /**
+     * Create a future that is completed with the result of a future returned by a function,
+     * which is called with the result of this future. This allows to chain asynchronous computations.
+     * The function is called by TCF dispatch thread. If this future or the function fails,
+     * the new future fails with same error. Canceling the new future cancels this future,
+     * and the future returned by the function, if it was already called.
+     * @param function - the function.
+     * @return the new future.
+     */
+    public <R> TCFFuture<R> thenCompose(final AsyncFunction<? super V,R> function) {
+        final TCFFuture<R> res = new TCFFuture<R>();
+        addCallback(new Callback<V>() {
+            public void done(Throwable error, V result) {
+                if (error != null) {
+                    res.error(error);
+                    return;
+                }
+                try {
+                    TCFFuture<R> f = function.apply(result);
+                    if (f == null) throw new Exception("Invalid future: null");
+                    f.addCallback(new Callback<R>() {
+                        public void done(Throwable error, R result) {
+                            if (error != null) res.error(error);
+                            else res.done(result);
+                        }
+                    });
+                    cancelOnCancel(res, f);
+                }
+                catch (Throwable x) {
+                    res.error(x);
+                }
+            }
+        });
+        cancelOnCancel(res, this);
+        return res;
+    }
+
+    /* Cancel future 'f' when future 'res', which depends on it, is canceled */
+    private static void cancelOnCancel(final TCFFuture<?> res, final TCFFuture<?> f) {
+        res.addCallback(new Callback<Object>() {
+            public void done(Throwable error, Object result) {
+                if (res.isCancelled()) f.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Attempts to cancel the computation. If the future has a command token,
+     * the command is canceled by TCF dispatch thread.
+     * Can be called from any thread.
+     *
+     * @param mayInterruptIfRunning - ignored.
+     * @return <tt>false</tt> if the future could not be canceled,
+     * typically because it has already completed; <tt>true</tt> otherwise.
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(new CancellationException(), null, true);
+    }
+
+    /**
+     * Waits if necessary for the computation to complete, and then
+     * retrieves its result. Must not be called by TCF dispatch thread.
+     *
+     * @return the computed result
+     * @throws CancellationException if the computation was canceled
+     * @throws ExecutionException if the computation threw an exception
+     * @throws InterruptedException if the current thread was interrupted
+     * while waiting
+     */
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        assert !Protocol.isDispatchThread();
+        while (!done) wait();
+        return getResult();
+    }
+
+    /**
+     * Waits if necessary for at most the given time for the computation
+     * to complete, and then retrieves its result, if available.
+     * Must not be called by TCF dispatch thread.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout argument
+     * @return the computed result
+     * @throws CancellationException if the computation was canceled
+     * @throws ExecutionException if the computation threw an exception
+     * @throws InterruptedException if the current thread was interrupted
+     * while waiting
+     * @throws TimeoutException if the wait timed out
+     */
+    public synchronized V get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        assert !Protocol.isDispatchThread();
+        long time = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (!done) {
+            long wait = time - System.currentTimeMillis();
+            if (wait <= 0) throw new TimeoutException();
+            wait(wait);
+        }
+        return getResult();
+    }
+
+    private V getResult() throws ExecutionException {
+        if (error != null) {
+            if (error instanceof CancellationException) throw (CancellationException)error;
+            if (error instanceof ExecutionException) throw (ExecutionException)error;
+            throw new ExecutionException("TCF command failed", error);
+        }
+        return result;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this future was canceled before it completed.
+     */
+    public synchronized boolean isCancelled() {
+        return canceled;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this future is completed.
+     * Completion may be due to a result, an error, or cancellation.
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Return computation error if any.
+     * @return Throwable object or null
+     */
+    public synchronized Throwable getError() {
+        return error;
+    }
+}
@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.services.IMemory;
+
+/**
+ * TCFMemoryCache caches contents of a memory context.
+ *
+ * Memory is cached in blocks that don't overlap, kept in a sorted map by address, so a range
+ * of blocks can be found and invalidated without scanning the whole cache. When a range is
+ * validated, missing parts of the range are read by a single Memory.get command, and become
+ * a new block. Cached blocks between missing parts are read again as part of the new block,
+ * so scrolling over partly cached memory does not split it into many small blocks.
+ *
+ * By default, the cache reads only memory that clients ask for, because reading memory
+ * outside of the requested range can have side effects, e.g. on memory mapped registers.
+ * If a memory context is known to be safe to read ahead, clients can call setPageReads(true):
+ * reads are then widened to PAGE_SIZE aligned pages, so nearby reads hit the cache.
+ *
+ * Each block is a TCFDataCache in "Memory" category of the default TCFCacheRegistry,
+ * so least-recently used blocks are disposed when the registry goes over its limits.
+ *
+ * Clients must invalidate the cache when memory contents can change: memoryChanged events,
+ * memory writes, and when the context is resumed.
+ *
+ * All methods must be called from the TCF dispatch thread.
+ */
+public class TCFMemoryCache {
+
+    /**
+     * Size of a cache page in bytes, see setPageReads().
+     */
+    public static final int PAGE_SIZE = 0x400;
+
+    /* Maximal size of a block, which is read by a single command */
+    private static final int MAX_BLOCK_SIZE = 0x10000;
+
+    /* Memory is read in same mode as the memory view did before the cache was introduced */
+    private static final int READ_MODE = IMemory.MODE_CONTINUEONERROR | IMemory.MODE_VERIFY;
+
+    private static final BigInteger PAGE_MASK = BigInteger.valueOf(PAGE_SIZE - 1);
+    private static final BigInteger MAX_BLOCK_SIZE_BIG = BigInteger.valueOf(MAX_BLOCK_SIZE);
+
+    private final TCFDataCache<IMemory.MemoryContext> context;
+    private final TreeMap<BigInteger,Block> blocks = new TreeMap<BigInteger,Block>();
+    private final TCFCacheRegistry.Category category;
+
+    private boolean page_reads;
+    private boolean disposed;
+
+    private class Block extends TCFDataCache<byte[]> {
+
+        final BigInteger addr;
+        final BigInteger end;
+        final int size;
+
+        /* Status of bytes, see IMemory.ErrorOffset, null if all bytes are valid */
+        byte[] status;
+
+        /* Pending read data is out of date and must be discarded */
+        boolean stale;
+
+        Block(BigInteger addr, BigInteger end) {
+            super(context.channel);
+            this.addr = addr;
+            this.end = end;
+            size = end.subtract(addr).intValue();
+            setCategory(category);
+        }
+
+        @Override
+        protected boolean startDataRetrieval() {
+            if (!context.validate(this)) return false;
+            IMemory.MemoryContext mem = context.getData();
+            if (mem == null) {
+                Throwable error = context.getError();
+                if (error == null) error = new Exception("Context does not provide memory access");
+                status = null;
+                set(null, error, null);
+                return true;
+            }
+            final byte[] buf = new byte[size];
+            command = mem.get(addr, 1, buf, 0, size, READ_MODE, new IMemory.DoneMemory() {
+                public void doneMemory(IToken token, IMemory.MemoryError error) {
+                    setData(token, error, buf);
+                }
+            });
+            return false;
+        }
+
+        void setData(IToken token, IMemory.MemoryError error, byte[] buf) {
+            if (command != token) return;
+            if (stale) {
+                stale = false;
+                done(token);
+                return;
+            }
+            Exception block_error = null;
+            byte[] block_status = null;
+            if (error instanceof IMemory.ErrorOffset) {
+                IMemory.ErrorOffset e = (IMemory.ErrorOffset)error;
+                for (int i = 0; i < size; i++) {
+                    int s = e.getStatus(i);
+                    if (s == IMemory.ErrorOffset.BYTE_VALID) continue;
+                    if (block_status == null) {
+                        block_status = new byte[size];
+                        String msg = e.getMessage(i);
+                        block_error = new Exception(msg != null ? msg : error.getMessage());
+                    }
+                    block_status[i] = (byte)s;
+                }
+            }
+            else if (error != null) {
+                block_error = error;
+            }
+            status = block_status;
+            set(token, block_error, block_error == null || block_status != null ? buf : null);
+        }
+
+        void invalidate() {
+            if (isPending()) {
+                stale = true;
+            }
+            else {
+                if (blocks.get(addr) == this) blocks.remove(addr);
+                dispose();
+            }
+        }
+
+        @Override
+        protected long getDataSize() {
+            return status == null ? size : size * 2;
+        }
+
+        @Override
+        protected void evict() {
+            if (isPending()) return;
+            if (blocks.get(addr) == this) blocks.remove(addr);
+            dispose();
+        }
+    }
+
+    /**
+     * Create memory cache.
+     * @param context - cache of the memory context.
+     */
+    public TCFMemoryCache(TCFDataCache<IMemory.MemoryContext> context) {
+        this.context = context;
+        category = TCFCacheRegistry.getDefault().getCategory("Memory");
+    }
+
+    /**
+     * Enable or disable widening of reads to whole pages.
+     * Page reads should only be enabled for memory that has no side effects when read.
+     * Default is disabled.
+     * @param page_reads - true to read memory in PAGE_SIZE aligned pages.
+     */
+    public void setPageReads(boolean page_reads) {
+        this.page_reads = page_reads;
+    }
+
+    /**
+     * @return true if reads are widened to whole pages.
+     */
+    public boolean isPageReads() {
+        return page_reads;
+    }
+
+    /*
+     * Find end of a read that starts at 'addr', which is not cached.
+     * The read covers all gaps in [addr, end) that are separated only by cached blocks,
+     * so a range with several gaps is read by a single command.
+     * A pending block ends the read, since its data cannot be replaced.
+     */
+    private BigInteger findReadEnd(BigInteger addr, BigInteger end) {
+        BigInteger limit = addr.add(MAX_BLOCK_SIZE_BIG);
+        if (limit.compareTo(end) < 0) end = limit;
+        BigInteger read_end = addr;
+        BigInteger a = addr;
+        for (;;) {
+            Map.Entry<BigInteger,Block> e = blocks.ceilingEntry(a);
+            if (e == null || e.getKey().compareTo(end) >= 0) return end;
+            if (e.getKey().compareTo(a) > 0) read_end = e.getKey();
+            Block b = e.getValue();
+            if (b.isPending() || b.end.compareTo(end) >= 0) return read_end;
+            a = b.end;
+        }
+    }
+
+    /* Create a block that covers 'addr', which is not cached */
+    private Block addBlock(BigInteger addr, BigInteger end, Block prev) {
+        BigInteger block_addr = addr;
+        BigInteger block_end = findReadEnd(addr, end);
+        if (page_reads) {
+            block_addr = addr.andNot(PAGE_MASK);
+            if (prev != null && prev.end.compareTo(block_addr) > 0) block_addr = prev.end;
+            BigInteger next = blocks.ceilingKey(block_end);
+            BigInteger e = block_end.add(PAGE_MASK).andNot(PAGE_MASK);
+            block_end = next != null && next.compareTo(e) < 0 ? next : e;
+        }
+        if (block_end.subtract(block_addr).compareTo(MAX_BLOCK_SIZE_BIG) > 0) {
+            block_end = block_addr.add(MAX_BLOCK_SIZE_BIG);
+        }
+        // Cached blocks between gaps are read again as part of the new block
+        for (Block x : new ArrayList<Block>(blocks.subMap(block_addr, block_end).values())) {
+            assert !x.isPending();
+            blocks.remove(x.addr);
+            x.dispose();
+        }
+        Block b = new Block(block_addr, block_end);
+        blocks.put(block_addr, b);
+        return b;
+    }
+
+    /* Find a block that contains 'addr', or null */
+    private Block findBlock(BigInteger addr) {
+        Map.Entry<BigInteger,Block> e = blocks.floorEntry(addr);
+        if (e == null) return null;
+        Block b = e.getValue();
+        if (b.end.compareTo(addr) <= 0) return null;
+        return b;
+    }
+
+    /**
+     * Validate a memory range.
+     * If some of the range is not cached, initiate data retrieval and
+     * add a client call-back to the wait list of a pending block.
+     * @param addr - range start address.
+     * @param size - range size in bytes.
+     * @param done - a call-back object, it is called when a block state changes.
+     * @return true if the whole range is cached.
+     */
+    public boolean validate(BigInteger addr, int size, Runnable done) {
+        assert Protocol.isDispatchThread();
+        assert !disposed;
+        if (!context.validate(done)) return false;
+        if (context.getData() == null || size <= 0) return true;
+        BigInteger end = addr.add(BigInteger.valueOf(size));
+        Block pending = null;
+        BigInteger a = addr;
+        while (a.compareTo(end) < 0) {
+            Block b = findBlock(a);
+            if (b == null) {
+                Map.Entry<BigInteger,Block> e = blocks.lowerEntry(a);
+                b = addBlock(a, end, e != null ? e.getValue() : null);
+            }
+            if (!b.validate() && pending == null) pending = b;
+            a = b.end;
+        }
+        if (pending != null) {
+            pending.wait(done);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copy cached memory data into a buffer.
+     * The range must be validated first, see validate().
+     * @param addr - range start address.
+     * @param buf - buffer to receive the data.
+     * @param offs - offset in the buffer.
+     * @param size - range size in bytes.
+     * @param status - array to receive status of each byte, see IMemory.ErrorOffset.BYTE_*, can be null.
+     * @return null if all bytes were read successfully, or error object.
+     */
+    public Throwable read(BigInteger addr, byte[] buf, int offs, int size, int[] status) {
+        assert Protocol.isDispatchThread();
+        assert context.isValid();
+        if (context.getData() == null) {
+            Throwable error = context.getError();
+            if (error == null) error = new Exception("Context does not provide memory access");
+            if (status != null) {
+                for (int i = 0; i < size; i++) status[i] = IMemory.ErrorOffset.BYTE_UNKNOWN;
+            }
+            return error;
+        }
+        Throwable error = null;
+        int pos = 0;
+        BigInteger a = addr;
+        while (pos < size) {
+            Block b = findBlock(a);
+            assert b != null && b.isValid();
+            int block_offs = a.subtract(b.addr).intValue();
+            int n = Math.min(b.size - block_offs, size - pos);
+            byte[] data = b.getData();
+            if (data != null) System.arraycopy(data, block_offs, buf, offs + pos, n);
+            if (b.getError() != null && error == null) error = b.getError();
+            if (status != null) {
+                for (int i = 0; i < n; i++) {
+                    if (data == null) status[pos + i] = IMemory.ErrorOffset.BYTE_UNKNOWN;
+                    else if (b.status == null) status[pos + i] = IMemory.ErrorOffset.BYTE_VALID;
+                    else status[pos + i] = b.status[block_offs + i];
+                }
+            }
+            pos += n;
+            a = b.end;
+        }
+        return error;
+    }
+
+    /**
+     * Invalidate cached memory in a range.
+     * Pending reads of the range are discarded when done.
+     * @param addr - range start address.
+     * @param size - range size in bytes.
+     */
+    public void invalidate(BigInteger addr, long size) {
+        assert Protocol.isDispatchThread();
+        if (size <= 0) return;
+        BigInteger end = addr.add(BigInteger.valueOf(size));
+        List<Block> list = new ArrayList<Block>(blocks.subMap(addr, end).values());
+        Block b = findBlock(addr);
+        if (b != null && !b.addr.equals(addr)) list.add(b);
+        for (Block x : list) x.invalidate();
+    }
+
+    /**
+     * Invalidate all cached memory.
+     * Pending reads are discarded when done.
+     */
+    public void reset() {
+        assert Protocol.isDispatchThread();
+        List<Block> list = new ArrayList<Block>(blocks.values());
+        for (Block b : list) b.invalidate();
+    }
+
+    /**
+     * Dispose the cache.
+     */
+    public void dispose() {
+        assert Protocol.isDispatchThread();
+        Iterator<Block> i = blocks.values().iterator();
+        while (i.hasNext()) {
+            Block b = i.next();
+            i.remove();
+            b.dispose();
+        }
+        disposed = true;
+    }
+}
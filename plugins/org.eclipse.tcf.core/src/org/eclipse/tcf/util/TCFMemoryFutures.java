@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.services.IMemory;
+import org.eclipse.tcf.services.IMemory.MemoryContext;
+import org.eclipse.tcf.services.IMemory.MemoryError;
+
+/**
+ * TCFMemoryFutures is an adapter of IMemory service that returns TCFFuture objects
+ * instead of using call-backs. Methods can be called from any thread, commands are sent by
+ * TCF dispatch thread, and the calling thread is never blocked.
+ * See IMemory for description of the commands.
+ *
+ * If a memory command fails, the future fails with the MemoryError. When the command is sent
+ * with MODE_CONTINUEONERROR, the error can implement IMemory.ErrorOffset, which tells
+ * which bytes of the buffer are valid.
+ */
+public class TCFMemoryFutures {
+
+    private final IMemory service;
+
+    /**
+     * Create an adapter.
+     * @param service - memory service proxy.
+     */
+    public TCFMemoryFutures(IMemory service) {
+        this.service = service;
+    }
+
+    /**
+     * @return the memory service proxy.
+     */
+    public IMemory getService() {
+        return service;
+    }
+
+    public TCFFuture<MemoryContext> getContext(final String id) {
+        return new MemCommand<MemoryContext>() {
+            protected IToken start() {
+                return service.getContext(id, new IMemory.DoneGetContext() {
+                    public void doneGetContext(IToken token, Exception error, MemoryContext context) {
+                        done(error, context);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<String[]> getChildren(final String parent_context_id) {
+        return new MemCommand<String[]>() {
+            protected IToken start() {
+                return service.getChildren(parent_context_id, new IMemory.DoneGetChildren() {
+                    public void doneGetChildren(IToken token, Exception error, String[] context_ids) {
+                        done(error, context_ids);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    /**
+     * Read target memory.
+     * @return future that returns 'buf' when the data is read.
+     */
+    public TCFFuture<byte[]> get(final MemoryContext context, final Number addr, final int word_size,
+            final byte[] buf, final int offs, final int size, final int mode) {
+        return new MemCommand<byte[]>() {
+            protected IToken start() {
+                return context.get(addr, word_size, buf, offs, size, mode, new IMemory.DoneMemory() {
+                    public void doneMemory(IToken token, MemoryError error) {
+                        done(error, buf);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> set(final MemoryContext context, final Number addr, final int word_size,
+            final byte[] buf, final int offs, final int size, final int mode) {
+        return new DoneMemory() {
+            protected IToken start() {
+                return context.set(addr, word_size, buf, offs, size, mode, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> fill(final MemoryContext context, final Number addr, final int word_size,
+            final byte[] value, final int size, final int mode) {
+        return new DoneMemory() {
+            protected IToken start() {
+                return context.fill(addr, word_size, value, size, mode, this);
+            }
+        }.submit();
+    }
+
+    private static abstract class MemCommand<V> extends TCFFuture.Command<V> {
+        void done(Exception error, V result) {
+            if (error != null) error(error);
+            else done(result);
+        }
+    }
+
+    private static abstract class DoneMemory extends MemCommand<Object> implements IMemory.DoneMemory {
+        public void doneMemory(IToken token, MemoryError error) {
+            done(error, null);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.services.IRegisters;
+import org.eclipse.tcf.services.IRegisters.Location;
+import org.eclipse.tcf.services.IRegisters.RegistersContext;
+
+/**
+ * TCFRegistersFutures is an adapter of IRegisters service that returns TCFFuture objects
+ * instead of using call-backs. Methods can be called from any thread, commands are sent by
+ * TCF dispatch thread, and the calling thread is never blocked.
+ * See IRegisters for description of the commands.
+ */
+public class TCFRegistersFutures {
+
+    private final IRegisters service;
+
+    /**
+     * Create an adapter.
+     * @param service - registers service proxy.
+     */
+    public TCFRegistersFutures(IRegisters service) {
+        this.service = service;
+    }
+
+    /**
+     * @return the registers service proxy.
+     */
+    public IRegisters getService() {
+        return service;
+    }
+
+    public TCFFuture<RegistersContext> getContext(final String id) {
+        return new RegCommand<RegistersContext>() {
+            protected IToken start() {
+                return service.getContext(id, new IRegisters.DoneGetContext() {
+                    public void doneGetContext(IToken token, Exception error, RegistersContext context) {
+                        done(error, context);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<String[]> getChildren(final String parent_context_id) {
+        return new RegCommand<String[]>() {
+            protected IToken start() {
+                return service.getChildren(parent_context_id, new IRegisters.DoneGetChildren() {
+                    public void doneGetChildren(IToken token, Exception error, String[] context_ids) {
+                        done(error, context_ids);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<byte[]> get(final RegistersContext context) {
+        return new GetCommand() {
+            protected IToken start() {
+                return context.get(this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> set(final RegistersContext context, final byte[] value) {
+        return new SetCommand() {
+            protected IToken start() {
+                return context.set(value, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<byte[]> getm(final Location[] locs) {
+        return new GetCommand() {
+            protected IToken start() {
+                return service.getm(locs, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> setm(final Location[] locs, final byte[] value) {
+        return new SetCommand() {
+            protected IToken start() {
+                return service.setm(locs, value, this);
+            }
+        }.submit();
+    }
+
+    private static abstract class RegCommand<V> extends TCFFuture.Command<V> {
+        void done(Exception error, V result) {
+            if (error != null) error(error);
+            else done(result);
+        }
+    }
+
+    private static abstract class GetCommand extends RegCommand<byte[]> implements IRegisters.DoneGet {
+        public void doneGet(IToken token, Exception error, byte[] value) {
+            done(error, value);
+        }
+    }
+
+    private static abstract class SetCommand extends RegCommand<Object> implements IRegisters.DoneSet {
+        public void doneSet(IToken token, Exception error) {
+            done(error, null);
+        }
+    }
+}
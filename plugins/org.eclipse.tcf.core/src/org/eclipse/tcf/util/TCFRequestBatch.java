@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.tcf.protocol.IErrorReport;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+
+/**
+ * TCFRequestBatch collects data requests and sends them to a remote peer as a single command,
+ * for services that support multiple items per command, for example IStackTrace.getContext(String[])
+ * or IRegisters.getm().
+ *
+ * Requests made in a dispatch cycle are queued, and the batch is sent by an event that is posted
+ * with Protocol.invokeLater(), so a batch also includes requests made by other events that were
+ * already waiting in the event queue. Requests for same key are coalesced into a single item.
+ * Results are delivered to each request separately.
+ *
+ * The class is intended to be used by TCFDataCache sub-classes: startDataRetrieval() should assign
+ * the token returned by request() to 'command', and call set() with that token when done.
+ *
+ * If the remote peer reports an error for a batch command that contains more than one item,
+ * each item is sent again separately, so an error of one item does not fail other items.
+ * If the error says the command is not supported, the batch object remembers it and sends
+ * every item separately from then on. Other errors, e.g. when the channel is closed,
+ * are delivered to all requests of the batch without sending the items again.
+ *
+ * All methods must be called from the TCF dispatch thread.
+ *
+ * @param <K> - type of request keys, e.g. context IDs.
+ * @param <V> - type of data returned for a key.
+ */
+public abstract class TCFRequestBatch<K,V> {
+
+    /**
+     * Call back interface for request().
+     */
+    public interface DoneRequest<V> {
+        /**
+         * Called when the data of a request is retrieved.
+         * @param token - the request token that was returned by request().
+         * @param error - error description if operation failed, null if succeeded.
+         * @param data - the data, or null if not available.
+         */
+        void doneRequest(IToken token, Exception error, V data);
+    }
+
+    /**
+     * Call back interface for send().
+     */
+    protected interface DoneSend<V> {
+        /**
+         * Called when a batch command is done.
+         * @param error - error description if the command failed, null if succeeded.
+         * @param data - list of results in same order as the keys, or null if the command failed.
+         */
+        void doneSend(Exception error, List<V> data);
+    }
+
+    private final class Request implements IToken {
+
+        private final K key;
+        private final DoneRequest<V> done;
+        private Request next;
+        private boolean sent;
+        private boolean canceled;
+
+        Request(K key, DoneRequest<V> done) {
+            this.key = key;
+            this.done = done;
+        }
+
+        public boolean cancel() {
+            assert Protocol.isDispatchThread();
+            if (sent || canceled) return false;
+            canceled = true;
+            Request r = queue.get(key);
+            if (r == this) {
+                if (next == null) queue.remove(key);
+                else queue.put(key, next);
+            }
+            else {
+                while (r.next != this) r = r.next;
+                r.next = next;
+            }
+            return true;
+        }
+    }
+
+    private final int max_size;
+    private Map<K,Request> queue;
+    private boolean posted;
+    private boolean batch_unsupported;
+
+    private final Runnable flush_event = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Create a batch.
+     * @param max_size - maximal number of items in a batch command.
+     */
+    public TCFRequestBatch(int max_size) {
+        assert max_size > 0;
+        this.max_size = max_size;
+    }
+
+    /**
+     * Request data for a key.
+     * The request is sent as a part of a batch command in a next dispatch cycle.
+     * @param key - data key.
+     * @param done - call back object.
+     * @return request token, which can be used to cancel the request before it is sent.
+     */
+    public IToken request(K key, DoneRequest<V> done) {
+        assert Protocol.isDispatchThread();
+        Request r = new Request(key, done);
+        if (queue == null) queue = new LinkedHashMap<K,Request>();
+        r.next = queue.put(key, r);
+        if (!posted) {
+            Protocol.invokeLater(flush_event);
+            posted = true;
+        }
+        return r;
+    }
+
+    /**
+     * Send a batch command.
+     * Implementation must call done.doneSend() exactly once.
+     * @param keys - list of keys, it contains at least one key.
+     * @param done - call back object.
+     */
+    protected abstract void send(List<K> keys, DoneSend<V> done);
+
+    private void flush() {
+        posted = false;
+        Map<K,Request> map = queue;
+        queue = null;
+        if (map == null || map.size() == 0) return;
+        List<K> keys = new ArrayList<K>();
+        List<Request> reqs = new ArrayList<Request>();
+        int size = batch_unsupported ? 1 : max_size;
+        for (Map.Entry<K,Request> e : map.entrySet()) {
+            if (keys.size() >= size) {
+                sendBatch(keys, reqs);
+                keys = new ArrayList<K>();
+                reqs = new ArrayList<Request>();
+            }
+            keys.add(e.getKey());
+            reqs.add(e.getValue());
+        }
+        sendBatch(keys, reqs);
+    }
+
+    private void sendBatch(final List<K> keys, final List<Request> reqs) {
+        for (Request r : reqs) {
+            for (Request x = r; x != null; x = x.next) x.sent = true;
+        }
+        send(keys, new DoneSend<V>() {
+            public void doneSend(Exception error, List<V> data) {
+                int n = keys.size();
+                if (error != null && n > 1 && isRetryable(error)) {
+                    for (int i = 0; i < n; i++) {
+                        sendBatch(Collections.singletonList(keys.get(i)), Collections.singletonList(reqs.get(i)));
+                    }
+                    return;
+                }
+                for (int i = 0; i < n; i++) {
+                    V v = data != null && i < data.size() ? data.get(i) : null;
+                    for (Request r = reqs.get(i); r != null; r = r.next) {
+                        r.done.doneRequest(r, error, v);
+                    }
+                }
+            }
+        });
+    }
+
+    /*
+     * Check if items of a failed batch command should be sent again separately.
+     * Only errors reported by the remote peer can be caused by particular items.
+     * If the peer does not support the batch command, items are sent separately from now on.
+     */
+    private boolean isRetryable(Exception error) {
+        if (!(error instanceof IErrorReport)) return false;
+        switch (((IErrorReport)error).getErrorCode()) {
+        case IErrorReport.TCF_ERROR_CHANNEL_CLOSED:
+        case IErrorReport.TCF_ERROR_COMMAND_CANCELLED:
+            return false;
+        case IErrorReport.TCF_ERROR_INV_COMMAND:
+        case IErrorReport.TCF_ERROR_UNSUPPORTED:
+            batch_unsupported = true;
+            return true;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import java.util.Map;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.services.IRunControl;
+import org.eclipse.tcf.services.IRunControl.RunControlContext;
+
+/**
+ * TCFRunControlFutures is an adapter of IRunControl service that returns TCFFuture objects
+ * instead of using call-backs. Methods can be called from any thread, commands are sent by
+ * TCF dispatch thread, and the calling thread is never blocked.
+ * See IRunControl for description of the commands.
+ */
+public class TCFRunControlFutures {
+
+    /**
+     * Result of getState().
+     */
+    public static class State {
+        public final boolean suspended;
+        public final String pc;
+        public final String reason;
+        public final Map<String,Object> params;
+
+        State(boolean suspended, String pc, String reason, Map<String,Object> params) {
+            this.suspended = suspended;
+            this.pc = pc;
+            this.reason = reason;
+            this.params = params;
+        }
+    }
+
+    private final IRunControl service;
+
+    /**
+     * Create an adapter.
+     * @param service - run control service proxy.
+     */
+    public TCFRunControlFutures(IRunControl service) {
+        this.service = service;
+    }
+
+    /**
+     * @return the run control service proxy.
+     */
+    public IRunControl getService() {
+        return service;
+    }
+
+    public TCFFuture<RunControlContext> getContext(final String id) {
+        return new RCCommand<RunControlContext>() {
+            protected IToken start() {
+                return service.getContext(id, new IRunControl.DoneGetContext() {
+                    public void doneGetContext(IToken token, Exception error, RunControlContext context) {
+                        done(error, context);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<String[]> getChildren(final String parent_context_id) {
+        return new RCCommand<String[]>() {
+            protected IToken start() {
+                return service.getChildren(parent_context_id, new IRunControl.DoneGetChildren() {
+                    public void doneGetChildren(IToken token, Exception error, String[] context_ids) {
+                        done(error, context_ids);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<State> getState(final RunControlContext context) {
+        return new RCCommand<State>() {
+            protected IToken start() {
+                return context.getState(new IRunControl.DoneGetState() {
+                    public void doneGetState(IToken token, Exception error, boolean suspended, String pc,
+                            String reason, Map<String,Object> params) {
+                        done(error, error == null ? new State(suspended, pc, reason, params) : null);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> suspend(final RunControlContext context) {
+        return new DoneCommand() {
+            protected IToken start() {
+                return context.suspend(this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> resume(final RunControlContext context, final int mode, final int count) {
+        return new DoneCommand() {
+            protected IToken start() {
+                return context.resume(mode, count, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> resume(final RunControlContext context, final int mode, final int count,
+            final Map<String,Object> params) {
+        return new DoneCommand() {
+            protected IToken start() {
+                return context.resume(mode, count, params, this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> terminate(final RunControlContext context) {
+        return new DoneCommand() {
+            protected IToken start() {
+                return context.terminate(this);
+            }
+        }.submit();
+    }
+
+    public TCFFuture<Object> detach(final RunControlContext context) {
+        return new DoneCommand() {
+            protected IToken start() {
+                return context.detach(this);
+            }
+        }.submit();
+    }
+
+    private static abstract class RCCommand<V> extends TCFFuture.Command<V> {
+        void done(Exception error, V result) {
+            if (error != null) error(error);
+            else done(result);
+        }
+    }
+
+    private static abstract class DoneCommand extends RCCommand<Object> implements IRunControl.DoneCommand {
+        public void doneCommand(IToken token, Exception error) {
+            done(error, null);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.util;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.services.IStackTrace;
+import org.eclipse.tcf.services.IStackTrace.StackTraceContext;
+
+/**
+ * TCFStackTraceFutures is an adapter of IStackTrace service that returns TCFFuture objects
+ * instead of using call-backs. Methods can be called from any thread, commands are sent by
+ * TCF dispatch thread, and the calling thread is never blocked.
+ * See IStackTrace for description of the commands.
+ */
+public class TCFStackTraceFutures {
+
+    private final IStackTrace service;
+
+    /**
+     * Create an adapter.
+     * @param service - stack trace service proxy.
+     */
+    public TCFStackTraceFutures(IStackTrace service) {
+        this.service = service;
+    }
+
+    /**
+     * @return the stack trace service proxy.
+     */
+    public IStackTrace getService() {
+        return service;
+    }
+
+    public TCFFuture<StackTraceContext[]> getContext(final String[] ids) {
+        return new STCommand<StackTraceContext[]>() {
+            protected IToken start() {
+                return service.getContext(ids, new IStackTrace.DoneGetContext() {
+                    public void doneGetContext(IToken token, Exception error, StackTraceContext[] context) {
+                        done(error, context);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    public TCFFuture<String[]> getChildren(final String parent_context_id) {
+        return new STCommand<String[]>() {
+            protected IToken start() {
+                return service.getChildren(parent_context_id, new IStackTrace.DoneGetChildren() {
+                    public void doneGetChildren(IToken token, Exception error, String[] context_ids) {
+                        done(error, context_ids);
+                    }
+                });
+            }
+        }.submit();
+    }
+
+    private static abstract class STCommand<V> extends TCFFuture.Command<V> {
+        void done(Exception error, V result) {
+            if (error != null) error(error);
+            else done(result);
+        }
+    }
+}
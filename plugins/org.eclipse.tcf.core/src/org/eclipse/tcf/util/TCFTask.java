@@ -19,6 +19,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IToken;
 import org.eclipse.tcf.protocol.Protocol;
 
 /**
@@ -44,6 +45,7 @@ public abstract class TCFTask<V> implements Runnable, Future<V> {
     private boolean canceled;
     private IChannel channel;
     private IChannel.IChannelListener channel_listener;
+    private IToken timeout_timer;
 
     /**
      * Construct a TCF task object and schedule it for execution.
@@ -77,11 +79,15 @@ public abstract class TCFTask<V> implements Runnable, Future<V> {
                 }
             }
         });
-        Protocol.invokeLater(timeout, new Runnable() {
+        IToken timer = Protocol.invokeLater(timeout, TimeUnit.MILLISECONDS, new Runnable() {
             public void run() {
                 cancel(true);
             }
         });
+        synchronized (this) {
+            if (isDone()) timer.cancel();
+            else timeout_timer = timer;
+        }
     }
 
     /**
@@ -134,6 +140,7 @@ public abstract class TCFTask<V> implements Runnable, Future<V> {
         this.result = result;
         done = true;
         if (channel != null) channel.removeChannelListener(channel_listener);
+        if (timeout_timer != null) timeout_timer.cancel();
         notifyAll();
     }
 
@@ -152,6 +159,7 @@ public abstract class TCFTask<V> implements Runnable, Future<V> {
         assert !done;
         this.error = error;
         if (channel != null) channel.removeChannelListener(channel_listener);
+        if (timeout_timer != null) timeout_timer.cancel();
         notifyAll();
     }
 
@@ -178,6 +186,7 @@ public abstract class TCFTask<V> implements Runnable, Future<V> {
         canceled = true;
         error = new CancellationException();
         if (channel != null) channel.removeChannelListener(channel_listener);
+        if (timeout_timer != null) timeout_timer.cancel();
         notifyAll();
         return true;
     }
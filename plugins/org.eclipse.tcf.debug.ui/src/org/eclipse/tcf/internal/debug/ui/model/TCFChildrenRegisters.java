@@ -10,29 +10,143 @@
  *******************************************************************************/
 package org.eclipse.tcf.internal.debug.ui.model;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.tcf.protocol.IToken;
 import org.eclipse.tcf.services.IRegisters;
+import org.eclipse.tcf.util.TCFDataCache;
 
 
 public class TCFChildrenRegisters extends TCFChildren {
 
+    /**
+     * Values of all readable registers in the list, retrieved by a single 'getm' command.
+     * Maps register ID to the value.
+     */
+    private final TCFDataCache<Map<String,byte[]>> values;
+
     TCFChildrenRegisters(TCFNode node) {
         super(node, 128);
+        values = new TCFDataCache<Map<String,byte[]>>(node.channel) {
+            @Override
+            protected boolean startDataRetrieval() {
+                return getAllValues(this);
+            }
+            @Override
+            public void dispose() {
+                TCFChildrenRegisters.this.node.removeDataCache(this);
+                super.dispose();
+            }
+        };
+        node.addDataCache(values);
+    }
+
+    /**
+     * Get cache of register values.
+     * The cache retrieves values of all registers in the list with a single command,
+     * so a register set or a register group is loaded in one round trip.
+     * Registers that are not readable, or have side effects when read, are not included.
+     * The cache data is null if the agent does not support 'getm' command.
+     * @return register values cache.
+     */
+    TCFDataCache<Map<String,byte[]>> getValues() {
+        return values;
+    }
+
+    /**
+     * Write values of registers in the list.
+     * Multiple values are written by a single 'setm' command, see TCFModel.setRegisterValues().
+     * The cache of register values is reset, since the write can change other registers too.
+     * @param regs - registers to write.
+     * @param data - new values, one for each register.
+     * @param done - call back object.
+     */
+    void setValues(IRegisters.RegistersContext[] regs, byte[][] data, IRegisters.DoneSet done) {
+        values.reset();
+        node.model.setRegisterValues(regs, data, done);
+    }
+
+    private boolean getAllValues(final TCFDataCache<Map<String,byte[]>> cache) {
+        if (!validate(cache)) return false;
+        Map<String,TCFNode> data = getData();
+        if (data == null) {
+            cache.set(null, getError(), null);
+            return true;
+        }
+        TCFDataCache<?> pending = null;
+        final List<IRegisters.RegistersContext> regs = new ArrayList<IRegisters.RegistersContext>();
+        for (TCFNode n : data.values()) {
+            TCFDataCache<IRegisters.RegistersContext> ctx_cache = ((TCFNodeRegister)n).getContext();
+            if (!ctx_cache.validate()) {
+                pending = ctx_cache;
+                continue;
+            }
+            IRegisters.RegistersContext ctx = ctx_cache.getData();
+            if (ctx == null || !ctx.isReadable() || ctx.isReadOnce() || ctx.getSize() <= 0) continue;
+            regs.add(ctx);
+        }
+        if (pending != null) {
+            pending.wait(cache);
+            return false;
+        }
+        if (regs.size() == 0) {
+            cache.set(null, null, new HashMap<String,byte[]>());
+            return true;
+        }
+        IRegisters rs = node.model.getLaunch().getService(IRegisters.class);
+        if (rs == null || node.model.isGetmUnsupported()) {
+            // Register nodes read the values by model register value batch
+            cache.set(null, null, null);
+            return true;
+        }
+        IRegisters.Location[] locs = new IRegisters.Location[regs.size()];
+        for (int i = 0; i < locs.length; i++) {
+            IRegisters.RegistersContext ctx = regs.get(i);
+            locs[i] = new IRegisters.Location(ctx.getID(), 0, ctx.getSize());
+        }
+        cache.start(rs.getm(locs, new IRegisters.DoneGet() {
+            public void doneGet(IToken token, Exception error, byte[] value) {
+                if (node.model.checkGetmUnsupported(error)) {
+                    cache.set(token, null, null);
+                    return;
+                }
+                Map<String,byte[]> map = null;
+                if (error == null && value != null) {
+                    try {
+                        List<byte[]> list = TCFModel.splitRegisterValues(regs, value);
+                        map = new HashMap<String,byte[]>();
+                        for (int i = 0; i < list.size(); i++) map.put(regs.get(i).getID(), list.get(i));
+                    }
+                    catch (Exception x) {
+                        error = x;
+                    }
+                }
+                cache.set(token, error, map);
+            }
+        }));
+        return false;
+    }
+
+    void onValueChanged() {
+        values.reset();
     }
 
     void onSuspended(boolean func_call) {
+        if (!func_call || values.isValid() && values.getError() != null) values.reset();
         for (TCFNode n : getNodes()) ((TCFNodeRegister)n).onSuspended(func_call);
     }
 
     void onParentValueChanged() {
+        values.reset();
         for (TCFNode n : getNodes()) ((TCFNodeRegister)n).onParentValueChanged();
     }
 
     void onRegistersChanged() {
         for (TCFNode n : getNodes()) ((TCFNodeRegister)n).onRegistersChanged();
+        values.reset();
         reset();
     }
 
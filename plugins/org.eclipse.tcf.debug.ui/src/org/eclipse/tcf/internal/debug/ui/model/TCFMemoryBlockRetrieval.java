@@ -44,6 +44,7 @@ import org.eclipse.tcf.services.IMemory;
 import org.eclipse.tcf.services.ISymbols;
 import org.eclipse.tcf.services.IMemory.MemoryError;
 import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFMemoryCache;
 
 /**
  * A memory block retrieval allows the user interface to request a memory block from a debugger when needed.
@@ -261,17 +262,16 @@ class TCFMemoryBlockRetrieval implements IMemoryBlockRetrievalExtension {
 
         public MemoryByte[] getBytesFromAddress(final BigInteger address, final long units) throws DebugException {
             return new TCFDebugTask<MemoryByte[]>(exec_ctx.getChannel()) {
-                int offs = 0;
                 public void run() {
                     if (mem_data != null &&
                             address.compareTo(mem_data.addr) >= 0 &&
                             address.add(BigInteger.valueOf(units)).compareTo(
                                     mem_data.addr.add(BigInteger.valueOf(mem_data.data.length))) <= 0) {
-                        offs = address.subtract(mem_data.addr).intValue();
+                        int offs = address.subtract(mem_data.addr).intValue();
                         MemoryByte[] res = mem_data.data;
-                        if (units < mem_data.data.length) {
+                        if (offs != 0 || units < mem_data.data.length) {
                             res = new MemoryByte[(int)units];
-                            System.arraycopy(mem_data, offs, res, 0, res.length);
+                            System.arraycopy(mem_data.data, offs, res, 0, res.length);
                         }
                         setHistoryFlags();
                         done(res);
@@ -293,46 +293,27 @@ class TCFMemoryBlockRetrieval implements IMemoryBlockRetrievalExtension {
                         return;
                     }
                     final int size = (int)units;
-                    final int mode = IMemory.MODE_CONTINUEONERROR | IMemory.MODE_VERIFY;
-                    final byte[] buf = new byte[size];
-                    final MemoryByte[] res = new MemoryByte[size];
-                    mem.get(address, 1, buf, 0, size, mode, new IMemory.DoneMemory() {
-                        public void doneMemory(IToken token, MemoryError error) {
-                            int big_endian = 0;
-                            if (mem.getProperties().get(IMemory.PROP_BIG_ENDIAN) != null) {
-                                big_endian |= MemoryByte.ENDIANESS_KNOWN;
-                                if (mem.isBigEndian()) big_endian |= MemoryByte.BIG_ENDIAN;
-                            }
-                            int cnt = 0;
-                            while (offs < size) {
-                                int flags = big_endian;
-                                if (error instanceof IMemory.ErrorOffset) {
-                                    IMemory.ErrorOffset ofs = (IMemory.ErrorOffset)error;
-                                    int status = ofs.getStatus(cnt);
-                                    if (status == IMemory.ErrorOffset.BYTE_VALID) {
-                                        flags |= MemoryByte.READABLE | MemoryByte.WRITABLE;
-                                    }
-                                    else if ((status & IMemory.ErrorOffset.BYTE_UNKNOWN) != 0) {
-                                        if (cnt > 0) break;
-                                    }
-                                }
-                                else if (error == null) {
-                                    flags |= MemoryByte.READABLE | MemoryByte.WRITABLE;
-                                }
-                                res[offs] = new MemoryByte(buf[offs], (byte)flags);
-                                offs++;
-                                cnt++;
-                            }
-                            if (offs < size) {
-                                mem.get(address.add(BigInteger.valueOf(offs)), 1, buf, offs, size - offs, mode, this);
-                            }
-                            else {
-                                mem_last = mem_data = new MemData(address, res);
-                                setHistoryFlags();
-                                done(res);
-                            }
+                    TCFMemoryCache mem_cache = exec_ctx.getMemoryCache();
+                    if (!mem_cache.validate(address, size, this)) return;
+                    byte[] buf = new byte[size];
+                    int[] status = new int[size];
+                    mem_cache.read(address, buf, 0, size, status);
+                    int big_endian = 0;
+                    if (mem.getProperties().get(IMemory.PROP_BIG_ENDIAN) != null) {
+                        big_endian |= MemoryByte.ENDIANESS_KNOWN;
+                        if (mem.isBigEndian()) big_endian |= MemoryByte.BIG_ENDIAN;
+                    }
+                    MemoryByte[] res = new MemoryByte[size];
+                    for (int i = 0; i < size; i++) {
+                        int flags = big_endian;
+                        if (status[i] == IMemory.ErrorOffset.BYTE_VALID) {
+                            flags |= MemoryByte.READABLE | MemoryByte.WRITABLE;
                         }
-                    });
+                        res[i] = new MemoryByte(buf[i], (byte)flags);
+                    }
+                    mem_last = mem_data = new MemData(address, res);
+                    setHistoryFlags();
+                    done(res);
                 }
             }.getD();
         }
@@ -420,6 +401,7 @@ class TCFMemoryBlockRetrieval implements IMemoryBlockRetrievalExtension {
                     final int mode = IMemory.MODE_CONTINUEONERROR | IMemory.MODE_VERIFY;
                     mem.set(address, 1, bytes, 0, bytes.length, mode, new IMemory.DoneMemory() {
                         public void doneMemory(IToken token, MemoryError error) {
+                            if (!exec_ctx.isDisposed()) exec_ctx.getMemoryCache().invalidate(address, bytes.length);
                             if (error != null) {
                                 error(error);
                             }
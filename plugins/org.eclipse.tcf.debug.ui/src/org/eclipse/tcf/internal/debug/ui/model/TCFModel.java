@@ -11,6 +11,7 @@
 package org.eclipse.tcf.internal.debug.ui.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -124,6 +125,7 @@ import org.eclipse.tcf.services.IRunControl;
 import org.eclipse.tcf.services.IStackTrace;
 import org.eclipse.tcf.services.ISymbols;
 import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFRequestBatch;
 import org.eclipse.tcf.util.TCFTask;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
@@ -298,6 +300,13 @@ public class TCFModel implements IElementContentProvider, IElementLabelProvider,
     private final Map<IWorkbenchPart,TCFSnapshot> locks = new HashMap<IWorkbenchPart,TCFSnapshot>();
     private final Map<IWorkbenchPart,Integer> lock_policy = new HashMap<IWorkbenchPart,Integer>();
 
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private TCFRequestBatch<String,IStackTrace.StackTraceContext> stack_trace_batch;
+    private TCFRequestBatch<IRegisters.RegistersContext,byte[]> register_value_batch;
+    private boolean setm_unsupported;
+    private boolean getm_unsupported;
+
     private final Map<String,TCFConsole> process_consoles = new HashMap<String,TCFConsole>();;
     private final List<TCFConsole> debug_consoles = new ArrayList<TCFConsole>();
 
@@ -1107,6 +1116,189 @@ public class TCFModel implements IElementContentProvider, IElementLabelProvider,
         return n.getChildren();
     }
 
+    /**
+     * Get request batch for stack frame contexts.
+     * Stack frames that are retrieved in same dispatch cycle are sent as a single command.
+     * @return request batch object.
+     */
+    TCFRequestBatch<String,IStackTrace.StackTraceContext> getStackTraceBatch() {
+        if (stack_trace_batch == null) {
+            stack_trace_batch = new TCFRequestBatch<String,IStackTrace.StackTraceContext>(MAX_BATCH_SIZE) {
+                @Override
+                protected void send(List<String> ids, final DoneSend<IStackTrace.StackTraceContext> done) {
+                    IStackTrace st = launch.getService(IStackTrace.class);
+                    st.getContext(ids.toArray(new String[ids.size()]), new IStackTrace.DoneGetContext() {
+                        public void doneGetContext(IToken token, Exception error, IStackTrace.StackTraceContext[] context) {
+                            done.doneSend(error, context == null ? null : Arrays.asList(context));
+                        }
+                    });
+                }
+            };
+        }
+        return stack_trace_batch;
+    }
+
+    /**
+     * Get request batch for register values.
+     * Values that are retrieved in same dispatch cycle are read by a single 'getm' command.
+     * If the agent does not support 'getm', the model remembers that, see isGetmUnsupported(),
+     * and the values are read by 'get' commands, which are sent at once.
+     * @return request batch object.
+     */
+    TCFRequestBatch<IRegisters.RegistersContext,byte[]> getRegisterValueBatch() {
+        if (register_value_batch == null) {
+            register_value_batch = new TCFRequestBatch<IRegisters.RegistersContext,byte[]>(MAX_BATCH_SIZE) {
+                @Override
+                protected void send(final List<IRegisters.RegistersContext> regs, final DoneSend<byte[]> done) {
+                    IRegisters rs = launch.getService(IRegisters.class);
+                    if (regs.size() == 1 || rs == null || getm_unsupported) {
+                        sendOneByOne(regs, done);
+                        return;
+                    }
+                    IRegisters.Location[] locs = new IRegisters.Location[regs.size()];
+                    for (int i = 0; i < locs.length; i++) {
+                        IRegisters.RegistersContext ctx = regs.get(i);
+                        locs[i] = new IRegisters.Location(ctx.getID(), 0, ctx.getSize());
+                    }
+                    rs.getm(locs, new IRegisters.DoneGet() {
+                        public void doneGet(IToken token, Exception error, byte[] value) {
+                            if (checkGetmUnsupported(error)) {
+                                sendOneByOne(regs, done);
+                                return;
+                            }
+                            List<byte[]> list = null;
+                            if (error == null && value != null) {
+                                try {
+                                    list = splitRegisterValues(regs, value);
+                                }
+                                catch (Exception x) {
+                                    error = x;
+                                }
+                            }
+                            done.doneSend(error, list);
+                        }
+                    });
+                }
+                private void sendOneByOne(List<IRegisters.RegistersContext> regs, final DoneSend<byte[]> done) {
+                    final byte[][] values = new byte[regs.size()][];
+                    final Exception[] errors = new Exception[1];
+                    final Set<IToken> cmds = new HashSet<IToken>();
+                    for (int i = 0; i < values.length; i++) {
+                        final int n = i;
+                        cmds.add(regs.get(i).get(new IRegisters.DoneGet() {
+                            public void doneGet(IToken token, Exception error, byte[] value) {
+                                cmds.remove(token);
+                                if (error != null && errors[0] == null) errors[0] = error;
+                                values[n] = value;
+                                if (!cmds.isEmpty()) return;
+                                done.doneSend(errors[0], errors[0] == null ? Arrays.asList(values) : null);
+                            }
+                        }));
+                    }
+                }
+            };
+        }
+        return register_value_batch;
+    }
+
+    /**
+     * Check if the agent does not support 'getm' command.
+     * @return true if an earlier 'getm' command has failed because the command is not supported.
+     */
+    boolean isGetmUnsupported() {
+        return getm_unsupported;
+    }
+
+    /**
+     * Check error of 'getm' command.
+     * If the error tells the command is not supported, the model remembers that,
+     * and register values are read by 'get' command after that.
+     * @param error - error of 'getm' command, can be null.
+     * @return true if the command is not supported.
+     */
+    boolean checkGetmUnsupported(Exception error) {
+        if (error instanceof IErrorReport) {
+            int code = ((IErrorReport)error).getErrorCode();
+            if (code == IErrorReport.TCF_ERROR_INV_COMMAND || code == IErrorReport.TCF_ERROR_UNSUPPORTED) {
+                getm_unsupported = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split data returned by 'getm' command into values of individual registers.
+     * @param regs - registers, in same order as locations of the command.
+     * @param value - data returned by the command.
+     * @return list of register values.
+     * @throws Exception if the data size does not match register sizes.
+     */
+    static List<byte[]> splitRegisterValues(List<IRegisters.RegistersContext> regs, byte[] value) throws Exception {
+        List<byte[]> list = new ArrayList<byte[]>(regs.size());
+        int offs = 0;
+        for (IRegisters.RegistersContext ctx : regs) {
+            int size = ctx.getSize();
+            if (offs + size > value.length) throw new Exception("Invalid register values data size");
+            list.add(Arrays.copyOfRange(value, offs, offs + size));
+            offs += size;
+        }
+        return list;
+    }
+
+    /**
+     * Write values of registers.
+     * The values are written by a single 'setm' command.
+     * If the agent does not support 'setm', the model remembers that,
+     * and values are written one by one with 'set' command.
+     * @param regs - registers to write.
+     * @param data - new values, one for each register.
+     * @param done - call back object, it is called once, after all values are written.
+     */
+    void setRegisterValues(final IRegisters.RegistersContext[] regs, final byte[][] data, final IRegisters.DoneSet done) {
+        assert regs.length == data.length && regs.length > 0;
+        IRegisters rs = launch.getService(IRegisters.class);
+        if (rs == null || setm_unsupported) {
+            setRegisterValuesOneByOne(regs, data, 0, done);
+            return;
+        }
+        IRegisters.Location[] locs = new IRegisters.Location[regs.length];
+        int size = 0;
+        for (int i = 0; i < regs.length; i++) {
+            locs[i] = new IRegisters.Location(regs[i].getID(), 0, data[i].length);
+            size += data[i].length;
+        }
+        byte[] buf = new byte[size];
+        int offs = 0;
+        for (byte[] d : data) {
+            System.arraycopy(d, 0, buf, offs, d.length);
+            offs += d.length;
+        }
+        rs.setm(locs, buf, new IRegisters.DoneSet() {
+            public void doneSet(IToken token, Exception error) {
+                if (error instanceof IErrorReport) {
+                    int code = ((IErrorReport)error).getErrorCode();
+                    if (code == IErrorReport.TCF_ERROR_INV_COMMAND || code == IErrorReport.TCF_ERROR_UNSUPPORTED) {
+                        setm_unsupported = true;
+                        setRegisterValuesOneByOne(regs, data, 0, done);
+                        return;
+                    }
+                }
+                done.doneSet(token, error);
+            }
+        });
+    }
+
+    private void setRegisterValuesOneByOne(final IRegisters.RegistersContext[] regs,
+            final byte[][] data, final int pos, final IRegisters.DoneSet done) {
+        regs[pos].set(data[pos], new IRegisters.DoneSet() {
+            public void doneSet(IToken token, Exception error) {
+                if (error != null || pos + 1 == regs.length) done.doneSet(token, error);
+                else setRegisterValuesOneByOne(regs, data, pos + 1, done);
+            }
+        });
+    }
+
     /**
      * Search memory context that owns the object represented by given node.
      * @return data cache item that holds the memory context node.
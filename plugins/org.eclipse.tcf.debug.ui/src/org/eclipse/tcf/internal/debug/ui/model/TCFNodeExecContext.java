@@ -15,7 +15,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -45,7 +44,9 @@ import org.eclipse.tcf.services.IMemoryMap;
 import org.eclipse.tcf.services.IProcesses;
 import org.eclipse.tcf.services.IRunControl;
 import org.eclipse.tcf.services.ISymbols;
+import org.eclipse.tcf.util.TCFCacheRegistry;
 import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFMemoryCache;
 import org.eclipse.ui.IWorkbenchPart;
 
 public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
@@ -71,62 +72,27 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
     private final TCFData<TCFNodeExecContext> symbols_node;
     private final TCFData<String> full_name;
 
-    private LinkedHashMap<BigInteger,TCFDataCache<TCFSymFileRef>> syms_info_lookup_cache;
-    private LinkedHashMap<BigInteger,TCFDataCache<TCFSourceRef>> line_info_lookup_cache;
-    private LinkedHashMap<BigInteger,TCFDataCache<TCFFunctionRef>> func_info_lookup_cache;
-    private LookupCacheTimer lookup_cache_timer;
+    /*
+     * Address lookup caches are kept in cache registry categories,
+     * the registry disposes least-recently used entries when it goes over its limits.
+     * The registry tracks only valid caches, so entries that are not valid and not pending
+     * are swept when the maps grow over lookup_sweep_size, see postLookupCacheSweep().
+     */
+    private HashMap<BigInteger,TCFDataCache<TCFSymFileRef>> syms_info_lookup_cache;
+    private HashMap<BigInteger,TCFDataCache<TCFSourceRef>> line_info_lookup_cache;
+    private HashMap<BigInteger,TCFDataCache<TCFFunctionRef>> func_info_lookup_cache;
+    private int lookup_sweep_size = LOOKUP_SWEEP_MIN;
+    private boolean lookup_sweep_posted;
+
+    private static final int LOOKUP_SWEEP_MIN = 0x100;
+
+    private TCFMemoryCache mem_cache;
 
     private int mem_seq_no;
     private int exe_seq_no;
 
     private static final TCFNode[] empty_node_array = new TCFNode[0];
 
-    /*
-     * LookupCacheTimer is executed periodically to dispose least-recently
-     * accessed entries in line_info_lookup_cache and func_info_lookup_cache.
-     * The timer disposes itself when both caches become empty.
-     */
-    private class LookupCacheTimer implements Runnable {
-
-        LookupCacheTimer() {
-            Protocol.invokeLater(4000, this);
-        }
-
-        public void run() {
-            if (isDisposed()) return;
-            if (syms_info_lookup_cache != null) {
-                BigInteger addr = syms_info_lookup_cache.keySet().iterator().next();
-                TCFDataCache<?> cache = syms_info_lookup_cache.get(addr);
-                if (!cache.isPending()) {
-                    syms_info_lookup_cache.remove(addr).dispose();
-                    if (syms_info_lookup_cache.size() == 0) syms_info_lookup_cache = null;
-                }
-            }
-            if (line_info_lookup_cache != null) {
-                BigInteger addr = line_info_lookup_cache.keySet().iterator().next();
-                TCFDataCache<?> cache = line_info_lookup_cache.get(addr);
-                if (!cache.isPending()) {
-                    line_info_lookup_cache.remove(addr).dispose();
-                    if (line_info_lookup_cache.size() == 0) line_info_lookup_cache = null;
-                }
-            }
-            if (func_info_lookup_cache != null) {
-                BigInteger addr = func_info_lookup_cache.keySet().iterator().next();
-                TCFDataCache<?> cache = func_info_lookup_cache.get(addr);
-                if (!cache.isPending()) {
-                    func_info_lookup_cache.remove(addr).dispose();
-                    if (func_info_lookup_cache.size() == 0) func_info_lookup_cache = null;
-                }
-            }
-            if (syms_info_lookup_cache == null && line_info_lookup_cache == null && func_info_lookup_cache == null) {
-                lookup_cache_timer = null;
-            }
-            else {
-                Protocol.invokeLater(2500, this);
-            }
-        }
-    }
-
     public static class ChildrenStateInfo {
         public boolean running;
         public boolean suspended;
@@ -153,8 +119,10 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
      */
     public static class MemoryRegion {
 
-        private final BigInteger addr_start;
-        private final BigInteger addr_end;
+        /* Region bounds as 64-bit unsigned values, valid is false if the region has no address or size */
+        private final boolean valid;
+        private final long addr_start;
+        private final long addr_size;
 
         public final IMemoryMap.MemoryRegion region;
 
@@ -162,21 +130,23 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
             this.region = region;
             Number addr = region.getAddress();
             Number size = region.getSize();
-            if (addr == null || size == null) {
-                addr_start = null;
-                addr_end = null;
-            }
-            else {
-                addr_start = JSON.toBigInteger(addr);
-                addr_end = addr_start.add(JSON.toBigInteger(size));
-            }
+            valid = addr != null && size != null;
+            addr_start = valid ? addr.longValue() : 0;
+            addr_size = valid ? size.longValue() : 0;
         }
 
         public boolean contains(BigInteger addr) {
-            return
-                addr_start != null && addr_end != null &&
-                addr_start.compareTo(addr) <= 0 &&
-                addr_end.compareTo(addr) > 0;
+            return contains(addr.longValue());
+        }
+
+        /**
+         * Check if the region contains an address.
+         * @param addr - 64-bit unsigned address.
+         * @return true if the address is inside the region.
+         */
+        public boolean contains(long addr) {
+            /* Unsigned comparison of the offset in the region with the region size */
+            return valid && ((addr - addr_start) ^ Long.MIN_VALUE) < (addr_size ^ Long.MIN_VALUE);
         }
 
         @Override
@@ -499,9 +469,19 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
         ArrayList<TCFNodeSymbol> l = new ArrayList<TCFNodeSymbol>(symbols.values());
         for (TCFNodeSymbol s : l) s.dispose();
         assert symbols.size() == 0;
+        if (mem_cache != null) {
+            mem_cache.dispose();
+            mem_cache = null;
+        }
         super.dispose();
     }
 
+    @Override
+    void flushAllCaches() {
+        if (mem_cache != null) mem_cache.reset();
+        super.flushAllCaches();
+    }
+
     void setMemSeqNo(int no) {
         mem_seq_no = no;
     }
@@ -551,6 +531,34 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
         return signal_mask;
     }
 
+    /**
+     * Get cache of memory contents of this context.
+     * The cache should be used with memory context nodes, see getMemoryNode().
+     * It is invalidated when memory changes, and when a context that shares the memory is resumed or suspended.
+     * @return memory cache object.
+     */
+    public TCFMemoryCache getMemoryCache() {
+        assert !isDisposed();
+        if (mem_cache == null) mem_cache = new TCFMemoryCache(mem_context);
+        return mem_cache;
+    }
+
+    /*
+     * Invalidate memory cache of the memory context of this context.
+     */
+    private void resetMemoryCache() {
+        String mem_id = id;
+        if (run_context.isValid()) {
+            IRunControl.RunControlContext ctx = run_context.getData();
+            if (ctx != null && ctx.getProcessID() != null) mem_id = ctx.getProcessID();
+        }
+        TCFNode n = model.getNode(mem_id);
+        if (n instanceof TCFNodeExecContext) {
+            TCFMemoryCache c = ((TCFNodeExecContext)n).mem_cache;
+            if (c != null) c.reset();
+        }
+    }
+
     public TCFDataCache<TCFSymFileRef> getSymFileInfo(final BigInteger addr) {
         if (isDisposed()) return null;
         TCFDataCache<TCFSymFileRef> ref_cache;
@@ -561,10 +569,18 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
         final ISymbols syms = launch.getService(ISymbols.class);
         if (syms == null) return null;
         if (syms_info_lookup_cache == null) {
-            syms_info_lookup_cache = new LinkedHashMap<BigInteger,TCFDataCache<TCFSymFileRef>>(11, 0.75f, true);
-            if (lookup_cache_timer == null) lookup_cache_timer = new LookupCacheTimer();
+            syms_info_lookup_cache = new HashMap<BigInteger,TCFDataCache<TCFSymFileRef>>();
         }
         syms_info_lookup_cache.put(addr, ref_cache = new TCFData<TCFSymFileRef>(channel) {
+            @Override
+            protected void evict() {
+                if (syms_info_lookup_cache != null && syms_info_lookup_cache.get(addr) == this) {
+                    syms_info_lookup_cache.remove(addr);
+                    if (syms_info_lookup_cache.size() == 0) syms_info_lookup_cache = null;
+                }
+                dispose();
+            }
+
             @Override
             protected boolean startDataRetrieval() {
                 if (!memory_node.validate(this)) return false;
@@ -591,6 +607,8 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
                 return false;
             }
         });
+        ref_cache.setCategory(TCFCacheRegistry.getDefault().getCategory("SymFileInfo"));
+        postLookupCacheSweep();
         return ref_cache;
     }
 
@@ -606,10 +624,18 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
         final BigInteger n0 = addr;
         final BigInteger n1 = n0.add(BigInteger.valueOf(1));
         if (line_info_lookup_cache == null) {
-            line_info_lookup_cache = new LinkedHashMap<BigInteger,TCFDataCache<TCFSourceRef>>(11, 0.75f, true);
-            if (lookup_cache_timer == null) lookup_cache_timer = new LookupCacheTimer();
+            line_info_lookup_cache = new HashMap<BigInteger,TCFDataCache<TCFSourceRef>>();
         }
         line_info_lookup_cache.put(addr, ref_cache = new TCFData<TCFSourceRef>(channel) {
+            @Override
+            protected void evict() {
+                if (line_info_lookup_cache != null && line_info_lookup_cache.get(addr) == this) {
+                    line_info_lookup_cache.remove(addr);
+                    if (line_info_lookup_cache.size() == 0) line_info_lookup_cache = null;
+                }
+                dispose();
+            }
+
             @Override
             protected boolean startDataRetrieval() {
                 if (!memory_node.validate(this)) return false;
@@ -654,6 +680,8 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
                 return false;
             }
         });
+        ref_cache.setCategory(TCFCacheRegistry.getDefault().getCategory("LineInfo"));
+        postLookupCacheSweep();
         return ref_cache;
     }
 
@@ -667,10 +695,18 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
         final ISymbols syms = launch.getService(ISymbols.class);
         if (syms == null) return null;
         if (func_info_lookup_cache == null) {
-            func_info_lookup_cache = new LinkedHashMap<BigInteger,TCFDataCache<TCFFunctionRef>>(11, 0.75f, true);
-            if (lookup_cache_timer == null) lookup_cache_timer = new LookupCacheTimer();
+            func_info_lookup_cache = new HashMap<BigInteger,TCFDataCache<TCFFunctionRef>>();
         }
         func_info_lookup_cache.put(addr, ref_cache = new TCFData<TCFFunctionRef>(channel) {
+            @Override
+            protected void evict() {
+                if (func_info_lookup_cache != null && func_info_lookup_cache.get(addr) == this) {
+                    func_info_lookup_cache.remove(addr);
+                    if (func_info_lookup_cache.size() == 0) func_info_lookup_cache = null;
+                }
+                dispose();
+            }
+
             @Override
             protected boolean startDataRetrieval() {
                 if (!memory_node.validate(this)) return false;
@@ -697,9 +733,54 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
                 return false;
             }
         });
+        ref_cache.setCategory(TCFCacheRegistry.getDefault().getCategory("FuncInfo"));
+        postLookupCacheSweep();
         return ref_cache;
     }
 
+    private int getLookupCacheCount() {
+        int n = 0;
+        if (syms_info_lookup_cache != null) n += syms_info_lookup_cache.size();
+        if (line_info_lookup_cache != null) n += line_info_lookup_cache.size();
+        if (func_info_lookup_cache != null) n += func_info_lookup_cache.size();
+        return n;
+    }
+
+    private static <V> HashMap<BigInteger,TCFDataCache<V>> sweepLookupCache(HashMap<BigInteger,TCFDataCache<V>> map) {
+        if (map == null) return null;
+        Iterator<TCFDataCache<V>> i = map.values().iterator();
+        while (i.hasNext()) {
+            TCFDataCache<V> cache = i.next();
+            if (cache.isValid() || cache.isPending()) continue;
+            cache.dispose();
+            i.remove();
+        }
+        if (map.size() == 0) return null;
+        return map;
+    }
+
+    /*
+     * Dispose lookup caches that are neither valid nor pending: such caches were never validated,
+     * or were reset, and they are not in the cache registry LRU list.
+     * The sweep is done in a separate dispatch cycle, so a client that has just got a cache
+     * can validate it before the sweep, and its cost is amortized by doubling lookup_sweep_size.
+     */
+    private void postLookupCacheSweep() {
+        if (lookup_sweep_posted) return;
+        if (getLookupCacheCount() < lookup_sweep_size) return;
+        lookup_sweep_posted = true;
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                lookup_sweep_posted = false;
+                if (isDisposed()) return;
+                syms_info_lookup_cache = sweepLookupCache(syms_info_lookup_cache);
+                line_info_lookup_cache = sweepLookupCache(line_info_lookup_cache);
+                func_info_lookup_cache = sweepLookupCache(func_info_lookup_cache);
+                lookup_sweep_size = Math.max(LOOKUP_SWEEP_MIN, getLookupCacheCount() * 2);
+            }
+        });
+    }
+
     private void clearLookupCaches() {
         if (syms_info_lookup_cache != null) {
             Iterator<TCFDataCache<TCFSymFileRef>> i = syms_info_lookup_cache.values().iterator();
@@ -1214,6 +1295,7 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
     @Override
     public void refresh(IWorkbenchPart part) {
         if (part instanceof IMemoryRenderingSite) {
+            if (mem_cache != null) mem_cache.reset();
             model.onMemoryChanged(id, false, false);
         }
         else {
@@ -1376,6 +1458,7 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
     void onContextChanged(IMemory.MemoryContext context) {
         assert !isDisposed();
         clearLookupCaches();
+        if (mem_cache != null) mem_cache.reset();
         mem_context.reset(context);
         for (TCFNodeSymbol s : symbols.values()) s.onMemoryMapChanged();
         postAllChangedDelta();
@@ -1429,6 +1512,7 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
         }
         address.reset();
         signal_mask.reset();
+        resetMemoryCache();
         children_stack.onSuspended(func_call);
         children_exps.onSuspended(func_call);
         children_hover_exps.onSuspended(func_call);
@@ -1463,6 +1547,7 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
     void onContextResumed() {
         assert !isDisposed();
         state.reset();
+        resetMemoryCache();
         if (!resume_pending) {
             final int cnt = ++resumed_cnt;
             resume_pending = true;
@@ -1495,6 +1580,16 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
 
     void onMemoryChanged(Number[] addr, long[] size) {
         assert !isDisposed();
+        if (mem_cache != null) {
+            if (addr == null || size == null) {
+                mem_cache.reset();
+            }
+            else {
+                for (int i = 0; i < addr.length && i < size.length; i++) {
+                    mem_cache.invalidate(JSON.toBigInteger(addr[i]), size[i]);
+                }
+            }
+        }
         children_stack.onMemoryChanged();
         children_exps.onMemoryChanged();
         children_hover_exps.onMemoryChanged();
@@ -1504,6 +1599,7 @@ public class TCFNodeExecContext extends TCFNode implements ISymbolOwner {
 
     void onMemoryMapChanged() {
         clearLookupCaches();
+        if (mem_cache != null) mem_cache.reset();
         memory_map.reset();
         children_modules.onMemoryMapChanged();
         children_stack.onMemoryMapChanged();
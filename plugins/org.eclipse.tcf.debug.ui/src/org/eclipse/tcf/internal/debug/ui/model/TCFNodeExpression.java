@@ -47,10 +47,10 @@ import org.eclipse.tcf.protocol.IToken;
 import org.eclipse.tcf.protocol.JSON;
 import org.eclipse.tcf.services.IExpressions;
 import org.eclipse.tcf.services.IMemory;
-import org.eclipse.tcf.services.IMemory.MemoryError;
 import org.eclipse.tcf.services.IRegisters;
 import org.eclipse.tcf.services.ISymbols;
 import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFMemoryCache;
 import org.eclipse.tcf.util.TCFTask;
 
 public class TCFNodeExpression extends TCFNode implements IElementEditor, ICastToType,
@@ -86,6 +86,12 @@ public class TCFNodeExpression extends TCFNode implements IElementEditor, ICastT
         rgb_highlight = new RGB(255, 255, 128),
         rgb_disabled = new RGB(127, 127, 127);
 
+    /* C strings are read from memory in chunks that are aligned to this size */
+    private static final int STRING_CHUNK_SIZE = 64;
+
+    /* Maximal length of a C string value */
+    private static final int MAX_STRING_SIZE = 2048;
+
     private static int expr_cnt;
 
     TCFNodeExpression(final TCFNode parent, final String script,
@@ -496,47 +502,46 @@ public class TCFNodeExpression extends TCFNode implements IElementEditor, ICastT
                     set(null, new Exception("Context does not provide memory access"), null);
                     return true;
                 }
+                TCFMemoryCache mem_cache = mem_node.getMemoryCache();
                 if (size == 0) {
-                    // c-string: read until 0
+                    // c-string: read until 0, in chunks that end at STRING_CHUNK_SIZE boundary
                     if (buf == null) buf = new byte[256];
-                    if (offs >= buf.length) {
-                        byte[] tmp = new byte[buf.length * 2];
-                        System.arraycopy(buf, 0, tmp, 0, buf.length);
-                        buf = tmp;
-                    }
-                    command = mem_space_data.get(addr.add(BigInteger.valueOf(offs)), 1, buf, offs, 1, 0, new IMemory.DoneMemory() {
-                        public void doneMemory(IToken token, MemoryError error) {
-                            if (error != null) {
-                                if (offs == 0) set(command, error, null);
-                                else set(command, null, toASCIIString(buf, 0, offs, '"'));
-                            }
-                            else if (buf[offs] == 0 || offs >= 2048) {
-                                set(command, null, toASCIIString(buf, 0, offs, '"'));
+                    for (;;) {
+                        BigInteger a = addr.add(BigInteger.valueOf(offs));
+                        int n = STRING_CHUNK_SIZE - (a.intValue() & (STRING_CHUNK_SIZE - 1));
+                        if (n > MAX_STRING_SIZE + 1 - offs) n = MAX_STRING_SIZE + 1 - offs;
+                        if (!mem_cache.validate(a, n, this)) return false;
+                        if (offs + n > buf.length) {
+                            byte[] tmp = new byte[Math.max(buf.length * 2, offs + n)];
+                            System.arraycopy(buf, 0, tmp, 0, buf.length);
+                            buf = tmp;
+                        }
+                        int[] status = new int[n];
+                        Throwable error = mem_cache.read(a, buf, offs, n, status);
+                        for (int i = 0; i < n; i++) {
+                            if (status[i] != IMemory.ErrorOffset.BYTE_VALID) {
+                                if (offs > 0) set(null, null, toASCIIString(buf, 0, offs, '"'));
+                                else if (error != null) set(null, error, null);
+                                else set(null, new Exception("Cannot read memory"), null);
+                                return true;
                             }
-                            else if (command == token) {
-                                command = null;
-                                offs++;
-                                run();
+                            if (buf[offs] == 0 || offs >= MAX_STRING_SIZE) {
+                                set(null, null, toASCIIString(buf, 0, offs, '"'));
+                                return true;
                             }
+                            offs++;
                         }
-                    });
-                    return false;
+                    }
                 }
                 if (offs == 0) {
+                    if (!mem_cache.validate(addr, size, this)) return false;
                     buf = new byte[size];
-                    command = mem_space_data.get(addr, 1, buf, 0, size, 0, new IMemory.DoneMemory() {
-                        public void doneMemory(IToken token, MemoryError error) {
-                            if (error != null) {
-                                set(command, error, null);
-                            }
-                            else if (command == token) {
-                                command = null;
-                                offs++;
-                                run();
-                            }
-                        }
-                    });
-                    return false;
+                    Throwable error = mem_cache.read(addr, buf, 0, size, null);
+                    if (error != null) {
+                        set(null, error, null);
+                        return true;
+                    }
+                    offs++;
                 }
                 StyledStringBuffer bf = new StyledStringBuffer();
                 bf.append('{');
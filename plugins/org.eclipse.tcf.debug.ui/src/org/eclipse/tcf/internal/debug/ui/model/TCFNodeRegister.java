@@ -13,6 +13,7 @@ package org.eclipse.tcf.internal.debug.ui.model;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Map;
 
 import org.eclipse.debug.internal.ui.viewers.model.provisional.IChildrenCountUpdate;
 import org.eclipse.debug.internal.ui.viewers.model.provisional.IChildrenUpdate;
@@ -34,6 +35,7 @@ import org.eclipse.tcf.internal.debug.ui.ImageCache;
 import org.eclipse.tcf.protocol.IToken;
 import org.eclipse.tcf.services.IRegisters;
 import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFRequestBatch;
 import org.eclipse.tcf.util.TCFTask;
 
 
@@ -137,9 +139,21 @@ public class TCFNodeRegister extends TCFNode implements IElementEditor, IWatchIn
                     set(null, null, null);
                     return true;
                 }
+                TCFChildrenRegisters regs = getParentRegisters();
+                if (regs != null && ctx.isReadable() && !ctx.isReadOnce()) {
+                    // Use values of the whole register set, they are retrieved with a single command
+                    TCFDataCache<Map<String,byte[]>> values = regs.getValues();
+                    if (!values.validate(this)) return false;
+                    Map<String,byte[]> map = values.getData();
+                    byte[] v = map != null ? map.get(id) : null;
+                    if (v != null) {
+                        set(null, null, v);
+                        return true;
+                    }
+                }
                 final TCFDataCache<?> cache = this;
-                command = ctx.get(new IRegisters.DoneGet() {
-                    public void doneGet(IToken token, Exception error, byte[] value) {
+                command = model.getRegisterValueBatch().request(ctx, new TCFRequestBatch.DoneRequest<byte[]>() {
+                    public void doneRequest(IToken token, Exception error, byte[] value) {
                         if (command != token) return;
                         command = null;
                         if (error != null) {
@@ -158,6 +172,13 @@ public class TCFNodeRegister extends TCFNode implements IElementEditor, IWatchIn
         };
     }
 
+    private TCFChildrenRegisters getParentRegisters() {
+        if (parent instanceof TCFNodeRegister) return ((TCFNodeRegister)parent).children;
+        if (parent instanceof TCFNodeStackFrame) return (TCFChildrenRegisters)((TCFNodeStackFrame)parent).getRegisters();
+        if (parent instanceof TCFNodeExecContext) return (TCFChildrenRegisters)((TCFNodeExecContext)parent).getRegisters();
+        return null;
+    }
+
     public TCFDataCache<IRegisters.RegistersContext> getContext() {
         return context;
     }
@@ -470,6 +491,8 @@ public class TCFNodeRegister extends TCFNode implements IElementEditor, IWatchIn
     void onValueChanged() {
         prev_value = next_value;
         value.reset();
+        TCFChildrenRegisters regs = getParentRegisters();
+        if (regs != null) regs.onValueChanged();
         TCFNode n = parent;
         while (n != null) {
             if (n instanceof TCFNodeExecContext) {
@@ -609,7 +632,7 @@ public class TCFNodeRegister extends TCFNode implements IElementEditor, IWatchIn
                             }
                             if (error != null) throw new Exception("Invalid value: " + value, new Exception(error));
                             if (bf != null) {
-                                ctx.set(bf, new IRegisters.DoneSet() {
+                                IRegisters.DoneSet done_set = new IRegisters.DoneSet() {
                                     public void doneSet(IToken token, Exception error) {
                                         if (error != null) {
                                             node.model.showMessageBox("Cannot modify register value", error);
@@ -621,7 +644,12 @@ public class TCFNodeRegister extends TCFNode implements IElementEditor, IWatchIn
                                             done(Boolean.TRUE);
                                         }
                                     }
-                                });
+                                };
+                                IRegisters.RegistersContext[] set_regs = { ctx };
+                                byte[][] set_data = { bf };
+                                TCFChildrenRegisters regs = node.getParentRegisters();
+                                if (regs != null) regs.setValues(set_regs, set_data, done_set);
+                                else node.model.setRegisterValues(set_regs, set_data, done_set);
                                 return;
                             }
                         }
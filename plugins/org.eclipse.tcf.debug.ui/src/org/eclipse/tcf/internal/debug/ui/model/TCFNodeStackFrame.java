@@ -32,6 +32,7 @@ import org.eclipse.tcf.services.IExpressions;
 import org.eclipse.tcf.services.IStackTrace;
 import org.eclipse.tcf.services.ISymbols;
 import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFRequestBatch;
 
 public class TCFNodeStackFrame extends TCFNode {
 
@@ -81,9 +82,9 @@ public class TCFNodeStackFrame extends TCFNode {
                     set(null, null, null);
                     return true;
                 }
-                command = st.getContext(new String[]{ id }, new IStackTrace.DoneGetContext() {
-                    public void doneGetContext(IToken token, Exception error, IStackTrace.StackTraceContext[] context) {
-                        set(token, error, context == null || context.length == 0 ? null : context[0]);
+                command = model.getStackTraceBatch().request(id, new TCFRequestBatch.DoneRequest<IStackTrace.StackTraceContext>() {
+                    public void doneRequest(IToken token, Exception error, IStackTrace.StackTraceContext context) {
+                        set(token, error, context);
                     }
                 });
                 return false;
@@ -13,12 +13,11 @@ package org.eclipse.tcf.internal.debug.tests;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 
+import org.eclipse.tcf.core.RingEventQueue;
 import org.eclipse.tcf.core.TransientPeer;
 import org.eclipse.tcf.protocol.IChannel;
-import org.eclipse.tcf.protocol.IEventQueue;
 import org.eclipse.tcf.protocol.IPeer;
 import org.eclipse.tcf.protocol.Protocol;
 
@@ -27,45 +26,17 @@ import org.eclipse.tcf.protocol.Protocol;
  */
 public class Main {
 
-    private static class EventQueue extends Thread implements IEventQueue {
-
-        private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+    private static class EventQueue extends RingEventQueue {
 
         EventQueue() {
-            setName("TCF Event Dispatcher");
+            super("TCF Event Dispatcher");
             start();
         }
 
-        public void run() {
-            try {
-                while (true) {
-                    Runnable r = null;
-                    synchronized (this) {
-                        while (queue.size() == 0) wait();
-                        r = queue.removeFirst();
-                    }
-                    r.run();
-                }
-            }
-            catch (Throwable x) {
-                x.printStackTrace();
-                System.exit(1);
-            }
-        }
-
-        public synchronized int getCongestion() {
-            int n = queue.size() - 100;
-            if (n > 100) n = 100;
-            return n;
-        }
-
-        public synchronized void invokeLater(Runnable runnable) {
-            queue.add(runnable);
-            notify();
-        }
-
-        public boolean isDispatchThread() {
-            return Thread.currentThread() == this;
+        @Override
+        protected void handleException(Throwable x) {
+            x.printStackTrace();
+            System.exit(1);
         }
     }
 
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.debug.test.util.LoopbackChannel;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.util.TCFCacheRegistry;
+import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of TCFCacheRegistry: LRU eviction order, limits and statistics.
+ */
+public class CacheRegistryTests extends TestCase {
+
+    private LoopbackChannel[] fChannels;
+
+    /** Cache that becomes valid right away, with given data size */
+    private static class TestCache extends TCFDataCache<String> {
+        final String name;
+        final long size;
+        int evict_cnt;
+
+        TestCache(IChannel channel, String name, long size) {
+            super(channel);
+            this.name = name;
+            this.size = size;
+        }
+
+        @Override
+        protected boolean startDataRetrieval() {
+            set(null, null, name);
+            return true;
+        }
+
+        @Override
+        protected long getDataSize() {
+            return size;
+        }
+
+        @Override
+        protected void evict() {
+            evict_cnt++;
+            super.evict();
+        }
+    }
+
+    /**
+     * Test steps, each step is executed in a separate dispatch cycle,
+     * so evictions that are posted by a step are done before next step.
+     */
+    private abstract class Steps extends TCFTask<Object> {
+        int step;
+        public void run() {
+            try {
+                if (step(step++)) done(this);
+                else Protocol.invokeLater(this);
+            }
+            catch (Throwable x) {
+                error(x);
+            }
+        }
+        /* Returns true after last step */
+        abstract boolean step(int n);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        fChannels = LoopbackChannel.openPair();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        LoopbackChannel.closePair(fChannels);
+        fChannels = null;
+    }
+
+    private TestCache[] createCaches(TCFCacheRegistry.Category category, int cnt, long size) {
+        TestCache[] arr = new TestCache[cnt];
+        for (int i = 0; i < cnt; i++) {
+            arr[i] = new TestCache(fChannels[0], "C" + i, size);
+            arr[i].setCategory(category);
+        }
+        return arr;
+    }
+
+    public void testEvictionOrder() throws Exception {
+        new Steps() {
+            TCFCacheRegistry registry;
+            TCFCacheRegistry.Category category;
+            TestCache[] caches;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    registry = new TCFCacheRegistry(3, Long.MAX_VALUE);
+                    category = registry.getCategory("Test");
+                    caches = createCaches(category, 5, 10);
+                    for (int i = 0; i < 3; i++) Assert.assertTrue(caches[i].validate());
+                    Assert.assertEquals(3, registry.getEntryCount());
+                    // Hit moves C0 to the head of LRU list, so C1 is the least recently used
+                    Assert.assertTrue(caches[0].validate());
+                    Assert.assertTrue(caches[3].validate());
+                    // Eviction is not done in same dispatch cycle
+                    Assert.assertEquals(4, registry.getEntryCount());
+                    Assert.assertTrue(caches[1].isValid());
+                    return false;
+                case 1:
+                    Assert.assertEquals(3, registry.getEntryCount());
+                    Assert.assertFalse(caches[1].isValid());
+                    Assert.assertEquals(1, caches[1].evict_cnt);
+                    Assert.assertTrue(caches[0].isValid());
+                    Assert.assertTrue(caches[2].isValid());
+                    Assert.assertTrue(caches[3].isValid());
+                    // Two more caches: C2 and C0 are evicted, in that order
+                    Assert.assertTrue(caches[4].validate());
+                    Assert.assertTrue(caches[1].validate());
+                    return false;
+                case 2:
+                    Assert.assertEquals(3, registry.getEntryCount());
+                    Assert.assertFalse(caches[0].isValid());
+                    Assert.assertFalse(caches[2].isValid());
+                    Assert.assertTrue(caches[1].isValid());
+                    Assert.assertTrue(caches[3].isValid());
+                    Assert.assertTrue(caches[4].isValid());
+                    Assert.assertEquals(3, category.getEvictions());
+                    Assert.assertEquals(6, category.getMisses());
+                    Assert.assertEquals(1, category.getHits());
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+
+    public void testByteLimit() throws Exception {
+        new Steps() {
+            TCFCacheRegistry registry;
+            TCFCacheRegistry.Category category;
+            TestCache[] caches;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    registry = new TCFCacheRegistry(100, 1000);
+                    category = registry.getCategory("Test");
+                    caches = createCaches(category, 3, 400);
+                    for (TestCache c : caches) Assert.assertTrue(c.validate());
+                    Assert.assertEquals(1200, registry.getByteCount());
+                    Assert.assertEquals(1200, category.getByteCount());
+                    return false;
+                case 1:
+                    Assert.assertEquals(800, registry.getByteCount());
+                    Assert.assertEquals(2, category.getEntryCount());
+                    Assert.assertFalse(caches[0].isValid());
+                    // Lower limits are applied in next dispatch cycle
+                    registry.setLimits(100, 500);
+                    Assert.assertEquals(2, registry.getEntryCount());
+                    return false;
+                case 2:
+                    Assert.assertEquals(400, registry.getByteCount());
+                    Assert.assertFalse(caches[1].isValid());
+                    Assert.assertTrue(caches[2].isValid());
+                    Assert.assertEquals(2, category.getEvictions());
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+
+    public void testCounters() throws Exception {
+        new Steps() {
+            boolean step(int n) {
+                TCFCacheRegistry registry = new TCFCacheRegistry(100, Long.MAX_VALUE);
+                TCFCacheRegistry.Category c1 = registry.getCategory("C1");
+                TCFCacheRegistry.Category c2 = registry.getCategory("C2");
+                Assert.assertSame(c1, registry.getCategory("C1"));
+                Assert.assertEquals(2, registry.getCategories().size());
+                TestCache[] a = createCaches(c1, 3, 10);
+                TestCache[] b = createCaches(c2, 2, 20);
+                for (TestCache c : a) Assert.assertTrue(c.validate());
+                for (TestCache c : b) Assert.assertTrue(c.validate());
+                for (TestCache c : b) Assert.assertTrue(c.validate());
+                Assert.assertEquals(5, registry.getEntryCount());
+                Assert.assertEquals(70, registry.getByteCount());
+                Assert.assertEquals(3, c1.getMisses());
+                Assert.assertEquals(0, c1.getHits());
+                Assert.assertEquals(2, c2.getMisses());
+                Assert.assertEquals(2, c2.getHits());
+                // Invalid, disposed caches and caches that leave the category are not counted
+                a[0].reset();
+                a[1].dispose();
+                b[0].setCategory(null);
+                Assert.assertEquals(1, c1.getEntryCount());
+                Assert.assertEquals(10, c1.getByteCount());
+                Assert.assertEquals(1, c2.getEntryCount());
+                Assert.assertEquals(20, c2.getByteCount());
+                Assert.assertEquals(2, registry.getEntryCount());
+                Assert.assertEquals(30, registry.getByteCount());
+                // Cache that becomes valid again is a miss, and is counted again
+                Assert.assertTrue(a[0].validate());
+                Assert.assertEquals(4, c1.getMisses());
+                Assert.assertEquals(2, c1.getEntryCount());
+                // Cache that moves to another category is counted there
+                b[0].setCategory(c1);
+                Assert.assertEquals(3, c1.getEntryCount());
+                Assert.assertEquals(40, c1.getByteCount());
+                c1.resetStatistics();
+                Assert.assertEquals(0, c1.getMisses());
+                Assert.assertEquals(0, c1.getHits());
+                Assert.assertEquals(0, c1.getEvictions());
+                Assert.assertEquals(3, c1.getEntryCount());
+                return true;
+            }
+        }.get();
+    }
+}
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.MuxConnection;
+import org.eclipse.tcf.core.ServerMux;
+import org.eclipse.tcf.core.TransientPeer;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.services.IDiagnostics;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of logical channels (ChannelMux) that share a multiplexed connection (MuxConnection).
+ */
+public class ChannelMuxTests extends TestCase {
+
+    private static final long TIMEOUT = 30000;
+
+    /* Size of echo messages, larger than the stream window credit of MuxConnection */
+    private static final int ECHO_SIZE = 0x50000;
+
+    /* Same as MuxConnection.STREAM_WINDOW */
+    private static final int STREAM_WINDOW = 0x40000;
+
+    private static IPeer createPeer(String id) {
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, id);
+        attrs.put(IPeer.ATTR_NAME, id);
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, "MUX");
+        return new TransientPeer(attrs);
+    }
+
+    private static String createEcho(int size, int seed) {
+        StringBuffer bf = new StringBuffer();
+        for (int i = 0; i < size; i++) bf.append((char)('a' + (i + seed) % 23));
+        return bf.toString();
+    }
+
+    /**
+     * Open two logical channels over one connection to ServerMux and interleave echo messages on them.
+     * Then close the channels one by one: closing a channel must not close the other channel,
+     * and the shared connection is closed when its last channel is closed.
+     */
+    public void testTwoChannels() throws Exception {
+        final int echo_cnt = 4;
+        final ServerMux server = new TCFTask<ServerMux>(TIMEOUT) {
+            public void run() {
+                try {
+                    done(new ServerMux("TCF Test Mux Server", 0));
+                }
+                catch (Throwable x) {
+                    error(x);
+                }
+            }
+        }.get();
+        try {
+            final int port = server.getLocalPort();
+            final MuxConnection connection = new TCFTask<MuxConnection>(TIMEOUT) {
+                MuxConnection conn;
+                IChannel[] clients;
+                List<IChannel> servers;
+                Protocol.ChannelOpenListener open_listener;
+                int open_cnt;
+                int reply_cnt;
+                int close_cnt;
+                public void run() {
+                    servers = new ArrayList<IChannel>();
+                    open_listener = new Protocol.ChannelOpenListener() {
+                        public void onChannelOpen(IChannel channel) {
+                            if (channel == clients[0] || channel == clients[1]) return;
+                            servers.add(channel);
+                            channel.addChannelListener(new IChannel.IChannelListener() {
+                                public void onChannelOpened() {
+                                }
+                                public void onChannelClosed(Throwable error) {
+                                    onClosed(error);
+                                }
+                                public void congestionLevel(int level) {
+                                }
+                            });
+                            onOpened();
+                        }
+                    };
+                    Protocol.addChannelOpenListener(open_listener);
+                    conn = MuxConnection.getConnection("127.0.0.1", port);
+                    clients = new IChannel[2];
+                    for (int i = 0; i < clients.length; i++) {
+                        clients[i] = conn.openChannel(createPeer("Mux" + i));
+                        clients[i].addChannelListener(new IChannel.IChannelListener() {
+                            public void onChannelOpened() {
+                                onOpened();
+                            }
+                            public void onChannelClosed(Throwable error) {
+                                onClosed(error);
+                            }
+                            public void congestionLevel(int level) {
+                            }
+                        });
+                    }
+                    if (MuxConnection.getConnection("127.0.0.1", port) != conn) {
+                        error(new Exception("Connection is not shared"));
+                    }
+                }
+                void onOpened() {
+                    if (++open_cnt < 4) return;
+                    // Messages of both channels are interleaved in the connection
+                    for (int n = 0; n < echo_cnt; n++) {
+                        for (int i = 0; i < clients.length; i++) sendEcho(clients[i], i * echo_cnt + n);
+                    }
+                }
+                void sendEcho(IChannel channel, int seed) {
+                    final String echo = createEcho(ECHO_SIZE, seed);
+                    IDiagnostics diag = channel.getRemoteService(IDiagnostics.class);
+                    diag.echo(echo, new IDiagnostics.DoneEcho() {
+                        public void doneEcho(IToken token, Throwable error, String s) {
+                            if (error != null) {
+                                error(error);
+                            }
+                            else if (!echo.equals(s)) {
+                                error(new Exception("Invalid echo reply"));
+                            }
+                            else if (++reply_cnt == clients.length * echo_cnt) {
+                                clients[0].close();
+                            }
+                            else if (reply_cnt > clients.length * echo_cnt) {
+                                clients[1].close();
+                            }
+                        }
+                    });
+                }
+                void onClosed(Throwable error) {
+                    if (isDone()) return;
+                    if (error != null) {
+                        error(error);
+                        return;
+                    }
+                    close_cnt++;
+                    if (close_cnt == 2) {
+                        // Both ends of the first channel are closed, the second channel must still work
+                        if (clients[0].getState() != IChannel.STATE_CLOSED ||
+                                clients[1].getState() != IChannel.STATE_OPEN || conn.isClosed()) {
+                            error(new Exception("Closing a channel has affected other channels"));
+                            return;
+                        }
+                        int open = 0;
+                        for (IChannel c : servers) {
+                            if (c.getState() == IChannel.STATE_OPEN) open++;
+                        }
+                        if (open != 1) {
+                            error(new Exception("Invalid number of open server channels: " + open));
+                            return;
+                        }
+                        sendEcho(clients[1], 0);
+                    }
+                    else if (close_cnt == 4) {
+                        Protocol.removeChannelOpenListener(open_listener);
+                        done(conn);
+                    }
+                }
+            }.get();
+            // The shared connection is closed when it has no channels
+            long time = System.currentTimeMillis() + TIMEOUT;
+            while (!connection.isClosed()) {
+                Assert.assertTrue("Idle connection is not closed", System.currentTimeMillis() < time);
+                Thread.sleep(10);
+            }
+            boolean reused = new TCFTask<Boolean>(TIMEOUT) {
+                public void run() {
+                    done(MuxConnection.getConnection("127.0.0.1", port) == connection);
+                }
+            }.get();
+            Assert.assertFalse("Closed connection is reused", reused);
+        }
+        finally {
+            new TCFTask<Object>(TIMEOUT) {
+                public void run() {
+                    try {
+                        server.close();
+                        done(this);
+                    }
+                    catch (Throwable x) {
+                        error(x);
+                    }
+                }
+            }.get();
+        }
+    }
+
+    /* The test plays the server side of the connection over a plain socket */
+
+    private static int readSize(InputStream inp) throws IOException {
+        int size = 0;
+        for (int i = 0;; i += 7) {
+            int m = inp.read();
+            if (m < 0) throw new EOFException();
+            size |= (m & 0x7f) << i;
+            if ((m & 0x80) == 0) return size;
+        }
+    }
+
+    private static void writeSize(OutputStream out, int n) throws IOException {
+        while (n > 0x7f) {
+            out.write((n & 0x7f) | 0x80);
+            n = n >> 7;
+        }
+        out.write(n);
+    }
+
+    /* Read data frames until the socket is idle, return number of data bytes */
+    private static int readData(InputStream inp, int id) throws IOException {
+        int cnt = 0;
+        try {
+            for (;;) {
+                int type = inp.read();
+                Assert.assertTrue(type >= 0);
+                Assert.assertEquals(id, readSize(inp));
+                if (type == 'D') {
+                    int size = readSize(inp);
+                    for (int i = 0; i < size; i++) Assert.assertTrue(inp.read() >= 0);
+                    cnt += size;
+                }
+                else if (type == 'W') {
+                    readSize(inp);
+                }
+                else {
+                    Assert.fail("Unexpected frame type: " + type);
+                }
+            }
+        }
+        catch (SocketTimeoutException x) {
+            return cnt;
+        }
+    }
+
+    /**
+     * Connect a logical channel to a peer that does not return window credit.
+     * The channel must stop sending when the stream window is used up, keep the rest of
+     * the messages in its queue, and resume sending when the peer returns credit.
+     */
+    public void testWindowCredit() throws Exception {
+        final int echo_cnt = 16;
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            final int port = server.getLocalPort();
+            TCFTask<List<IToken>> task = new TCFTask<List<IToken>>(TIMEOUT) {
+                IChannel channel;
+                public void run() {
+                    channel = MuxConnection.getConnection("127.0.0.1", port).openChannel(createPeer("Mux"));
+                    channel.addChannelListener(new IChannel.IChannelListener() {
+                        public void onChannelOpened() {
+                            sendEcho();
+                        }
+                        public void onChannelClosed(Throwable error) {
+                            if (!isDone()) error(error != null ? error : new Exception("Channel closed"));
+                        }
+                        public void congestionLevel(int level) {
+                        }
+                    });
+                }
+                void sendEcho() {
+                    final List<IToken> tokens = new ArrayList<IToken>();
+                    IDiagnostics diag = channel.getRemoteService(IDiagnostics.class);
+                    String echo = createEcho(0x10000, 0);
+                    for (int n = 0; n < echo_cnt; n++) {
+                        tokens.add(diag.echo(echo, new IDiagnostics.DoneEcho() {
+                            public void doneEcho(IToken token, Throwable error, String s) {
+                            }
+                        }));
+                    }
+                    // Wait until the stream window is used up
+                    Protocol.invokeLater(500, TimeUnit.MILLISECONDS, new Runnable() {
+                        public void run() {
+                            done(tokens);
+                        }
+                    });
+                }
+            };
+            Socket socket = server.accept();
+            try {
+                socket.setSoTimeout(1000);
+                InputStream inp = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                byte[] magic = "TCFMUX1\0".getBytes("UTF-8");
+                for (int i = 0; i < magic.length; i++) Assert.assertEquals(magic[i], inp.read());
+                out.write(magic);
+                Assert.assertEquals('O', inp.read());
+                int id = readSize(inp);
+                Assert.assertEquals(1, id);
+                byte[] hello = "E\0Locator\0Hello\0[\"Locator\",\"Diagnostics\"]\0\3\1".getBytes("UTF-8");
+                out.write('D');
+                writeSize(out, id);
+                writeSize(out, hello.length);
+                out.write(hello);
+                out.flush();
+                final List<IToken> tokens = task.get();
+                Assert.assertEquals("Data sent without window credit", STREAM_WINDOW, readData(inp, id));
+                boolean[] canceled = new TCFTask<boolean[]>(TIMEOUT) {
+                    public void run() {
+                        done(new boolean[] { tokens.get(0).cancel(), tokens.get(echo_cnt - 1).cancel() });
+                    }
+                }.get();
+                Assert.assertFalse("First message is not sent", canceled[0]);
+                Assert.assertTrue("Last message is not in the queue", canceled[1]);
+                // Return the credit, the stream resumes
+                out.write('W');
+                writeSize(out, id);
+                writeSize(out, STREAM_WINDOW);
+                out.flush();
+                Assert.assertEquals("Stream is not resumed", STREAM_WINDOW, readData(inp, id));
+            }
+            finally {
+                socket.close();
+            }
+        }
+        finally {
+            server.close();
+        }
+    }
+}
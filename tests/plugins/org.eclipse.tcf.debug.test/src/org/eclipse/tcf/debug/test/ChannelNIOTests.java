@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.ChannelNIO;
+import org.eclipse.tcf.core.TransientPeer;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.services.IDiagnostics;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests that connect ChannelNIO instances over loopback TCP sockets.
+ * The channels share the pool of NIO selector threads.
+ */
+public class ChannelNIOTests extends TestCase {
+
+    private static final long TIMEOUT = 30000;
+
+    /* Size of echo messages, larger than the ChannelNIO output buffer limit */
+    private static final int ECHO_SIZE = 0x30000;
+
+    private ServerSocketChannel fServer;
+
+    @Override
+    public void setUp() throws Exception {
+        fServer = ServerSocketChannel.open();
+        // Fixed receive buffer size: the amount of data in flight does not grow with auto-tuning
+        fServer.socket().setReceiveBufferSize(0x10000);
+        fServer.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        fServer.close();
+        fServer = null;
+    }
+
+    private static IPeer createPeer(String id) {
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, id);
+        attrs.put(IPeer.ATTR_NAME, id);
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, "TCP");
+        return new TransientPeer(attrs);
+    }
+
+    private static String createEcho(int seed) {
+        StringBuffer bf = new StringBuffer();
+        for (int i = 0; i < ECHO_SIZE; i++) bf.append((char)('a' + (i + seed) % 23));
+        return bf.toString();
+    }
+
+    /* Create client channels, they connect to the test server socket */
+    private ChannelNIO[] connect(final int cnt) throws Exception {
+        final int port = fServer.socket().getLocalPort();
+        return new TCFTask<ChannelNIO[]>(TIMEOUT) {
+            public void run() {
+                ChannelNIO[] arr = new ChannelNIO[cnt];
+                for (int i = 0; i < cnt; i++) arr[i] = new ChannelNIO(createPeer("NIO" + i), "127.0.0.1", port);
+                done(arr);
+            }
+        }.get();
+    }
+
+    public void testMultipleChannels() throws Exception {
+        final int cnt = 4;
+        final int echo_cnt = 4;
+        final ChannelNIO[] clients = connect(cnt);
+        final SocketChannel[] sockets = new SocketChannel[cnt];
+        for (int i = 0; i < cnt; i++) sockets[i] = fServer.accept();
+        final List<IChannel> channels = new TCFTask<List<IChannel>>(TIMEOUT) {
+            List<IChannel> list;
+            int open_cnt;
+            int reply_cnt;
+            public void run() {
+                try {
+                    list = new ArrayList<IChannel>();
+                    for (int i = 0; i < cnt; i++) {
+                        list.add(clients[i]);
+                        list.add(new ChannelNIO(createPeer("Local" + i), createPeer("Remote" + i), sockets[i]));
+                    }
+                    for (IChannel c : list) {
+                        c.addChannelListener(new IChannel.IChannelListener() {
+                            public void onChannelOpened() {
+                                if (++open_cnt == list.size()) sendEcho();
+                            }
+                            public void onChannelClosed(Throwable error) {
+                                if (error != null) error(error);
+                            }
+                            public void congestionLevel(int level) {
+                            }
+                        });
+                    }
+                }
+                catch (Throwable x) {
+                    error(x);
+                }
+            }
+            void sendEcho() {
+                // Messages of all channels are interleaved in the selector threads
+                for (int n = 0; n < echo_cnt; n++) {
+                    for (int i = 0; i < list.size(); i++) {
+                        final String echo = createEcho(i * echo_cnt + n);
+                        IDiagnostics diag = list.get(i).getRemoteService(IDiagnostics.class);
+                        diag.echo(echo, new IDiagnostics.DoneEcho() {
+                            public void doneEcho(IToken token, Throwable error, String s) {
+                                if (error != null) {
+                                    error(error);
+                                }
+                                else if (!echo.equals(s)) {
+                                    error(new Exception("Invalid echo reply"));
+                                }
+                                else if (++reply_cnt == list.size() * echo_cnt) {
+                                    done(list);
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+        }.get();
+        new TCFTask<Object>(TIMEOUT) {
+            public void run() {
+                for (IChannel c : channels) {
+                    if (c.getState() != IChannel.STATE_OPEN) {
+                        error(new Exception("Channel is not open"));
+                        return;
+                    }
+                    c.close();
+                }
+                done(this);
+            }
+        }.get();
+    }
+
+    /**
+     * Connect to a peer that sends Hello and then reads nothing until the socket buffers are full.
+     * When the peer starts reading, ChannelNIO must take only as many messages as fit into its output buffer,
+     * instead of copying the whole queue into the buffer: messages that are still queued can be canceled.
+     */
+    public void testOutputLimit() throws Exception {
+        final int echo_cnt = 128;
+        final int port = fServer.socket().getLocalPort();
+        TCFTask<List<IToken>> task = new TCFTask<List<IToken>>(TIMEOUT) {
+            ChannelNIO channel;
+            public void run() {
+                channel = new ChannelNIO(createPeer("NIO"), "127.0.0.1", port);
+                channel.addChannelListener(new IChannel.IChannelListener() {
+                    public void onChannelOpened() {
+                        sendEcho();
+                    }
+                    public void onChannelClosed(Throwable error) {
+                        if (!isDone()) error(error != null ? error : new Exception("Channel closed"));
+                    }
+                    public void congestionLevel(int level) {
+                    }
+                });
+            }
+            void sendEcho() {
+                final List<IToken> tokens = new ArrayList<IToken>();
+                IDiagnostics diag = channel.getRemoteService(IDiagnostics.class);
+                String echo = createEcho(0);
+                for (int n = 0; n < echo_cnt; n++) {
+                    tokens.add(diag.echo(echo, new IDiagnostics.DoneEcho() {
+                        public void doneEcho(IToken token, Throwable error, String s) {
+                        }
+                    }));
+                }
+                // Wait until the socket buffers are full
+                Protocol.invokeLater(500, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        done(tokens);
+                    }
+                });
+            }
+        };
+        SocketChannel socket = fServer.accept();
+        try {
+            String hello = "E\0Locator\0Hello\0[\"Locator\",\"Diagnostics\"]\0\3\1";
+            socket.write(ByteBuffer.wrap(hello.getBytes("UTF-8")));
+            final List<IToken> tokens = task.get();
+            // Read data of half of the messages, the channel output buffer gets empty in between
+            ByteBuffer buf = ByteBuffer.allocate(0x10000);
+            long cnt = 0;
+            while (cnt < (long)ECHO_SIZE * echo_cnt / 2) {
+                buf.clear();
+                int rd = socket.read(buf);
+                Assert.assertTrue(rd > 0);
+                cnt += rd;
+            }
+            Thread.sleep(500);
+            boolean[] canceled = new TCFTask<boolean[]>(TIMEOUT) {
+                public void run() {
+                    // The channel is terminated when the test closes the peer socket
+                    done(new boolean[] { tokens.get(0).cancel(), tokens.get(echo_cnt - 1).cancel() });
+                }
+            }.get();
+            Assert.assertFalse("First message is not sent", canceled[0]);
+            Assert.assertTrue("Last message is not in the queue", canceled[1]);
+        }
+        finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.debug.test.util.LoopbackChannel;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.services.IDiagnostics;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests that connect two channels and check negotiation of Hello pseudo-services:
+ * compression, flow control and binary encoding.
+ */
+public class ChannelNegotiationTests extends TestCase {
+
+    /* Channel options, in order: compression, flow control, binary encoding */
+    private static final int
+        OPT_COMPRESSION = 0,
+        OPT_FLOW_CONTROL = 1,
+        OPT_BINARY = 2;
+
+    private static final int ECHO_SIZE = 0x4000;
+
+    /**
+     * Open a pair of channels with given options, send Diagnostics echo both ways, and close the channels.
+     * @return negotiated options of both channels.
+     */
+    private boolean[][] negotiate(final boolean[] opts0, final boolean[] opts1) throws Exception {
+        final StringBuffer bf = new StringBuffer();
+        for (int i = 0; i < ECHO_SIZE; i++) bf.append((char)('a' + i % 17));
+        final String echo = bf.toString();
+        return new TCFTask<boolean[][]>() {
+            int open_cnt;
+            int echo_cnt;
+            LoopbackChannel[] pair;
+            public void run() {
+                pair = LoopbackChannel.createPair();
+                boolean[][] opts = { opts0, opts1 };
+                for (int i = 0; i < 2; i++) {
+                    final LoopbackChannel c = pair[i];
+                    c.setCompressionEnabled(opts[i][OPT_COMPRESSION]);
+                    c.setFlowControlEnabled(opts[i][OPT_FLOW_CONTROL]);
+                    c.setBinaryEncodingEnabled(opts[i][OPT_BINARY]);
+                    c.addChannelListener(new IChannel.IChannelListener() {
+                        public void onChannelOpened() {
+                            if (++open_cnt == 2) sendEcho();
+                        }
+                        public void onChannelClosed(Throwable error) {
+                            if (error != null) error(error);
+                        }
+                        public void congestionLevel(int level) {
+                        }
+                    });
+                }
+                for (LoopbackChannel c : pair) c.open();
+            }
+            void sendEcho() {
+                for (LoopbackChannel c : pair) {
+                    IDiagnostics diag = c.getRemoteService(IDiagnostics.class);
+                    diag.echo(echo, new IDiagnostics.DoneEcho() {
+                        public void doneEcho(IToken token, Throwable error, String s) {
+                            if (error != null) {
+                                error(error);
+                            }
+                            else if (!echo.equals(s)) {
+                                error(new Exception("Invalid echo reply"));
+                            }
+                            else if (++echo_cnt == 2) {
+                                boolean[][] res = new boolean[2][];
+                                for (int i = 0; i < 2; i++) {
+                                    LoopbackChannel c = pair[i];
+                                    res[i] = new boolean[] {
+                                        c.isCompressionSupported(),
+                                        c.isFlowControlSupported(),
+                                        c.isBinaryEncodingSupported(),
+                                    };
+                                    c.close();
+                                }
+                                done(res);
+                            }
+                        }
+                    });
+                }
+            }
+        }.get();
+    }
+
+    private void assertNegotiated(boolean[] opts0, boolean[] opts1) throws Exception {
+        boolean[][] res = negotiate(opts0, opts1);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                Assert.assertEquals(opts0[j] && opts1[j], res[i][j]);
+            }
+        }
+    }
+
+    public void testNoneEnabled() throws Exception {
+        assertNegotiated(new boolean[3], new boolean[3]);
+    }
+
+    public void testAllEnabled() throws Exception {
+        boolean[] all = { true, true, true };
+        assertNegotiated(all, all);
+    }
+
+    public void testOneSideEnabled() throws Exception {
+        boolean[] all = { true, true, true };
+        assertNegotiated(all, new boolean[3]);
+        assertNegotiated(new boolean[3], all);
+    }
+
+    public void testEachOption() throws Exception {
+        for (int j = 0; j < 3; j++) {
+            boolean[] opts = new boolean[3];
+            opts[j] = true;
+            assertNegotiated(opts, opts);
+            boolean[] other = { true, true, true };
+            other[j] = false;
+            assertNegotiated(opts, other);
+        }
+    }
+}
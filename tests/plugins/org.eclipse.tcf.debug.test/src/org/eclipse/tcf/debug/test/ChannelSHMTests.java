@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.ChannelSHM;
+import org.eclipse.tcf.core.RingEventQueue;
+import org.eclipse.tcf.core.ServerSHM;
+import org.eclipse.tcf.core.TransientPeer;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.services.IDiagnostics;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of shared memory channels: ChannelSHM connected to ServerSHM.
+ */
+public class ChannelSHMTests extends TestCase {
+
+    private static final long TIMEOUT = 30000;
+
+    /* Same as ChannelSHM ring size and doorbell timeout */
+    private static final int RING_SIZE = 0x100000;
+    private static final int DOORBELL_TIMEOUT = 500;
+
+    private File fDir;
+
+    @Override
+    public void setUp() throws Exception {
+        fDir = File.createTempFile("tcf-shm-test", "");
+        Assert.assertTrue(fDir.delete());
+        Assert.assertTrue(fDir.mkdir());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        File[] list = fDir.listFiles();
+        if (list != null) {
+            for (File f : list) f.delete();
+        }
+        fDir.delete();
+        fDir = null;
+    }
+
+    private IPeer createPeer() {
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, "SHM:Test");
+        attrs.put(IPeer.ATTR_NAME, "SHM:Test");
+        attrs.put(IPeer.ATTR_TRANSPORT_NAME, ChannelSHM.TRANSPORT_NAME);
+        attrs.put(ChannelSHM.ATTR_SHM_PATH, fDir.getPath());
+        return new TransientPeer(attrs);
+    }
+
+    private static String createEcho(int size, int seed) {
+        StringBuffer bf = new StringBuffer();
+        for (int i = 0; i < size; i++) bf.append((char)('a' + (i + seed) % 23));
+        return bf.toString();
+    }
+
+    private ServerSHM createServer() throws Exception {
+        final String path = fDir.getPath();
+        return new TCFTask<ServerSHM>(TIMEOUT) {
+            public void run() {
+                try {
+                    done(new ServerSHM("TCF Test SHM Server", path));
+                }
+                catch (Throwable x) {
+                    error(x);
+                }
+            }
+        }.get();
+    }
+
+    private static void closeServer(final ServerSHM server) throws Exception {
+        new TCFTask<Object>(TIMEOUT) {
+            public void run() {
+                try {
+                    server.close();
+                    done(this);
+                }
+                catch (Throwable x) {
+                    error(x);
+                }
+            }
+        }.get();
+    }
+
+    /*
+     * Connect a client channel to the server, return the client and the server channels.
+     * Both channels use same memory mapped file, each side writes to its own ring.
+     */
+    private IChannel[] connect() throws Exception {
+        final IPeer peer = createPeer();
+        return new TCFTask<IChannel[]>(TIMEOUT) {
+            IChannel[] channels;
+            Protocol.ChannelOpenListener open_listener;
+            int open_cnt;
+            public void run() {
+                channels = new IChannel[2];
+                open_listener = new Protocol.ChannelOpenListener() {
+                    public void onChannelOpen(IChannel channel) {
+                        if (channel == channels[0]) return;
+                        channels[1] = channel;
+                        onOpened();
+                    }
+                };
+                Protocol.addChannelOpenListener(open_listener);
+                channels[0] = new ChannelSHM(peer, peer.getAttributes().get(ChannelSHM.ATTR_SHM_PATH));
+                channels[0].addChannelListener(new IChannel.IChannelListener() {
+                    public void onChannelOpened() {
+                        onOpened();
+                    }
+                    public void onChannelClosed(Throwable error) {
+                        if (!isDone()) error(error != null ? error : new Exception("Channel closed"));
+                    }
+                    public void congestionLevel(int level) {
+                    }
+                });
+            }
+            void onOpened() {
+                if (++open_cnt < 2) return;
+                Protocol.removeChannelOpenListener(open_listener);
+                if (!ChannelSHM.TRANSPORT_NAME.equals(channels[1].getRemotePeer().getTransportName())) {
+                    error(new Exception("Invalid server channel transport"));
+                    return;
+                }
+                done(channels);
+            }
+        }.get();
+    }
+
+    private static void close(final IChannel[] channels) throws Exception {
+        new TCFTask<Object>(TIMEOUT) {
+            public void run() {
+                for (IChannel c : channels) {
+                    if (c.getState() != IChannel.STATE_OPEN) {
+                        error(new Exception("Channel is not open"));
+                        return;
+                    }
+                }
+                channels[0].close();
+                done(this);
+            }
+        }.get();
+    }
+
+    /* Send echo messages over both channels at same time, check the replies */
+    private static void echo(final IChannel[] channels, final int size, final int cnt) throws Exception {
+        new TCFTask<Object>(TIMEOUT) {
+            int reply_cnt;
+            public void run() {
+                for (int n = 0; n < cnt; n++) {
+                    for (int i = 0; i < channels.length; i++) {
+                        final String echo = createEcho(size, i * cnt + n);
+                        IDiagnostics diag = channels[i].getRemoteService(IDiagnostics.class);
+                        diag.echo(echo, new IDiagnostics.DoneEcho() {
+                            public void doneEcho(IToken token, Throwable error, String s) {
+                                if (error != null) {
+                                    error(error);
+                                }
+                                else if (!echo.equals(s)) {
+                                    error(new Exception("Invalid echo reply"));
+                                }
+                                else if (++reply_cnt == channels.length * cnt) {
+                                    done(this);
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+        }.get();
+    }
+
+    /**
+     * Connect a client to the server and send messages in both directions over the two rings
+     * of the mapped file. Message size is not a divisor of the ring size, so the messages
+     * wrap around the ring end at different positions.
+     */
+    public void testRingWrap() throws Exception {
+        ServerSHM server = createServer();
+        try {
+            IChannel[] channels = connect();
+            echo(channels, 100, 16);
+            echo(channels, RING_SIZE / 3 + 11, 16);
+            close(channels);
+        }
+        finally {
+            closeServer(server);
+        }
+    }
+
+    /**
+     * A message larger than the ring: the writer has to wait until the reader frees space in the ring.
+     * After the channels are idle, the reader threads wait on their doorbells:
+     * a message must wake up the reader without waiting for the doorbell timeout.
+     */
+    public void testDoorbell() throws Exception {
+        ServerSHM server = createServer();
+        try {
+            final IChannel[] channels = connect();
+            echo(channels, RING_SIZE * 3 + 7, 2);
+            final int cnt = 4;
+            long time = new TCFTask<Long>(TIMEOUT) {
+                long time;
+                int reply_cnt;
+                public void run() {
+                    sendEcho();
+                }
+                void sendEcho() {
+                    // Let the reader threads block on the doorbell, then measure the round trip
+                    Protocol.invokeLater(DOORBELL_TIMEOUT * 2, TimeUnit.MILLISECONDS, new Runnable() {
+                        public void run() {
+                            final long start = System.currentTimeMillis();
+                            IDiagnostics diag = channels[0].getRemoteService(IDiagnostics.class);
+                            diag.echo("idle", new IDiagnostics.DoneEcho() {
+                                public void doneEcho(IToken token, Throwable error, String s) {
+                                    if (error != null) {
+                                        error(error);
+                                        return;
+                                    }
+                                    time += System.currentTimeMillis() - start;
+                                    if (++reply_cnt < cnt) sendEcho();
+                                    else done(time);
+                                }
+                            });
+                        }
+                    });
+                }
+            }.get();
+            // Without the doorbell, each wait of a reader would end by the timeout
+            Assert.assertTrue("Reader is not woken up by the doorbell: " + time + " ms",
+                    time < cnt * DOORBELL_TIMEOUT / 2);
+            close(channels);
+        }
+        finally {
+            closeServer(server);
+        }
+    }
+
+    /**
+     * Connect to a server in another process and kill the process: the channel must detect
+     * the dead peer by the file lock, since the peer cannot set the closed flag in the file.
+     */
+    public void testDeadPeer() throws Exception {
+        StringBuffer cp = new StringBuffer();
+        for (Class<?> c : new Class<?>[] { ChannelSHM.class, PeerProcess.class }) {
+            if (cp.length() > 0) cp.append(File.pathSeparatorChar);
+            cp.append(new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+        }
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", cp.toString(),
+                PeerProcess.class.getName(), fDir.getPath());
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        try {
+            BufferedReader rd = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            Assert.assertEquals(PeerProcess.READY, rd.readLine());
+            final IPeer peer = createPeer();
+            final List<Throwable> errors = new ArrayList<Throwable>();
+            new TCFTask<Object>(TIMEOUT) {
+                public void run() {
+                    final IChannel channel = new ChannelSHM(peer, peer.getAttributes().get(ChannelSHM.ATTR_SHM_PATH));
+                    channel.addChannelListener(new IChannel.IChannelListener() {
+                        public void onChannelOpened() {
+                            done(this);
+                        }
+                        public void onChannelClosed(Throwable error) {
+                            if (!isDone()) {
+                                error(error != null ? error : new Exception("Channel closed"));
+                            }
+                            else {
+                                synchronized (errors) {
+                                    errors.add(error);
+                                    errors.notifyAll();
+                                }
+                            }
+                        }
+                        public void congestionLevel(int level) {
+                        }
+                    });
+                }
+            }.get();
+            process.destroy();
+            process.waitFor();
+            synchronized (errors) {
+                long time = System.currentTimeMillis() + TIMEOUT;
+                while (errors.isEmpty()) {
+                    long wait = time - System.currentTimeMillis();
+                    Assert.assertTrue("Dead peer is not detected", wait > 0);
+                    errors.wait(wait);
+                }
+            }
+            Throwable error = errors.get(0);
+            Assert.assertNotNull("Channel is closed without error", error);
+            Assert.assertTrue(error.getMessage(), error.getMessage().indexOf("terminated") >= 0);
+        }
+        finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Main class of the peer process of testDeadPeer().
+     * The process runs a shared memory server until it is killed or its input is closed.
+     */
+    public static class PeerProcess {
+
+        static final String READY = "ready";
+
+        public static void main(final String[] args) throws Exception {
+            RingEventQueue queue = new RingEventQueue("TCF Test SHM Peer");
+            Protocol.setEventQueue(queue);
+            queue.start();
+            new TCFTask<ServerSHM>() {
+                public void run() {
+                    try {
+                        done(new ServerSHM("TCF Test SHM Peer", args[0]));
+                    }
+                    catch (IOException x) {
+                        error(x);
+                    }
+                }
+            }.get();
+            System.out.println(READY);
+            System.out.flush();
+            while (System.in.read() >= 0) {}
+            System.exit(0);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.util.TCFFuture;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of TCFFuture: completion, call-backs, composition and propagation of cancellation.
+ */
+public class FutureTests extends TestCase {
+
+    private static final long TIMEOUT = 10000;
+
+    /** Command token that records cancellation, and the thread that canceled it */
+    private static class TestToken implements IToken {
+        final TCFFuture<Boolean> canceled = new TCFFuture<Boolean>();
+        public boolean cancel() {
+            return canceled.done(Protocol.isDispatchThread());
+        }
+    }
+
+    /** Call-back that records results, and whether it was called by the dispatch thread */
+    private static class Results implements TCFFuture.Callback<Object> {
+        final List<Object> list = new ArrayList<Object>();
+        final TCFFuture<List<Object>> done = new TCFFuture<List<Object>>();
+        final int cnt;
+        Results(int cnt) {
+            this.cnt = cnt;
+        }
+        public void done(Throwable error, Object result) {
+            if (!Protocol.isDispatchThread()) done.error(new Exception("Call-back is not called by the dispatch thread"));
+            list.add(error != null ? error : result);
+            if (list.size() == cnt) done.done(list);
+        }
+    }
+
+    /* Wait until a future is completed, return its error, or null if it succeeded */
+    private static Throwable await(TCFFuture<?> f) throws InterruptedException {
+        try {
+            f.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            return null;
+        }
+        catch (CancellationException x) {
+            return x;
+        }
+        catch (ExecutionException x) {
+            return x.getCause();
+        }
+        catch (TimeoutException x) {
+            Assert.fail("Future is not completed");
+            return null;
+        }
+    }
+
+    /* Wait until events that are already in the dispatch queue are done */
+    private static void flush() throws Exception {
+        new TCFTask<Object>(TIMEOUT) {
+            public void run() {
+                done(this);
+            }
+        }.get();
+    }
+
+    public void testCompletion() throws Exception {
+        TCFFuture<String> f = new TCFFuture<String>();
+        Results res = new Results(3);
+        f.addCallback(res);
+        f.addCallback(res);
+        Assert.assertFalse(f.isDone());
+        try {
+            f.get(10, TimeUnit.MILLISECONDS);
+            Assert.fail("Expected a TimeoutException");
+        }
+        catch (TimeoutException x) {
+        }
+        // A future is completed only once
+        Assert.assertTrue(f.done("A"));
+        Assert.assertFalse(f.done("B"));
+        Assert.assertFalse(f.error(new Exception()));
+        Assert.assertFalse(f.cancel(true));
+        Assert.assertTrue(f.isDone());
+        Assert.assertFalse(f.isCancelled());
+        Assert.assertNull(f.getError());
+        Assert.assertEquals("A", f.get());
+        // Call-back added after completion is called too
+        f.addCallback(res);
+        Assert.assertEquals(Arrays.asList("A", "A", "A"), res.done.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        Assert.assertEquals("C", TCFFuture.completed("C").get());
+        Exception error = new Exception("Failed");
+        TCFFuture<String> e = TCFFuture.failed(error);
+        Assert.assertTrue(e.isDone());
+        Assert.assertSame(error, e.getError());
+        Assert.assertSame(error, await(e));
+        res = new Results(1);
+        e.addCallback(res);
+        Assert.assertEquals(Arrays.asList(error), res.done.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    public void testCommand() throws Exception {
+        final TCFFuture<Boolean> started = new TCFFuture<Boolean>();
+        TCFFuture<String> cmd = new TCFFuture.Command<String>() {
+            protected IToken start() {
+                started.done(Protocol.isDispatchThread());
+                Protocol.invokeLater(new Runnable() {
+                    public void run() {
+                        done("R");
+                    }
+                });
+                return null;
+            }
+        }.submit();
+        Assert.assertEquals("R", cmd.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(started.get());
+        // Exception thrown by start() fails the command
+        final Exception error = new Exception("Cannot start");
+        cmd = new TCFFuture.Command<String>() {
+            protected IToken start() throws Exception {
+                throw error;
+            }
+        }.submit();
+        Assert.assertSame(error, await(cmd));
+    }
+
+    public void testCancelCommand() throws Exception {
+        final TestToken token = new TestToken();
+        final TCFFuture<Boolean> started = new TCFFuture<Boolean>();
+        TCFFuture<String> cmd = new TCFFuture.Command<String>() {
+            protected IToken start() {
+                started.done(true);
+                return token;
+            }
+        }.submit();
+        Assert.assertTrue(started.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(cmd.cancel(true));
+        Assert.assertFalse(cmd.cancel(true));
+        Assert.assertFalse(cmd.done("R"));
+        Assert.assertTrue(cmd.isCancelled());
+        Assert.assertTrue(await(cmd) instanceof CancellationException);
+        // The command is canceled by the dispatch thread
+        Assert.assertTrue(token.canceled.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // Command that is canceled before it is started is not started
+        final TCFFuture<Boolean> not_started = new TCFFuture<Boolean>();
+        TCFFuture.Command<String> c = new TCFFuture.Command<String>() {
+            protected IToken start() {
+                not_started.done(false);
+                return null;
+            }
+        };
+        Assert.assertTrue(c.cancel(true));
+        c.submit();
+        flush();
+        Assert.assertFalse(not_started.isDone());
+
+        // Token that is set after the future is canceled is canceled right away
+        TestToken late = new TestToken();
+        TCFFuture<String> f = new TCFFuture<String>();
+        f.cancel(true);
+        f.setToken(late);
+        Assert.assertTrue(late.canceled.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        // Token of a future that is completed normally is not canceled
+        TestToken unused = new TestToken();
+        f = new TCFFuture<String>();
+        f.setToken(unused);
+        f.done("R");
+        f.setToken(unused);
+        flush();
+        Assert.assertFalse(unused.canceled.isDone());
+    }
+
+    public void testThen() throws Exception {
+        TCFFuture<Integer> f = new TCFFuture<Integer>();
+        TCFFuture<Integer> g = f.then(new TCFFuture.Function<Integer,Integer>() {
+            public Integer apply(Integer value) {
+                return value * 3;
+            }
+        });
+        TCFFuture<String> h = g.then(new TCFFuture.Function<Integer,String>() {
+            public String apply(Integer value) {
+                return "v" + value;
+            }
+        });
+        f.done(2);
+        Assert.assertEquals("v6", h.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(Integer.valueOf(6), g.get());
+
+        // Error of the function or of the source future fails the new future
+        final Exception error = new Exception("Failed");
+        TCFFuture<Integer> e = TCFFuture.completed(2).then(new TCFFuture.Function<Integer,Integer>() {
+            public Integer apply(Integer value) throws Exception {
+                throw error;
+            }
+        });
+        Assert.assertSame(error, await(e));
+        e = TCFFuture.<Integer>failed(error).then(new TCFFuture.Function<Integer,Integer>() {
+            public Integer apply(Integer value) {
+                throw new IllegalStateException("Function is called after an error");
+            }
+        });
+        Assert.assertSame(error, await(e));
+    }
+
+    public void testThenCompose() throws Exception {
+        final TCFFuture<String> inner = new TCFFuture<String>();
+        TCFFuture<String> f = TCFFuture.completed(2).thenCompose(new TCFFuture.AsyncFunction<Integer,String>() {
+            public TCFFuture<String> apply(Integer value) {
+                return inner;
+            }
+        });
+        flush();
+        Assert.assertFalse(f.isDone());
+        inner.done("R");
+        Assert.assertEquals("R", f.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // Error of the inner future fails the new future
+        final Exception error = new Exception("Failed");
+        f = TCFFuture.completed(2).thenCompose(new TCFFuture.AsyncFunction<Integer,String>() {
+            public TCFFuture<String> apply(Integer value) {
+                return TCFFuture.failed(error);
+            }
+        });
+        Assert.assertSame(error, await(f));
+        // Function must return a future
+        f = TCFFuture.completed(2).thenCompose(new TCFFuture.AsyncFunction<Integer,String>() {
+            public TCFFuture<String> apply(Integer value) {
+                return null;
+            }
+        });
+        Assert.assertNotNull(await(f));
+        Assert.assertFalse(f.isCancelled());
+    }
+
+    public void testCancelPropagation() throws Exception {
+        // Canceling a derived future cancels the source future and its command
+        TestToken token = new TestToken();
+        TCFFuture<Integer> src = new TCFFuture<Integer>();
+        src.setToken(token);
+        TCFFuture<Integer> g = src.then(new TCFFuture.Function<Integer,Integer>() {
+            public Integer apply(Integer value) {
+                return value;
+            }
+        });
+        TCFFuture<Integer> h = g.then(new TCFFuture.Function<Integer,Integer>() {
+            public Integer apply(Integer value) {
+                return value;
+            }
+        });
+        Assert.assertTrue(h.cancel(true));
+        Assert.assertTrue(await(src) instanceof CancellationException);
+        Assert.assertTrue(src.isCancelled());
+        Assert.assertTrue(g.isCancelled());
+        Assert.assertTrue(token.canceled.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // Canceling a composed future cancels the inner future
+        final TCFFuture<Boolean> called = new TCFFuture<Boolean>();
+        final TCFFuture<String> inner = new TCFFuture<String>();
+        TCFFuture<Integer> outer = new TCFFuture<Integer>();
+        TCFFuture<String> f = outer.thenCompose(new TCFFuture.AsyncFunction<Integer,String>() {
+            public TCFFuture<String> apply(Integer value) {
+                called.done(true);
+                return inner;
+            }
+        });
+        outer.done(1);
+        Assert.assertTrue(called.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(f.cancel(true));
+        Assert.assertTrue(await(inner) instanceof CancellationException);
+        Assert.assertTrue(inner.isCancelled());
+        Assert.assertFalse(outer.isCancelled());
+
+        // Canceling a source future fails, but does not cancel, derived futures
+        src = new TCFFuture<Integer>();
+        g = src.then(new TCFFuture.Function<Integer,Integer>() {
+            public Integer apply(Integer value) {
+                return value;
+            }
+        });
+        src.cancel(true);
+        Assert.assertTrue(await(g) instanceof CancellationException);
+        Assert.assertFalse(g.isCancelled());
+    }
+
+    public void testAll() throws Exception {
+        List<TCFFuture<String>> list = new ArrayList<TCFFuture<String>>();
+        for (int i = 0; i < 3; i++) list.add(new TCFFuture<String>());
+        TCFFuture<List<String>> f = TCFFuture.all(list);
+        for (int i = 2; i >= 0; i--) {
+            flush();
+            Assert.assertFalse(f.isDone());
+            list.get(i).done("R" + i);
+        }
+        Assert.assertEquals(Arrays.asList("R0", "R1", "R2"), f.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, TCFFuture.all(new ArrayList<TCFFuture<String>>()).get().size());
+
+        // First error fails the result
+        list.clear();
+        for (int i = 0; i < 3; i++) list.add(new TCFFuture<String>());
+        f = TCFFuture.all(list);
+        Exception error = new Exception("Failed");
+        list.get(1).error(error);
+        Assert.assertSame(error, await(f));
+        list.get(0).error(new Exception("Other"));
+        list.get(2).done("R2");
+        flush();
+        Assert.assertSame(error, f.getError());
+
+        // Canceling the result cancels all futures
+        list.clear();
+        for (int i = 0; i < 3; i++) list.add(new TCFFuture<String>());
+        list.get(0).done("R0");
+        f = TCFFuture.all(list);
+        Assert.assertTrue(f.cancel(true));
+        for (int i = 1; i < 3; i++) {
+            Assert.assertTrue(await(list.get(i)) instanceof CancellationException);
+            Assert.assertTrue(list.get(i).isCancelled());
+        }
+        Assert.assertFalse(list.get(0).isCancelled());
+    }
+}
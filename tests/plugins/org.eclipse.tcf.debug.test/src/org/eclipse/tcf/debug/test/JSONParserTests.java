@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.protocol.JSON;
+import org.eclipse.tcf.protocol.JSONPullParser;
+
+/**
+ * Tests that parse same data with JSONPullParser and JSONReader, and compare the results.
+ * Data is parsed in JSON and in binary encoding.
+ */
+public class JSONParserTests extends TestCase {
+
+    private static Object[] createValues() {
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put("ID", "P1.2");
+        map.put("Size", Long.valueOf(0x100000000L));
+        map.put("Empty", new HashMap<String,Object>());
+        map.put("List", Arrays.asList(new Object[]{ Integer.valueOf(1), "x", null, Boolean.FALSE }));
+        map.put("Nested", Arrays.asList(new Object[]{ Arrays.asList(new Object[0]), new HashMap<String,Object>(map) }));
+        return new Object[] {
+            null,
+            Boolean.TRUE,
+            Boolean.FALSE,
+            Integer.valueOf(0),
+            Integer.valueOf(-1),
+            Integer.valueOf(Integer.MAX_VALUE),
+            Integer.valueOf(Integer.MIN_VALUE),
+            Long.valueOf(Long.MAX_VALUE),
+            Long.valueOf(Long.MIN_VALUE),
+            BigInteger.ONE.shiftLeft(70),
+            BigInteger.ONE.shiftLeft(70).negate(),
+            new BigDecimal("3.25"),
+            new BigDecimal("-1.5E-10"),
+            Double.valueOf(1e300),
+            "",
+            "plain",
+            "quote \" backslash \\ slash / tab \t newline \n ctrl \u0001",
+            "unicode \u00e9\u4e2d\ud83d\ude00",
+            Arrays.asList(new Object[0]),
+            map,
+        };
+    }
+
+    /* Compare values that are created by JSON parsers, numbers are compared by value */
+    private static void assertEqualValues(Object x, Object y) {
+        if (x == null || y == null) {
+            Assert.assertNull(x);
+            Assert.assertNull(y);
+        }
+        else if (x instanceof Number) {
+            Assert.assertTrue(y instanceof Number);
+            BigDecimal a = new BigDecimal(x.toString());
+            BigDecimal b = new BigDecimal(y.toString());
+            Assert.assertEquals(0, a.compareTo(b));
+        }
+        else if (x instanceof byte[] || y instanceof byte[]) {
+            Assert.assertTrue(Arrays.equals(JSON.toByteArray(x), JSON.toByteArray(y)));
+        }
+        else if (x instanceof Map) {
+            Assert.assertTrue(y instanceof Map);
+            Map<?,?> a = (Map<?,?>)x;
+            Map<?,?> b = (Map<?,?>)y;
+            Assert.assertEquals(a.keySet(), b.keySet());
+            for (Object k : a.keySet()) assertEqualValues(a.get(k), b.get(k));
+        }
+        else if (x instanceof Collection) {
+            Assert.assertTrue(y instanceof Collection);
+            Collection<?> a = (Collection<?>)x;
+            Collection<?> b = (Collection<?>)y;
+            Assert.assertEquals(a.size(), b.size());
+            Iterator<?> i = a.iterator();
+            Iterator<?> j = b.iterator();
+            while (i.hasNext()) assertEqualValues(i.next(), j.next());
+        }
+        else {
+            Assert.assertEquals(x, y);
+        }
+    }
+
+    private static void assertEqualValues(Object[] x, Object[] y) {
+        Assert.assertEquals(x.length, y.length);
+        for (int i = 0; i < x.length; i++) assertEqualValues(x[i], y[i]);
+    }
+
+    private static Object[] pullSequence(byte[] b) throws IOException {
+        JSONPullParser p = JSON.getPullParser().reset(b, 0, b.length);
+        List<Object> l = new ArrayList<Object>();
+        while (p.peek() != JSONPullParser.END) {
+            l.add(p.nextValue());
+            p.nextSeparator();
+        }
+        return l.toArray();
+    }
+
+    public void testValues() throws Exception {
+        Object[] values = createValues();
+        byte[] b = JSON.toJSONSequence(values);
+        Object[] x = JSON.parseSequence(b);
+        assertEqualValues(values, x);
+        assertEqualValues(x, pullSequence(b));
+    }
+
+    public void testZeroCopy() throws Exception {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) data[i] = (byte)i;
+        JSON.Binary bin = new JSON.Binary(data, 0, data.length);
+        Object[] values = { bin, "after", new JSON.Binary(data, 0, 0), Arrays.asList(new Object[]{ bin }) };
+        for (int i = 0; i < 2; i++) {
+            byte[] b = JSON.toJSONSequence(values, i != 0);
+            Object[] x = JSON.parseSequence(b);
+            Assert.assertTrue(Arrays.equals(data, JSON.toByteArray(x[0])));
+            assertEqualValues(x, pullSequence(b));
+            JSONPullParser p = JSON.getPullParser().reset(b, 0, b.length);
+            Assert.assertTrue(Arrays.equals(data, p.nextBinary()));
+            p.nextSeparator();
+        }
+    }
+
+    private static void checkTokens(byte[] b, Map<?,?> map) throws IOException {
+        JSONPullParser p = JSON.getPullParser().reset(b, 0, b.length);
+        Assert.assertEquals(JSONPullParser.BEGIN_OBJECT, p.peek());
+        p.beginObject();
+        int cnt = 0;
+        while (p.hasNext()) {
+            String name = p.nextName();
+            if (name.equals("ID")) {
+                Assert.assertEquals("P1.2", p.nextString());
+            }
+            else if (name.equals("Size")) {
+                Assert.assertEquals(0x100000000L, p.nextLong());
+            }
+            else if (name.equals("List")) {
+                p.beginArray();
+                Assert.assertEquals(1, p.nextInt());
+                Assert.assertEquals("x", p.nextString());
+                Assert.assertTrue(p.nextNull());
+                Assert.assertFalse(p.nextBoolean());
+                Assert.assertFalse(p.hasNext());
+                p.endArray();
+            }
+            else {
+                p.skipValue();
+            }
+            cnt++;
+        }
+        p.endObject();
+        p.nextSeparator();
+        Assert.assertEquals(map.size(), cnt);
+        Assert.assertEquals(JSONPullParser.NUMBER, p.peek());
+        Assert.assertEquals(7, p.nextInt());
+        p.nextSeparator();
+        Assert.assertEquals("s", p.nextString());
+        p.nextSeparator();
+        Assert.assertEquals(JSONPullParser.END, p.peek());
+    }
+
+    public void testTokens() throws Exception {
+        Object[] values = createValues();
+        Map<?,?> map = (Map<?,?>)values[values.length - 1];
+        checkTokens(JSON.toJSONSequence(new Object[]{ map, Long.valueOf(7), "s" }), map);
+    }
+
+    public void testNumberTypes() throws Exception {
+        // Integers are parsed into the smallest of Integer, Long and BigInteger that can hold the value
+        Object[] values = {
+            Integer.valueOf(5),
+            Integer.valueOf(Integer.MAX_VALUE),
+            Integer.valueOf(Integer.MIN_VALUE),
+            Long.valueOf(Integer.MAX_VALUE + 1L),
+            Long.valueOf(Integer.MIN_VALUE - 1L),
+            Long.valueOf(1L << 40),
+            Long.valueOf(Long.MAX_VALUE),
+            Long.valueOf(Long.MIN_VALUE),
+            BigInteger.ONE.shiftLeft(80),
+            BigInteger.valueOf(Long.MIN_VALUE).subtract(BigInteger.ONE),
+            new BigDecimal("0.5"),
+        };
+        byte[] b = JSON.toJSONSequence(values);
+        Object[] x = JSON.parseSequence(b);
+        JSONPullParser p = JSON.getPullParser().reset(b, 0, b.length);
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(values[i].getClass(), x[i].getClass());
+            assertEqualValues(values[i], x[i]);
+            Number n = p.nextNumber();
+            Assert.assertEquals(values[i].getClass(), n.getClass());
+            assertEqualValues(values[i], n);
+            p.nextSeparator();
+        }
+    }
+
+    public void testLargeObjects() throws Exception {
+        // Large objects are built in hash maps, a duplicate key replaces the value, as in small objects
+        int cnt = 10000;
+        StringBuffer bf = new StringBuffer();
+        bf.append('{');
+        for (int i = 0; i < cnt; i++) {
+            bf.append("\"k").append(i).append("\":");
+            if (i == 100) {
+                // Nested large object with a duplicate key
+                bf.append('{');
+                for (int j = 0; j < 50; j++) bf.append("\"n").append(j).append("\":").append(j).append(',');
+                bf.append("\"n7\":-7}");
+            }
+            else if (i == 200) {
+                bf.append("{\"k0\":\"nested\"}");
+            }
+            else {
+                bf.append(i);
+            }
+            bf.append(',');
+        }
+        bf.append("\"k5\":\"dup\",\"k9999\":null}");
+        bf.append('\0');
+        byte[] b = bf.toString().getBytes("UTF-8");
+        Object[] x = JSON.parseSequence(b);
+        assertEqualValues(x, pullSequence(b));
+        Map<?,?> m = (Map<?,?>)x[0];
+        Assert.assertEquals(cnt, m.size());
+        Assert.assertEquals(Integer.valueOf(4), m.get("k4"));
+        Assert.assertEquals("dup", m.get("k5"));
+        Assert.assertNull(m.get("k9999"));
+        Assert.assertTrue(m.containsKey("k9999"));
+        Map<?,?> n = (Map<?,?>)m.get("k100");
+        Assert.assertEquals(50, n.size());
+        Assert.assertEquals(Integer.valueOf(-7), n.get("n7"));
+        Assert.assertEquals(Integer.valueOf(49), n.get("n49"));
+        Assert.assertEquals("nested", ((Map<?,?>)m.get("k200")).get("k0"));
+        // A parser can be used again after an error in a large object
+        bf.setLength(0);
+        bf.append("[{");
+        for (int i = 0; i < 40; i++) bf.append("\"k").append(i).append("\":{\"a\":").append(i).append("},");
+        bf.append("\"x\" 1}]\0");
+        b = bf.toString().getBytes("UTF-8");
+        try {
+            JSON.parseSequence(b);
+            Assert.fail("JSONReader: expected an IOException");
+        }
+        catch (IOException e) {
+        }
+        try {
+            pullSequence(b);
+            Assert.fail("JSONPullParser: expected an IOException");
+        }
+        catch (IOException e) {
+        }
+        testValues();
+    }
+
+    public void testInvalidData() throws Exception {
+        String[] invalid = { "[1,2\0", "{\"a\" 1}\0", "[1 2]\0", "tru\0", "\"abc\0", "1" };
+        for (String s : invalid) {
+            byte[] b = s.getBytes("UTF-8");
+            try {
+                JSON.parseSequence(b);
+                Assert.fail("JSONReader: expected an IOException: " + s);
+            }
+            catch (IOException e) {
+            }
+            try {
+                pullSequence(b);
+                Assert.fail("JSONPullParser: expected an IOException: " + s);
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
+    public void testBinaryValues() throws Exception {
+        Object[] values = createValues();
+        byte[] b = JSON.toBinarySequence(values);
+        Assert.assertEquals((byte)0xd9, b[0]);
+        Object[] x = JSON.parseSequence(JSON.toJSONSequence(values));
+        assertEqualValues(x, JSON.parseSequence(b));
+        assertEqualValues(x, pullSequence(b));
+        assertEqualValues(x, JSON.parseSequence(ByteBuffer.wrap(b)));
+    }
+
+    public void testBinaryData() throws Exception {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) data[i] = (byte)i;
+        JSON.Binary bin = new JSON.Binary(data, 10, 200);
+        Object[] values = { bin, "after", Arrays.asList(new Object[]{ bin }) };
+        byte[] b = JSON.toBinarySequence(values);
+        byte[] exp = Arrays.copyOfRange(data, 10, 210);
+        Object[] x = JSON.parseSequence(b);
+        Assert.assertTrue(Arrays.equals(exp, JSON.toByteArray(x[0])));
+        assertEqualValues(x, JSON.parseSequence(JSON.toJSONSequence(values, true)));
+        assertEqualValues(x, pullSequence(b));
+        JSONPullParser p = JSON.getPullParser().reset(b, 0, b.length);
+        Assert.assertEquals(JSONPullParser.BINARY, p.peek());
+        Assert.assertTrue(Arrays.equals(exp, p.nextBinary()));
+        p.nextSeparator();
+        Assert.assertEquals("after", p.nextString());
+    }
+
+    public void testBinaryTokens() throws Exception {
+        Object[] values = createValues();
+        Map<?,?> map = (Map<?,?>)values[values.length - 1];
+        checkTokens(JSON.toBinarySequence(new Object[]{ map, Long.valueOf(7), "s" }), map);
+    }
+
+    public void testBinaryNumberTypes() throws Exception {
+        Object[] values = {
+            Integer.valueOf(5),
+            Integer.valueOf(-5),
+            Long.valueOf(1L << 40),
+            Long.valueOf(Long.MIN_VALUE),
+            BigInteger.ONE.shiftLeft(80),
+            BigInteger.ONE.shiftLeft(80).negate(),
+            new BigDecimal("0.5"),
+            new BigDecimal("-123.456E-7"),
+        };
+        Object[] x = JSON.parseSequence(JSON.toJSONSequence(values));
+        Object[] y = JSON.parseSequence(JSON.toBinarySequence(values));
+        Assert.assertEquals(x.length, y.length);
+        for (int i = 0; i < x.length; i++) {
+            Assert.assertEquals(x[i].getClass(), y[i].getClass());
+            assertEqualValues(x[i], y[i]);
+        }
+    }
+
+    public void testBinaryTruncated() throws Exception {
+        Object[] values = createValues();
+        byte[] b = JSON.toBinarySequence(new Object[]{ values[values.length - 1] });
+        for (int n = 4; n < b.length; n++) {
+            byte[] t = Arrays.copyOf(b, n);
+            try {
+                JSON.parseSequence(t);
+                Assert.fail("JSONReader: expected an IOException, size " + n);
+            }
+            catch (IOException e) {
+            }
+            try {
+                pullSequence(t);
+                Assert.fail("JSONPullParser: expected an IOException, size " + n);
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.debug.test.util.LoopbackChannel;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.services.IMemory;
+import org.eclipse.tcf.util.TCFDataCache;
+import org.eclipse.tcf.util.TCFMemoryCache;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of TCFMemoryCache: reading of gaps, read errors and invalidation while a read is pending.
+ * Memory commands are not sent to a remote peer, the tests reply to them explicitly.
+ */
+public class MemoryCacheTests extends TestCase {
+
+    private LoopbackChannel[] fChannels;
+
+    /** Pending Memory.get command */
+    private static class Read implements IToken {
+        final BigInteger addr;
+        final byte[] buf;
+        final int offs;
+        final int size;
+        final IMemory.DoneMemory done;
+
+        Read(BigInteger addr, byte[] buf, int offs, int size, IMemory.DoneMemory done) {
+            this.addr = addr;
+            this.buf = buf;
+            this.offs = offs;
+            this.size = size;
+            this.done = done;
+        }
+
+        public boolean cancel() {
+            return false;
+        }
+    }
+
+    /** Memory error with per byte status */
+    private static class OffsetError extends IMemory.MemoryError implements IMemory.ErrorOffset {
+
+        private static final long serialVersionUID = 1L;
+
+        final int[] status;
+
+        OffsetError(String msg, int[] status) {
+            super(msg);
+            this.status = status;
+        }
+
+        public int getStatus(int offset) {
+            return status[offset];
+        }
+
+        public String getMessage(int offset) {
+            return status[offset] == BYTE_VALID ? null : getMessage();
+        }
+    }
+
+    /**
+     * Memory context that records read commands.
+     * Data is copied when a command is issued, so changes of memory contents
+     * while a command is pending are not seen by the command.
+     */
+    private static class TestMemory implements IMemory.MemoryContext {
+
+        final byte[] mem = new byte[0x1000];
+        final List<Read> reads = new ArrayList<Read>();
+
+        TestMemory() {
+            fill(0);
+        }
+
+        void fill(int seed) {
+            for (int i = 0; i < mem.length; i++) mem[i] = (byte)(i + seed);
+        }
+
+        void reply(Read r, IMemory.MemoryError error) {
+            Assert.assertTrue(reads.remove(r));
+            r.done.doneMemory(r, error);
+        }
+
+        public String getID() {
+            return "Mem1";
+        }
+
+        public String getParentID() {
+            return null;
+        }
+
+        public String getProcessID() {
+            return "Mem1";
+        }
+
+        public boolean isBigEndian() {
+            return false;
+        }
+
+        public int getAddressSize() {
+            return 4;
+        }
+
+        public String getName() {
+            return "Mem1";
+        }
+
+        public Number getStartBound() {
+            return null;
+        }
+
+        public Number getEndBound() {
+            return null;
+        }
+
+        public Collection<String> getAccessTypes() {
+            return null;
+        }
+
+        public Map<String,Object> getProperties() {
+            return null;
+        }
+
+        public IToken set(Number addr, int word_size, byte[] buf, int offs, int size, int mode,
+                IMemory.DoneMemory done) {
+            throw new UnsupportedOperationException();
+        }
+
+        public IToken get(Number addr, int word_size, byte[] buf, int offs, int size, int mode,
+                IMemory.DoneMemory done) {
+            BigInteger a = (BigInteger)addr;
+            System.arraycopy(mem, a.intValue(), buf, offs, size);
+            Read r = new Read(a, buf, offs, size, done);
+            reads.add(r);
+            return r;
+        }
+
+        public IToken fill(Number addr, int word_size, byte[] value, int size, int mode,
+                IMemory.DoneMemory done) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** Client call-back that counts state changes */
+    private static class Client implements Runnable {
+        int cnt;
+        public void run() {
+            cnt++;
+        }
+    }
+
+    /**
+     * Test steps, each step is executed in a separate dispatch cycle,
+     * so client call-backs that are posted by a step are done before next step.
+     * The task can start before fields of a sub-class are initialized,
+     * so the memory and the cache are created by the first step.
+     */
+    private abstract class Steps extends TCFTask<Object> {
+        TestMemory mem;
+        TCFMemoryCache cache;
+        int step;
+        public void run() {
+            try {
+                if (step == 0) {
+                    mem = new TestMemory();
+                    cache = new TCFMemoryCache(new TCFDataCache<IMemory.MemoryContext>(fChannels[0]) {
+                        @Override
+                        protected boolean startDataRetrieval() {
+                            set(null, null, mem);
+                            return true;
+                        }
+                    });
+                }
+                if (step(step++)) {
+                    cache.dispose();
+                    done(this);
+                }
+                else {
+                    Protocol.invokeLater(this);
+                }
+            }
+            catch (Throwable x) {
+                error(x);
+            }
+        }
+        /* Returns true after last step */
+        abstract boolean step(int n);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        fChannels = LoopbackChannel.openPair();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        LoopbackChannel.closePair(fChannels);
+        fChannels = null;
+    }
+
+    private static BigInteger addr(int a) {
+        return BigInteger.valueOf(a);
+    }
+
+    private static void assertRead(Read r, int addr, int size) {
+        Assert.assertEquals(addr(addr), r.addr);
+        Assert.assertEquals(size, r.size);
+    }
+
+    /* Check cached data against memory contents filled with given seed */
+    private static void assertData(TCFMemoryCache cache, int addr, int size, int seed) {
+        byte[] buf = new byte[size];
+        int[] status = new int[size];
+        Assert.assertNull(cache.read(addr(addr), buf, 0, size, status));
+        for (int i = 0; i < size; i++) {
+            Assert.assertEquals((byte)(addr + i + seed), buf[i]);
+            Assert.assertEquals(IMemory.ErrorOffset.BYTE_VALID, status[i]);
+        }
+    }
+
+    public void testRead() throws Exception {
+        new Steps() {
+            Client client;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    client = new Client();
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    assertRead(mem.reads.get(0), 0x100, 0x10);
+                    // Validating a pending range does not issue another command
+                    Assert.assertFalse(cache.validate(addr(0x104), 4, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 1:
+                    Assert.assertEquals(1, client.cnt);
+                    Assert.assertTrue(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertTrue(cache.validate(addr(0x108), 8, client));
+                    Assert.assertEquals(0, mem.reads.size());
+                    assertData(cache, 0x100, 0x10, 0);
+                    assertData(cache, 0x10a, 3, 0);
+                    // Only the missing part of a range is read, reads are not widened by default
+                    Assert.assertFalse(cache.validate(addr(0x108), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    assertRead(mem.reads.get(0), 0x110, 8);
+                    mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 2:
+                    Assert.assertTrue(cache.validate(addr(0x108), 0x10, client));
+                    assertData(cache, 0x100, 0x18, 0);
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+
+    public void testGaps() throws Exception {
+        new Steps() {
+            Client client;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    client = new Client();
+                    Assert.assertFalse(cache.validate(addr(0x110), 0x10, client));
+                    Assert.assertFalse(cache.validate(addr(0x130), 0x10, client));
+                    Assert.assertEquals(2, mem.reads.size());
+                    mem.reply(mem.reads.get(0), null);
+                    mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 1:
+                    // Gaps separated by cached blocks are read by a single command
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x50, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    assertRead(mem.reads.get(0), 0x100, 0x50);
+                    mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 2:
+                    Assert.assertTrue(cache.validate(addr(0x100), 0x50, client));
+                    assertData(cache, 0x100, 0x50, 0);
+                    // A pending block ends a read, since the pending data cannot be replaced
+                    Assert.assertFalse(cache.validate(addr(0x210), 0x10, client));
+                    Assert.assertFalse(cache.validate(addr(0x200), 0x30, client));
+                    Assert.assertEquals(3, mem.reads.size());
+                    assertRead(mem.reads.get(0), 0x210, 0x10);
+                    assertRead(mem.reads.get(1), 0x200, 0x10);
+                    assertRead(mem.reads.get(2), 0x220, 0x10);
+                    while (mem.reads.size() > 0) mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 3:
+                    Assert.assertTrue(cache.validate(addr(0x200), 0x30, client));
+                    assertData(cache, 0x200, 0x30, 0);
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+
+    public void testPageReads() throws Exception {
+        new Steps() {
+            Client client;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    client = new Client();
+                    cache.setPageReads(true);
+                    Assert.assertFalse(cache.validate(addr(0x410), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    assertRead(mem.reads.get(0), 0x400, TCFMemoryCache.PAGE_SIZE);
+                    mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 1:
+                    Assert.assertTrue(cache.validate(addr(0x400), TCFMemoryCache.PAGE_SIZE, client));
+                    assertData(cache, 0x400, TCFMemoryCache.PAGE_SIZE, 0);
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+
+    public void testErrors() throws Exception {
+        new Steps() {
+            Client client;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    client = new Client();
+                    Assert.assertFalse(cache.validate(addr(0x100), 8, client));
+                    Assert.assertFalse(cache.validate(addr(0x200), 8, client));
+                    Assert.assertEquals(2, mem.reads.size());
+                    int[] status = new int[8];
+                    status[4] = status[5] = IMemory.ErrorOffset.BYTE_CANNOT_READ;
+                    status[6] = IMemory.ErrorOffset.BYTE_INVALID;
+                    mem.reply(mem.reads.get(0), new OffsetError("Cannot read", status));
+                    mem.reply(mem.reads.get(0), new IMemory.MemoryError("No memory"));
+                    return false;
+                case 1:
+                    Assert.assertTrue(cache.validate(addr(0x100), 8, client));
+                    Assert.assertTrue(cache.validate(addr(0x200), 8, client));
+                    // Bytes that were read are valid, other bytes have status of the error
+                    byte[] buf = new byte[8];
+                    int[] res = new int[8];
+                    Throwable error = cache.read(addr(0x100), buf, 0, 8, res);
+                    Assert.assertNotNull(error);
+                    Assert.assertEquals("Cannot read", error.getMessage());
+                    for (int i = 0; i < 4; i++) {
+                        Assert.assertEquals(IMemory.ErrorOffset.BYTE_VALID, res[i]);
+                        Assert.assertEquals((byte)(0x100 + i), buf[i]);
+                    }
+                    Assert.assertEquals(IMemory.ErrorOffset.BYTE_CANNOT_READ, res[4]);
+                    Assert.assertEquals(IMemory.ErrorOffset.BYTE_CANNOT_READ, res[5]);
+                    Assert.assertEquals(IMemory.ErrorOffset.BYTE_INVALID, res[6]);
+                    Assert.assertEquals(IMemory.ErrorOffset.BYTE_VALID, res[7]);
+                    // Error without per byte status: all bytes are unknown
+                    error = cache.read(addr(0x200), buf, 0, 8, res);
+                    Assert.assertNotNull(error);
+                    Assert.assertEquals("No memory", error.getMessage());
+                    for (int i = 0; i < 8; i++) Assert.assertEquals(IMemory.ErrorOffset.BYTE_UNKNOWN, res[i]);
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+
+    public void testInvalidate() throws Exception {
+        new Steps() {
+            Client client;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    client = new Client();
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertFalse(cache.validate(addr(0x120), 0x10, client));
+                    while (mem.reads.size() > 0) mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 1:
+                    mem.fill(1);
+                    // Invalidation of a range drops blocks that overlap the range, other blocks stay cached
+                    cache.invalidate(addr(0x10f), 1);
+                    Assert.assertTrue(cache.validate(addr(0x120), 0x10, client));
+                    assertData(cache, 0x120, 0x10, 0);
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    assertRead(mem.reads.get(0), 0x100, 0x10);
+                    mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 2:
+                    Assert.assertTrue(cache.validate(addr(0x100), 0x10, client));
+                    assertData(cache, 0x100, 0x10, 1);
+                    cache.reset();
+                    Assert.assertFalse(cache.validate(addr(0x120), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+
+    public void testInvalidatePending() throws Exception {
+        new Steps() {
+            Client client;
+            Read read;
+            boolean step(int n) {
+                switch (n) {
+                case 0:
+                    client = new Client();
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    read = mem.reads.get(0);
+                    // Memory changes while the read is pending
+                    mem.fill(1);
+                    cache.invalidate(addr(0x108), 1);
+                    // The pending block cannot be replaced, so it is not read again until the reply
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    mem.reply(read, null);
+                    return false;
+                case 1:
+                    // Out of date data is discarded, clients are notified and have to validate again
+                    Assert.assertEquals(1, client.cnt);
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    Assert.assertNotSame(read, mem.reads.get(0));
+                    assertRead(mem.reads.get(0), 0x100, 0x10);
+                    read = mem.reads.get(0);
+                    // Same for reset()
+                    mem.fill(2);
+                    cache.reset();
+                    mem.reply(read, null);
+                    return false;
+                case 2:
+                    Assert.assertEquals(2, client.cnt);
+                    Assert.assertFalse(cache.validate(addr(0x100), 0x10, client));
+                    Assert.assertEquals(1, mem.reads.size());
+                    mem.reply(mem.reads.get(0), null);
+                    return false;
+                case 3:
+                    Assert.assertEquals(3, client.cnt);
+                    Assert.assertTrue(cache.validate(addr(0x100), 0x10, client));
+                    assertData(cache, 0x100, 0x10, 2);
+                    return true;
+                }
+                return true;
+            }
+        }.get();
+    }
+}
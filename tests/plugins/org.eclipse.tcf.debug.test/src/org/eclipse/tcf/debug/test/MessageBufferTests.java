@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.AbstractChannel;
+import org.eclipse.tcf.debug.test.util.LoopbackChannel;
+import org.eclipse.tcf.protocol.IService;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.JSON;
+import org.eclipse.tcf.services.IDiagnostics;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of message data buffers that AbstractChannel passes to BufferCommandListener.
+ */
+public class MessageBufferTests extends TestCase {
+
+    private static String createEcho(int size) {
+        StringBuffer bf = new StringBuffer();
+        for (int i = 0; i < size; i++) bf.append((char)('a' + i % 19));
+        return bf.toString();
+    }
+
+    /**
+     * Small results must not be slices of the channel input slab, since a client that keeps
+     * a small buffer would keep the whole slab in memory. Large results are slices of the slab.
+     */
+    public void testResultBuffers() throws Exception {
+        final LoopbackChannel[] pair = LoopbackChannel.openPair();
+        final String[] echo = { createEcho(10), createEcho(100), createEcho(0x4000), createEcho(10) };
+        List<ByteBuffer> res = new TCFTask<List<ByteBuffer>>() {
+            public void run() {
+                final List<ByteBuffer> list = new ArrayList<ByteBuffer>();
+                IService diag = pair[0].getRemoteService(IDiagnostics.class);
+                for (String s : echo) {
+                    try {
+                        byte[] args = JSON.toJSONSequence(new Object[]{ s });
+                        pair[0].sendCommand(diag, "echo", ByteBuffer.wrap(args), new AbstractChannel.BufferCommandListener() {
+                            public void progress(IToken token, byte[] data) {
+                            }
+                            public void result(IToken token, byte[] data) {
+                                error(new Exception("Unexpected result as byte array"));
+                            }
+                            public void terminated(IToken token, Exception error) {
+                                error(error);
+                            }
+                            public void progress(IToken token, ByteBuffer data) {
+                            }
+                            public void result(IToken token, ByteBuffer data) {
+                                list.add(data);
+                                if (list.size() == echo.length) done(list);
+                            }
+                        });
+                    }
+                    catch (Exception x) {
+                        error(x);
+                    }
+                }
+            }
+        }.get();
+        for (int i = 0; i < echo.length; i++) {
+            ByteBuffer data = res.get(i);
+            Assert.assertEquals(echo[i], JSON.parseSequence(data.duplicate())[0]);
+            Assert.assertTrue(data.hasArray());
+            if (echo[i].length() < 0x1000) {
+                Assert.assertEquals("Small result shares a buffer", data.remaining(), data.array().length);
+            }
+            else {
+                Assert.assertTrue("Large result is copied", data.remaining() < data.array().length);
+            }
+        }
+        new TCFTask<Object>() {
+            public void run() {
+                for (LoopbackChannel c : pair) c.close();
+                done(this);
+            }
+        }.get();
+    }
+}
@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.ErrorReport;
+import org.eclipse.tcf.protocol.IErrorReport;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.util.TCFRequestBatch;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of TCFRequestBatch: coalescing of requests, cancellation and sending items one by one on errors.
+ */
+public class RequestBatchTests extends TestCase {
+
+    /** Batch that records sent commands and replies in a next dispatch cycle */
+    private static class TestBatch extends TCFRequestBatch<String,String> {
+
+        final List<List<String>> sent = new ArrayList<List<String>>();
+
+        /* Error code of a batch command with more than one item, 0 if no error */
+        int batch_error;
+
+        /* Error of a command with a single item */
+        Exception item_error;
+        String bad_key;
+
+        TestBatch(int max_size) {
+            super(max_size);
+        }
+
+        @Override
+        protected void send(final List<String> keys, final DoneSend<String> done) {
+            sent.add(new ArrayList<String>(keys));
+            Protocol.invokeLater(new Runnable() {
+                public void run() {
+                    if (keys.size() > 1 && batch_error != 0) {
+                        done.doneSend(new ErrorReport("Batch error", batch_error), null);
+                    }
+                    else if (keys.size() == 1 && keys.get(0).equals(bad_key)) {
+                        done.doneSend(item_error, null);
+                    }
+                    else {
+                        List<String> data = new ArrayList<String>();
+                        for (String k : keys) data.add("v" + k);
+                        done.doneSend(null, data);
+                    }
+                }
+            });
+        }
+    }
+
+    /** Results of requests by key, each key can have several results */
+    private static class Results implements TCFRequestBatch.DoneRequest<String> {
+        final Map<String,List<Object>> map = new HashMap<String,List<Object>>();
+        final Map<IToken,String> keys = new HashMap<IToken,String>();
+        int cnt;
+
+        IToken request(TestBatch batch, String key) {
+            IToken token = batch.request(key, this);
+            keys.put(token, key);
+            return token;
+        }
+
+        public void doneRequest(IToken token, Exception error, String data) {
+            String key = keys.get(token);
+            Assert.assertNotNull(key);
+            List<Object> l = map.get(key);
+            if (l == null) map.put(key, l = new ArrayList<Object>());
+            l.add(error != null ? error : data);
+            cnt++;
+        }
+    }
+
+    /**
+     * Run a test on the dispatch thread, the test is done when given number of requests is done.
+     * The task can start before fields of a sub-class are initialized, so the fields are set by run().
+     */
+    private abstract class BatchTask extends TCFTask<Results> {
+        Results res;
+        int cnt;
+        public void run() {
+            try {
+                res = new Results();
+                cnt = start();
+                check();
+            }
+            catch (Throwable x) {
+                error(x);
+            }
+        }
+        void check() {
+            if (res.cnt >= cnt) {
+                // Wait one more cycle to catch extra replies
+                Protocol.invokeLater(new Runnable() {
+                    public void run() {
+                        done(res);
+                    }
+                });
+            }
+            else {
+                Protocol.invokeLater(new Runnable() {
+                    public void run() {
+                        check();
+                    }
+                });
+            }
+        }
+        /* Returns number of requests to wait for */
+        abstract int start();
+    }
+
+    private static void assertResult(Results res, String key, Object... exp) {
+        Assert.assertEquals(Arrays.asList(exp), res.map.get(key));
+    }
+
+    public void testCoalescing() throws Exception {
+        final TestBatch batch = new TestBatch(10);
+        Results res = new BatchTask() {
+            int start() {
+                // Requests made by an event that is already in the queue are in same batch
+                Protocol.invokeLater(new Runnable() {
+                    public void run() {
+                        res.request(batch, "C");
+                        res.request(batch, "B");
+                    }
+                });
+                res.request(batch, "A");
+                res.request(batch, "B");
+                res.request(batch, "A");
+                return 5;
+            }
+        }.get();
+        Assert.assertEquals(1, batch.sent.size());
+        Assert.assertEquals(Arrays.asList("A", "B", "C"), batch.sent.get(0));
+        assertResult(res, "A", "vA", "vA");
+        assertResult(res, "B", "vB", "vB");
+        assertResult(res, "C", "vC");
+        // Requests made after the batch is sent go into next batch
+        res = new BatchTask() {
+            int start() {
+                res.request(batch, "A");
+                Protocol.invokeLater(new Runnable() {
+                    public void run() {
+                        Protocol.invokeLater(new Runnable() {
+                            public void run() {
+                                res.request(batch, "B");
+                            }
+                        });
+                    }
+                });
+                return 2;
+            }
+        }.get();
+        Assert.assertEquals(3, batch.sent.size());
+        Assert.assertEquals(Arrays.asList("A"), batch.sent.get(1));
+        Assert.assertEquals(Arrays.asList("B"), batch.sent.get(2));
+    }
+
+    public void testMaxSize() throws Exception {
+        final TestBatch batch = new TestBatch(2);
+        Results res = new BatchTask() {
+            int start() {
+                for (String k : new String[]{ "A", "B", "C", "D", "E" }) res.request(batch, k);
+                return 5;
+            }
+        }.get();
+        Assert.assertEquals(3, batch.sent.size());
+        Assert.assertEquals(Arrays.asList("A", "B"), batch.sent.get(0));
+        Assert.assertEquals(Arrays.asList("C", "D"), batch.sent.get(1));
+        Assert.assertEquals(Arrays.asList("E"), batch.sent.get(2));
+        for (String k : new String[]{ "A", "B", "C", "D", "E" }) assertResult(res, k, "v" + k);
+    }
+
+    public void testCancel() throws Exception {
+        final TestBatch batch = new TestBatch(10);
+        Results res = new BatchTask() {
+            int start() {
+                IToken a1 = res.request(batch, "A");
+                final IToken a2 = res.request(batch, "A");
+                res.request(batch, "A");
+                IToken b = res.request(batch, "B");
+                res.request(batch, "C");
+                final IToken d = res.request(batch, "D");
+                // Canceling one of requests for a key does not affect other requests
+                Assert.assertTrue(a2.cancel());
+                Assert.assertFalse(a2.cancel());
+                Assert.assertTrue(a1.cancel());
+                // Key is not sent if all its requests are canceled
+                Assert.assertTrue(b.cancel());
+                Protocol.invokeLater(new Runnable() {
+                    public void run() {
+                        // Request cannot be canceled after it is sent
+                        if (d.cancel()) error(new Exception("Request is canceled after it was sent"));
+                    }
+                });
+                return 3;
+            }
+        }.get();
+        Assert.assertEquals(1, batch.sent.size());
+        Assert.assertEquals(Arrays.asList("A", "C", "D"), batch.sent.get(0));
+        Assert.assertEquals(3, res.cnt);
+        assertResult(res, "A", "vA");
+        Assert.assertNull(res.map.get("B"));
+        // All requests canceled: nothing is sent
+        new BatchTask() {
+            int start() {
+                res.request(batch, "A").cancel();
+                res.request(batch, "B").cancel();
+                return 0;
+            }
+        }.get();
+        Assert.assertEquals(1, batch.sent.size());
+    }
+
+    public void testErrorFallback() throws Exception {
+        final TestBatch batch = new TestBatch(10);
+        batch.batch_error = IErrorReport.TCF_ERROR_OTHER;
+        batch.bad_key = "B";
+        batch.item_error = new ErrorReport("Bad item", IErrorReport.TCF_ERROR_INV_CONTEXT);
+        Results res = new BatchTask() {
+            int start() {
+                for (String k : new String[]{ "A", "B", "C", "B" }) res.request(batch, k);
+                return 4;
+            }
+        }.get();
+        // Failed batch is sent again item by item, error of one item does not fail others
+        Assert.assertEquals(4, batch.sent.size());
+        Assert.assertEquals(Arrays.asList("A", "B", "C"), batch.sent.get(0));
+        Assert.assertEquals(Arrays.asList("A"), batch.sent.get(1));
+        Assert.assertEquals(Arrays.asList("B"), batch.sent.get(2));
+        Assert.assertEquals(Arrays.asList("C"), batch.sent.get(3));
+        assertResult(res, "A", "vA");
+        assertResult(res, "B", batch.item_error, batch.item_error);
+        assertResult(res, "C", "vC");
+        // Batch commands are still used after an item error
+        batch.batch_error = 0;
+        new BatchTask() {
+            int start() {
+                res.request(batch, "A");
+                res.request(batch, "C");
+                return 2;
+            }
+        }.get();
+        Assert.assertEquals(Arrays.asList("A", "C"), batch.sent.get(4));
+    }
+
+    public void testUnsupported() throws Exception {
+        final TestBatch batch = new TestBatch(10);
+        batch.batch_error = IErrorReport.TCF_ERROR_INV_COMMAND;
+        Results res = new BatchTask() {
+            int start() {
+                res.request(batch, "A");
+                res.request(batch, "B");
+                return 2;
+            }
+        }.get();
+        Assert.assertEquals(3, batch.sent.size());
+        assertResult(res, "A", "vA");
+        assertResult(res, "B", "vB");
+        // The batch remembers that the command is not supported and sends items one by one
+        res = new BatchTask() {
+            int start() {
+                res.request(batch, "C");
+                res.request(batch, "D");
+                return 2;
+            }
+        }.get();
+        Assert.assertEquals(5, batch.sent.size());
+        Assert.assertEquals(Arrays.asList("C"), batch.sent.get(3));
+        Assert.assertEquals(Arrays.asList("D"), batch.sent.get(4));
+        assertResult(res, "C", "vC");
+        assertResult(res, "D", "vD");
+    }
+
+    public void testChannelError() throws Exception {
+        final TestBatch batch = new TestBatch(10);
+        batch.batch_error = IErrorReport.TCF_ERROR_CHANNEL_CLOSED;
+        Results res = new BatchTask() {
+            int start() {
+                for (String k : new String[]{ "A", "B", "A" }) res.request(batch, k);
+                return 3;
+            }
+        }.get();
+        // Channel errors are not caused by particular items, the items are not sent again
+        Assert.assertEquals(1, batch.sent.size());
+        Assert.assertEquals(2, res.map.get("A").size());
+        Assert.assertEquals(1, res.map.get("B").size());
+        for (List<Object> l : res.map.values()) {
+            for (Object o : l) {
+                Assert.assertTrue(o instanceof IErrorReport);
+                Assert.assertEquals(IErrorReport.TCF_ERROR_CHANNEL_CLOSED, ((IErrorReport)o).getErrorCode());
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.RingEventQueue;
+
+/**
+ * Tests of RingEventQueue with multiple producer threads.
+ * The tests use their own queue instances, not the TCF event queue.
+ */
+public class RingEventQueueTests extends TestCase {
+
+    private static final int PRODUCERS = 4;
+    private static final int EVENTS = 100000;
+
+    /** Events of each producer must be dispatched in order */
+    private static class Checker {
+        final int[] next = new int[PRODUCERS];
+        final List<String> errors = new ArrayList<String>();
+        Thread thread;
+
+        Runnable event(final int producer, final int seq) {
+            return new Runnable() {
+                public void run() {
+                    if (thread == null) thread = Thread.currentThread();
+                    if (thread != Thread.currentThread()) errors.add("Event dispatched by other thread");
+                    if (next[producer] != seq) errors.add("Producer " + producer + ": expected " + next[producer] + ", got " + seq);
+                    next[producer] = seq + 1;
+                }
+            };
+        }
+    }
+
+    private static Thread[] startProducers(final RingEventQueue queue, final Checker checker,
+            final AtomicInteger[] accepted) {
+        Thread[] threads = new Thread[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; i++) {
+            final int producer = i;
+            accepted[i] = new AtomicInteger();
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int n = 0; n < EVENTS; n++) {
+                            queue.invokeLater(checker.event(producer, n));
+                            accepted[producer].incrementAndGet();
+                            if (n % 1000 == 0) Thread.yield();
+                        }
+                    }
+                    catch (IllegalStateException x) {
+                        // The queue is shut down
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        return threads;
+    }
+
+    public void testProducers() throws Exception {
+        RingEventQueue queue = new RingEventQueue("Test Event Queue");
+        queue.start();
+        Checker checker = new Checker();
+        AtomicInteger[] accepted = new AtomicInteger[PRODUCERS];
+        for (Thread t : startProducers(queue, checker, accepted)) t.join();
+        queue.shutdown();
+        Assert.assertEquals(new ArrayList<String>(), checker.errors);
+        for (int i = 0; i < PRODUCERS; i++) {
+            Assert.assertEquals(EVENTS, accepted[i].get());
+            Assert.assertEquals(EVENTS, checker.next[i]);
+        }
+        Assert.assertEquals(PRODUCERS * EVENTS, queue.getDispatchedCount());
+        Assert.assertEquals(0, queue.getQueueDepth());
+    }
+
+    public void testShutdownDrainsQueue() throws Exception {
+        RingEventQueue queue = new RingEventQueue("Test Event Queue");
+        Checker checker = new Checker();
+        // Events queued before the dispatch thread is started
+        for (int n = 0; n < EVENTS; n++) queue.invokeLater(checker.event(0, n));
+        Assert.assertEquals(EVENTS, queue.getQueueDepth());
+        queue.start();
+        queue.shutdown();
+        Assert.assertEquals(new ArrayList<String>(), checker.errors);
+        Assert.assertEquals(EVENTS, checker.next[0]);
+        Assert.assertEquals(EVENTS, queue.getDispatchedCount());
+        Assert.assertTrue(queue.getMaxQueueDepth() > 0);
+        try {
+            queue.invokeLater(checker.event(0, EVENTS));
+            Assert.fail("Expected an IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+
+    public void testShutdownWithProducers() throws Exception {
+        RingEventQueue queue = new RingEventQueue("Test Event Queue");
+        queue.start();
+        Checker checker = new Checker();
+        AtomicInteger[] accepted = new AtomicInteger[PRODUCERS];
+        Thread[] threads = startProducers(queue, checker, accepted);
+        while (accepted[0].get() < EVENTS / 10) Thread.yield();
+        queue.shutdown();
+        for (Thread t : threads) t.join();
+        // Every event that was accepted by invokeLater() is dispatched before the dispatch thread exits
+        Assert.assertEquals(new ArrayList<String>(), checker.errors);
+        long total = 0;
+        for (int i = 0; i < PRODUCERS; i++) {
+            Assert.assertEquals(accepted[i].get(), checker.next[i]);
+            total += accepted[i].get();
+        }
+        Assert.assertEquals(total, queue.getDispatchedCount());
+    }
+
+    public void testExceptions() throws Exception {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        RingEventQueue queue = new RingEventQueue("Test Event Queue") {
+            @Override
+            protected void handleException(Throwable x) {
+                errors.add(x);
+            }
+        };
+        Checker checker = new Checker();
+        queue.start();
+        for (int n = 0; n < 100; n++) {
+            if (n % 10 == 0) {
+                queue.invokeLater(new Runnable() {
+                    public void run() {
+                        throw new IllegalArgumentException();
+                    }
+                });
+            }
+            queue.invokeLater(checker.event(0, n));
+        }
+        queue.shutdown();
+        Assert.assertEquals(100, checker.next[0]);
+        Assert.assertEquals(10, errors.size());
+        for (Throwable x : errors) Assert.assertTrue(x instanceof IllegalArgumentException);
+    }
+
+    public void testDispatchThread() throws Exception {
+        final RingEventQueue queue = new RingEventQueue("Test Event Queue");
+        final boolean[] res = new boolean[1];
+        queue.start();
+        Assert.assertFalse(queue.isDispatchThread());
+        queue.invokeLater(new Runnable() {
+            public void run() {
+                res[0] = queue.isDispatchThread();
+            }
+        });
+        queue.shutdown();
+        Assert.assertTrue(res[0]);
+    }
+}
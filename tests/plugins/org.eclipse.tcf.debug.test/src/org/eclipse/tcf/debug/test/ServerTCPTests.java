@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.ChannelNIO;
+import org.eclipse.tcf.core.ChannelTCP;
+import org.eclipse.tcf.core.ServerTCP;
+import org.eclipse.tcf.core.TransientPeer;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.services.IDiagnostics;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of ServerTCP in both accept modes: blocking server socket with ChannelTCP,
+ * and non-blocking server socket channel with ChannelNIO.
+ */
+public class ServerTCPTests extends TestCase {
+
+    private static final long TIMEOUT = 30000;
+
+    private static final String HELLO = "E\0Locator\0Hello\0[\"Locator\",\"Diagnostics\"]\0\3\1";
+
+    private ServerTCP fServer;
+    private Protocol.ChannelOpenListener fOpenListener;
+    private final List<Socket> fClients = new ArrayList<Socket>();
+
+    /* Channels created by the server, and number of them that are open now, accessed on the dispatch thread */
+    private final List<IChannel> fChannels = new ArrayList<IChannel>();
+    private int fOpenCnt;
+    private int fMaxOpenCnt;
+
+    private void createServer(final boolean nio) throws Exception {
+        fServer = new TCFTask<ServerTCP>(TIMEOUT) {
+            public void run() {
+                try {
+                    fOpenListener = new Protocol.ChannelOpenListener() {
+                        public void onChannelOpen(IChannel channel) {
+                            // Remote peers of server channels are transient
+                            if (!channel.getRemotePeer().getID().startsWith("TCP:Transient:")) return;
+                            fChannels.add(channel);
+                            fMaxOpenCnt = Math.max(fMaxOpenCnt, ++fOpenCnt);
+                            channel.addChannelListener(new IChannel.IChannelListener() {
+                                public void onChannelOpened() {
+                                }
+                                public void onChannelClosed(Throwable error) {
+                                    fOpenCnt--;
+                                }
+                                public void congestionLevel(int level) {
+                                }
+                            });
+                        }
+                    };
+                    Protocol.addChannelOpenListener(fOpenListener);
+                    done(new ServerTCP("TCF Test Server", 0, nio));
+                }
+                catch (Throwable x) {
+                    error(x);
+                }
+            }
+        }.get();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        for (Socket s : fClients) s.close();
+        fClients.clear();
+        if (fServer == null) return;
+        waitConnectionCount(0);
+        new TCFTask<Object>(TIMEOUT) {
+            public void run() {
+                try {
+                    Protocol.removeChannelOpenListener(fOpenListener);
+                    fServer.close();
+                    done(this);
+                }
+                catch (Throwable x) {
+                    error(x);
+                }
+            }
+        }.get();
+        fServer = null;
+    }
+
+    private int getChannelCount() throws Exception {
+        return new TCFTask<Integer>(TIMEOUT) {
+            public void run() {
+                done(fChannels.size());
+            }
+        }.get();
+    }
+
+    private void waitChannelCount(int cnt) throws Exception {
+        long time = System.currentTimeMillis() + TIMEOUT;
+        while (getChannelCount() != cnt) {
+            Assert.assertTrue("Timeout waiting for " + cnt + " channels", System.currentTimeMillis() < time);
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitConnectionCount(int cnt) throws Exception {
+        long time = System.currentTimeMillis() + TIMEOUT;
+        while (fServer.getConnectionCount() != cnt) {
+            Assert.assertTrue("Timeout waiting for " + cnt + " connections", System.currentTimeMillis() < time);
+            Thread.sleep(10);
+        }
+    }
+
+    /* Connect raw sockets to the server, the sockets send Hello and read nothing */
+    private void connect(int cnt, boolean hello) throws Exception {
+        for (int i = 0; i < cnt; i++) {
+            Socket s = new Socket();
+            fClients.add(s);
+            s.connect(new InetSocketAddress("127.0.0.1", fServer.getLocalPort()));
+            if (hello) s.getOutputStream().write(HELLO.getBytes("UTF-8"));
+        }
+    }
+
+    /* A socket is accepted when it receives Hello of the server channel */
+    private List<Socket> getAccepted() throws Exception {
+        List<Socket> list = new ArrayList<Socket>();
+        for (Socket s : fClients) {
+            if (s.getInputStream().available() > 0) list.add(s);
+        }
+        return list;
+    }
+
+    private void checkServer(final boolean nio) throws Exception {
+        createServer(nio);
+        Assert.assertTrue(fServer.isBound());
+        Assert.assertTrue(fServer.getLocalPort() > 0);
+        Assert.assertEquals(fServer.getLocalPort(), ((InetSocketAddress)fServer.getLocalSocketAddress()).getPort());
+        if (nio) Assert.assertEquals(fServer.getLocalPort(), fServer.getChannel().socket().getLocalPort());
+        final int port = fServer.getLocalPort();
+        new TCFTask<Object>(TIMEOUT) {
+            IChannel channel;
+            public void run() {
+                Map<String,String> attrs = new HashMap<String,String>();
+                attrs.put(IPeer.ATTR_ID, "TCP:Test");
+                attrs.put(IPeer.ATTR_NAME, "TCP:Test");
+                attrs.put(IPeer.ATTR_TRANSPORT_NAME, "TCP");
+                channel = new ChannelTCP(new TransientPeer(attrs), "127.0.0.1", port);
+                channel.addChannelListener(new IChannel.IChannelListener() {
+                    public void onChannelOpened() {
+                        sendEcho();
+                    }
+                    public void onChannelClosed(Throwable error) {
+                        if (error != null) error(error);
+                        else done(this);
+                    }
+                    public void congestionLevel(int level) {
+                    }
+                });
+            }
+            void sendEcho() {
+                IDiagnostics diag = channel.getRemoteService(IDiagnostics.class);
+                diag.echo("test", new IDiagnostics.DoneEcho() {
+                    public void doneEcho(IToken token, Throwable error, String s) {
+                        if (error != null) {
+                            error(error);
+                        }
+                        else if (!"test".equals(s)) {
+                            error(new Exception("Invalid echo reply"));
+                        }
+                        else if (fChannels.size() != 1) {
+                            error(new Exception("Invalid number of server channels: " + fChannels.size()));
+                        }
+                        else if (nio != fChannels.get(0) instanceof ChannelNIO) {
+                            error(new Exception("Invalid server channel class: " + fChannels.get(0).getClass()));
+                        }
+                        else {
+                            channel.close();
+                        }
+                    }
+                });
+            }
+        }.get();
+        waitConnectionCount(0);
+    }
+
+    public void testBlockingServer() throws Exception {
+        checkServer(false);
+    }
+
+    public void testNIOServer() throws Exception {
+        checkServer(true);
+    }
+
+    /**
+     * Connect more clients than the server admits: the extra connections must wait in the listen backlog
+     * until some of the accepted connections are closed.
+     */
+    private void checkMaxConnections(boolean nio) throws Exception {
+        final int max = 4;
+        createServer(nio);
+        fServer.setConnectionRate(0);
+        fServer.setMaxConnections(max);
+        connect(max * 2, true);
+        waitChannelCount(max);
+        Thread.sleep(300);
+        Assert.assertEquals(max, getChannelCount());
+        Assert.assertEquals(max, fServer.getConnectionCount());
+        List<Socket> accepted = getAccepted();
+        long time = System.currentTimeMillis() + TIMEOUT;
+        while (accepted.size() < max) {
+            Assert.assertTrue("Timeout waiting for server Hello", System.currentTimeMillis() < time);
+            Thread.sleep(10);
+            accepted = getAccepted();
+        }
+        Assert.assertEquals(max, accepted.size());
+        // Closing accepted connections admits more of the waiting ones
+        accepted.get(0).close();
+        accepted.get(1).close();
+        waitChannelCount(max + 2);
+        waitConnectionCount(max);
+        int max_open = new TCFTask<Integer>(TIMEOUT) {
+            public void run() {
+                done(fMaxOpenCnt);
+            }
+        }.get();
+        Assert.assertEquals(max, max_open);
+    }
+
+    public void testMaxConnectionsBlocking() throws Exception {
+        checkMaxConnections(false);
+    }
+
+    public void testMaxConnectionsNIO() throws Exception {
+        checkMaxConnections(true);
+    }
+
+    /**
+     * Connect a burst of clients: after the first second worth of connections,
+     * the server must accept no more than the rate limit.
+     */
+    private void checkConnectionRate(boolean nio) throws Exception {
+        final int rate = 10;
+        final int cnt = 30;
+        createServer(nio);
+        fServer.setMaxConnections(0);
+        fServer.setConnectionRate(rate);
+        long time = System.currentTimeMillis();
+        connect(cnt, false);
+        Thread.sleep(300);
+        // The bucket holds one second worth of connections, the blocking server might have taken one more
+        int n = fServer.getConnectionCount();
+        Assert.assertTrue("Too many connections accepted: " + n, n <= rate + 1 + rate / 2);
+        waitConnectionCount(cnt);
+        time = System.currentTimeMillis() - time;
+        Assert.assertTrue("Connections accepted too fast: " + time + " ms",
+                time >= (cnt - rate - 1) * 1000 / rate * 3 / 4);
+    }
+
+    public void testConnectionRateBlocking() throws Exception {
+        checkConnectionRate(false);
+    }
+
+    public void testConnectionRateNIO() throws Exception {
+        checkConnectionRate(true);
+    }
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.core.StreamChannel;
+import org.eclipse.tcf.core.TransientPeer;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests that encode data blocks with StreamChannel framing and decode them back:
+ * escaped bytes, zero-copy blocks and compressed blocks.
+ */
+public class StreamChannelFramingTests extends TestCase {
+
+    private static final int ESC = StreamChannel.ESC;
+
+    /**
+     * A channel that writes into a byte array and reads from a byte array.
+     * The channel is never started, the tests call its framing methods directly.
+     */
+    private static class TestChannel extends StreamChannel {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] inp = new byte[0];
+        int inp_pos;
+        boolean zero_copy;
+        boolean compression;
+
+        TestChannel(IPeer peer) {
+            super(peer);
+        }
+
+        @Override
+        public boolean isZeroCopySupported() {
+            return zero_copy;
+        }
+
+        @Override
+        public boolean isCompressionSupported() {
+            return compression;
+        }
+
+        @Override
+        protected int get() throws IOException {
+            if (inp_pos >= inp.length) return -1;
+            return inp[inp_pos++] & 0xff;
+        }
+
+        @Override
+        protected void put(int n) throws IOException {
+            out.write(n);
+        }
+
+        @Override
+        protected void put(byte[] buf, int offs, int size) throws IOException {
+            out.write(buf, offs, size);
+        }
+
+        @Override
+        protected void flush() throws IOException {
+        }
+
+        @Override
+        protected void stop() throws IOException {
+        }
+
+        /* Encode a message that consists of given data blocks */
+        byte[] encode(byte[]... blocks) throws IOException {
+            out.reset();
+            for (byte[] b : blocks) write(b, 0, b.length);
+            write(EOM);
+            return out.toByteArray();
+        }
+
+        /* Decode next message, returns null at end of stream */
+        byte[] decode() throws IOException {
+            ByteArrayOutputStream bf = new ByteArrayOutputStream();
+            for (;;) {
+                int n = read();
+                if (n == EOS) return null;
+                if (n == EOM) return bf.toByteArray();
+                Assert.assertTrue(n >= 0 && n <= 0xff);
+                bf.write(n);
+            }
+        }
+    }
+
+    private TestChannel createChannel() throws Exception {
+        return new TCFTask<TestChannel>() {
+            public void run() {
+                Map<String,String> attrs = new HashMap<String,String>();
+                attrs.put(IPeer.ATTR_ID, "Framing");
+                done(new TestChannel(new TransientPeer(attrs)));
+            }
+        }.get();
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] compressibleBytes(int size) {
+        byte[] b = new byte[size];
+        for (int i = 0; i < size; i++) b[i] = (byte)(i % 7 == 0 ? ESC : i % 13);
+        return b;
+    }
+
+    private static byte[] concat(byte[]... blocks) {
+        ByteArrayOutputStream bf = new ByteArrayOutputStream();
+        for (byte[] b : blocks) bf.write(b, 0, b.length);
+        return bf.toByteArray();
+    }
+
+    private static int count(byte[] buf, int b0, int b1) {
+        int n = 0;
+        for (int i = 0; i + 1 < buf.length; i++) {
+            if ((buf[i] & 0xff) == b0 && (buf[i + 1] & 0xff) == b1) n++;
+        }
+        return n;
+    }
+
+    private void assertRoundTrip(TestChannel c, byte[]... blocks) throws IOException {
+        byte[] msg = c.encode(blocks);
+        c.inp = msg;
+        c.inp_pos = 0;
+        Assert.assertTrue(Arrays.equals(concat(blocks), c.decode()));
+        Assert.assertNull(c.decode());
+    }
+
+    public void testEscape() throws Exception {
+        TestChannel c = createChannel();
+        byte[] data = { 1, ESC, 0, ESC, ESC, 2, (byte)0xff, 0 };
+        byte[] msg = c.encode(data);
+        // Each ESC is sent as ESC 0, and the message ends with ESC 1
+        Assert.assertEquals(data.length + 3 + 2, msg.length);
+        Assert.assertEquals(3, count(msg, ESC, 0));
+        assertRoundTrip(c, data);
+        // Large blocks are escaped too if zero-copy is not negotiated
+        byte[] big = randomBytes(1000, 1);
+        msg = c.encode(big);
+        Assert.assertEquals(0, count(msg, ESC, 3));
+        assertRoundTrip(c, big);
+    }
+
+    public void testZeroCopy() throws Exception {
+        TestChannel c = createChannel();
+        c.zero_copy = true;
+        byte[] data = randomBytes(300, 2);
+        data[0] = ESC;
+        data[299] = ESC;
+        byte[] msg = c.encode(data);
+        // ESC 3, size as 2 byte varint, raw data, ESC 1
+        Assert.assertEquals(ESC, msg[0]);
+        Assert.assertEquals(3, msg[1]);
+        Assert.assertEquals((300 & 0x7f) | 0x80, msg[2] & 0xff);
+        Assert.assertEquals(300 >> 7, msg[3] & 0xff);
+        Assert.assertEquals(4 + 300 + 2, msg.length);
+        assertRoundTrip(c, data);
+        // Small blocks are escaped
+        byte[] small = { ESC, 1, 2 };
+        msg = c.encode(small);
+        Assert.assertEquals(0, count(msg, ESC, 3));
+        assertRoundTrip(c, small);
+        // Zero-copy blocks mixed with escaped blocks in one message
+        assertRoundTrip(c, small, data, small, randomBytes(33, 3));
+    }
+
+    public void testDeflate() throws Exception {
+        TestChannel c = createChannel();
+        c.compression = true;
+        c.zero_copy = true;
+        byte[] data = compressibleBytes(0x4000);
+        byte[] msg = c.encode(data);
+        Assert.assertEquals(ESC, msg[0]);
+        Assert.assertEquals(4, msg[1]);
+        Assert.assertTrue(msg.length < data.length / 4);
+        assertRoundTrip(c, data);
+        // Blocks below the threshold are not compressed
+        byte[] small = compressibleBytes(StreamChannel.COMPRESSION_THRESHOLD - 1);
+        msg = c.encode(small);
+        Assert.assertEquals(ESC, msg[0]);
+        Assert.assertEquals(3, msg[1]);
+        assertRoundTrip(c, small);
+        // Data that does not compress is sent as zero-copy block
+        byte[] rnd = randomBytes(0x1000, 4);
+        msg = c.encode(rnd);
+        Assert.assertEquals(ESC, msg[0]);
+        Assert.assertEquals(3, msg[1]);
+        assertRoundTrip(c, rnd);
+        // Compressed blocks mixed with other blocks, several messages in a stream
+        byte[] m1 = c.encode(small, data, rnd);
+        byte[] m2 = c.encode(data, data);
+        c.inp = concat(m1, m2);
+        c.inp_pos = 0;
+        Assert.assertTrue(Arrays.equals(concat(small, data, rnd), c.decode()));
+        Assert.assertTrue(Arrays.equals(concat(data, data), c.decode()));
+        Assert.assertNull(c.decode());
+    }
+
+    private static void writeSize(ByteArrayOutputStream bf, int n) {
+        while (n > 0x7f) {
+            bf.write((n & 0x7f) | 0x80);
+            n >>= 7;
+        }
+        bf.write(n);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater d = new Deflater();
+        d.setInput(data);
+        d.finish();
+        byte[] buf = new byte[data.length + 64];
+        int n = d.deflate(buf);
+        d.end();
+        return Arrays.copyOf(buf, n);
+    }
+
+    private void assertInvalidBlock(int size, byte[] zdata) throws Exception {
+        TestChannel c = createChannel();
+        ByteArrayOutputStream bf = new ByteArrayOutputStream();
+        bf.write(ESC);
+        bf.write(4);
+        writeSize(bf, size);
+        writeSize(bf, zdata.length);
+        bf.write(zdata, 0, zdata.length);
+        bf.write(ESC);
+        bf.write(1);
+        c.inp = bf.toByteArray();
+        try {
+            c.decode();
+            Assert.fail("Expected an IOException");
+        }
+        catch (IOException e) {
+        }
+    }
+
+    public void testBadCompressedSize() throws Exception {
+        byte[] data = compressibleBytes(0x1000);
+        byte[] zdata = deflate(data);
+        // Valid block is accepted
+        TestChannel c = createChannel();
+        ByteArrayOutputStream bf = new ByteArrayOutputStream();
+        bf.write(ESC);
+        bf.write(4);
+        writeSize(bf, data.length);
+        writeSize(bf, zdata.length);
+        bf.write(zdata, 0, zdata.length);
+        bf.write(ESC);
+        bf.write(1);
+        c.inp = bf.toByteArray();
+        Assert.assertTrue(Arrays.equals(data, c.decode()));
+        // Uncompressed size over the limit
+        assertInvalidBlock(StreamChannel.COMPRESSION_MAX_SIZE + 1, zdata);
+        // Compressed size larger than uncompressed size
+        assertInvalidBlock(zdata.length - 1, zdata);
+        // Uncompressed size does not match the data
+        assertInvalidBlock(data.length + 1, zdata);
+        assertInvalidBlock(data.length - 1, zdata);
+        // Corrupted data
+        byte[] bad = zdata.clone();
+        for (int i = 2; i < bad.length; i += 3) bad[i] ^= 0x5a;
+        assertInvalidBlock(data.length, bad);
+    }
+}
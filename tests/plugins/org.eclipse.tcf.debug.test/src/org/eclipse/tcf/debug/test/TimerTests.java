@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.eclipse.tcf.protocol.IToken;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * Tests of delayed events, see Protocol.invokeLater(long, TimeUnit, Runnable).
+ * Delays are chosen to cross level boundaries of the timer wheel, which has 256 slots of 1ms at level 0.
+ */
+public class TimerTests extends TestCase {
+
+    private static final long TIMEOUT = 10000;
+
+    /* Delays in milliseconds, in random order */
+    private static final long[] DELAYS = {
+        257, 1, 512, 100, 255, 3, 513, 700, 256, 511, 20, 768, 300, 254, 1000, 767, 2, 769, 258, 510,
+    };
+
+    /** Timer event that records when it was dispatched */
+    private static class Event implements Runnable {
+        final long delay;
+        final long time = System.nanoTime();
+        long fired;
+        int cnt;
+        final List<Event> log;
+
+        Event(long delay, List<Event> log) {
+            this.delay = delay;
+            this.log = log;
+        }
+
+        public void run() {
+            Assert.assertTrue(Protocol.isDispatchThread());
+            fired = System.nanoTime();
+            cnt++;
+            log.add(this);
+        }
+    }
+
+    /* Elapsed time can be up to 1 tick less than the delay, since ticks are counted in whole milliseconds */
+    private static void assertNotEarly(Event e) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(e.fired - e.time);
+        Assert.assertTrue("Timer of " + e.delay + "ms fired after " + ms + "ms", ms >= e.delay - 1);
+    }
+
+    public void testDelays() throws Exception {
+        final List<Event> log = new ArrayList<Event>();
+        new TCFTask<List<Event>>(TIMEOUT) {
+            public void run() {
+                for (long d : DELAYS) Protocol.invokeLater(d, TimeUnit.MILLISECONDS, new Event(d, log));
+                Protocol.invokeLater(1100, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        done(log);
+                    }
+                });
+            }
+        }.get();
+        Assert.assertEquals(DELAYS.length, log.size());
+        long prev = 0;
+        for (Event e : log) {
+            Assert.assertEquals(1, e.cnt);
+            assertNotEarly(e);
+            // Timers are added in different ticks, order of delays that differ by 1ms can change
+            Assert.assertTrue(e.delay + 1 >= prev);
+            prev = e.delay;
+        }
+    }
+
+    public void testTimeUnits() throws Exception {
+        final List<Event> log = new ArrayList<Event>();
+        new TCFTask<List<Event>>(TIMEOUT) {
+            public void run() {
+                Protocol.invokeLater(300, TimeUnit.MICROSECONDS, new Event(1, log));
+                Protocol.invokeLater(50000, TimeUnit.MICROSECONDS, new Event(50, log));
+                Protocol.invokeLater(270000000, TimeUnit.NANOSECONDS, new Event(270, log));
+                Protocol.invokeLater(300, new Event(300, log));
+                Protocol.invokeLater(400, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        done(log);
+                    }
+                });
+            }
+        }.get();
+        Assert.assertEquals(4, log.size());
+        for (int i = 0; i < log.size(); i++) {
+            Event e = log.get(i);
+            if (i > 0) Assert.assertTrue(e.delay > log.get(i - 1).delay);
+            assertNotEarly(e);
+        }
+    }
+
+    public void testCancel() throws Exception {
+        final List<Event> log = new ArrayList<Event>();
+        new TCFTask<List<Event>>(TIMEOUT) {
+            public void run() {
+                final List<IToken> tokens = new ArrayList<IToken>();
+                final List<Event> events = new ArrayList<Event>();
+                for (long d : DELAYS) {
+                    Event e = new Event(d, log);
+                    tokens.add(Protocol.invokeLater(d, TimeUnit.MILLISECONDS, e));
+                    events.add(e);
+                }
+                // Cancel a quarter of timers right away, and another quarter after some of them are dispatched
+                for (int i = 0; i < tokens.size(); i += 4) {
+                    Assert.assertTrue(tokens.get(i).cancel());
+                    Assert.assertFalse(tokens.get(i).cancel());
+                }
+                Protocol.invokeLater(200, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i = 2; i < tokens.size(); i += 4) {
+                                Event e = events.get(i);
+                                Assert.assertEquals(e.cnt == 0, tokens.get(i).cancel());
+                                if (e.cnt == 0) events.set(i, null);
+                            }
+                        }
+                        catch (Throwable x) {
+                            error(x);
+                        }
+                    }
+                });
+                Protocol.invokeLater(1100, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < tokens.size(); i++) {
+                                Event e = events.get(i);
+                                if (i % 4 == 0) {
+                                    Assert.assertEquals(0, e.cnt);
+                                }
+                                else if (e != null) {
+                                    // Timer that was dispatched cannot be canceled
+                                    Assert.assertEquals(1, e.cnt);
+                                    Assert.assertFalse(tokens.get(i).cancel());
+                                    log.remove(e);
+                                }
+                            }
+                            done(log);
+                        }
+                        catch (Throwable x) {
+                            error(x);
+                        }
+                    }
+                });
+            }
+        }.get();
+        // Timers that were not canceled are removed from the log above, canceled ones must not be in it
+        Assert.assertEquals(0, log.size());
+    }
+
+    public void testCancelPosted() throws Exception {
+        final List<Event> log = new ArrayList<Event>();
+        new TCFTask<List<Event>>(TIMEOUT) {
+            public void run() {
+                // Timer that expires while the dispatch thread is busy is already in the event queue
+                IToken t0 = Protocol.invokeLater(1, TimeUnit.MILLISECONDS, new Event(1, log));
+                IToken t1 = Protocol.invokeLater(0, TimeUnit.MILLISECONDS, new Event(0, log));
+                long time = System.currentTimeMillis() + 50;
+                while (System.currentTimeMillis() < time) Thread.yield();
+                Assert.assertTrue(t0.cancel());
+                Assert.assertTrue(t1.cancel());
+                Protocol.invokeLater(100, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        done(log);
+                    }
+                });
+            }
+        }.get();
+        Assert.assertEquals(0, log.size());
+    }
+
+    public void testCancelFromOtherThread() throws Exception {
+        final List<Event> log = new ArrayList<Event>();
+        final IToken[] tokens = new IToken[DELAYS.length];
+        for (int i = 0; i < DELAYS.length; i++) {
+            tokens[i] = Protocol.invokeLater(DELAYS[i], TimeUnit.MILLISECONDS, new Event(DELAYS[i], log));
+        }
+        for (IToken t : tokens) Assert.assertTrue(t.cancel());
+        Assert.assertEquals(0, new TCFTask<List<Event>>(TIMEOUT) {
+            public void run() {
+                Protocol.invokeLater(1100, TimeUnit.MILLISECONDS, new Runnable() {
+                    public void run() {
+                        done(log);
+                    }
+                });
+            }
+        }.get().size());
+    }
+}
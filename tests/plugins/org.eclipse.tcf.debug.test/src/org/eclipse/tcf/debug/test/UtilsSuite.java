@@ -23,6 +23,20 @@ public class UtilsSuite extends TestSuite {
         addTest(new TestSuite(TransactionTests.class));
         addTest(new TestSuite(QueryTests.class));
         addTest(new TestSuite(RangeCacheTests.class));
+        addTest(new TestSuite(StreamChannelFramingTests.class));
+        addTest(new TestSuite(ChannelNegotiationTests.class));
+        addTest(new TestSuite(JSONParserTests.class));
+        addTest(new TestSuite(TimerTests.class));
+        addTest(new TestSuite(RingEventQueueTests.class));
+        addTest(new TestSuite(CacheRegistryTests.class));
+        addTest(new TestSuite(RequestBatchTests.class));
+        addTest(new TestSuite(MemoryCacheTests.class));
+        addTest(new TestSuite(FutureTests.class));
+        addTest(new TestSuite(ChannelNIOTests.class));
+        addTest(new TestSuite(ChannelMuxTests.class));
+        addTest(new TestSuite(ChannelSHMTests.class));
+        addTest(new TestSuite(ServerTCPTests.class));
+        addTest(new TestSuite(MessageBufferTests.class));
     }
 
     /**
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Wind River Systems, Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Wind River Systems - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tcf.debug.test.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.tcf.core.StreamChannel;
+import org.eclipse.tcf.core.TransientPeer;
+import org.eclipse.tcf.protocol.IChannel;
+import org.eclipse.tcf.protocol.IPeer;
+import org.eclipse.tcf.protocol.Protocol;
+import org.eclipse.tcf.util.TCFTask;
+
+/**
+ * A channel that is connected to another LoopbackChannel in same process by in-memory pipes.
+ * Used by tests to run both ends of a TCF connection without a network or a remote agent.
+ */
+public class LoopbackChannel extends StreamChannel {
+
+    /**
+     * Blocking byte pipe with a fixed size ring buffer.
+     */
+    public static class Pipe {
+
+        private final byte[] buf = new byte[0x1000];
+        private int buf_inp;
+        private int buf_out;
+        private boolean closed;
+
+        public synchronized int get() throws IOException {
+            try {
+                while (buf_inp == buf_out) {
+                    if (closed) return -1;
+                    wait();
+                }
+                int b = buf[buf_out] & 0xff;
+                buf_out = (buf_out + 1) % buf.length;
+                notifyAll();
+                return b;
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        public synchronized int get(byte[] arr) throws IOException {
+            try {
+                while (buf_inp == buf_out) {
+                    if (closed) return -1;
+                    wait();
+                }
+                int n = 0;
+                while (n < arr.length && buf_out != buf_inp) {
+                    arr[n++] = buf[buf_out];
+                    buf_out = (buf_out + 1) % buf.length;
+                }
+                notifyAll();
+                return n;
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        public synchronized void put(int b) throws IOException {
+            try {
+                for (;;) {
+                    if (closed) return;
+                    int nxt_inp = (buf_inp + 1) % buf.length;
+                    if (nxt_inp != buf_out) {
+                        buf[buf_inp] = (byte)b;
+                        buf_inp = nxt_inp;
+                        break;
+                    }
+                    wait();
+                }
+                notifyAll();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    private final Pipe inp;
+    private final Pipe out;
+
+    public LoopbackChannel(IPeer remote_peer, Pipe inp, Pipe out) {
+        super(remote_peer);
+        this.inp = inp;
+        this.out = out;
+    }
+
+    /**
+     * Create two channels that are connected to each other.
+     * Must be called from the TCF dispatch thread.
+     * The channels are not started, see open().
+     * @return array of two channels.
+     */
+    public static LoopbackChannel[] createPair() {
+        assert Protocol.isDispatchThread();
+        Pipe p0 = new Pipe();
+        Pipe p1 = new Pipe();
+        return new LoopbackChannel[] {
+            new LoopbackChannel(createPeer("Loopback0"), p0, p1),
+            new LoopbackChannel(createPeer("Loopback1"), p1, p0),
+        };
+    }
+
+    /**
+     * Create two channels that are connected to each other, start them and wait until both are open.
+     * Must not be called from the TCF dispatch thread.
+     * @return array of two open channels.
+     */
+    public static LoopbackChannel[] openPair() throws InterruptedException, ExecutionException {
+        return new TCFTask<LoopbackChannel[]>() {
+            int cnt;
+            public void run() {
+                final LoopbackChannel[] pair = createPair();
+                for (LoopbackChannel c : pair) {
+                    c.addChannelListener(new IChannel.IChannelListener() {
+                        public void onChannelOpened() {
+                            if (++cnt == 2) done(pair);
+                        }
+                        public void onChannelClosed(Throwable error) {
+                            if (error != null) error(error);
+                        }
+                        public void congestionLevel(int level) {
+                        }
+                    });
+                }
+                for (LoopbackChannel c : pair) c.open();
+            }
+        }.get();
+    }
+
+    /**
+     * Close channels of a pair.
+     * Can be called from any thread.
+     * @param pair - the channels.
+     */
+    public static void closePair(final LoopbackChannel[] pair) {
+        Protocol.invokeLater(new Runnable() {
+            public void run() {
+                for (LoopbackChannel c : pair) c.close();
+            }
+        });
+    }
+
+    private static IPeer createPeer(String id) {
+        Map<String,String> attrs = new HashMap<String,String>();
+        attrs.put(IPeer.ATTR_ID, id);
+        attrs.put(IPeer.ATTR_NAME, id);
+        return new TransientPeer(attrs);
+    }
+
+    /**
+     * Start the channel: send Hello message and start receiving.
+     * Channel options, like compression, must be set before this call.
+     */
+    public void open() {
+        start();
+    }
+
+    @Override
+    protected int get() throws IOException {
+        return inp.get();
+    }
+
+    @Override
+    protected int get(byte[] buf) throws IOException {
+        return inp.get(buf);
+    }
+
+    @Override
+    protected void put(int n) throws IOException {
+        out.put(n);
+    }
+
+    @Override
+    protected void flush() throws IOException {
+    }
+
+    @Override
+    protected void stop() throws IOException {
+        out.close();
+        inp.close();
+    }
+}